@@ -0,0 +1,177 @@
+package com.techzhi.harbor.archive;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.techzhi.harbor.config.HarborProperties;
+import com.techzhi.harbor.exception.HarborException;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 镜像tar包的压缩格式
+ * 保存时按文件扩展名选择格式，加载时按魔数识别，解压在读取过程中流式进行，不落临时文件。
+ * zstd依赖可选的 com.github.luben:zstd-jni，未引入时只能处理未压缩和gzip格式
+ *
+ * @author techzhi
+ */
+public enum ArchiveCompression {
+
+    NONE(".tar"),
+    GZIP(".tar.gz"),
+    ZSTD(".tar.zst");
+
+    private static final int STREAM_BUFFER_SIZE = 256 * 1024;
+
+    private final String extension;
+
+    ArchiveCompression(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * 该格式的标准扩展名
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * 按文件名选择压缩格式：.tar.gz/.tgz 为gzip，.tar.zst/.tzst 为zstd，其余不压缩
+     */
+    public static ArchiveCompression fromFileName(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+            return GZIP;
+        }
+        if (name.endsWith(".tar.zst") || name.endsWith(".tzst")) {
+            return ZSTD;
+        }
+        return NONE;
+    }
+
+    /**
+     * 去掉文件名中的tar及压缩扩展名
+     */
+    public static String stripExtension(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        for (String suffix : new String[]{".tar.gz", ".tgz", ".tar.zst", ".tzst", ".tar"}) {
+            if (name.endsWith(suffix)) {
+                return fileName.substring(0, fileName.length() - suffix.length());
+            }
+        }
+        return fileName;
+    }
+
+    /**
+     * 按魔数识别压缩格式，不足4字节视为未压缩
+     */
+    public static ArchiveCompression detect(byte[] head, int length) {
+        if (length >= 2 && (head[0] & 0xff) == 0x1f && (head[1] & 0xff) == 0x8b) {
+            return GZIP;
+        }
+        if (length >= 4 && (head[0] & 0xff) == 0x28 && (head[1] & 0xff) == 0xb5
+                && (head[2] & 0xff) == 0x2f && (head[3] & 0xff) == 0xfd) {
+            return ZSTD;
+        }
+        return NONE;
+    }
+
+    /**
+     * 识别输入流的压缩格式，流需支持mark，读取位置不变
+     */
+    public static ArchiveCompression detect(InputStream in) throws IOException {
+        byte[] head = new byte[4];
+        in.mark(head.length);
+        int length = 0;
+        try {
+            int read;
+            while (length < head.length && (read = in.read(head, length, head.length - length)) != -1) {
+                length += read;
+            }
+        } finally {
+            in.reset();
+        }
+        return detect(head, length);
+    }
+
+    /**
+     * 按魔数识别格式并返回解压后的tar流
+     */
+    public static InputStream decompress(InputStream in) throws IOException {
+        InputStream source = in.markSupported() ? in : new BufferedInputStream(in, STREAM_BUFFER_SIZE);
+        return detect(source).decompressing(source);
+    }
+
+    /**
+     * 以本格式解压输入流
+     */
+    public InputStream decompressing(InputStream in) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPInputStream(in, STREAM_BUFFER_SIZE);
+            case ZSTD:
+                ensureZstdAvailable();
+                return Zstd.input(in);
+            default:
+                return in;
+        }
+    }
+
+    /**
+     * 以本格式压缩输出流，gzip与zstd均按 harbor.io.compression-threads 多线程压缩
+     */
+    public OutputStream compressing(OutputStream out, HarborProperties.Io io) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new ParallelGzipOutputStream(out, io.getGzipLevel(), io.getCompressionThreads(),
+                        io.getCompressionBlockSize());
+            case ZSTD:
+                ensureZstdAvailable();
+                return Zstd.output(out, io.getZstdLevel(), io.getCompressionThreads());
+            default:
+                return out;
+        }
+    }
+
+    /**
+     * 是否引入了zstd-jni
+     */
+    public static boolean isZstdAvailable() {
+        try {
+            Class.forName("com.github.luben.zstd.ZstdOutputStream", false, ArchiveCompression.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static void ensureZstdAvailable() {
+        if (!isZstdAvailable()) {
+            throw new HarborException("zstd archives require com.github.luben:zstd-jni on the classpath");
+        }
+    }
+
+    /**
+     * zstd-jni的类只在此处引用，确认依赖存在后才加载，未引入该依赖时不影响其他格式
+     */
+    private static final class Zstd {
+
+        static InputStream input(InputStream in) throws IOException {
+            return new ZstdInputStream(in);
+        }
+
+        static OutputStream output(OutputStream out, int level, int threads) throws IOException {
+            ZstdOutputStream zstd = new ZstdOutputStream(out, level);
+            if (threads > 1) {
+                // zstd自带的多线程模式，各工作线程压缩独立的分段
+                zstd.setWorkers(threads);
+            }
+            return zstd;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.techzhi.harbor.archive;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.techzhi.harbor.exception.HarborException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * docker save 生成的镜像tar包（docker-archive）读取器
+ * 基于 {@link TarIndex} 一次建立条目索引，manifest、镜像配置和层均按偏移量直接访问，不解包
+ *
+ * @author techzhi
+ */
+public class DockerArchive implements Closeable {
+
+    public static final String MANIFEST_ENTRY = "manifest.json";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final TarIndex index;
+    private ManifestItem manifest;
+    private byte[] config;
+
+    private DockerArchive(TarIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * 打开tar文件并建立条目索引
+     */
+    public static DockerArchive open(Path path) throws IOException {
+        return new DockerArchive(TarIndex.open(path));
+    }
+
+    public Path getPath() {
+        return index.getPath();
+    }
+
+    public TarIndex getIndex() {
+        return index;
+    }
+
+    public FileChannel getChannel() {
+        return index.getChannel();
+    }
+
+    /**
+     * 获取指定名称的条目，不存在时返回null
+     */
+    public TarIndex.Entry getEntry(String name) {
+        return index.getEntry(name);
+    }
+
+    /**
+     * 获取指定名称的条目，不存在时抛出异常
+     */
+    public TarIndex.Entry requireEntry(String name) {
+        return index.requireEntry(name);
+    }
+
+    /**
+     * 读取小条目（manifest、镜像配置等）的全部内容
+     */
+    public byte[] readEntry(String name) throws IOException {
+        return index.read(name);
+    }
+
+    /**
+     * 读取manifest.json中的第一个镜像描述
+     */
+    public synchronized ManifestItem getManifest() throws IOException {
+        if (manifest == null) {
+            if (index.getEntry(MANIFEST_ENTRY) == null) {
+                throw new HarborException("Not a docker-archive, manifest.json missing: " + getPath());
+            }
+            List<ManifestItem> items;
+            try (InputStream in = new ByteBufferInputStream(index.map(index.requireEntry(MANIFEST_ENTRY)))) {
+                items = OBJECT_MAPPER.readValue(in, new TypeReference<List<ManifestItem>>() {});
+            }
+            if (items == null || items.isEmpty()) {
+                throw new HarborException("Image archive manifest is empty: " + getPath());
+            }
+            manifest = items.get(0);
+        }
+        return manifest;
+    }
+
+    /**
+     * 解析manifest.json内容，返回其中第一个镜像的描述；用于从tar流中读出的manifest.json
+     */
+    public static ManifestItem parseManifest(byte[] content) throws IOException {
+        List<ManifestItem> items = OBJECT_MAPPER.readValue(content, new TypeReference<List<ManifestItem>>() {});
+        if (items == null || items.isEmpty()) {
+            throw new HarborException("Image archive manifest is empty");
+        }
+        return items.get(0);
+    }
+
+    /**
+     * 读取镜像配置JSON原文
+     */
+    public synchronized byte[] getConfig() throws IOException {
+        if (config == null) {
+            config = index.read(getManifest().getConfig());
+        }
+        return config;
+    }
+
+    /**
+     * 按manifest顺序返回各层条目
+     */
+    public List<TarIndex.Entry> getLayerEntries() throws IOException {
+        List<TarIndex.Entry> layers = new ArrayList<>();
+        for (String layer : getManifest().getLayers()) {
+            layers.add(index.requireEntry(layer));
+        }
+        return layers;
+    }
+
+    /**
+     * 校验tar包结构完整：manifest可解析，镜像配置和所有层条目都存在
+     */
+    public void validate() throws IOException {
+        ManifestItem item = getManifest();
+        if (item.getConfig() == null || index.getEntry(item.getConfig()) == null) {
+            throw new HarborException("Image config missing in archive " + getPath() + ": " + item.getConfig());
+        }
+        for (String layer : item.getLayers()) {
+            if (index.getEntry(layer) == null) {
+                throw new HarborException("Image layer missing in archive " + getPath() + ": " + layer);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        index.close();
+    }
+
+    /**
+     * 以InputStream方式读取映射缓冲区，供Jackson直接解析
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+
+    /**
+     * manifest.json中的镜像描述
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class ManifestItem {
+        @JsonProperty("Config")
+        private String config;
+
+        @JsonProperty("RepoTags")
+        private List<String> repoTags;
+
+        @JsonProperty("Layers")
+        private List<String> layers;
+
+        public String getConfig() {
+            return config;
+        }
+
+        public void setConfig(String config) {
+            this.config = config;
+        }
+
+        public List<String> getRepoTags() {
+            return repoTags != null ? repoTags : Collections.<String>emptyList();
+        }
+
+        public void setRepoTags(List<String> repoTags) {
+            this.repoTags = repoTags;
+        }
+
+        public List<String> getLayers() {
+            return layers != null ? layers : Collections.<String>emptyList();
+        }
+
+        public void setLayers(List<String> layers) {
+            this.layers = layers;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.techzhi.harbor.archive;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.techzhi.harbor.config.HarborProperties;
+import com.techzhi.harbor.exception.HarborException;
+import com.techzhi.harbor.transfer.DigestEngine;
+import com.techzhi.harbor.transfer.StreamCopier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 镜像tar包元数据检查器
+ * 只读取 manifest.json 和镜像配置，得到镜像名、标签、平台和各层的摘要与大小，不经过Docker守护进程；
+ * 未压缩的tar按头部索引直接定位这两个条目，压缩包顺序解压一遍并跳过层数据。
+ * 结果以（绝对路径, 文件大小, 修改时间）为键缓存在内存和磁盘上，同一目录的重复扫描直接命中缓存
+ *
+ * @author techzhi
+ */
+public class ImageInspector {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageInspector.class);
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * 内存中保留的检查结果数
+     */
+    private static final int MEMORY_ENTRIES = 1024;
+
+    /**
+     * 压缩包中按名称可能是镜像配置而缓存内容的条目大小上限
+     */
+    private static final long MAX_CONFIG_SIZE = 4 * 1024 * 1024;
+
+    private static final String OCI_BLOB_PREFIX = "blobs/sha256/";
+
+    private final Path cacheDirectory;
+    private final Map<String, ImageMetadata> memory = new LinkedHashMap<String, ImageMetadata>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ImageMetadata> eldest) {
+            return size() > MEMORY_ENTRIES;
+        }
+    };
+
+    public ImageInspector(HarborProperties properties) {
+        this(properties.getIo().getInspectCacheDirectory() == null
+                || properties.getIo().getInspectCacheDirectory().isEmpty()
+                ? null : Paths.get(properties.getIo().getInspectCacheDirectory()));
+    }
+
+    /**
+     * @param cacheDirectory 磁盘缓存目录，为null时只在内存中缓存
+     */
+    public ImageInspector(Path cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * 检查镜像tar包（.tar / .tar.gz / .tar.zst）的元数据
+     */
+    public ImageMetadata inspect(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        String key = path.toAbsolutePath().normalize() + "|" + attributes.size() + "|"
+                + attributes.lastModifiedTime().toMillis();
+
+        synchronized (memory) {
+            ImageMetadata cached = memory.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        ImageMetadata metadata = readCache(key);
+        if (metadata == null) {
+            long startTime = System.currentTimeMillis();
+            metadata = read(path, attributes.size());
+            logger.debug("Inspected {} in {} ms: {}", path, System.currentTimeMillis() - startTime, metadata);
+            writeCache(key, metadata);
+        }
+        synchronized (memory) {
+            memory.put(key, metadata);
+        }
+        return metadata;
+    }
+
+    private ImageMetadata read(Path path, long archiveSize) throws IOException {
+        try (InputStream in = StreamCopier.openInputStream(path)) {
+            ArchiveCompression compression = ArchiveCompression.detect(in);
+            if (compression == ArchiveCompression.NONE) {
+                in.close();
+                try (DockerArchive archive = DockerArchive.open(path)) {
+                    DockerArchive.ManifestItem manifest = archive.getManifest();
+                    Map<String, Long> sizes = new HashMap<>();
+                    for (TarIndex.Entry entry : archive.getIndex().getEntries()) {
+                        sizes.put(entry.getName(), entry.getSize());
+                    }
+                    return build(manifest, archive.getConfig(), sizes, archiveSize, compression);
+                }
+            }
+
+            // 压缩包无法随机访问：manifest.json通常在末尾，顺序扫描时先暂存可能是配置的小JSON条目
+            TarStreamReader reader = new TarStreamReader(compression.decompressing(in));
+            Map<String, Long> sizes = new HashMap<>();
+            Map<String, byte[]> jsonEntries = new HashMap<>();
+            byte[] manifestContent = null;
+            TarIndex.Entry entry;
+            while ((entry = reader.next()) != null) {
+                sizes.put(entry.getName(), entry.getSize());
+                if (DockerArchive.MANIFEST_ENTRY.equals(entry.getName())) {
+                    manifestContent = reader.readEntry();
+                } else if ((entry.getName().endsWith(".json") || entry.getName().startsWith(OCI_BLOB_PREFIX))
+                        && entry.getSize() <= MAX_CONFIG_SIZE) {
+                    jsonEntries.put(entry.getName(), reader.readEntry());
+                }
+            }
+            if (manifestContent == null) {
+                throw new HarborException("Not a docker-archive, manifest.json missing: " + path);
+            }
+            DockerArchive.ManifestItem manifest = DockerArchive.parseManifest(manifestContent);
+            for (String layer : manifest.getLayers()) {
+                String target = reader.resolve(layer);
+                if (target != null && !target.equals(layer) && sizes.containsKey(target)) {
+                    sizes.put(layer, sizes.get(target));
+                }
+            }
+            byte[] config = jsonEntries.get(reader.resolve(manifest.getConfig()));
+            if (config == null) {
+                throw new HarborException("Image config missing in archive " + path + ": " + manifest.getConfig());
+            }
+            return build(manifest, config, sizes, archiveSize, compression);
+        }
+    }
+
+    private static ImageMetadata build(DockerArchive.ManifestItem manifest, byte[] config, Map<String, Long> sizes,
+                                       long archiveSize, ArchiveCompression compression) throws IOException {
+        ImageMetadata metadata = new ImageMetadata();
+        metadata.setArchiveSize(archiveSize);
+        metadata.setCompression(compression);
+        metadata.setConfigDigest(DigestEngine.sha256(config));
+
+        List<String> repoTags = manifest.getRepoTags() == null ? new ArrayList<>() : manifest.getRepoTags();
+        metadata.setRepoTags(new ArrayList<>(repoTags));
+        for (String repoTag : repoTags) {
+            int colon = repoTag.lastIndexOf(':');
+            if (colon <= repoTag.lastIndexOf('/')) {
+                continue;
+            }
+            String name = repoTag.substring(0, colon);
+            if (metadata.getName() == null) {
+                metadata.setName(name);
+            }
+            if (name.equals(metadata.getName())) {
+                metadata.getTags().add(repoTag.substring(colon + 1));
+            }
+        }
+
+        JsonNode root = OBJECT_MAPPER.readTree(config);
+        metadata.setArchitecture(text(root, "architecture"));
+        metadata.setOs(text(root, "os"));
+        metadata.setVariant(text(root, "variant"));
+        metadata.setCreated(text(root, "created"));
+        JsonNode diffIds = root.path("rootfs").path("diff_ids");
+
+        List<String> layerPaths = manifest.getLayers();
+        for (int i = 0; i < layerPaths.size(); i++) {
+            String layerPath = layerPaths.get(i);
+            ImageMetadata.Layer layer = new ImageMetadata.Layer();
+            layer.setPath(layerPath);
+            layer.setDiffId(diffIds.has(i) ? diffIds.get(i).asText() : null);
+            if (layerPath.startsWith(OCI_BLOB_PREFIX)) {
+                layer.setDigest("sha256:" + layerPath.substring(OCI_BLOB_PREFIX.length()));
+            }
+            Long size = sizes.get(layerPath);
+            if (size == null) {
+                throw new HarborException("Image layer missing in archive: " + layerPath);
+            }
+            layer.setSize(size);
+            metadata.getLayers().add(layer);
+        }
+        return metadata;
+    }
+
+    private static String text(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+
+    private Path cacheFile(String key) {
+        String digest = DigestEngine.sha256(key.getBytes(StandardCharsets.UTF_8));
+        return cacheDirectory.resolve(digest.substring("sha256:".length()) + ".json");
+    }
+
+    private ImageMetadata readCache(String key) {
+        if (cacheDirectory == null) {
+            return null;
+        }
+        Path file = cacheFile(key);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            CacheEntry entry = OBJECT_MAPPER.readValue(file.toFile(), CacheEntry.class);
+            return key.equals(entry.getKey()) ? entry.getMetadata() : null;
+        } catch (IOException e) {
+            logger.debug("Ignoring unreadable inspect cache entry {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * 写入临时文件后原子替换，写缓存失败只影响下次检查的速度
+     */
+    private void writeCache(String key, ImageMetadata metadata) {
+        if (cacheDirectory == null) {
+            return;
+        }
+        Path file = cacheFile(key);
+        Path temp = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.createDirectories(cacheDirectory);
+            CacheEntry entry = new CacheEntry();
+            entry.setKey(key);
+            entry.setMetadata(metadata);
+            OBJECT_MAPPER.writeValue(temp.toFile(), entry);
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to write inspect cache entry {}", file, e);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // 临时文件残留不影响缓存读取
+            }
+        }
+    }
+
+    /**
+     * 磁盘缓存条目，保存完整的键以排除摘要碰撞和路径复用
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class CacheEntry {
+        private String key;
+        private ImageMetadata metadata;
+
+        public String getKey() {
+            return key;
+        }
+
+        public void setKey(String key) {
+            this.key = key;
+        }
+
+        public ImageMetadata getMetadata() {
+            return metadata;
+        }
+
+        public void setMetadata(ImageMetadata metadata) {
+            this.metadata = metadata;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.techzhi.harbor.archive;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 只读取 manifest.json 和镜像配置得到的镜像tar包元数据，不需要Docker守护进程
+ *
+ * @author techzhi
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ImageMetadata {
+
+    /**
+     * manifest.json中的完整镜像引用
+     */
+    private List<String> repoTags = new ArrayList<>();
+
+    /**
+     * 第一个镜像引用的仓库名（不含标签），未打标签时为null
+     */
+    private String name;
+
+    /**
+     * 与name同一仓库的全部标签
+     */
+    private List<String> tags = new ArrayList<>();
+
+    private String architecture;
+
+    private String os;
+
+    private String variant;
+
+    /**
+     * 镜像创建时间（配置中的created原文）
+     */
+    private String created;
+
+    /**
+     * 镜像配置的摘要，即镜像ID
+     */
+    private String configDigest;
+
+    /**
+     * 按manifest顺序排列的层
+     */
+    private List<Layer> layers = new ArrayList<>();
+
+    /**
+     * tar包文件大小
+     */
+    private long archiveSize;
+
+    /**
+     * tar包外层压缩格式
+     */
+    private ArchiveCompression compression;
+
+    public List<String> getRepoTags() {
+        return repoTags;
+    }
+
+    public void setRepoTags(List<String> repoTags) {
+        this.repoTags = repoTags;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public void setTags(List<String> tags) {
+        this.tags = tags;
+    }
+
+    public String getArchitecture() {
+        return architecture;
+    }
+
+    public void setArchitecture(String architecture) {
+        this.architecture = architecture;
+    }
+
+    public String getOs() {
+        return os;
+    }
+
+    public void setOs(String os) {
+        this.os = os;
+    }
+
+    public String getVariant() {
+        return variant;
+    }
+
+    public void setVariant(String variant) {
+        this.variant = variant;
+    }
+
+    public String getCreated() {
+        return created;
+    }
+
+    public void setCreated(String created) {
+        this.created = created;
+    }
+
+    public String getConfigDigest() {
+        return configDigest;
+    }
+
+    public void setConfigDigest(String configDigest) {
+        this.configDigest = configDigest;
+    }
+
+    public List<Layer> getLayers() {
+        return layers;
+    }
+
+    public void setLayers(List<Layer> layers) {
+        this.layers = layers;
+    }
+
+    public long getArchiveSize() {
+        return archiveSize;
+    }
+
+    public void setArchiveSize(long archiveSize) {
+        this.archiveSize = archiveSize;
+    }
+
+    public ArchiveCompression getCompression() {
+        return compression;
+    }
+
+    public void setCompression(ArchiveCompression compression) {
+        this.compression = compression;
+    }
+
+    @Override
+    public String toString() {
+        return "ImageMetadata{" +
+                "name='" + name + '\'' +
+                ", tags=" + tags +
+                ", platform='" + os + "/" + architecture + (variant != null ? "/" + variant : "") + '\'' +
+                ", configDigest='" + configDigest + '\'' +
+                ", layers=" + layers.size() +
+                ", archiveSize=" + archiveSize +
+                '}';
+    }
+
+    /**
+     * 镜像层
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Layer {
+
+        /**
+         * tar包内的条目路径
+         */
+        private String path;
+
+        /**
+         * 未压缩层内容的摘要（配置中的diff_id）
+         */
+        private String diffId;
+
+        /**
+         * 层在tar包中的存放内容的摘要，仅OCI布局（blobs/sha256/...）的条目可直接得出，其余为null
+         */
+        private String digest;
+
+        /**
+         * 层在tar包中的大小
+         */
+        private long size;
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public String getDiffId() {
+            return diffId;
+        }
+
+        public void setDiffId(String diffId) {
+            this.diffId = diffId;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        public void setDigest(String digest) {
+            this.digest = digest;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public String toString() {
+            return "Layer{" +
+                    "path='" + path + '\'' +
+                    ", diffId='" + diffId + '\'' +
+                    ", size=" + size +
+                    '}';
+        }
+    }
+}
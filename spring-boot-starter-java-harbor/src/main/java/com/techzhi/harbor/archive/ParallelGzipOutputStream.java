@@ -0,0 +1,203 @@
+package com.techzhi.harbor.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 多线程gzip输出流（pigz方式）
+ * 输入按固定大小分块，各块以前一块末尾32KB为预置字典并行压缩，非末块以SYNC_FLUSH结束并按顺序拼接，
+ * 结果是单个标准gzip成员，任何gzip实现都能解压；CRC32在写入线程上顺序计算。
+ * 在途分块数不超过线程数的两倍，输出跟不上时写入方阻塞
+ *
+ * @author techzhi
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    /**
+     * deflate的回溯窗口大小
+     */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final OutputStream out;
+    private final int level;
+    private final int maxPending;
+    private final ExecutorService executor;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+
+    private byte[] block;
+    private int blockLength;
+    private byte[] dictionary;
+    private long totalIn;
+    private boolean closed;
+
+    public ParallelGzipOutputStream(OutputStream out, int level, int threads, int blockSize) throws IOException {
+        if (blockSize < DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("Block size must be at least " + DICTIONARY_SIZE);
+        }
+        this.out = out;
+        this.level = level;
+        int workers = Math.max(1, threads);
+        this.maxPending = workers * 2;
+        this.block = new byte[blockSize];
+        this.executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "harbor-gzip-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // gzip头：魔数、deflate、无标志、mtime=0、xfl=0、OS=unknown
+        out.write(new byte[]{0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 255});
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        crc.update(bytes, offset, length);
+        totalIn += length;
+        while (length > 0) {
+            int count = Math.min(length, block.length - blockLength);
+            System.arraycopy(bytes, offset, block, blockLength, count);
+            blockLength += count;
+            offset += count;
+            length -= count;
+            if (blockLength == block.length) {
+                submitBlock(false);
+            }
+        }
+    }
+
+    /**
+     * 只把已压缩完成的分块写出，不打断分块边界
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+            writeCompleted();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            submitBlock(true);
+            while (!pending.isEmpty()) {
+                writeCompleted();
+            }
+            writeIntLE((int) crc.getValue());
+            writeIntLE((int) totalIn);
+            out.flush();
+        } finally {
+            closed = true;
+            executor.shutdownNow();
+            out.close();
+        }
+    }
+
+    private void submitBlock(boolean last) throws IOException {
+        byte[] input = block;
+        int length = blockLength;
+        byte[] preset = dictionary;
+        if (length >= DICTIONARY_SIZE) {
+            dictionary = Arrays.copyOfRange(input, length - DICTIONARY_SIZE, length);
+        } else if (length > 0) {
+            // 分块不足一个窗口时与上一个字典拼接
+            byte[] joined = new byte[Math.min(DICTIONARY_SIZE, (preset == null ? 0 : preset.length) + length)];
+            int keep = joined.length - length;
+            if (keep > 0) {
+                System.arraycopy(preset, preset.length - keep, joined, 0, keep);
+            }
+            System.arraycopy(input, 0, joined, keep, length);
+            dictionary = joined;
+        }
+        pending.addLast(executor.submit(() -> compress(input, length, preset, last)));
+        if (!last) {
+            block = new byte[block.length];
+            blockLength = 0;
+        }
+        while (pending.size() >= maxPending) {
+            writeCompleted();
+        }
+    }
+
+    private byte[] compress(byte[] input, int length, byte[] preset, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (preset != null) {
+                deflater.setDictionary(preset);
+            }
+            deflater.setInput(input, 0, length);
+            ByteArrayOutputStream result = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    result.write(buffer, 0, count);
+                }
+            } else {
+                // SYNC_FLUSH在输出未填满缓冲区时即已刷完全部输入
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    result.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+            return result.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeCompleted() throws IOException {
+        Future<byte[]> next = pending.removeFirst();
+        try {
+            out.write(next.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Block compression failed", e.getCause());
+        }
+    }
+
+    private void writeIntLE(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+        out.write((value >>> 16) & 0xff);
+        out.write((value >>> 24) & 0xff);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.techzhi.harbor.archive;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ustar条目头构造工具
+ * 条目大小在写头时即已确定，配合按位置写入可以先规划好整个tar的布局，再并行填充各条目内容
+ *
+ * @author techzhi
+ */
+public final class TarHeaders {
+
+    public static final int BLOCK_SIZE = 512;
+
+    /**
+     * tar结束标记：两个全零块
+     */
+    public static final int END_OF_ARCHIVE_SIZE = 2 * BLOCK_SIZE;
+
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+    private TarHeaders() {
+    }
+
+    /**
+     * 构造普通文件条目头，文件名不超过100字节
+     */
+    public static byte[] fileHeader(String name, long size, long modifiedSeconds) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 100) {
+            throw new IllegalArgumentException("Tar entry name too long: " + name);
+        }
+        byte[] header = new byte[BLOCK_SIZE];
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        putOctal(header, 100, 8, 0644);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        if (size > MAX_OCTAL_SIZE) {
+            // GNU base-256编码，支持超过8GB的条目
+            header[124] = (byte) 0x80;
+            for (int i = 135; i > 124; i--) {
+                header[i] = (byte) (size >>> (8 * (135 - i)));
+            }
+        } else {
+            putOctal(header, 124, 12, size);
+        }
+        putOctal(header, 136, 12, modifiedSeconds);
+        header[156] = '0';
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        putOctal(header, 148, 7, checksum);
+        return header;
+    }
+
+    /**
+     * 条目（头+内容+补齐）在tar中占用的字节数
+     */
+    public static long entrySize(long contentSize) {
+        return BLOCK_SIZE + paddedSize(contentSize);
+    }
+
+    /**
+     * 内容补齐到块大小后的字节数
+     */
+    public static long paddedSize(long contentSize) {
+        return (contentSize + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+
+    private static void putOctal(byte[] header, int offset, int length, long value) {
+        String octal = Long.toOctalString(value);
+        StringBuilder padded = new StringBuilder();
+        for (int i = octal.length(); i < length - 1; i++) {
+            padded.append('0');
+        }
+        padded.append(octal);
+        byte[] bytes = padded.toString().getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+}
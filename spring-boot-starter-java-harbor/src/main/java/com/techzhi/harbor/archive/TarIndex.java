@@ -0,0 +1,402 @@
+package com.techzhi.harbor.archive;
+
+import com.techzhi.harbor.exception.HarborException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * tar文件随机访问索引
+ * 通过内存映射的FileChannel扫描一次全部头部块，记录每个条目的偏移量和长度；
+ * 条目数据本身不会被读取或拷贝，之后按名称O(1)定位，按需映射或按区间读取。
+ * 符号链接和硬链接解析到目标条目（旧版docker save用 {@code <id>/layer.tar -> ../<other>/layer.tar} 表示重复层）
+ *
+ * @author techzhi
+ */
+public class TarIndex implements Closeable {
+
+    static final int BLOCK_SIZE = 512;
+
+    /**
+     * 解析链接时最多跟随的层数，防止链接成环
+     */
+    private static final int MAX_LINK_DEPTH = 16;
+
+    /**
+     * 扫描头部时每次映射的窗口大小，只有被访问的头部所在页会真正读入内存
+     */
+    private static final long SCAN_WINDOW = 256L * 1024 * 1024;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final Map<String, Entry> entries;
+
+    private TarIndex(Path path, FileChannel channel, Map<String, Entry> entries) {
+        this.path = path;
+        this.channel = channel;
+        this.entries = entries;
+    }
+
+    /**
+     * 打开tar文件并建立索引
+     */
+    public static TarIndex open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new TarIndex(path, channel, scan(channel));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static Map<String, Entry> scan(FileChannel channel) throws IOException {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        Map<String, String> links = new HashMap<>();
+        long fileSize = channel.size();
+        long position = 0;
+        long windowStart = -1;
+        MappedByteBuffer window = null;
+        byte[] block = new byte[BLOCK_SIZE];
+
+        // GNU长文件名/长链接名与PAX扩展头作用于紧随其后的条目
+        String pendingName = null;
+        String pendingLinkName = null;
+        long pendingSize = -1;
+
+        while (position + BLOCK_SIZE <= fileSize) {
+            if (window == null || position + BLOCK_SIZE > windowStart + window.capacity()) {
+                windowStart = position;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                        Math.min(SCAN_WINDOW, fileSize - windowStart));
+            }
+            window.position((int) (position - windowStart));
+            window.get(block);
+            if (isZeroBlock(block)) {
+                break;
+            }
+
+            byte type = block[156];
+            long size = readSize(block);
+            long dataOffset = position + BLOCK_SIZE;
+
+            if (type == 'L') {
+                pendingName = trimNul(new String(readData(channel, dataOffset, size), StandardCharsets.UTF_8));
+            } else if (type == 'K') {
+                pendingLinkName = trimNul(new String(readData(channel, dataOffset, size), StandardCharsets.UTF_8));
+            } else if (type == 'x') {
+                Map<String, String> pax = parsePax(readData(channel, dataOffset, size));
+                if (pax.containsKey("path")) {
+                    pendingName = pax.get("path");
+                }
+                if (pax.containsKey("linkpath")) {
+                    pendingLinkName = pax.get("linkpath");
+                }
+                if (pax.containsKey("size")) {
+                    pendingSize = Long.parseLong(pax.get("size"));
+                }
+            } else if (type == 'g') {
+                // 全局PAX头对条目定位无影响
+            } else {
+                String name = pendingName != null ? pendingName : readName(block);
+                if (pendingSize >= 0) {
+                    size = pendingSize;
+                }
+                if (type == '0' || type == 0 || type == '7') {
+                    name = normalize(name);
+                    entries.put(name, new Entry(name, dataOffset, size));
+                } else if (type == '1' || type == '2') {
+                    // 链接没有内容，先占住tar内的顺序，扫描结束后解析到目标
+                    name = normalize(name);
+                    String linkName = pendingLinkName != null ? pendingLinkName : readLinkName(block);
+                    links.put(name, linkTarget(name, linkName, type));
+                    entries.put(name, null);
+                }
+                pendingName = null;
+                pendingLinkName = null;
+                pendingSize = -1;
+            }
+            position = dataOffset + (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+        }
+        return links.isEmpty() ? entries : resolveLinks(entries, links);
+    }
+
+    /**
+     * 把链接条目替换为指向目标内容的条目，目标不存在的链接被丢弃
+     */
+    private static Map<String, Entry> resolveLinks(Map<String, Entry> entries, Map<String, String> links) {
+        Map<String, Entry> resolved = new LinkedHashMap<>();
+        for (Map.Entry<String, Entry> item : entries.entrySet()) {
+            if (item.getValue() != null) {
+                resolved.put(item.getKey(), item.getValue());
+                continue;
+            }
+            String target = resolve(links, item.getKey());
+            Entry entry = target != null ? entries.get(target) : null;
+            if (entry != null) {
+                resolved.put(item.getKey(), new Entry(item.getKey(), entry.getOffset(), entry.getSize(), target));
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * 沿链接找到最终的条目名；name本身不是链接时原样返回，链接成环或过深时返回null
+     */
+    static String resolve(Map<String, String> links, String name) {
+        String current = normalize(name);
+        for (int depth = 0; depth <= MAX_LINK_DEPTH; depth++) {
+            String target = links.get(current);
+            if (target == null) {
+                return current;
+            }
+            current = target;
+        }
+        return null;
+    }
+
+    /**
+     * 链接目标在tar内的路径：硬链接相对于tar根目录，符号链接相对于链接所在目录
+     */
+    static String linkTarget(String name, String linkName, byte type) {
+        String target = linkName.startsWith("/") ? linkName.substring(1) : linkName;
+        if (type == '2' && !linkName.startsWith("/")) {
+            int slash = name.lastIndexOf('/');
+            if (slash >= 0) {
+                target = name.substring(0, slash + 1) + target;
+            }
+        }
+        Deque<String> parts = new ArrayDeque<>();
+        for (String part : target.split("/")) {
+            if (part.isEmpty() || ".".equals(part)) {
+                continue;
+            }
+            if ("..".equals(part)) {
+                parts.pollLast();
+            } else {
+                parts.addLast(part);
+            }
+        }
+        return String.join("/", parts);
+    }
+
+    static String readLinkName(byte[] block) {
+        return readString(block, 157, 100);
+    }
+
+    static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] readData(FileChannel channel, long offset, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        readFully(channel, buffer, offset);
+        return buffer.array();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of tar file at offset " + (offset + buffer.position()));
+            }
+        }
+    }
+
+    static String readName(byte[] block) {
+        String name = readString(block, 0, 100);
+        if (block[257] == 'u' && block[258] == 's' && block[259] == 't' && block[260] == 'a' && block[261] == 'r') {
+            String prefix = readString(block, 345, 155);
+            if (!prefix.isEmpty()) {
+                name = prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    static String normalize(String name) {
+        return name.startsWith("./") ? name.substring(2) : name;
+    }
+
+    static String trimNul(String value) {
+        int end = value.indexOf('\0');
+        return end >= 0 ? value.substring(0, end) : value;
+    }
+
+    /**
+     * 解析PAX扩展头，记录格式为 "长度 键=值\n"
+     */
+    static Map<String, String> parsePax(byte[] data) {
+        Map<String, String> records = new LinkedHashMap<>();
+        int position = 0;
+        while (position < data.length) {
+            int space = position;
+            while (space < data.length && data[space] != ' ') {
+                space++;
+            }
+            if (space >= data.length) {
+                break;
+            }
+            int length = Integer.parseInt(new String(data, position, space - position, StandardCharsets.US_ASCII));
+            if (length <= 0 || position + length > data.length) {
+                break;
+            }
+            String record = new String(data, space + 1, position + length - space - 2, StandardCharsets.UTF_8);
+            int equals = record.indexOf('=');
+            if (equals > 0) {
+                records.put(record.substring(0, equals), record.substring(equals + 1));
+            }
+            position += length;
+        }
+        return records;
+    }
+
+    private static String readString(byte[] block, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && block[end] != 0) {
+            end++;
+        }
+        return new String(block, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    static long readSize(byte[] block) {
+        // GNU tar对超过8GB的条目使用base-256编码
+        if ((block[124] & 0x80) != 0) {
+            long size = 0;
+            for (int i = 125; i < 136; i++) {
+                size = (size << 8) | (block[i] & 0xff);
+            }
+            return size;
+        }
+        String octal = readString(block, 124, 12).trim();
+        return octal.isEmpty() ? 0 : Long.parseLong(octal, 8);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * 按tar内的顺序返回全部普通文件条目，已解析的链接条目位于链接所在位置
+     */
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * 获取指定名称的条目，不存在时返回null
+     */
+    public Entry getEntry(String name) {
+        return entries.get(normalize(name));
+    }
+
+    /**
+     * 获取指定名称的条目，不存在时抛出异常
+     */
+    public Entry requireEntry(String name) {
+        Entry entry = getEntry(name);
+        if (entry == null) {
+            throw new HarborException("Entry not found in tar file " + path + ": " + name);
+        }
+        return entry;
+    }
+
+    /**
+     * 以只读方式映射条目内容
+     */
+    public MappedByteBuffer map(Entry entry) throws IOException {
+        if (entry.getSize() > Integer.MAX_VALUE) {
+            throw new HarborException("Tar entry too large to map: " + entry.getName());
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, entry.getOffset(), entry.getSize());
+    }
+
+    /**
+     * 读取小条目的全部内容
+     */
+    public byte[] read(String name) throws IOException {
+        Entry entry = requireEntry(name);
+        if (entry.getSize() > Integer.MAX_VALUE) {
+            throw new HarborException("Tar entry too large to read into memory: " + name);
+        }
+        return readData(channel, entry.getOffset(), entry.getSize());
+    }
+
+    /**
+     * 读取条目开头的若干字节，用于判断压缩格式等
+     */
+    public byte[] readHead(Entry entry, int length) throws IOException {
+        return readData(channel, entry.getOffset(), Math.min(length, entry.getSize()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * tar条目：内容在文件中的起始偏移量和长度；链接条目的偏移量和长度为目标条目的
+     */
+    public static class Entry {
+        private final String name;
+        private final long offset;
+        private final long size;
+        private final String linkTarget;
+
+        public Entry(String name, long offset, long size) {
+            this(name, offset, size, null);
+        }
+
+        public Entry(String name, long offset, long size, String linkTarget) {
+            this.name = name;
+            this.offset = offset;
+            this.size = size;
+            this.linkTarget = linkTarget;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * 链接条目解析后的目标条目名，普通文件为null
+         */
+        public String getLinkTarget() {
+            return linkTarget;
+        }
+
+        @Override
+        public String toString() {
+            return name + (linkTarget != null ? " -> " + linkTarget : "") + "@" + offset + "+" + size;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.techzhi.harbor.archive;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 顺序读取tar流中的普通文件条目，用于无法随机访问的输入（压缩后的tar、网络流）
+ * 与 {@link TarIndex} 使用相同的头解析规则，支持GNU长文件名与PAX扩展头。
+ * 链接条目没有内容，不由next返回；其目标可能出现在链接之后，调用方读完流后用 {@link #resolve(String)} 换成目标条目名
+ *
+ * @author techzhi
+ */
+public class TarStreamReader {
+
+    private final InputStream in;
+    private final byte[] block = new byte[TarIndex.BLOCK_SIZE];
+    private final Map<String, String> links = new HashMap<>();
+
+    /**
+     * 已读取的字节数，即tar流中的当前位置
+     */
+    private long position;
+    private long remaining;
+    private long padding;
+    private boolean finished;
+
+    public TarStreamReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * 跳过当前条目未读完的内容，返回下一个普通文件条目；到达结尾时返回null
+     * 返回的条目偏移量为其数据在tar流中的位置
+     */
+    public TarIndex.Entry next() throws IOException {
+        skip(remaining + padding);
+        remaining = 0;
+        padding = 0;
+
+        String pendingName = null;
+        String pendingLinkName = null;
+        long pendingSize = -1;
+        while (!finished) {
+            if (!readBlock()) {
+                finished = true;
+                return null;
+            }
+            if (TarIndex.isZeroBlock(block)) {
+                finished = true;
+                return null;
+            }
+
+            byte type = block[156];
+            long size = TarIndex.readSize(block);
+            if (type == 'L') {
+                pendingName = TarIndex.trimNul(new String(readData(size), StandardCharsets.UTF_8));
+            } else if (type == 'K') {
+                pendingLinkName = TarIndex.trimNul(new String(readData(size), StandardCharsets.UTF_8));
+            } else if (type == 'x') {
+                Map<String, String> pax = TarIndex.parsePax(readData(size));
+                if (pax.containsKey("path")) {
+                    pendingName = pax.get("path");
+                }
+                if (pax.containsKey("linkpath")) {
+                    pendingLinkName = pax.get("linkpath");
+                }
+                if (pax.containsKey("size")) {
+                    pendingSize = Long.parseLong(pax.get("size"));
+                }
+            } else if (type == 'g') {
+                skip(padded(size));
+            } else {
+                String name = pendingName != null ? pendingName : TarIndex.readName(block);
+                if (pendingSize >= 0) {
+                    size = pendingSize;
+                }
+                String linkName = pendingLinkName != null ? pendingLinkName : TarIndex.readLinkName(block);
+                pendingName = null;
+                pendingLinkName = null;
+                pendingSize = -1;
+                if (type == '0' || type == 0 || type == '7') {
+                    remaining = size;
+                    padding = padded(size) - size;
+                    return new TarIndex.Entry(TarIndex.normalize(name), position, size);
+                }
+                if (type == '1' || type == '2') {
+                    name = TarIndex.normalize(name);
+                    links.put(name, TarIndex.linkTarget(name, linkName, type));
+                }
+                skip(padded(size));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 沿已读到的链接找到最终的条目名；name不是链接时原样返回，链接成环时返回null
+     */
+    public String resolve(String name) {
+        return TarIndex.resolve(links, name);
+    }
+
+    /**
+     * 当前条目内容的输入流，读到条目末尾即返回-1；关闭该流不会关闭底层流
+     */
+    public InputStream entryStream() {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int read = in.read(bytes, offset, (int) Math.min(length, remaining));
+                if (read == -1) {
+                    throw new EOFException("Unexpected end of tar stream");
+                }
+                remaining -= read;
+                position += read;
+                return read;
+            }
+
+            @Override
+            public long skip(long count) throws IOException {
+                long skipped = Math.min(count, remaining);
+                TarStreamReader.this.skip(skipped);
+                remaining -= skipped;
+                return skipped;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return (int) Math.min(in.available(), remaining);
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * 读取当前条目的全部内容
+     */
+    public byte[] readEntry() throws IOException {
+        byte[] data = new byte[(int) remaining];
+        readFully(data, data.length);
+        remaining = 0;
+        return data;
+    }
+
+    private byte[] readData(long size) throws IOException {
+        byte[] data = new byte[(int) size];
+        readFully(data, data.length);
+        skip(padded(size) - size);
+        return data;
+    }
+
+    private boolean readBlock() throws IOException {
+        int read = 0;
+        while (read < block.length) {
+            int count = in.read(block, read, block.length - read);
+            if (count == -1) {
+                if (read == 0) {
+                    return false;
+                }
+                throw new EOFException("Truncated tar header");
+            }
+            read += count;
+        }
+        position += block.length;
+        return true;
+    }
+
+    private void readFully(byte[] data, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = in.read(data, read, length - read);
+            if (count == -1) {
+                throw new EOFException("Unexpected end of tar stream");
+            }
+            read += count;
+        }
+        position += length;
+    }
+
+    private void skip(long count) throws IOException {
+        long left = count;
+        while (left > 0) {
+            long skipped = in.skip(left);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException("Unexpected end of tar stream");
+                }
+                skipped = 1;
+            }
+            left -= skipped;
+        }
+        position += count;
+    }
+
+    private static long padded(long size) {
+        return (size + TarIndex.BLOCK_SIZE - 1) / TarIndex.BLOCK_SIZE * TarIndex.BLOCK_SIZE;
+    }
+}
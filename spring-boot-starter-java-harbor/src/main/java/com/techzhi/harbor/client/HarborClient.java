@@ -1,7 +1,12 @@
 package com.techzhi.harbor.client;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.techzhi.harbor.config.HarborProperties;
 import com.techzhi.harbor.exception.HarborException;
 import okhttp3.*;
@@ -14,7 +19,18 @@ import javax.net.ssl.X509TrustManager;
 import java.io.IOException;
 import java.security.cert.X509Certificate;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Harbor HTTP客户端
@@ -25,11 +41,19 @@ public class HarborClient {
 
     private static final Logger logger = LoggerFactory.getLogger(HarborClient.class);
 
+    private static final Pattern NEXT_LINK = Pattern.compile("<([^>]+)>\\s*;\\s*rel=\"?next\"?");
+
     private final OkHttpClient httpClient;
     private final ObjectMapper objectMapper;
     private final HarborProperties properties;
     private final String basicAuth;
 
+    /**
+     * 进行中的GET请求，key为 方法 + URL + 条件头 + 结果类型；相同请求并发到达时只发一次，等待的调用方各得一份结果副本
+     */
+    private final Map<String, Flight> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedRequests = new AtomicLong();
+
     public HarborClient(HarborProperties properties) {
         this.properties = properties;
         this.objectMapper = new ObjectMapper();
@@ -38,12 +62,23 @@ public class HarborClient {
         this.httpClient = createHttpClient(properties);
     }
 
-    private OkHttpClient createHttpClient(HarborProperties properties) {
+    /**
+     * 按Harbor配置创建OkHttp客户端，供Harbor API与Registry API客户端共用
+     */
+    static OkHttpClient createHttpClient(HarborProperties properties) {
         OkHttpClient.Builder builder = new OkHttpClient.Builder()
                 .connectTimeout(properties.getConnectTimeout(), TimeUnit.MILLISECONDS)
                 .readTimeout(properties.getReadTimeout(), TimeUnit.MILLISECONDS)
                 .writeTimeout(properties.getWriteTimeout(), TimeUnit.MILLISECONDS);
 
+        // 异步请求的并发上限，同步请求不受限制；连接池按单主机并发数保留空闲连接，避免突发后反复建连
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(properties.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(properties.getMaxRequestsPerHost());
+        int idleConnections = Math.max(5, properties.getMaxRequestsPerHost());
+        builder.dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(idleConnections, 5, TimeUnit.MINUTES));
+
         // 如果不启用SSL验证，则忽略SSL证书
         if (!properties.isSslEnabled()) {
             try {
@@ -77,98 +112,561 @@ public class HarborClient {
     }
 
     /**
-     * 执行GET请求
+     * 执行GET请求。与进行中的相同请求合并时得到结果的独立副本，调用方可以修改返回的对象
      */
     public <T> T get(String path, TypeReference<T> typeReference) throws HarborException {
-        String url = properties.getHost() + path;
-        Request request = new Request.Builder()
-                .url(url)
+        Request request = getRequest(path, null, null);
+        return singleFlight(request, typeReference, () -> executeRequest(request, typeReference));
+    }
+
+    /**
+     * 异步执行GET请求，不占用调用线程；相同请求同样会被合并，每个调用方得到各自的结果副本
+     */
+    public <T> CompletableFuture<T> getAsync(String path, TypeReference<T> typeReference) {
+        Request request = getRequest(path, null, null);
+        return singleFlightAsync(request, typeReference,
+                () -> enqueue(request, checked(request, json(typeReference))));
+    }
+
+    /**
+     * 执行条件GET请求：带上次响应的ETag/Last-Modified，资源未变化时服务端返回304，不再传输响应体
+     *
+     * @param etag         上次响应的ETag，没有时为null
+     * @param lastModified 上次响应的Last-Modified，没有时为null
+     */
+    public <T> ConditionalResult<T> getConditional(String path, String etag, String lastModified,
+                                                   TypeReference<T> typeReference) throws HarborException {
+        Request request = getRequest(path, etag, lastModified);
+        return singleFlight(request, typeReference,
+                () -> execute(request, conditional(request, etag, lastModified, typeReference)));
+    }
+
+    /**
+     * 异步执行条件GET请求
+     */
+    public <T> CompletableFuture<ConditionalResult<T>> getConditionalAsync(String path, String etag,
+                                                                        String lastModified,
+                                                                        TypeReference<T> typeReference) {
+        Request request = getRequest(path, etag, lastModified);
+        return singleFlightAsync(request, typeReference,
+                () -> enqueue(request, conditional(request, etag, lastModified, typeReference)));
+    }
+
+    private Request getRequest(String path, String etag, String lastModified) {
+        Request.Builder builder = new Request.Builder()
+                .url(properties.getHost() + path)
                 .header("Authorization", basicAuth)
                 .header("Accept", "application/json")
-                .get()
-                .build();
+                .get();
+        if (etag != null) {
+            builder.header("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            builder.header("If-Modified-Since", lastModified);
+        }
+        return builder.build();
+    }
 
-        return executeRequest(request, typeReference);
+    private <T> ResponseHandler<ConditionalResult<T>> conditional(Request request, String etag, String lastModified,
+                                                                  TypeReference<T> typeReference) {
+        return response -> {
+            if (response.code() == 304) {
+                return new ConditionalResult<>(true, null, etag, lastModified);
+            }
+            T value = handleResponse(request, response, json(typeReference));
+            return new ConditionalResult<>(false, value, response.header("ETag"), response.header("Last-Modified"));
+        };
     }
 
     /**
-     * 执行POST请求
+     * 合并并发的相同GET请求：第一个调用方发出请求并得到原始结果，其余调用方等待并各得一份反序列化的副本，
+     * 失败时得到同一个异常
      */
-    public <T> T post(String path, Object body, TypeReference<T> typeReference) throws HarborException {
-        String url = properties.getHost() + path;
-        RequestBody requestBody = RequestBody.create(
-                MediaType.parse("application/json"),
-                serializeBody(body)
-        );
+    private <R> R singleFlight(Request request, TypeReference<?> typeReference, Supplier<R> call) {
+        if (!properties.isRequestCoalescing()) {
+            return call.get();
+        }
+        String key = flightKey(request, typeReference);
+        Flight flight = new Flight();
+        Flight existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            if (!existing.attach()) {
+                // 请求刚结束，不再等待
+                return call.get();
+            }
+            coalescedRequests.incrementAndGet();
+            try {
+                return cast(existing.result.join().get());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        R result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            inFlight.remove(key, flight);
+            flight.close();
+            flight.result.completeExceptionally(e);
+            throw e;
+        }
+        share(key, flight, result, typeReference);
+        return result;
+    }
+
+    /**
+     * singleFlight的异步版本，与同步调用共用进行中的请求。
+     * 每个调用方拿到各自的future，取消它不影响其他调用方，也不会中止共用的请求
+     */
+    private <R> CompletableFuture<R> singleFlightAsync(Request request, TypeReference<?> typeReference,
+                                                       Supplier<CompletableFuture<R>> call) {
+        if (!properties.isRequestCoalescing()) {
+            return call.get();
+        }
+        String key = flightKey(request, typeReference);
+        Flight flight = new Flight();
+        Flight existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            if (!existing.attach()) {
+                return call.get();
+            }
+            coalescedRequests.incrementAndGet();
+            return existing.result.thenApply(copy -> cast(copy.get()));
+        }
+        CompletableFuture<R> future = new CompletableFuture<>();
+        call.get().whenComplete((result, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error;
+                inFlight.remove(key, flight);
+                flight.close();
+                flight.result.completeExceptionally(cause);
+                future.completeExceptionally(cause);
+            } else {
+                share(key, flight, result, typeReference);
+                future.complete(result);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 结束一次合并的请求；有调用方在等待时，在发起方拿到结果之前序列化一份快照，供等待方各自反序列化
+     */
+    private void share(String key, Flight flight, Object result, TypeReference<?> typeReference) {
+        inFlight.remove(key, flight);
+        if (!flight.close()) {
+            return;
+        }
+        try {
+            flight.result.complete(snapshot(result, typeReference));
+        } catch (RuntimeException e) {
+            flight.result.completeExceptionally(e);
+        }
+    }
+
+    private Supplier<Object> snapshot(Object result, TypeReference<?> typeReference) {
+        if (result instanceof ConditionalResult) {
+            ConditionalResult<?> conditional = (ConditionalResult<?>) result;
+            Supplier<Object> value = snapshot(conditional.getValue(), typeReference);
+            return () -> new ConditionalResult<>(conditional.isNotModified(), value.get(),
+                    conditional.getEtag(), conditional.getLastModified());
+        }
+        if (result == null || typeReference == null || result instanceof String || result instanceof Number
+                || result instanceof Boolean) {
+            return () -> result;
+        }
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(result);
+        } catch (IOException e) {
+            throw new HarborException("Failed to copy coalesced response: " + e.getMessage(), e);
+        }
+        ObjectReader reader = objectMapper.readerFor(objectMapper.getTypeFactory().constructType(typeReference))
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        return () -> {
+            try {
+                return reader.readValue(json);
+            } catch (IOException e) {
+                throw new HarborException("Failed to copy coalesced response: " + e.getMessage(), e);
+            }
+        };
+    }
+
+    private static String flightKey(Request request, TypeReference<?> typeReference) {
+        return request.method() + " " + request.url()
+                + " " + request.header("If-None-Match") + " " + request.header("If-Modified-Since")
+                + " " + (typeReference != null ? typeReference.getType().getTypeName() : null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R> R cast(Object value) {
+        return (R) value;
+    }
+
+    /**
+     * 因与进行中的相同GET请求合并而未发出的请求数
+     */
+    public long getCoalescedRequests() {
+        return coalescedRequests.get();
+    }
 
-        Request request = new Request.Builder()
-                .url(url)
+    /**
+     * 获取列表接口的一页
+     *
+     * @param path 带page/page_size参数的相对路径，或上一页 {@link HarborPage#getNext()} 返回的地址
+     */
+    public <T> HarborPage<T> getPage(String path, TypeReference<List<T>> typeReference) throws HarborException {
+        Request request = pageRequest(path);
+        return execute(request, checked(request, response -> toPage(request, response, typeReference)));
+    }
+
+    /**
+     * 异步获取列表接口的一页，请求由OkHttp调度线程执行
+     */
+    public <T> CompletableFuture<HarborPage<T>> getPageAsync(String path, TypeReference<List<T>> typeReference) {
+        Request request = pageRequest(path);
+        return enqueue(request, checked(request, response -> toPage(request, response, typeReference)));
+    }
+
+    private Request pageRequest(String path) {
+        return new Request.Builder()
+                .url(path.startsWith("http://") || path.startsWith("https://") ? path : properties.getHost() + path)
                 .header("Authorization", basicAuth)
                 .header("Accept", "application/json")
-                .header("Content-Type", "application/json")
-                .post(requestBody)
+                .get()
                 .build();
+    }
 
-        return executeRequest(request, typeReference);
+    /**
+     * 解析一页数据
+     */
+    private <T> HarborPage<T> toPage(Request request, Response response,
+                                     TypeReference<List<T>> typeReference) throws IOException {
+        List<T> items = readJson(response, typeReference);
+        if (items == null) {
+            items = Collections.emptyList();
+        }
+        String total = response.header("X-Total-Count");
+        return new HarborPage<>(items, nextPage(request, response, items.size()),
+                total != null ? Long.parseLong(total.trim()) : -1);
+    }
+
+    /**
+     * 逐页流式解析列表接口：直接从响应字节流逐条反序列化，每解析出一条就交给consumer，
+     * 不缓存响应体也不保留已处理的条目，内存占用与列表长度无关。
+     * 中途失败时已处理的条目不会回退
+     *
+     * @param path     带page/page_size参数的第一页地址
+     * @param itemType 列表元素的类型
+     * @return 处理的条数
+     */
+    public <T> long forEach(String path, TypeReference<T> itemType, Consumer<? super T> consumer)
+            throws HarborException {
+        JavaType javaType = objectMapper.getTypeFactory().constructType(itemType);
+        long count = 0;
+        String next = path;
+        while (next != null) {
+            Request request = pageRequest(next);
+            StreamedPage page = execute(request, checked(request, response -> {
+                long items = readEach(response, javaType, consumer);
+                return new StreamedPage(items, nextPage(request, response, items));
+            }));
+            count += page.count;
+            next = page.count > 0 ? page.next : null;
+        }
+        return count;
+    }
+
+    private <T> long readEach(Response response, JavaType itemType, Consumer<? super T> consumer)
+            throws IOException {
+        ResponseBody body = response.body();
+        if (body == null) {
+            return 0;
+        }
+        try (JsonParser parser = objectMapper.getFactory().createParser(body.byteStream())) {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                return 0;
+            }
+            if (token != JsonToken.START_ARRAY) {
+                throw new HarborException("Expected JSON array from " + response.request().url()
+                        + " but got " + token);
+            }
+            ObjectReader reader = objectMapper.readerFor(itemType);
+            long count = 0;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                T item = reader.readValue(parser);
+                consumer.accept(item);
+                count++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 下一页地址：优先取Link头，Harbor未返回Link头且本页已满时按page+1推算
+     */
+    private String nextPage(Request request, Response response, long itemCount) {
+        String next = null;
+        for (String link : response.headers("Link")) {
+            Matcher matcher = NEXT_LINK.matcher(link);
+            if (matcher.find()) {
+                next = matcher.group(1);
+            }
+        }
+        if (next == null && response.header("Link") == null) {
+            String page = request.url().queryParameter("page");
+            String pageSize = request.url().queryParameter("page_size");
+            if (page != null && pageSize != null && itemCount >= Integer.parseInt(pageSize)) {
+                next = request.url().newBuilder()
+                        .setQueryParameter("page", String.valueOf(Integer.parseInt(page) + 1))
+                        .build().toString();
+            }
+        }
+        return next;
+    }
+
+    /**
+     * 执行POST请求
+     */
+    public <T> T post(String path, Object body, TypeReference<T> typeReference) throws HarborException {
+        return executeRequest(bodyRequest(path, "POST", body), typeReference);
+    }
+
+    /**
+     * 异步执行POST请求
+     */
+    public <T> CompletableFuture<T> postAsync(String path, Object body, TypeReference<T> typeReference) {
+        Request request = bodyRequest(path, "POST", body);
+        return enqueue(request, checked(request, json(typeReference)));
     }
 
     /**
      * 执行PUT请求
      */
     public <T> T put(String path, Object body, TypeReference<T> typeReference) throws HarborException {
-        String url = properties.getHost() + path;
+        return executeRequest(bodyRequest(path, "PUT", body), typeReference);
+    }
+
+    /**
+     * 异步执行PUT请求
+     */
+    public <T> CompletableFuture<T> putAsync(String path, Object body, TypeReference<T> typeReference) {
+        Request request = bodyRequest(path, "PUT", body);
+        return enqueue(request, checked(request, json(typeReference)));
+    }
+
+    private Request bodyRequest(String path, String method, Object body) {
         RequestBody requestBody = RequestBody.create(
                 MediaType.parse("application/json"),
                 serializeBody(body)
         );
 
-        Request request = new Request.Builder()
-                .url(url)
+        return new Request.Builder()
+                .url(properties.getHost() + path)
                 .header("Authorization", basicAuth)
                 .header("Accept", "application/json")
                 .header("Content-Type", "application/json")
-                .put(requestBody)
+                .method(method, requestBody)
                 .build();
-
-        return executeRequest(request, typeReference);
     }
 
     /**
      * 执行DELETE请求
      */
     public void delete(String path) throws HarborException {
-        String url = properties.getHost() + path;
-        Request request = new Request.Builder()
-                .url(url)
+        executeRequest(deleteRequest(path), null);
+    }
+
+    /**
+     * 异步执行DELETE请求
+     */
+    public CompletableFuture<Void> deleteAsync(String path) {
+        Request request = deleteRequest(path);
+        return enqueue(request, checked(request, response -> null));
+    }
+
+    private Request deleteRequest(String path) {
+        return new Request.Builder()
+                .url(properties.getHost() + path)
                 .header("Authorization", basicAuth)
                 .delete()
                 .build();
-
-        executeRequest(request, null);
     }
 
     /**
      * 执行请求并处理响应
      */
     private <T> T executeRequest(Request request, TypeReference<T> typeReference) throws HarborException {
+        return execute(request, checked(request, json(typeReference)));
+    }
+
+    private <T> T execute(Request request, ResponseHandler<T> handler) throws HarborException {
         try (Response response = httpClient.newCall(request).execute()) {
-            String responseBody = response.body() != null ? response.body().string() : "";
+            return handler.handle(response);
+        } catch (IOException e) {
+            logger.error("Harbor API request IO error: {} {}", request.method(), request.url(), e);
+            throw new HarborException("Harbor API request IO error", e);
+        }
+    }
 
-            if (!response.isSuccessful()) {
-                logger.error("Harbor API request failed: {} {}, Response: {}", 
-                        request.method(), request.url(), responseBody);
-                throw new HarborException(response.code(), 
-                        "Harbor API request failed: " + response.code() + " " + response.message());
+    /**
+     * 交给OkHttp调度器异步执行，并发数受 max-requests / max-requests-per-host 限制，超出的请求在调度器内排队。
+     * 结果和后续回调在OkHttp调度线程上完成，回调中不应做阻塞操作；调用方取消future时中止请求
+     */
+    private <T> CompletableFuture<T> enqueue(Request request, ResponseHandler<T> handler) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Call call = httpClient.newCall(request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (!call.isCanceled()) {
+                    logger.error("Harbor API request IO error: {} {}", request.method(), request.url(), e);
+                }
+                future.completeExceptionally(new HarborException("Harbor API request IO error", e));
             }
 
-            if (typeReference != null && !responseBody.isEmpty()) {
-                return objectMapper.readValue(responseBody, typeReference);
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response closing = response) {
+                    future.complete(handler.handle(closing));
+                } catch (IOException e) {
+                    future.completeExceptionally(new HarborException("Harbor API request IO error", e));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                call.cancel();
             }
+        });
+        return future;
+    }
 
+    /**
+     * 非2xx响应抛出HarborException，成功时交给handler
+     */
+    private <T> ResponseHandler<T> checked(Request request, ResponseHandler<T> handler) {
+        return response -> handleResponse(request, response, handler);
+    }
+
+    private <T> ResponseHandler<T> json(TypeReference<T> typeReference) {
+        return response -> typeReference != null ? readJson(response, typeReference) : null;
+    }
+
+    /**
+     * 直接从响应字节流反序列化，不先读成字符串；响应体为空时返回null
+     */
+    private <T> T readJson(Response response, TypeReference<T> typeReference) throws IOException {
+        ResponseBody body = response.body();
+        if (body == null) {
             return null;
-        } catch (IOException e) {
-            logger.error("Harbor API request IO error: {} {}", request.method(), request.url(), e);
-            throw new HarborException("Harbor API request IO error", e);
+        }
+        try (JsonParser parser = objectMapper.getFactory().createParser(body.byteStream())) {
+            return parser.nextToken() != null ? objectMapper.readValue(parser, typeReference) : null;
+        }
+    }
+
+    private <T> T handleResponse(Request request, Response response, ResponseHandler<T> handler)
+            throws IOException {
+        if (!response.isSuccessful()) {
+            // 错误响应体很小，读出来用于日志
+            String responseBody = response.body() != null ? response.body().string() : "";
+            logger.error("Harbor API request failed: {} {}, Response: {}",
+                    request.method(), request.url(), responseBody);
+            throw new HarborException(response.code(),
+                    "Harbor API request failed: " + response.code() + " " + response.message());
+        }
+        return handler.handle(response);
+    }
+
+    /**
+     * 进行中的一次合并请求：结果为生成副本的Supplier，请求结束后不再接受新的等待方
+     */
+    private static class Flight {
+        private final CompletableFuture<Supplier<Object>> result = new CompletableFuture<>();
+        private int waiters;
+        private boolean closed;
+
+        synchronized boolean attach() {
+            if (closed) {
+                return false;
+            }
+            waiters++;
+            return true;
+        }
+
+        /**
+         * @return 是否有调用方在等待
+         */
+        synchronized boolean close() {
+            closed = true;
+            return waiters > 0;
+        }
+    }
+
+    /**
+     * 条件GET的结果
+     */
+    public static class ConditionalResult<T> {
+        private final boolean notModified;
+        private final T value;
+        private final String etag;
+        private final String lastModified;
+
+        public ConditionalResult(boolean notModified, T value, String etag, String lastModified) {
+            this.notModified = notModified;
+            this.value = value;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * 服务端返回304，调用方持有的数据仍然有效
+         */
+        public boolean isNotModified() {
+            return notModified;
+        }
+
+        /**
+         * 响应体，304时为null
+         */
+        public T getValue() {
+            return value;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+    }
+
+    /**
+     * 读取成功响应
+     */
+    private interface ResponseHandler<T> {
+        T handle(Response response) throws IOException;
+    }
+
+    /**
+     * forEach处理完的一页
+     */
+    private static class StreamedPage {
+        private final long count;
+        private final String next;
+
+        StreamedPage(long count, String next) {
+            this.count = count;
+            this.next = next;
         }
     }
 
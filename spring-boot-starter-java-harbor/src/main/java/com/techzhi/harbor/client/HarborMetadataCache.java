@@ -0,0 +1,342 @@
+package com.techzhi.harbor.client;
+
+import com.techzhi.harbor.config.HarborProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * 镜像元数据查询缓存
+ * 按操作和 项目/镜像[:标签] 缓存查询结果，各操作有独立的有效期，条目数有上限（LRU淘汰）；
+ * 过期后带上次响应的ETag/Last-Modified发起条件请求，服务端返回304时直接续期。
+ * 本进程删除或推送镜像后调用 invalidateImage / invalidateTag 清除相关条目
+ *
+ * @author techzhi
+ */
+public class HarborMetadataCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(HarborMetadataCache.class);
+
+    public static final String IMAGE_EXISTS = "imageExists";
+    public static final String TAG_EXISTS = "imageTagExists";
+    public static final String IMAGE_INFO = "getImageInfo";
+
+    private final int maxEntries;
+    private final long notFoundTtl;
+    private final Map<String, Long> ttls = new ConcurrentHashMap<>();
+    private final Map<String, CacheEntry> entries;
+
+    /**
+     * 每次失效加一，加载开始后发生过失效的结果不写入缓存，避免把删除/推送前读到的旧数据写回
+     */
+    private long generation;
+
+    private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public HarborMetadataCache(HarborProperties properties) {
+        HarborProperties.Cache config = properties.getCache();
+        this.maxEntries = Math.max(1, config.getMaxEntries());
+        this.notFoundTtl = config.getNotFoundTtl();
+        ttls.put(IMAGE_EXISTS, config.getImageExistsTtl());
+        ttls.put(TAG_EXISTS, config.getTagExistsTtl());
+        ttls.put(IMAGE_INFO, config.getImageInfoTtl());
+        this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 查询缓存，未命中或过期时通过loader加载
+     *
+     * @param tag    标签，镜像级别的查询为null
+     * @param loader 加载数据；收到过期条目的ETag/Last-Modified以发起条件请求，
+     *               返回值为null的结果表示资源不存在，按 not-found-ttl 缓存
+     */
+    public <T> T get(String operation, String projectName, String imageName, String tag, Loader<T> loader) {
+        String key = operation + " " + subject(projectName, imageName, tag);
+        Lookup lookup = lookup(operation, key);
+        if (lookup.isFresh()) {
+            return cast(lookup.cached.value);
+        }
+        CacheEntry cached = lookup.cached;
+        HarborClient.ConditionalResult<T> result = cached != null
+                ? loader.load(cached.etag, cached.lastModified)
+                : loader.load(null, null);
+        return cast(store(operation, key, lookup, result).value);
+    }
+
+    /**
+     * 异步查询缓存，命中时返回已完成的future
+     */
+    public <T> CompletableFuture<T> getAsync(String operation, String projectName, String imageName, String tag,
+                                             AsyncLoader<T> loader) {
+        String key = operation + " " + subject(projectName, imageName, tag);
+        Lookup lookup = lookup(operation, key);
+        if (lookup.isFresh()) {
+            return CompletableFuture.completedFuture(cast(lookup.cached.value));
+        }
+        CacheEntry cached = lookup.cached;
+        CompletableFuture<HarborClient.ConditionalResult<T>> result = cached != null
+                ? loader.load(cached.etag, cached.lastModified)
+                : loader.load(null, null);
+        return result.thenApply(loaded -> cast(store(operation, key, lookup, loaded).value));
+    }
+
+    private Lookup lookup(String operation, String key) {
+        Counters counter = counters.computeIfAbsent(operation, name -> new Counters());
+        Lookup lookup;
+        synchronized (this) {
+            lookup = new Lookup(entries.get(key), generation, counter);
+        }
+        if (lookup.isFresh()) {
+            counter.hits.incrementAndGet();
+        }
+        return lookup;
+    }
+
+    private CacheEntry store(String operation, String key, Lookup lookup, HarborClient.ConditionalResult<?> result) {
+        CacheEntry cached = lookup.cached;
+        CacheEntry entry;
+        if (result.isNotModified() && cached != null) {
+            lookup.counter.revalidations.incrementAndGet();
+            entry = new CacheEntry(cached.value, cached.etag, cached.lastModified,
+                    expiresAt(operation, cached.value));
+        } else {
+            lookup.counter.misses.incrementAndGet();
+            entry = new CacheEntry(result.getValue(), result.getEtag(), result.getLastModified(),
+                    expiresAt(operation, result.getValue()));
+        }
+        synchronized (this) {
+            if (generation == lookup.generation) {
+                entries.put(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * 清除镜像及其所有标签的缓存
+     */
+    public void invalidateImage(String projectName, String imageName) {
+        String image = subject(projectName, imageName, null);
+        int removed = remove(key -> key.equals(image) || key.startsWith(image + ":"));
+        logger.debug("Invalidated {} cached entries of image {}", removed, image);
+    }
+
+    /**
+     * 清除标签的缓存，以及镜像级别的缓存（标签数、更新时间等随之变化）
+     */
+    public void invalidateTag(String projectName, String imageName, String tag) {
+        String image = subject(projectName, imageName, null);
+        String tagged = subject(projectName, imageName, tag);
+        int removed = remove(key -> key.equals(image) || key.equals(tagged));
+        logger.debug("Invalidated {} cached entries of {}", removed, tagged);
+    }
+
+    /**
+     * 按 项目/镜像 形式的仓库名清除标签缓存，供只知道仓库路径的推送流程使用
+     */
+    public void invalidateRepository(String repository, String tag) {
+        int slash = repository.indexOf('/');
+        if (slash > 0) {
+            invalidateTag(repository.substring(0, slash), repository.substring(slash + 1), tag);
+        }
+    }
+
+    public synchronized void clear() {
+        generation++;
+        invalidations.addAndGet(entries.size());
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public CacheStatistics getStatistics() {
+        Map<String, Long> hits = new TreeMap<>();
+        Map<String, Long> misses = new TreeMap<>();
+        long revalidations = 0;
+        for (Map.Entry<String, Counters> entry : counters.entrySet()) {
+            hits.put(entry.getKey(), entry.getValue().hits.get());
+            misses.put(entry.getKey(), entry.getValue().misses.get());
+            revalidations += entry.getValue().revalidations.get();
+        }
+        return new CacheStatistics(size(), hits, misses, revalidations, evictions.get(), invalidations.get());
+    }
+
+    private synchronized int remove(Predicate<String> subjectFilter) {
+        generation++;
+        int removed = 0;
+        for (Iterator<String> it = entries.keySet().iterator(); it.hasNext(); ) {
+            String key = it.next();
+            if (subjectFilter.test(key.substring(key.indexOf(' ') + 1))) {
+                it.remove();
+                removed++;
+            }
+        }
+        invalidations.addAndGet(removed);
+        return removed;
+    }
+
+    private long expiresAt(String operation, Object value) {
+        long ttl = value == null ? notFoundTtl : ttls.getOrDefault(operation, 0L);
+        return System.currentTimeMillis() + ttl;
+    }
+
+    private static String subject(String projectName, String imageName, String tag) {
+        return projectName + "/" + imageName + (tag != null ? ":" + tag : "");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object value) {
+        return (T) value;
+    }
+
+    /**
+     * 加载一项元数据
+     */
+    public interface Loader<T> {
+        HarborClient.ConditionalResult<T> load(String etag, String lastModified);
+    }
+
+    /**
+     * 异步加载一项元数据
+     */
+    public interface AsyncLoader<T> {
+        CompletableFuture<HarborClient.ConditionalResult<T>> load(String etag, String lastModified);
+    }
+
+    /**
+     * 一次查询看到的条目和失效代数
+     */
+    private static class Lookup {
+        private final CacheEntry cached;
+        private final long generation;
+        private final Counters counter;
+        private final long checkedAt = System.currentTimeMillis();
+
+        Lookup(CacheEntry cached, long generation, Counters counter) {
+            this.cached = cached;
+            this.generation = generation;
+            this.counter = counter;
+        }
+
+        boolean isFresh() {
+            return cached != null && checkedAt < cached.expiresAt;
+        }
+    }
+
+    private static class CacheEntry {
+        private final Object value;
+        private final String etag;
+        private final String lastModified;
+        private final long expiresAt;
+
+        CacheEntry(Object value, String etag, String lastModified, long expiresAt) {
+            this.value = value;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class Counters {
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong revalidations = new AtomicLong();
+    }
+
+    /**
+     * 缓存统计
+     */
+    public static class CacheStatistics {
+        private final int size;
+        private final Map<String, Long> hits;
+        private final Map<String, Long> misses;
+        private final long revalidations;
+        private final long evictions;
+        private final long invalidations;
+
+        CacheStatistics(int size, Map<String, Long> hits, Map<String, Long> misses, long revalidations,
+                        long evictions, long invalidations) {
+            this.size = size;
+            this.hits = hits;
+            this.misses = misses;
+            this.revalidations = revalidations;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * 各操作在有效期内直接命中的次数
+         */
+        public Map<String, Long> getHits() {
+            return hits;
+        }
+
+        /**
+         * 各操作需要完整请求的次数（首次查询或过期后数据已变化）
+         */
+        public Map<String, Long> getMisses() {
+            return misses;
+        }
+
+        /**
+         * 过期后条件请求返回304而续期的次数
+         */
+        public long getRevalidations() {
+            return revalidations;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public long getInvalidations() {
+            return invalidations;
+        }
+
+        /**
+         * 命中率，条件请求续期不计入命中
+         */
+        public double getHitRate() {
+            long hitCount = hits.values().stream().mapToLong(Long::longValue).sum();
+            long total = hitCount + misses.values().stream().mapToLong(Long::longValue).sum() + revalidations;
+            return total == 0 ? 0 : (double) hitCount / total;
+        }
+
+        @Override
+        public String toString() {
+            return "CacheStatistics{" +
+                    "size=" + size +
+                    ", hits=" + hits +
+                    ", misses=" + misses +
+                    ", revalidations=" + revalidations +
+                    ", evictions=" + evictions +
+                    ", invalidations=" + invalidations +
+                    '}';
+        }
+    }
+}
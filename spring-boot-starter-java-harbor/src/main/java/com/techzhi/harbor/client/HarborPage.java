@@ -0,0 +1,52 @@
+package com.techzhi.harbor.client;
+
+import java.util.List;
+
+/**
+ * Harbor列表接口返回的一页数据
+ *
+ * @author techzhi
+ */
+public class HarborPage<T> {
+
+    private final List<T> items;
+    private final String next;
+    private final long totalCount;
+
+    public HarborPage(List<T> items, String next, long totalCount) {
+        this.items = items;
+        this.next = next;
+        this.totalCount = totalCount;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * 下一页的地址（取自Link头，可直接传给 {@link HarborClient#getPage}），最后一页为null
+     */
+    public String getNext() {
+        return next;
+    }
+
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    /**
+     * X-Total-Count 头给出的总条数，未返回时为-1
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    @Override
+    public String toString() {
+        return "HarborPage{" +
+                "items=" + items.size() +
+                ", next='" + next + '\'' +
+                ", totalCount=" + totalCount +
+                '}';
+    }
+}
@@ -0,0 +1,116 @@
+package com.techzhi.harbor.client;
+
+import com.techzhi.harbor.exception.HarborException;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 按需翻页的迭代器
+ * 首次调用hasNext时才请求第一页；每拿到一页就立即异步请求下一页，调用方处理当前页的同时下一页已在传输，
+ * 遍历完整个列表约为每页一次往返。提前结束遍历时应调用close取消尚未完成的预取
+ *
+ * @author techzhi
+ */
+public class PageIterator<T> implements Iterator<T>, Closeable {
+
+    private final Function<String, CompletableFuture<HarborPage<T>>> fetcher;
+    private String firstPath;
+    private CompletableFuture<HarborPage<T>> pending;
+    private Iterator<T> current = Collections.emptyIterator();
+    private volatile boolean closed;
+    private int pages;
+
+    /**
+     * @param firstPath 第一页的地址
+     * @param fetcher   按地址异步获取一页
+     */
+    public PageIterator(String firstPath, Function<String, CompletableFuture<HarborPage<T>>> fetcher) {
+        this.firstPath = firstPath;
+        this.fetcher = fetcher;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (closed) {
+                return false;
+            }
+            if (firstPath != null) {
+                pending = fetcher.apply(firstPath);
+                firstPath = null;
+            }
+            if (pending == null) {
+                return false;
+            }
+            HarborPage<T> page = await(pending);
+            pages++;
+            pending = page.hasNext() && !page.getItems().isEmpty() ? fetcher.apply(page.getNext()) : null;
+            current = page.getItems().iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    /**
+     * 已取回的页数
+     */
+    public int getPages() {
+        return pages;
+    }
+
+    /**
+     * 取消尚未完成的预取，之后hasNext返回false
+     */
+    @Override
+    public void close() {
+        closed = true;
+        current = Collections.emptyIterator();
+        if (pending != null) {
+            pending.cancel(true);
+            pending = null;
+        }
+    }
+
+    /**
+     * 转为顺序流，流关闭时取消预取
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(this::close);
+    }
+
+    private HarborPage<T> await(CompletableFuture<HarborPage<T>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new HarborException("Interrupted while waiting for Harbor page", e);
+        } catch (ExecutionException | CompletionException e) {
+            close();
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof HarborException) {
+                throw (HarborException) cause;
+            }
+            throw new HarborException("Failed to fetch Harbor page", cause);
+        }
+    }
+}
@@ -0,0 +1,658 @@
+package com.techzhi.harbor.client;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.techzhi.harbor.config.HarborProperties;
+import com.techzhi.harbor.exception.HarborException;
+import com.techzhi.harbor.transfer.DigestEngine;
+import com.techzhi.harbor.transfer.DirectBufferPool;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Docker Registry HTTP API V2 客户端
+ * 直接与Harbor的 /v2/ 接口交互，不依赖本地Docker守护进程
+ *
+ * @author techzhi
+ */
+public class RegistryClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(RegistryClient.class);
+
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+    private static final Pattern CHALLENGE_PARAM = Pattern.compile("(\\w+)=\"([^\"]*)\"");
+    private static final Pattern NEXT_LINK = Pattern.compile("<([^>]+)>\\s*;\\s*rel=\"?next\"?");
+
+    /**
+     * 拉取清单时接受的媒体类型：单平台清单及多平台索引
+     */
+    private static final String MANIFEST_ACCEPT = String.join(", ",
+            "application/vnd.oci.image.manifest.v1+json",
+            "application/vnd.docker.distribution.manifest.v2+json",
+            "application/vnd.oci.image.index.v1+json",
+            "application/vnd.docker.distribution.manifest.list.v2+json");
+
+    private final OkHttpClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final String baseUrl;
+    private final String basicAuth;
+
+    /**
+     * Bearer令牌缓存，key为申请令牌时使用的scope
+     */
+    private final Map<String, String> tokens = new ConcurrentHashMap<>();
+
+    public RegistryClient(HarborProperties properties) {
+        this.objectMapper = new ObjectMapper();
+        this.baseUrl = properties.getHost().replaceAll("/+$", "");
+        this.basicAuth = "Basic " + Base64.getEncoder().encodeToString(
+                (properties.getUsername() + ":" + properties.getPassword()).getBytes());
+        this.httpClient = HarborClient.createHttpClient(properties);
+    }
+
+    /**
+     * 镜像引用中使用的注册表地址（host[:port]）
+     */
+    public String getRegistryAddress() {
+        try {
+            URL url = new URL(baseUrl);
+            return url.getHost() + (url.getPort() != -1 ? ":" + url.getPort() : "");
+        } catch (Exception e) {
+            return baseUrl.replaceAll("^https?://", "");
+        }
+    }
+
+    /**
+     * 探测注册表是否可连接（GET /v2/ 返回200或401即视为可用）
+     */
+    public boolean ping() {
+        Request request = new Request.Builder().url(baseUrl + "/v2/").get().build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            return response.code() == 200 || response.code() == 401;
+        } catch (IOException e) {
+            logger.debug("Registry {} is not reachable: {}", baseUrl, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 查询仓库中的blob大小
+     *
+     * @return blob大小，不存在时返回-1
+     */
+    public long getBlobSize(String repository, String digest) {
+        Request request = new Request.Builder()
+                .url(baseUrl + "/v2/" + repository + "/blobs/" + digest)
+                .head()
+                .build();
+
+        try (Response response = execute(request, pullScope(repository))) {
+            if (response.code() == 404) {
+                return -1;
+            }
+            ensureSuccess(request, response);
+            String length = response.header("Content-Length");
+            return length != null ? Long.parseLong(length) : 0;
+        } catch (IOException e) {
+            throw ioError(request, e);
+        }
+    }
+
+    /**
+     * 开启一次blob上传会话
+     *
+     * @return 上传会话的绝对地址
+     */
+    public String startUpload(String repository) {
+        Request request = new Request.Builder()
+                .url(baseUrl + "/v2/" + repository + "/blobs/uploads/")
+                .post(RequestBody.create(null, new byte[0]))
+                .build();
+
+        try (Response response = execute(request, pushScope(repository))) {
+            ensureSuccess(request, response);
+            return resolveLocation(response);
+        } catch (IOException e) {
+            throw ioError(request, e);
+        }
+    }
+
+    /**
+     * 尝试从同一Registry的其他仓库挂载blob，挂载成功时无需传输数据
+     *
+     * @return 挂载成功返回true；源仓库不存在该blob时返回false
+     */
+    public boolean mountBlob(String repository, String digest, String fromRepository) {
+        HttpUrl url = HttpUrl.get(baseUrl + "/v2/" + repository + "/blobs/uploads/").newBuilder()
+                .addQueryParameter("mount", digest)
+                .addQueryParameter("from", fromRepository)
+                .build();
+        Request request = new Request.Builder()
+                .url(url)
+                .post(RequestBody.create(null, new byte[0]))
+                .build();
+
+        try (Response response = execute(request, pushScope(repository) + " " + pullScope(fromRepository))) {
+            if (response.code() == 201) {
+                return true;
+            }
+            ensureSuccess(request, response);
+            // Registry退化为普通上传会话（202），取消该会话避免残留
+            cancelUpload(repository, resolveLocation(response));
+            return false;
+        } catch (IOException e) {
+            throw ioError(request, e);
+        }
+    }
+
+    /**
+     * 取消上传会话，失败时仅记录日志
+     */
+    public void cancelUpload(String repository, String location) {
+        Request request = new Request.Builder()
+                .url(location)
+                .delete()
+                .build();
+        try (Response response = execute(request, pushScope(repository))) {
+            if (!response.isSuccessful() && response.code() != 404) {
+                logger.debug("Failed to cancel upload session {}: {}", location, response.code());
+            }
+        } catch (IOException e) {
+            logger.debug("Failed to cancel upload session {}", location, e);
+        }
+    }
+
+    /**
+     * 以PATCH追加一个分块
+     *
+     * @param offset 分块在blob中的起始偏移量，必须等于Registry已接收的字节数
+     * @return Registry确认后的上传状态
+     */
+    public UploadStatus uploadChunk(String repository, String location, long offset, RequestBody chunk)
+            throws IOException {
+        long length = chunk.contentLength();
+        Request request = new Request.Builder()
+                .url(location)
+                .header("Content-Range", offset + "-" + (offset + length - 1))
+                .patch(chunk)
+                .build();
+
+        try (Response response = execute(request, pushScope(repository))) {
+            ensureSuccess(request, response);
+            return new UploadStatus(resolveLocation(response), parseRange(response.header("Range"), offset + length));
+        }
+    }
+
+    /**
+     * 查询上传会话的当前进度
+     *
+     * @return 上传状态，会话已失效时返回null
+     */
+    public UploadStatus getUploadStatus(String repository, String location) {
+        Request request = new Request.Builder()
+                .url(location)
+                .get()
+                .build();
+
+        try (Response response = execute(request, pushScope(repository))) {
+            if (response.code() == 404) {
+                return null;
+            }
+            ensureSuccess(request, response);
+            String next = response.header("Location");
+            return new UploadStatus(next != null ? resolveLocation(response) : location,
+                    parseRange(response.header("Range"), 0));
+        } catch (IOException e) {
+            throw ioError(request, e);
+        }
+    }
+
+    /**
+     * 解析Range响应头（0-N），返回已接收的字节数
+     */
+    private static long parseRange(String range, long fallback) {
+        if (range == null) {
+            return fallback;
+        }
+        int dash = range.lastIndexOf('-');
+        if (dash < 0) {
+            return fallback;
+        }
+        long end = Long.parseLong(range.substring(dash + 1).trim());
+        // "0-0" 在协议中既可能表示空会话也可能表示1字节，按空会话处理，下一分块会被Registry校正
+        return end == 0 ? 0 : end + 1;
+    }
+
+    /**
+     * 以最终的PUT请求提交上传会话，body为尚未发送的剩余数据
+     */
+    public void completeUpload(String repository, String location, String digest, RequestBody body) {
+        HttpUrl url = HttpUrl.get(location).newBuilder()
+                .addQueryParameter("digest", digest)
+                .build();
+        Request request = new Request.Builder()
+                .url(url)
+                .put(body != null ? body : RequestBody.create(null, new byte[0]))
+                .build();
+
+        try (Response response = execute(request, pushScope(repository))) {
+            ensureSuccess(request, response);
+        } catch (IOException e) {
+            throw ioError(request, e);
+        }
+    }
+
+    /**
+     * 单次请求上传完整blob
+     */
+    public void uploadBlob(String repository, String digest, RequestBody body) {
+        String location = startUpload(repository);
+        completeUpload(repository, location, digest, body);
+    }
+
+    /**
+     * 上传镜像清单
+     *
+     * @return Registry返回的清单摘要
+     */
+    public String putManifest(String repository, String reference, String mediaType, byte[] manifest) {
+        Request request = new Request.Builder()
+                .url(baseUrl + "/v2/" + repository + "/manifests/" + reference)
+                .put(RequestBody.create(MediaType.parse(mediaType), manifest))
+                .build();
+
+        try (Response response = execute(request, pushScope(repository))) {
+            ensureSuccess(request, response);
+            return response.header("Docker-Content-Digest");
+        } catch (IOException e) {
+            throw ioError(request, e);
+        }
+    }
+
+    /**
+     * 获取镜像清单
+     *
+     * @param reference 标签或清单摘要
+     */
+    public ManifestResponse getManifest(String repository, String reference) {
+        Request request = new Request.Builder()
+                .url(baseUrl + "/v2/" + repository + "/manifests/" + reference)
+                .header("Accept", MANIFEST_ACCEPT)
+                .get()
+                .build();
+
+        try (Response response = execute(request, pullScope(repository))) {
+            ensureSuccess(request, response);
+            byte[] content = response.body().bytes();
+            String mediaType = response.header("Content-Type", "");
+            int parameters = mediaType.indexOf(';');
+            if (parameters >= 0) {
+                mediaType = mediaType.substring(0, parameters);
+            }
+            return new ManifestResponse(mediaType.trim(), response.header("Docker-Content-Digest"), content);
+        } catch (IOException e) {
+            throw ioError(request, e);
+        }
+    }
+
+    /**
+     * 列出仓库的全部标签，按Link头逐页获取
+     */
+    public List<String> listTags(String repository) {
+        List<String> tags = new ArrayList<>();
+        HttpUrl url = HttpUrl.get(baseUrl + "/v2/" + repository + "/tags/list");
+        while (url != null) {
+            Request request = new Request.Builder().url(url).get().build();
+            try (Response response = execute(request, pullScope(repository))) {
+                ensureSuccess(request, response);
+                Map<String, Object> body = objectMapper.readValue(response.body().string(),
+                        new TypeReference<Map<String, Object>>() {});
+                Object page = body.get("tags");
+                if (page instanceof List) {
+                    for (Object tag : (List<?>) page) {
+                        tags.add(String.valueOf(tag));
+                    }
+                }
+                url = null;
+                String link = response.header("Link");
+                if (link != null) {
+                    Matcher matcher = NEXT_LINK.matcher(link);
+                    if (matcher.find()) {
+                        url = request.url().resolve(matcher.group(1));
+                    }
+                }
+            } catch (IOException e) {
+                throw ioError(request, e);
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * 下载小blob（镜像配置等）到内存
+     */
+    public byte[] getBlob(String repository, String digest) {
+        try (BlobStream blob = openBlob(repository, digest, 0)) {
+            return blob.getBody().bytes();
+        } catch (IOException e) {
+            throw new HarborException("Registry API request IO error", e);
+        }
+    }
+
+    /**
+     * 打开blob下载流，offset大于0时以Range请求从该位置继续；
+     * 服务端不支持Range时返回的流从0开始，调用方以 {@link BlobStream#getOffset()} 为准
+     */
+    public BlobStream openBlob(String repository, String digest, long offset) {
+        Request.Builder builder = new Request.Builder()
+                .url(baseUrl + "/v2/" + repository + "/blobs/" + digest)
+                .get();
+        if (offset > 0) {
+            builder.header("Range", "bytes=" + offset + "-");
+        }
+        Request request = builder.build();
+
+        Response response = null;
+        try {
+            response = execute(request, pullScope(repository));
+            ensureSuccess(request, response);
+            BlobStream blob = new BlobStream(response.code() == 206 ? offset : 0, response.body());
+            response = null;
+            return blob;
+        } catch (IOException e) {
+            throw ioError(request, e);
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * 构造读取文件区间的请求体，可重复写出，便于认证后重试
+     */
+    public static RequestBody fileRegion(FileChannel channel, long offset, long length) {
+        return new FileRegionBody(channel, offset, length, null);
+    }
+
+    /**
+     * 构造读取文件区间的请求体，写出的同时在initialDigest状态的副本上继续计算摘要，
+     * 每次写出都从initialDigest重新开始，写出完成后通过 {@link FileRegionBody#getDigest()} 取得结果状态
+     */
+    public static FileRegionBody fileRegion(FileChannel channel, long offset, long length, MessageDigest initialDigest) {
+        return new FileRegionBody(channel, offset, length, initialDigest);
+    }
+
+    /**
+     * 执行请求，遇到Bearer认证质询时向Harbor令牌服务申请令牌后重试一次
+     */
+    private Response execute(Request request, String scope) throws IOException {
+        String token = tokens.get(scope);
+        Request authorized = request.newBuilder()
+                .header("Authorization", token != null ? "Bearer " + token : basicAuth)
+                .build();
+        Response response = httpClient.newCall(authorized).execute();
+        if (response.code() != 401) {
+            return response;
+        }
+
+        String challenge = response.header("WWW-Authenticate");
+        if (challenge == null || !challenge.regionMatches(true, 0, "Bearer", 0, 6)) {
+            return response;
+        }
+        response.close();
+
+        token = fetchToken(challenge, scope);
+        tokens.put(scope, token);
+        return httpClient.newCall(request.newBuilder()
+                .header("Authorization", "Bearer " + token)
+                .build()).execute();
+    }
+
+    /**
+     * 按质询中的realm/service向令牌服务申请指定scope的令牌
+     */
+    private String fetchToken(String challenge, String scope) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        Matcher matcher = CHALLENGE_PARAM.matcher(challenge);
+        while (matcher.find()) {
+            params.put(matcher.group(1), matcher.group(2));
+        }
+        String realm = params.get("realm");
+        if (realm == null) {
+            throw new HarborException(401, "Registry authentication challenge has no realm: " + challenge);
+        }
+
+        HttpUrl.Builder url = HttpUrl.get(realm).newBuilder();
+        if (params.containsKey("service")) {
+            url.addQueryParameter("service", params.get("service"));
+        }
+        for (String item : scope.split(" ")) {
+            url.addQueryParameter("scope", item);
+        }
+
+        Request request = new Request.Builder()
+                .url(url.build())
+                .header("Authorization", basicAuth)
+                .get()
+                .build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            ensureSuccess(request, response);
+            Map<String, Object> body = objectMapper.readValue(response.body().string(),
+                    new TypeReference<Map<String, Object>>() {});
+            Object token = body.get("token") != null ? body.get("token") : body.get("access_token");
+            if (token == null) {
+                throw new HarborException("Registry token response contains no token");
+            }
+            return token.toString();
+        }
+    }
+
+    private String resolveLocation(Response response) {
+        String location = response.header("Location");
+        if (location == null) {
+            throw new HarborException(response.code(), "Registry response has no Location header");
+        }
+        HttpUrl resolved = response.request().url().resolve(location);
+        if (resolved == null) {
+            throw new HarborException("Invalid upload location: " + location);
+        }
+        return resolved.toString();
+    }
+
+    private void ensureSuccess(Request request, Response response) throws IOException {
+        if (!response.isSuccessful()) {
+            String responseBody = response.body() != null ? response.body().string() : "";
+            logger.error("Registry API request failed: {} {}, Response: {}",
+                    request.method(), request.url(), responseBody);
+            throw new HarborException(response.code(),
+                    "Registry API request failed: " + response.code() + " " + response.message());
+        }
+    }
+
+    private HarborException ioError(Request request, IOException e) {
+        logger.error("Registry API request IO error: {} {}", request.method(), request.url(), e);
+        return new HarborException("Registry API request IO error", e);
+    }
+
+    private static String pullScope(String repository) {
+        return "repository:" + repository + ":pull";
+    }
+
+    private static String pushScope(String repository) {
+        return "repository:" + repository + ":pull,push";
+    }
+
+    /**
+     * 清单响应
+     */
+    public static class ManifestResponse {
+        private final String mediaType;
+        private final String digest;
+        private final byte[] content;
+
+        public ManifestResponse(String mediaType, String digest, byte[] content) {
+            this.mediaType = mediaType;
+            this.digest = digest != null ? digest : DigestEngine.sha256(content);
+            this.content = content;
+        }
+
+        public String getMediaType() {
+            return mediaType;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+    }
+
+    /**
+     * blob下载流
+     */
+    public static class BlobStream implements Closeable {
+        private final long offset;
+        private final ResponseBody body;
+
+        BlobStream(long offset, ResponseBody body) {
+            this.offset = offset;
+            this.body = body;
+        }
+
+        /**
+         * 响应内容在blob中的起始位置
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        public ResponseBody getBody() {
+            return body;
+        }
+
+        @Override
+        public void close() {
+            body.close();
+        }
+    }
+
+    /**
+     * 上传会话状态
+     */
+    public static class UploadStatus {
+        private final String location;
+        private final long offset;
+
+        public UploadStatus(String location, long offset) {
+            this.location = location;
+            this.offset = offset;
+        }
+
+        /**
+         * 下一次请求应使用的上传地址
+         */
+        public String getLocation() {
+            return location;
+        }
+
+        /**
+         * Registry已确认接收的字节数
+         */
+        public long getOffset() {
+            return offset;
+        }
+    }
+
+    /**
+     * 文件区间请求体，经池化的直接缓冲区写出
+     */
+    public static class FileRegionBody extends RequestBody {
+        private final FileChannel channel;
+        private final long offset;
+        private final long length;
+        private final MessageDigest initialDigest;
+        private volatile MessageDigest digest;
+
+        FileRegionBody(FileChannel channel, long offset, long length, MessageDigest initialDigest) {
+            this.channel = channel;
+            this.offset = offset;
+            this.length = length;
+            this.initialDigest = initialDigest;
+        }
+
+        /**
+         * 最近一次完整写出后的摘要状态，未计算摘要或尚未写完时为null
+         */
+        public MessageDigest getDigest() {
+            return digest;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return OCTET_STREAM;
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            MessageDigest current = initialDigest == null ? null : DigestEngine.copy(initialDigest);
+            DirectBufferPool pool = DirectBufferPool.getDefault();
+            ByteBuffer buffer = pool.acquire();
+            try {
+                long position = offset;
+                long end = offset + length;
+                while (position < end) {
+                    buffer.clear();
+                    if (end - position < buffer.capacity()) {
+                        buffer.limit((int) (end - position));
+                    }
+                    int read = channel.read(buffer, position);
+                    if (read < 0) {
+                        throw new IOException("Unexpected end of file at offset " + position);
+                    }
+                    buffer.flip();
+                    if (current != null) {
+                        current.update(buffer.duplicate());
+                    }
+                    while (buffer.hasRemaining()) {
+                        sink.write(buffer);
+                    }
+                    position += read;
+                }
+            } finally {
+                pool.release(buffer);
+            }
+            digest = current;
+        }
+    }
+}
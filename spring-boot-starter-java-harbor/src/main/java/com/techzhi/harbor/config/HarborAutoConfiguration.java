@@ -1,13 +1,38 @@
 package com.techzhi.harbor.config;
 
+import com.amazonaws.services.s3.AmazonS3;
 import com.techzhi.harbor.client.HarborClient;
+import com.techzhi.harbor.client.HarborMetadataCache;
+import com.techzhi.harbor.client.RegistryClient;
+import com.techzhi.harbor.ingest.WatchFolderIngestService;
+import com.techzhi.harbor.s3.S3ImageArchiveService;
 import com.techzhi.harbor.service.DockerImageService;
+import com.techzhi.harbor.service.DockerTransferEngine;
 import com.techzhi.harbor.service.HarborImageService;
+import com.techzhi.harbor.service.RegistryImageService;
+import com.techzhi.harbor.service.RegistryTransferEngine;
+import com.techzhi.harbor.service.SkoPeoImageService;
+import com.techzhi.harbor.service.SkopeoTransferEngine;
+import com.techzhi.harbor.transfer.DigestEngine;
+import com.techzhi.harbor.transfer.ImageTransferEngine;
+import com.techzhi.harbor.transfer.JobJournal;
+import com.techzhi.harbor.transfer.TransferEngineSelector;
+import com.techzhi.harbor.transfer.TransferScheduler;
 import com.techzhi.harbor.util.HarborUtil;
+import com.techzhi.harbor.util.SkopeoExecutor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.util.StringUtils;
+
+import java.util.stream.Collectors;
 
 /**
  * Harbor自动配置类
@@ -16,6 +41,7 @@ import org.springframework.context.annotation.Configuration;
  */
 @Configuration
 @EnableConfigurationProperties(HarborProperties.class)
+@AutoConfigureAfter(name = "com.techzhi.common.s3.seaweedfs.config.SeaweedFsS3AutoConfiguration")
 public class HarborAutoConfiguration {
 
     /**
@@ -27,13 +53,95 @@ public class HarborAutoConfiguration {
         return new HarborClient(properties);
     }
 
+    /**
+     * 启用 harbor.cache.enabled 时创建镜像元数据查询缓存Bean
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "harbor.cache", name = "enabled", havingValue = "true")
+    public HarborMetadataCache harborMetadataCache(HarborProperties properties) {
+        return new HarborMetadataCache(properties);
+    }
+
     /**
      * 创建Harbor镜像服务Bean
      */
     @Bean
     @ConditionalOnMissingBean
-    public HarborImageService harborImageService(HarborClient harborClient, HarborProperties properties) {
-        return new HarborImageService(harborClient, properties);
+    public HarborImageService harborImageService(HarborClient harborClient, HarborProperties properties,
+                                                 ObjectProvider<HarborMetadataCache> metadataCache) {
+        return new HarborImageService(harborClient, properties, metadataCache.getIfAvailable());
+    }
+
+    /**
+     * 创建Registry V2客户端Bean
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public RegistryClient registryClient(HarborProperties properties) {
+        return new RegistryClient(properties);
+    }
+
+    /**
+     * 创建层摘要计算引擎Bean
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public DigestEngine digestEngine(HarborProperties properties) {
+        return new DigestEngine(properties);
+    }
+
+    /**
+     * 创建Registry V2镜像服务Bean
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public RegistryImageService registryImageService(RegistryClient registryClient, HarborProperties properties,
+                                                     DigestEngine digestEngine,
+                                                     ObjectProvider<HarborMetadataCache> metadataCache) {
+        RegistryImageService service = new RegistryImageService(registryClient, properties, digestEngine);
+        service.setMetadataCache(metadataCache.getIfAvailable());
+        return service;
+    }
+
+    /**
+     * 创建镜像传输调度器Bean
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public TransferScheduler transferScheduler(HarborProperties properties) {
+        return new TransferScheduler(properties);
+    }
+
+    /**
+     * 创建skopeo进程执行器Bean
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public SkopeoExecutor skopeoExecutor(HarborProperties properties) {
+        return new SkopeoExecutor(properties);
+    }
+
+    /**
+     * 创建skopeo镜像服务Bean
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public SkoPeoImageService skoPeoImageService(HarborProperties properties, SkopeoExecutor skopeoExecutor,
+                                                 ObjectProvider<HarborMetadataCache> metadataCache) {
+        SkoPeoImageService service = new SkoPeoImageService(properties, skopeoExecutor);
+        service.setMetadataCache(metadataCache.getIfAvailable());
+        return service;
+    }
+
+    /**
+     * 启用 harbor.journal.enabled 时创建批量任务日志Bean
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "harbor.journal", name = "enabled", havingValue = "true")
+    public JobJournal jobJournal(HarborProperties properties) {
+        return new JobJournal(properties);
     }
 
     /**
@@ -41,8 +149,54 @@ public class HarborAutoConfiguration {
      */
     @Bean
     @ConditionalOnMissingBean
-    public DockerImageService dockerImageService(HarborProperties properties) {
-        return new DockerImageService(properties);
+    public DockerImageService dockerImageService(HarborProperties properties, RegistryImageService registryImageService,
+                                                 TransferScheduler transferScheduler,
+                                                 ObjectProvider<JobJournal> jobJournal,
+                                                 ObjectProvider<HarborMetadataCache> metadataCache,
+                                                 ObjectProvider<TransferEngineSelector> transferEngineSelector) {
+        DockerImageService service = new DockerImageService(properties, registryImageService, transferScheduler,
+                jobJournal.getIfAvailable());
+        service.setMetadataCache(metadataCache.getIfAvailable());
+        // 选择器经DockerTransferEngine依赖本服务，推送时再解析；用户自定义的选择器同样生效
+        service.setTransferEngineSelectorProvider(transferEngineSelector::getIfAvailable);
+        return service;
+    }
+
+    /**
+     * 创建Registry传输引擎Bean
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public RegistryTransferEngine registryTransferEngine(RegistryImageService registryImageService) {
+        return new RegistryTransferEngine(registryImageService);
+    }
+
+    /**
+     * 创建Docker传输引擎Bean
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public DockerTransferEngine dockerTransferEngine(DockerImageService dockerImageService) {
+        return new DockerTransferEngine(dockerImageService);
+    }
+
+    /**
+     * 创建skopeo传输引擎Bean
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public SkopeoTransferEngine skopeoTransferEngine(SkoPeoImageService skoPeoImageService) {
+        return new SkopeoTransferEngine(skoPeoImageService);
+    }
+
+    /**
+     * 创建传输引擎选择器Bean，push-mode为AUTO时DockerImageService通过它为每个任务选择引擎
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public TransferEngineSelector transferEngineSelector(ObjectProvider<ImageTransferEngine> engines,
+                                                         HarborProperties properties) {
+        return new TransferEngineSelector(engines.orderedStream().collect(Collectors.toList()), properties);
     }
 
     /**
@@ -50,7 +204,42 @@ public class HarborAutoConfiguration {
      */
     @Bean
     @ConditionalOnMissingBean
-    public HarborUtil harborUtil(HarborImageService harborImageService, DockerImageService dockerImageService) {
-        return new HarborUtil(harborImageService, dockerImageService);
+    public HarborUtil harborUtil(HarborImageService harborImageService, DockerImageService dockerImageService,
+                                 RegistryImageService registryImageService, ObjectProvider<JobJournal> jobJournal) {
+        return new HarborUtil(harborImageService, dockerImageService, registryImageService,
+                jobJournal.getIfAvailable());
+    }
+
+    /**
+     * 启用 harbor.ingest.enabled 时创建监听目录自动导入服务Bean并开始监听
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "harbor.ingest", name = "enabled", havingValue = "true")
+    public WatchFolderIngestService watchFolderIngestService(DockerImageService dockerImageService,
+                                                             DigestEngine digestEngine, HarborProperties properties) {
+        WatchFolderIngestService service = new WatchFolderIngestService(dockerImageService, digestEngine, properties);
+        service.start();
+        return service;
+    }
+
+    /**
+     * 引入了AWS S3 SDK且存在AmazonS3客户端（如SeaweedFS starter提供的）时，创建S3镜像归档服务Bean
+     */
+    @Configuration
+    @ConditionalOnClass(name = "com.amazonaws.services.s3.AmazonS3")
+    static class S3ArchiveConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        @ConditionalOnBean(AmazonS3.class)
+        public S3ImageArchiveService s3ImageArchiveService(AmazonS3 amazonS3, DockerImageService dockerImageService,
+                                                           HarborProperties properties, Environment environment) {
+            String bucket = properties.getS3().getBucket();
+            if (!StringUtils.hasText(bucket)) {
+                bucket = environment.getProperty("seaweedfs.s3.bucket-name");
+            }
+            return new S3ImageArchiveService(amazonS3, dockerImageService, properties, bucket);
+        }
     }
-}
\ No newline at end of file
+}
@@ -2,6 +2,10 @@ package com.techzhi.harbor.config;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Harbor配置属性
  * 
@@ -50,6 +54,82 @@ public class HarborProperties {
      */
     private boolean sslEnabled = false;
 
+    /**
+     * 分页查询Harbor API时每页的条数（Harbor上限为100）
+     */
+    private int pageSize = 100;
+
+    /**
+     * 是否合并并发的相同GET请求（同一URL、同一结果类型只发一次请求，等待的调用方各得一份结果副本）
+     */
+    private boolean requestCoalescing = true;
+
+    /**
+     * 异步请求（xxxAsync方法、分页预取）的最大并发数，超出的请求在OkHttp调度器内排队
+     */
+    private int maxRequests = 64;
+
+    /**
+     * 对同一主机的异步请求最大并发数
+     */
+    private int maxRequestsPerHost = 16;
+
+    /**
+     * 镜像推送模式：DOCKER 通过本地Docker守护进程加载后推送，REGISTRY 直接调用Registry V2 API推送tar中的层；
+     * REGISTRY 模式下保存镜像为tar文件同样直接从Registry拉取
+     */
+    private PushMode pushMode = PushMode.DOCKER;
+
+    /**
+     * Registry V2 直传相关配置
+     */
+    private Registry registry = new Registry();
+
+    /**
+     * 镜像传输调度相关配置
+     */
+    private Transfer transfer = new Transfer();
+
+    /**
+     * 本地层缓存相关配置
+     */
+    private LayerCache layerCache = new LayerCache();
+
+    /**
+     * 文件读写与摘要计算相关配置
+     */
+    private Io io = new Io();
+
+    /**
+     * S3对象存储归档相关配置
+     */
+    private S3 s3 = new S3();
+
+    /**
+     * 监听目录自动导入相关配置
+     */
+    private Ingest ingest = new Ingest();
+
+    /**
+     * 批量任务日志相关配置
+     */
+    private Journal journal = new Journal();
+
+    /**
+     * skopeo进程执行相关配置
+     */
+    private Skopeo skopeo = new Skopeo();
+
+    /**
+     * 传输引擎选择相关配置（push-mode=AUTO时生效）
+     */
+    private Engine engine = new Engine();
+
+    /**
+     * 镜像元数据查询缓存相关配置
+     */
+    private Cache cache = new Cache();
+
     public String getHost() {
         return host;
     }
@@ -113,4 +193,892 @@ public class HarborProperties {
     public void setSslEnabled(boolean sslEnabled) {
         this.sslEnabled = sslEnabled;
     }
-} 
\ No newline at end of file
+
+    public boolean isRequestCoalescing() {
+        return requestCoalescing;
+    }
+
+    public void setRequestCoalescing(boolean requestCoalescing) {
+        this.requestCoalescing = requestCoalescing;
+    }
+
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    public void setMaxRequests(int maxRequests) {
+        this.maxRequests = maxRequests;
+    }
+
+    public int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public PushMode getPushMode() {
+        return pushMode;
+    }
+
+    public void setPushMode(PushMode pushMode) {
+        this.pushMode = pushMode;
+    }
+
+    public Registry getRegistry() {
+        return registry;
+    }
+
+    public void setRegistry(Registry registry) {
+        this.registry = registry;
+    }
+
+    public Transfer getTransfer() {
+        return transfer;
+    }
+
+    public void setTransfer(Transfer transfer) {
+        this.transfer = transfer;
+    }
+
+    public LayerCache getLayerCache() {
+        return layerCache;
+    }
+
+    public void setLayerCache(LayerCache layerCache) {
+        this.layerCache = layerCache;
+    }
+
+    public Io getIo() {
+        return io;
+    }
+
+    public void setIo(Io io) {
+        this.io = io;
+    }
+
+    public S3 getS3() {
+        return s3;
+    }
+
+    public void setS3(S3 s3) {
+        this.s3 = s3;
+    }
+
+    public Ingest getIngest() {
+        return ingest;
+    }
+
+    public void setIngest(Ingest ingest) {
+        this.ingest = ingest;
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    public Skopeo getSkopeo() {
+        return skopeo;
+    }
+
+    public void setSkopeo(Skopeo skopeo) {
+        this.skopeo = skopeo;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public void setCache(Cache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Registry V2 直传配置
+     */
+    public static class Registry {
+
+        /**
+         * 上传前是否尝试从其他仓库跨仓库挂载已存在的层
+         */
+        private boolean crossRepositoryMount = true;
+
+        /**
+         * 额外的挂载来源仓库（project/image），例如公共基础镜像仓库
+         */
+        private List<String> mountSources = new ArrayList<>();
+
+        /**
+         * 分块上传的块大小（字节），超过该大小的层以PATCH分块上传并记录断点
+         */
+        private long chunkSize = 16L * 1024 * 1024;
+
+        /**
+         * 单个blob上传遇到网络错误时的最大重试次数
+         */
+        private int uploadRetries = 5;
+
+        /**
+         * 分块上传会话的持久化目录，JVM重启后据此断点续传
+         */
+        private String sessionDir = System.getProperty("java.io.tmpdir") + "/harbor-upload-sessions";
+
+        /**
+         * 单个镜像推送时并行上传的层数上限
+         */
+        private int layerConcurrency = 4;
+
+        /**
+         * 摘要未知的层是否边上传边计算摘要（省去上传前的完整读取，但无法在上传前检查目标仓库是否已有该层）
+         */
+        private boolean digestWhileUploading = true;
+
+        /**
+         * 拉取多平台镜像时选择的平台（os/architecture[/variant]）
+         */
+        private String platform = "linux/amd64";
+
+        /**
+         * 导出项目时并行处理的镜像标签数上限
+         */
+        private int exportConcurrency = 4;
+
+        public boolean isCrossRepositoryMount() {
+            return crossRepositoryMount;
+        }
+
+        public void setCrossRepositoryMount(boolean crossRepositoryMount) {
+            this.crossRepositoryMount = crossRepositoryMount;
+        }
+
+        public List<String> getMountSources() {
+            return mountSources;
+        }
+
+        public void setMountSources(List<String> mountSources) {
+            this.mountSources = mountSources;
+        }
+
+        public long getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(long chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        public int getUploadRetries() {
+            return uploadRetries;
+        }
+
+        public void setUploadRetries(int uploadRetries) {
+            this.uploadRetries = uploadRetries;
+        }
+
+        public String getSessionDir() {
+            return sessionDir;
+        }
+
+        public void setSessionDir(String sessionDir) {
+            this.sessionDir = sessionDir;
+        }
+
+        public int getExportConcurrency() {
+            return exportConcurrency;
+        }
+
+        public void setExportConcurrency(int exportConcurrency) {
+            this.exportConcurrency = exportConcurrency;
+        }
+
+        public int getLayerConcurrency() {
+            return layerConcurrency;
+        }
+
+        public void setLayerConcurrency(int layerConcurrency) {
+            this.layerConcurrency = layerConcurrency;
+        }
+
+        public String getPlatform() {
+            return platform;
+        }
+
+        public void setPlatform(String platform) {
+            this.platform = platform;
+        }
+
+        public boolean isDigestWhileUploading() {
+            return digestWhileUploading;
+        }
+
+        public void setDigestWhileUploading(boolean digestWhileUploading) {
+            this.digestWhileUploading = digestWhileUploading;
+        }
+    }
+
+    /**
+     * 镜像传输调度配置
+     */
+    public static class Transfer {
+
+        /**
+         * 同时执行的传输任务数上限
+         */
+        private int maxConcurrentJobs = 5;
+
+        /**
+         * 全局在途字节预算，正在执行的任务预估字节数之和不超过该值（单个超出预算的任务在空闲时单独执行）
+         */
+        private long maxInFlightBytes = 8L * 1024 * 1024 * 1024;
+
+        /**
+         * 任务因字节预算不足被小任务越过的最长等待时间（毫秒），超过后暂停接纳新任务直到其可以执行
+         */
+        private long starvationTimeout = 60000;
+
+        public int getMaxConcurrentJobs() {
+            return maxConcurrentJobs;
+        }
+
+        public void setMaxConcurrentJobs(int maxConcurrentJobs) {
+            this.maxConcurrentJobs = maxConcurrentJobs;
+        }
+
+        public long getMaxInFlightBytes() {
+            return maxInFlightBytes;
+        }
+
+        public void setMaxInFlightBytes(long maxInFlightBytes) {
+            this.maxInFlightBytes = maxInFlightBytes;
+        }
+
+        public long getStarvationTimeout() {
+            return starvationTimeout;
+        }
+
+        public void setStarvationTimeout(long starvationTimeout) {
+            this.starvationTimeout = starvationTimeout;
+        }
+    }
+
+    /**
+     * 本地内容寻址层缓存配置
+     */
+    public static class LayerCache {
+
+        /**
+         * 是否启用层缓存
+         */
+        private boolean enabled = false;
+
+        /**
+         * 缓存目录
+         */
+        private String directory = System.getProperty("java.io.tmpdir") + "/harbor-layer-cache";
+
+        /**
+         * 缓存总大小上限（字节），超过后按最近最少使用淘汰
+         */
+        private long maxSize = 20L * 1024 * 1024 * 1024;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public long getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(long maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
+
+    /**
+     * 文件读写与摘要计算配置
+     */
+    public static class Io {
+
+        /**
+         * 并行计算层摘要的线程数
+         */
+        private int digestParallelism = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * 保存为 .tar.gz / .tar.zst 时并行压缩的线程数
+         */
+        private int compressionThreads = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * gzip并行压缩时每个分块的大小（字节）
+         */
+        private int compressionBlockSize = 1024 * 1024;
+
+        /**
+         * gzip压缩级别（1-9）
+         */
+        private int gzipLevel = 6;
+
+        /**
+         * zstd压缩级别（1-22）
+         */
+        private int zstdLevel = 3;
+
+        /**
+         * 镜像tar包元数据检查结果的磁盘缓存目录，为空时只在内存中缓存
+         */
+        private String inspectCacheDirectory = System.getProperty("java.io.tmpdir") + "/harbor-inspect-cache";
+
+        public int getDigestParallelism() {
+            return digestParallelism;
+        }
+
+        public void setDigestParallelism(int digestParallelism) {
+            this.digestParallelism = digestParallelism;
+        }
+
+        public int getCompressionThreads() {
+            return compressionThreads;
+        }
+
+        public void setCompressionThreads(int compressionThreads) {
+            this.compressionThreads = compressionThreads;
+        }
+
+        public int getCompressionBlockSize() {
+            return compressionBlockSize;
+        }
+
+        public void setCompressionBlockSize(int compressionBlockSize) {
+            this.compressionBlockSize = compressionBlockSize;
+        }
+
+        public int getGzipLevel() {
+            return gzipLevel;
+        }
+
+        public void setGzipLevel(int gzipLevel) {
+            this.gzipLevel = gzipLevel;
+        }
+
+        public int getZstdLevel() {
+            return zstdLevel;
+        }
+
+        public void setZstdLevel(int zstdLevel) {
+            this.zstdLevel = zstdLevel;
+        }
+
+        public String getInspectCacheDirectory() {
+            return inspectCacheDirectory;
+        }
+
+        public void setInspectCacheDirectory(String inspectCacheDirectory) {
+            this.inspectCacheDirectory = inspectCacheDirectory;
+        }
+    }
+
+    /**
+     * S3对象存储归档配置（分片上传/分段并行下载）
+     */
+    public static class S3 {
+
+        /**
+         * 存储桶，为空时使用 seaweedfs.s3.bucket-name
+         */
+        private String bucket;
+
+        /**
+         * 分片大小（字节），S3要求除最后一片外不小于5MB
+         */
+        private int partSize = 8 * 1024 * 1024;
+
+        /**
+         * 单个传输同时上传/下载的分片数，内存占用约为 (concurrency + 1) * partSize
+         */
+        private int concurrency = 4;
+
+        public String getBucket() {
+            return bucket;
+        }
+
+        public void setBucket(String bucket) {
+            this.bucket = bucket;
+        }
+
+        public int getPartSize() {
+            return partSize;
+        }
+
+        public void setPartSize(int partSize) {
+            this.partSize = partSize;
+        }
+
+        public int getConcurrency() {
+            return concurrency;
+        }
+
+        public void setConcurrency(int concurrency) {
+            this.concurrency = concurrency;
+        }
+    }
+
+    /**
+     * 监听目录自动导入配置
+     */
+    public static class Ingest {
+
+        /**
+         * 是否启用监听目录自动导入
+         */
+        private boolean enabled = false;
+
+        /**
+         * 监听目录，处理后的文件移入其下的 processed/ 和 failed/
+         */
+        private String directory;
+
+        /**
+         * 推送到的Harbor项目，为空时使用 harbor.project
+         */
+        private String project;
+
+        /**
+         * 匹配文件名的glob表达式
+         */
+        private String filePattern = "*.{tar,tar.gz,tgz,tar.zst,tzst}";
+
+        /**
+         * 文件大小和修改时间保持不变多久（毫秒）后视为写入完成
+         */
+        private long stableMillis = 5000;
+
+        /**
+         * 检查文件是否写入完成的间隔（毫秒）
+         */
+        private long pollInterval = 1000;
+
+        /**
+         * 同时加载推送的文件数
+         */
+        private int workers = 2;
+
+        /**
+         * 就绪队列容量，队列满时新就绪的文件留在监听目录等待
+         */
+        private int queueCapacity = 16;
+
+        /**
+         * 单个文件推送失败后的重试次数，耗尽后移入 failed/
+         */
+        private int maxRetries = 2;
+
+        /**
+         * 重试间隔基数（毫秒），第n次重试等待n倍
+         */
+        private long retryBackoff = 5000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public String getProject() {
+            return project;
+        }
+
+        public void setProject(String project) {
+            this.project = project;
+        }
+
+        public String getFilePattern() {
+            return filePattern;
+        }
+
+        public void setFilePattern(String filePattern) {
+            this.filePattern = filePattern;
+        }
+
+        public long getStableMillis() {
+            return stableMillis;
+        }
+
+        public void setStableMillis(long stableMillis) {
+            this.stableMillis = stableMillis;
+        }
+
+        public long getPollInterval() {
+            return pollInterval;
+        }
+
+        public void setPollInterval(long pollInterval) {
+            this.pollInterval = pollInterval;
+        }
+
+        public int getWorkers() {
+            return workers;
+        }
+
+        public void setWorkers(int workers) {
+            this.workers = workers;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getMaxRetries() {
+            return maxRetries;
+        }
+
+        public void setMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+        }
+
+        public long getRetryBackoff() {
+            return retryBackoff;
+        }
+
+        public void setRetryBackoff(long retryBackoff) {
+            this.retryBackoff = retryBackoff;
+        }
+    }
+
+    /**
+     * 批量任务日志配置，批量加载推送和批量导出据此在重启后跳过已完成的条目
+     */
+    public static class Journal {
+
+        /**
+         * 是否启用批量任务日志，默认关闭
+         */
+        private boolean enabled = false;
+
+        /**
+         * 日志目录
+         */
+        private String directory = System.getProperty("java.io.tmpdir") + "/harbor-journal";
+
+        /**
+         * 成组刷盘间隔（毫秒），进程崩溃时最多丢失这段时间内的状态记录，相应条目会被重新执行
+         */
+        private long flushInterval = 200;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public long getFlushInterval() {
+            return flushInterval;
+        }
+
+        public void setFlushInterval(long flushInterval) {
+            this.flushInterval = flushInterval;
+        }
+    }
+
+    /**
+     * skopeo进程执行配置
+     */
+    public static class Skopeo {
+
+        /**
+         * skopeo可执行文件
+         */
+        private String binary = "skopeo";
+
+        /**
+         * 同时运行的skopeo进程数上限
+         */
+        private int maxConcurrency = 4;
+
+        /**
+         * 单次copy的超时时间（毫秒，含等待进程名额），超时后连同子进程一起强制结束
+         */
+        private long copyTimeout = 30 * 60 * 1000L;
+
+        /**
+         * 单次inspect的超时时间（毫秒）
+         */
+        private long inspectTimeout = 60000;
+
+        /**
+         * 签名策略文件路径，为空时使用skopeo默认策略
+         */
+        private String policy;
+
+        public String getBinary() {
+            return binary;
+        }
+
+        public void setBinary(String binary) {
+            this.binary = binary;
+        }
+
+        public int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        public void setMaxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        public long getCopyTimeout() {
+            return copyTimeout;
+        }
+
+        public void setCopyTimeout(long copyTimeout) {
+            this.copyTimeout = copyTimeout;
+        }
+
+        public long getInspectTimeout() {
+            return inspectTimeout;
+        }
+
+        public void setInspectTimeout(long inspectTimeout) {
+            this.inspectTimeout = inspectTimeout;
+        }
+
+        public String getPolicy() {
+            return policy;
+        }
+
+        public void setPolicy(String policy) {
+            this.policy = policy;
+        }
+    }
+
+    /**
+     * 传输引擎选择配置
+     */
+    public static class Engine {
+
+        /**
+         * 参与选择的引擎及尚无测量值时的尝试顺序，可选 registry / docker / skopeo
+         */
+        private List<String> order = new ArrayList<>(Arrays.asList("registry", "docker", "skopeo"));
+
+        /**
+         * 引擎可用性探测结果的缓存时间（毫秒），推送失败的引擎在此时间内不再被选择
+         */
+        private long availabilityTtl = 60000;
+
+        /**
+         * 吞吐量指数滑动平均中最新一次测量的权重
+         */
+        private double smoothing = 0.3;
+
+        /**
+         * 镜像大小分档的边界（字节），各档分别统计吞吐量
+         */
+        private List<Long> sizeBuckets = new ArrayList<>(Arrays.asList(64L * 1024 * 1024, 1024L * 1024 * 1024));
+
+        /**
+         * 每个大小档每隔多少个任务让测量最旧的引擎重新测一次，0表示不重新测量
+         */
+        private int explorationInterval = 20;
+
+        public List<String> getOrder() {
+            return order;
+        }
+
+        public void setOrder(List<String> order) {
+            this.order = order;
+        }
+
+        public long getAvailabilityTtl() {
+            return availabilityTtl;
+        }
+
+        public void setAvailabilityTtl(long availabilityTtl) {
+            this.availabilityTtl = availabilityTtl;
+        }
+
+        public double getSmoothing() {
+            return smoothing;
+        }
+
+        public void setSmoothing(double smoothing) {
+            this.smoothing = smoothing;
+        }
+
+        public List<Long> getSizeBuckets() {
+            return sizeBuckets;
+        }
+
+        public void setSizeBuckets(List<Long> sizeBuckets) {
+            this.sizeBuckets = sizeBuckets;
+        }
+
+        public int getExplorationInterval() {
+            return explorationInterval;
+        }
+
+        public void setExplorationInterval(int explorationInterval) {
+            this.explorationInterval = explorationInterval;
+        }
+    }
+
+    /**
+     * 镜像元数据查询缓存配置，作用于 imageExists / imageTagExists / getImageInfo
+     */
+    public static class Cache {
+
+        /**
+         * 是否启用缓存
+         */
+        private boolean enabled = false;
+
+        /**
+         * 最多缓存的条目数，超出时淘汰最久未访问的条目
+         */
+        private int maxEntries = 10000;
+
+        /**
+         * imageExists 结果的有效期（毫秒）
+         */
+        private long imageExistsTtl = 30000;
+
+        /**
+         * imageTagExists 结果的有效期（毫秒）
+         */
+        private long tagExistsTtl = 30000;
+
+        /**
+         * getImageInfo 结果的有效期（毫秒）
+         */
+        private long imageInfoTtl = 60000;
+
+        /**
+         * 不存在（404）结果的有效期（毫秒），其他途径推送的镜像最迟在此时间后可见
+         */
+        private long notFoundTtl = 5000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public long getImageExistsTtl() {
+            return imageExistsTtl;
+        }
+
+        public void setImageExistsTtl(long imageExistsTtl) {
+            this.imageExistsTtl = imageExistsTtl;
+        }
+
+        public long getTagExistsTtl() {
+            return tagExistsTtl;
+        }
+
+        public void setTagExistsTtl(long tagExistsTtl) {
+            this.tagExistsTtl = tagExistsTtl;
+        }
+
+        public long getImageInfoTtl() {
+            return imageInfoTtl;
+        }
+
+        public void setImageInfoTtl(long imageInfoTtl) {
+            this.imageInfoTtl = imageInfoTtl;
+        }
+
+        public long getNotFoundTtl() {
+            return notFoundTtl;
+        }
+
+        public void setNotFoundTtl(long notFoundTtl) {
+            this.notFoundTtl = notFoundTtl;
+        }
+    }
+
+    /**
+     * 镜像推送模式
+     */
+    public enum PushMode {
+        /**
+         * 经由Docker守护进程 load/tag/push
+         */
+        DOCKER,
+        /**
+         * 不依赖Docker守护进程，直接通过Registry HTTP API V2上传和下载
+         */
+        REGISTRY,
+        /**
+         * 按镜像大小、引擎可用性和实测吞吐量为每个tar包选择 Registry / Docker / skopeo 推送，失败时改用其他引擎；
+         * 流式推送和导出使用Registry方式
+         */
+        AUTO
+    }
+}
@@ -0,0 +1,557 @@
+package com.techzhi.harbor.ingest;
+
+import com.techzhi.harbor.config.HarborProperties;
+import com.techzhi.harbor.exception.HarborException;
+import com.techzhi.harbor.service.DockerImageService;
+import com.techzhi.harbor.transfer.DigestEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 监听目录自动导入镜像tar文件的常驻服务，替代定时调用 HarborUtil.batchAutoLoadAndPushImages 的批处理任务
+ * 监听线程通过 WatchService 发现新文件，文件大小和修改时间在 stable-millis 内不再变化才视为写入完成；
+ * 就绪文件进入有界队列，由固定数量的工作线程按内容SHA-256去重后加载推送。
+ * 队列满时文件留在候选列表中等待下一轮，不阻塞监听也不丢弃；文件只在推送结果落盘后才移出监听目录
+ * （成功移入 processed/，重试耗尽移入 failed/），进程中途退出时未完成的文件重启后重新导入
+ *
+ * @author techzhi
+ */
+public class WatchFolderIngestService {
+
+    private static final Logger logger = LoggerFactory.getLogger(WatchFolderIngestService.class);
+
+    static final String PROCESSED_DIR = "processed";
+    static final String FAILED_DIR = "failed";
+    static final String LEDGER_FILE = ".ingested";
+
+    private final DockerImageService dockerImageService;
+    private final DigestEngine digestEngine;
+    private final HarborProperties properties;
+    private final HarborProperties.Ingest config;
+    private final BlockingQueue<ReadyFile> queue;
+    private final Queue<Path> completed = new ConcurrentLinkedQueue<>();
+    private final Map<String, String> ingested = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 候选文件，仅由监听线程访问，按发现顺序排队
+     */
+    private final Map<Path, Candidate> candidates = new LinkedHashMap<>();
+
+    private final AtomicLong detected = new AtomicLong();
+    private final AtomicLong pushed = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong backpressureEvents = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+    private volatile int pending;
+
+    private Path inbox;
+    private Path processedDir;
+    private Path failedDir;
+    private Path ledger;
+    private PathMatcher matcher;
+    private WatchService watchService;
+    private ExecutorService workers;
+    private Thread watcher;
+    private volatile boolean running;
+
+    public WatchFolderIngestService(DockerImageService dockerImageService, DigestEngine digestEngine,
+                                    HarborProperties properties) {
+        this.dockerImageService = dockerImageService;
+        this.digestEngine = digestEngine;
+        this.properties = properties;
+        this.config = properties.getIngest();
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, config.getQueueCapacity()));
+    }
+
+    /**
+     * 开始监听：先注册监听再扫描已有文件，避免两者之间到达的文件被遗漏
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        if (config.getDirectory() == null || config.getDirectory().isEmpty()) {
+            throw new HarborException("No ingest directory configured, set harbor.ingest.directory");
+        }
+        try {
+            inbox = Paths.get(config.getDirectory()).toAbsolutePath();
+            processedDir = inbox.resolve(PROCESSED_DIR);
+            failedDir = inbox.resolve(FAILED_DIR);
+            ledger = processedDir.resolve(LEDGER_FILE);
+            Files.createDirectories(processedDir);
+            Files.createDirectories(failedDir);
+            loadLedger();
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + config.getFilePattern());
+            watchService = inbox.getFileSystem().newWatchService();
+            inbox.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            throw new HarborException("Failed to watch ingest directory " + config.getDirectory() + ": "
+                    + e.getMessage(), e);
+        }
+
+        running = true;
+        int workerCount = Math.max(1, config.getWorkers());
+        workers = Executors.newFixedThreadPool(workerCount, newThreadFactory("harbor-ingest-"));
+        for (int i = 0; i < workerCount; i++) {
+            workers.execute(this::workLoop);
+        }
+        watcher = newThreadFactory("harbor-ingest-watch-").newThread(this::watchLoop);
+        watcher.start();
+        logger.info("Watching {} for image archives ({}), {} workers, queue capacity {}, {} known digests",
+                inbox, config.getFilePattern(), workerCount, config.getQueueCapacity(), ingested.size());
+    }
+
+    /**
+     * 停止监听和推送；队列中和推送中的文件仍留在监听目录，下次启动时重新导入
+     */
+    @PreDestroy
+    public synchronized void destroy() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        watcher.interrupt();
+        workers.shutdownNow();
+        try {
+            watchService.close();
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (IOException e) {
+            logger.warn("Failed to close watch service for {}", inbox, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        queue.clear();
+        logger.info("Stopped watching {}: {}", inbox, getStatistics());
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 获取导入统计信息
+     */
+    public IngestStatistics getStatistics() {
+        return new IngestStatistics(detected.get(), pending, queue.size(), active.get(), pushed.get(),
+                duplicates.get(), failed.get(), backpressureEvents.get());
+    }
+
+    private void watchLoop() {
+        scanDirectory();
+        while (running) {
+            try {
+                WatchKey key = watchService.poll(config.getPollInterval(), TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            logger.warn("Watch events overflowed for {}, rescanning", inbox);
+                            scanDirectory();
+                        } else {
+                            track(inbox.resolve((Path) event.context()));
+                        }
+                    }
+                    if (!key.reset()) {
+                        logger.error("Ingest directory {} is no longer accessible, stopped watching", inbox);
+                        return;
+                    }
+                }
+                drainCompleted();
+                offerStableFiles();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Unexpected error while watching {}", inbox, e);
+            }
+        }
+    }
+
+    private void scanDirectory() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(inbox)) {
+            for (Path file : files) {
+                track(file);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to scan ingest directory {}", inbox, e);
+        }
+    }
+
+    private void track(Path file) {
+        if (candidates.containsKey(file) || !matcher.matches(file.getFileName()) || !Files.isRegularFile(file)) {
+            return;
+        }
+        candidates.put(file, new Candidate());
+        pending = candidates.size();
+        detected.incrementAndGet();
+        logger.debug("Detected {}", file);
+    }
+
+    /**
+     * 处理结束的文件移出候选列表；仍在监听目录中的（推送期间又被改写、或移动失败）重新作为候选
+     */
+    private void drainCompleted() {
+        Path file;
+        while ((file = completed.poll()) != null) {
+            candidates.remove(file);
+            if (Files.exists(file)) {
+                track(file);
+            }
+        }
+        pending = candidates.size();
+    }
+
+    /**
+     * 按发现顺序把大小稳定的文件放入队列；队列已满时保留在候选列表中，下一轮再试
+     */
+    private void offerStableFiles() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, Candidate>> iterator = candidates.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, Candidate> entry = iterator.next();
+            Candidate candidate = entry.getValue();
+            if (candidate.queued) {
+                continue;
+            }
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(entry.getKey(), BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                iterator.remove();
+                continue;
+            } catch (IOException e) {
+                logger.warn("Failed to stat {}: {}", entry.getKey(), e.getMessage());
+                continue;
+            }
+            long modified = attributes.lastModifiedTime().toMillis();
+            if (attributes.size() != candidate.size || modified != candidate.modified) {
+                candidate.size = attributes.size();
+                candidate.modified = modified;
+                candidate.stableSince = now;
+                continue;
+            }
+            if (candidate.size == 0 || now - candidate.stableSince < config.getStableMillis()) {
+                continue;
+            }
+            if (!queue.offer(new ReadyFile(entry.getKey(), candidate.size))) {
+                backpressureEvents.incrementAndGet();
+                logger.debug("Ingest queue full, {} stays pending", entry.getKey());
+                break;
+            }
+            candidate.queued = true;
+        }
+        pending = (int) candidates.values().stream().filter(candidate -> !candidate.queued).count();
+    }
+
+    private void workLoop() {
+        while (running) {
+            ReadyFile file;
+            try {
+                file = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            active.incrementAndGet();
+            try {
+                ingest(file);
+            } catch (Exception e) {
+                logger.error("Unexpected error while ingesting {}", file.path, e);
+            } finally {
+                active.decrementAndGet();
+                completed.offer(file.path);
+            }
+        }
+    }
+
+    private void ingest(ReadyFile file) throws IOException, InterruptedException {
+        Path path = file.path;
+        if (!Files.exists(path)) {
+            return;
+        }
+        if (Files.size(path) != file.size) {
+            logger.info("{} changed after it was considered complete, waiting for it to settle again", path);
+            return;
+        }
+        String digest;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            digest = digestEngine.sha256(channel, 0, file.size);
+        }
+
+        while (true) {
+            String image = ingested.get(digest);
+            if (image != null) {
+                logger.info("Skipping {}: same content ({}) was already pushed as {}", path, digest, image);
+                moveTo(path, processedDir);
+                duplicates.incrementAndGet();
+                return;
+            }
+            CompletableFuture<String> mine = new CompletableFuture<>();
+            CompletableFuture<String> other = inFlight.putIfAbsent(digest, mine);
+            if (other == null) {
+                try {
+                    push(path, digest, mine);
+                } finally {
+                    inFlight.remove(digest, mine);
+                    // 推送后记录或移动文件失败、重试等待被中断时没有结果，同样要唤醒等待的文件
+                    if (!mine.isDone()) {
+                        mine.completeExceptionally(new HarborException("Ingest of " + path + " ended without result"));
+                    }
+                }
+                return;
+            }
+            // 相同内容的另一个文件正在推送，等待其结果；成功则本文件视为重复，失败则由本文件重新推送。
+            // 每次最多等待一个检查间隔，服务停止时不再等待，文件留在监听目录
+            try {
+                other.get(config.getPollInterval(), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                logger.debug("Concurrent push of {} failed, retrying with {}", digest, path);
+            } catch (TimeoutException e) {
+                if (!running) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void push(Path path, String digest, CompletableFuture<String> result)
+            throws IOException, InterruptedException {
+        String projectName = config.getProject() != null ? config.getProject() : properties.getProject();
+        int attempts = Math.max(0, config.getMaxRetries()) + 1;
+        RuntimeException lastError = null;
+        for (int attempt = 1; attempt <= attempts; attempt++) {
+            try {
+                String image = dockerImageService.loadAndPushImage(path.toString(), projectName);
+                // 先记录摘要再移动文件：两步之间退出时重启后按重复文件处理，不会再次推送
+                appendLedger(digest, image, path.getFileName().toString());
+                ingested.put(digest, image);
+                moveTo(path, processedDir);
+                pushed.incrementAndGet();
+                result.complete(image);
+                logger.info("Ingested {} -> {}", path, image);
+                return;
+            } catch (RuntimeException e) {
+                lastError = e;
+                if (!running) {
+                    result.completeExceptionally(e);
+                    return;
+                }
+                if (attempt < attempts) {
+                    logger.warn("Failed to ingest {} (attempt {}/{}): {}", path, attempt, attempts, e.getMessage());
+                    Thread.sleep(config.getRetryBackoff() * attempt);
+                }
+            }
+        }
+        logger.error("Giving up on {} after {} attempts, moving it to {}", path, attempts, failedDir, lastError);
+        Path target = moveTo(path, failedDir);
+        writeError(target, lastError);
+        failed.incrementAndGet();
+        result.completeExceptionally(lastError);
+    }
+
+    private void loadLedger() throws IOException {
+        if (!Files.exists(ledger)) {
+            return;
+        }
+        List<String> lines = Files.readAllLines(ledger, StandardCharsets.UTF_8);
+        for (String line : lines) {
+            String[] fields = line.split("\t");
+            if (fields.length >= 2) {
+                ingested.put(fields[0], fields[1]);
+            }
+        }
+    }
+
+    private synchronized void appendLedger(String digest, String image, String fileName) throws IOException {
+        byte[] line = (digest + "\t" + image + "\t" + fileName + "\n").getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(ledger, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(line);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * 移动到目标目录，重名时追加时间戳，避免覆盖先前同名文件
+     */
+    private Path moveTo(Path file, Path directory) throws IOException {
+        Path target = directory.resolve(file.getFileName());
+        if (Files.exists(target)) {
+            target = directory.resolve(System.currentTimeMillis() + "-" + file.getFileName());
+        }
+        try {
+            return Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            return Files.move(file, target);
+        }
+    }
+
+    private void writeError(Path target, Exception error) {
+        StringWriter trace = new StringWriter();
+        error.printStackTrace(new PrintWriter(trace));
+        try {
+            Files.write(target.resolveSibling(target.getFileName() + ".error"),
+                    trace.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            logger.warn("Failed to write error file for {}", target, e);
+        }
+    }
+
+    private static ThreadFactory newThreadFactory(String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private static final class Candidate {
+        long size = -1;
+        long modified = -1;
+        long stableSince;
+        boolean queued;
+    }
+
+    private static final class ReadyFile {
+        final Path path;
+        final long size;
+
+        ReadyFile(Path path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    /**
+     * 导入统计信息
+     */
+    public static class IngestStatistics {
+        private final long detected;
+        private final int pending;
+        private final int queued;
+        private final int active;
+        private final long pushed;
+        private final long duplicates;
+        private final long failed;
+        private final long backpressureEvents;
+
+        IngestStatistics(long detected, int pending, int queued, int active, long pushed, long duplicates,
+                         long failed, long backpressureEvents) {
+            this.detected = detected;
+            this.pending = pending;
+            this.queued = queued;
+            this.active = active;
+            this.pushed = pushed;
+            this.duplicates = duplicates;
+            this.failed = failed;
+            this.backpressureEvents = backpressureEvents;
+        }
+
+        /**
+         * 发现的文件总数
+         */
+        public long getDetected() {
+            return detected;
+        }
+
+        /**
+         * 等待写入完成或等待队列空位的文件数
+         */
+        public int getPending() {
+            return pending;
+        }
+
+        public int getQueued() {
+            return queued;
+        }
+
+        public int getActive() {
+            return active;
+        }
+
+        public long getPushed() {
+            return pushed;
+        }
+
+        /**
+         * 因内容与已推送文件相同而跳过的文件数
+         */
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * 因队列已满而推迟入队的次数
+         */
+        public long getBackpressureEvents() {
+            return backpressureEvents;
+        }
+
+        @Override
+        public String toString() {
+            return "IngestStatistics{" +
+                    "detected=" + detected +
+                    ", pending=" + pending +
+                    ", queued=" + queued +
+                    ", active=" + active +
+                    ", pushed=" + pushed +
+                    ", duplicates=" + duplicates +
+                    ", failed=" + failed +
+                    ", backpressureEvents=" + backpressureEvents +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.techzhi.harbor.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.techzhi.harbor.archive.ArchiveCompression;
+import com.techzhi.harbor.config.HarborProperties;
+import com.techzhi.harbor.exception.HarborException;
+import com.techzhi.harbor.service.DockerImageService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 镜像与S3对象存储（如SeaweedFS）之间的流式归档服务
+ * 保存时 docker save / Registry拉取 的tar流经可选的压缩后直接写入S3分片上传，
+ * 加载时以分段Range请求并行读取对象并直接进入加载推送流程，两个方向都不落本地盘，
+ * 每个传输的内存占用约为 (harbor.s3.concurrency + 1) * harbor.s3.part-size
+ *
+ * @author techzhi
+ */
+public class S3ImageArchiveService {
+
+    private static final Logger logger = LoggerFactory.getLogger(S3ImageArchiveService.class);
+
+    private final AmazonS3 amazonS3;
+    private final DockerImageService dockerImageService;
+    private final HarborProperties properties;
+    private final String defaultBucket;
+    private final ExecutorService executor;
+
+    public S3ImageArchiveService(AmazonS3 amazonS3, DockerImageService dockerImageService,
+                                 HarborProperties properties) {
+        this(amazonS3, dockerImageService, properties, properties.getS3().getBucket());
+    }
+
+    public S3ImageArchiveService(AmazonS3 amazonS3, DockerImageService dockerImageService,
+                                 HarborProperties properties, String defaultBucket) {
+        this.amazonS3 = amazonS3;
+        this.dockerImageService = dockerImageService;
+        this.properties = properties;
+        this.defaultBucket = defaultBucket;
+        int threads = Math.max(1, properties.getS3().getConcurrency()) * 2;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "harbor-s3-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 将镜像保存到默认存储桶，对象键以 .tar.gz / .tar.zst 结尾时压缩
+     */
+    public ArchiveResult saveImage(String projectName, String imageName, String tag, String key) {
+        return saveImage(projectName, imageName, tag, requireDefaultBucket(), key);
+    }
+
+    /**
+     * 将镜像直接保存为S3对象，不经过本地磁盘
+     *
+     * @param projectName Harbor项目名称
+     * @param imageName 镜像名称
+     * @param tag 镜像标签
+     * @param bucket 存储桶
+     * @param key 对象键，按扩展名选择压缩格式
+     * @return 归档结果
+     */
+    public ArchiveResult saveImage(String projectName, String imageName, String tag, String bucket, String key) {
+        long startTime = System.currentTimeMillis();
+        HarborProperties.S3 config = properties.getS3();
+        ArchiveCompression compression = ArchiveCompression.fromFileName(key);
+        logger.info("Saving image {}/{}:{} to s3://{}/{} ({})", projectName, imageName, tag, bucket, key, compression);
+
+        S3MultipartOutputStream upload = new S3MultipartOutputStream(amazonS3, bucket, key, config.getPartSize(),
+                config.getConcurrency(), executor);
+        OutputStream out = null;
+        try {
+            out = compression.compressing(upload, properties.getIo());
+            long tarBytes = dockerImageService.saveImage(projectName, imageName, tag, out);
+            out.close();
+
+            ArchiveResult result = new ArchiveResult(bucket, key, tarBytes, upload.getBytesWritten(),
+                    upload.getPartCount(), upload.getETag(), System.currentTimeMillis() - startTime);
+            logger.info("Successfully saved image to S3: {}", result);
+            return result;
+        } catch (Exception e) {
+            // 先中止上传，再关闭压缩流释放其线程，避免残缺内容被当作完整对象提交
+            upload.abort();
+            closeQuietly(out);
+            logger.error("Failed to save image {}/{}:{} to s3://{}/{}", projectName, imageName, tag, bucket, key, e);
+            if (e instanceof HarborException) {
+                throw (HarborException) e;
+            }
+            throw new HarborException("Failed to save image to S3: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 从默认存储桶加载镜像并推送到Harbor
+     */
+    public String loadAndPushImage(String key, String projectName, String imageName, String tag) {
+        return loadAndPushImage(requireDefaultBucket(), key, projectName, imageName, tag);
+    }
+
+    /**
+     * 以分段并行读取S3对象，直接进入加载推送流程，不经过本地磁盘
+     * 对象可以是 .tar / .tar.gz / .tar.zst，格式按内容识别
+     *
+     * @return 推送成功后的完整Harbor镜像地址
+     */
+    public String loadAndPushImage(String bucket, String key, String projectName, String imageName, String tag) {
+        HarborProperties.S3 config = properties.getS3();
+        logger.info("Loading image from s3://{}/{} -> {}/{}:{}", bucket, key, projectName, imageName, tag);
+        try (S3RangedInputStream in = new S3RangedInputStream(amazonS3, bucket, key, config.getPartSize(),
+                config.getConcurrency(), executor)) {
+            return dockerImageService.loadAndPushImage(in, key, projectName, imageName, tag);
+        } catch (HarborException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("Failed to load image from s3://{}/{}", bucket, key, e);
+            throw new HarborException("Failed to load image from S3: " + e.getMessage(), e);
+        }
+    }
+
+    private String requireDefaultBucket() {
+        if (defaultBucket == null || defaultBucket.isEmpty()) {
+            throw new HarborException("No S3 bucket configured, set harbor.s3.bucket");
+        }
+        return defaultBucket;
+    }
+
+    private static void closeQuietly(OutputStream out) {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException | RuntimeException ignored) {
+            // 上传已中止，关闭失败无影响
+        }
+    }
+
+    /**
+     * S3归档结果
+     */
+    public static class ArchiveResult {
+        private final String bucket;
+        private final String key;
+        private final long tarSize;
+        private final long objectSize;
+        private final int partCount;
+        private final String eTag;
+        private final long elapsedMillis;
+
+        ArchiveResult(String bucket, String key, long tarSize, long objectSize, int partCount, String eTag,
+                      long elapsedMillis) {
+            this.bucket = bucket;
+            this.key = key;
+            this.tarSize = tarSize;
+            this.objectSize = objectSize;
+            this.partCount = partCount;
+            this.eTag = eTag;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public String getBucket() {
+            return bucket;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * 未压缩的tar大小
+         */
+        public long getTarSize() {
+            return tarSize;
+        }
+
+        /**
+         * 写入S3的对象大小（压缩后）
+         */
+        public long getObjectSize() {
+            return objectSize;
+        }
+
+        public int getPartCount() {
+            return partCount;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "ArchiveResult{" +
+                    "object='s3://" + bucket + "/" + key + '\'' +
+                    ", tarSize=" + tarSize +
+                    ", objectSize=" + objectSize +
+                    ", partCount=" + partCount +
+                    ", eTag='" + eTag + '\'' +
+                    ", elapsedMillis=" + elapsedMillis +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.techzhi.harbor.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 写入S3分片上传的输出流
+ * 写满一个分片即提交到线程池上传，同时上传的分片数不超过concurrency，超出时写入方阻塞；
+ * 分片缓冲区循环复用，内存占用上限为 (concurrency + 1) * partSize。
+ * close() 时等待全部分片完成并提交上传；任何分片失败或调用 {@link #abort()} 都会中止整个上传，不留下残缺对象
+ *
+ * @author techzhi
+ */
+public class S3MultipartOutputStream extends OutputStream {
+
+    private static final Logger logger = LoggerFactory.getLogger(S3MultipartOutputStream.class);
+
+    private final AmazonS3 s3;
+    private final String bucket;
+    private final String key;
+    private final String uploadId;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final BlockingQueue<byte[]> buffers;
+    private final List<Future<PartETag>> parts = new ArrayList<>();
+    private final int partSize;
+
+    private byte[] current;
+    private int currentLength;
+    private long bytesWritten;
+    private volatile Throwable failure;
+    private boolean closed;
+    private CompleteMultipartUploadResult result;
+
+    public S3MultipartOutputStream(AmazonS3 s3, String bucket, String key, int partSize, int concurrency,
+                                   ExecutorService executor) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.key = key;
+        this.partSize = partSize;
+        this.executor = executor;
+        int slots = Math.max(1, concurrency);
+        this.permits = new Semaphore(slots);
+        this.buffers = new ArrayBlockingQueue<>(slots + 1);
+        this.uploadId = s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, key)).getUploadId();
+        logger.debug("Initiated multipart upload {} for s3://{}/{}", uploadId, bucket, key);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        while (length > 0) {
+            if (current == null) {
+                current = nextBuffer();
+                currentLength = 0;
+            }
+            int count = Math.min(length, partSize - currentLength);
+            System.arraycopy(bytes, offset, current, currentLength, count);
+            currentLength += count;
+            bytesWritten += count;
+            offset += count;
+            length -= count;
+            if (currentLength == partSize) {
+                submitPart();
+            }
+        }
+    }
+
+    /**
+     * 等待全部分片上传完成并提交；失败时中止上传
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (current != null || parts.isEmpty()) {
+                if (current == null) {
+                    current = nextBuffer();
+                    currentLength = 0;
+                }
+                submitPart();
+            }
+            List<PartETag> etags = new ArrayList<>();
+            for (Future<PartETag> part : parts) {
+                etags.add(part.get());
+            }
+            etags.sort(Comparator.comparingInt(PartETag::getPartNumber));
+            result = s3.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId, etags));
+            closed = true;
+            logger.debug("Completed multipart upload of s3://{}/{}: {} parts, {} bytes", bucket, key,
+                    etags.size(), bytesWritten);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+            throw new InterruptedIOException("Interrupted while completing upload of " + key);
+        } catch (ExecutionException e) {
+            abort();
+            throw new IOException("Failed to upload part of s3://" + bucket + "/" + key, e.getCause());
+        } catch (IOException | RuntimeException e) {
+            abort();
+            throw e;
+        }
+    }
+
+    /**
+     * 中止上传，已上传的分片由服务端丢弃；可重复调用
+     */
+    public void abort() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Future<PartETag> part : parts) {
+            part.cancel(true);
+        }
+        try {
+            s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+            logger.warn("Aborted multipart upload of s3://{}/{} after {} bytes", bucket, key, bytesWritten);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to abort multipart upload {} of s3://{}/{}", uploadId, bucket, key, e);
+        }
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public int getPartCount() {
+        return parts.size();
+    }
+
+    /**
+     * 上传完成后对象的ETag，未完成时为null
+     */
+    public String getETag() {
+        return result == null ? null : result.getETag();
+    }
+
+    private void submitPart() throws IOException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an upload slot");
+        }
+        checkFailure();
+        byte[] data = current;
+        int length = currentLength;
+        int partNumber = parts.size() + 1;
+        current = null;
+        currentLength = 0;
+        parts.add(executor.submit(() -> {
+            try {
+                UploadPartRequest request = new UploadPartRequest()
+                        .withBucketName(bucket)
+                        .withKey(key)
+                        .withUploadId(uploadId)
+                        .withPartNumber(partNumber)
+                        .withPartSize(length)
+                        .withInputStream(new ByteArrayInputStream(data, 0, length));
+                return s3.uploadPart(request).getPartETag();
+            } catch (RuntimeException e) {
+                failure = e;
+                throw e;
+            } finally {
+                buffers.offer(data);
+                permits.release();
+            }
+        }));
+    }
+
+    private byte[] nextBuffer() {
+        byte[] buffer = buffers.poll();
+        return buffer != null ? buffer : new byte[partSize];
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable error = failure;
+        if (error != null) {
+            throw new IOException("Failed to upload part of s3://" + bucket + "/" + key, error);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        checkFailure();
+    }
+}
@@ -0,0 +1,179 @@
+package com.techzhi.harbor.s3;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * 以分段Range请求并行读取S3对象的输入流
+ * 按顺序预取后续concurrency个分段，读取方消费完一个分段后再发起下一个，内存占用上限为 (concurrency + 1) * partSize；
+ * 单个分段读取中断时重新请求该分段
+ *
+ * @author techzhi
+ */
+public class S3RangedInputStream extends InputStream {
+
+    private static final Logger logger = LoggerFactory.getLogger(S3RangedInputStream.class);
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final AmazonS3 s3;
+    private final String bucket;
+    private final String key;
+    private final long size;
+    private final int partSize;
+    private final int concurrency;
+    private final ExecutorService executor;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final BlockingQueue<byte[]> buffers;
+
+    private long nextOffset;
+    private byte[] current;
+    private int currentPosition;
+    private int currentLength;
+    private long position;
+    private boolean closed;
+
+    public S3RangedInputStream(AmazonS3 s3, String bucket, String key, int partSize, int concurrency,
+                               ExecutorService executor) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.key = key;
+        this.partSize = partSize;
+        this.concurrency = Math.max(1, concurrency);
+        this.executor = executor;
+        this.buffers = new ArrayBlockingQueue<>(this.concurrency + 1);
+        this.size = s3.getObjectMetadata(bucket, key).getContentLength();
+        while (pending.size() < this.concurrency && nextOffset < size) {
+            schedule();
+        }
+    }
+
+    /**
+     * 对象总大小
+     */
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (length == 0) {
+            return 0;
+        }
+        if (currentPosition == currentLength && !advance()) {
+            return -1;
+        }
+        int count = Math.min(length, currentLength - currentPosition);
+        System.arraycopy(current, currentPosition, bytes, offset, count);
+        currentPosition += count;
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : currentLength - currentPosition;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Future<byte[]> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        if (position < size) {
+            logger.debug("Closed s3://{}/{} at {}/{} bytes", bucket, key, position, size);
+        }
+    }
+
+    /**
+     * 切换到下一个已预取的分段，并为其空出的位置发起下一个分段的请求
+     */
+    private boolean advance() throws IOException {
+        if (current != null) {
+            buffers.offer(current);
+            current = null;
+        }
+        Future<byte[]> next = pending.pollFirst();
+        if (next == null) {
+            return false;
+        }
+        try {
+            current = next.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading s3://" + bucket + "/" + key);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to read s3://" + bucket + "/" + key + " at offset " + position,
+                    e.getCause());
+        }
+        currentPosition = 0;
+        currentLength = (int) Math.min(partSize, size - position);
+        if (nextOffset < size) {
+            schedule();
+        }
+        return true;
+    }
+
+    private void schedule() {
+        long start = nextOffset;
+        int length = (int) Math.min(partSize, size - start);
+        nextOffset += length;
+        byte[] reuse = buffers.poll();
+        byte[] buffer = reuse != null ? reuse : new byte[partSize];
+        pending.addLast(executor.submit(() -> fetch(buffer, start, length)));
+    }
+
+    private byte[] fetch(byte[] buffer, long start, int length) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            GetObjectRequest request = new GetObjectRequest(bucket, key).withRange(start, start + length - 1);
+            try (S3Object object = s3.getObject(request);
+                 InputStream in = object.getObjectContent()) {
+                int read = 0;
+                while (read < length) {
+                    int count = in.read(buffer, read, length - read);
+                    if (count == -1) {
+                        throw new EOFException("Range " + start + "-" + (start + length - 1) + " ended at " + read);
+                    }
+                    read += count;
+                }
+                return buffer;
+            } catch (IOException | SdkClientException e) {
+                if (attempt >= MAX_ATTEMPTS || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                logger.warn("Read of s3://{}/{} range {}+{} failed ({}), retry {}/{}", bucket, key, start, length,
+                        e.getMessage(), attempt, MAX_ATTEMPTS - 1);
+            }
+        }
+    }
+}
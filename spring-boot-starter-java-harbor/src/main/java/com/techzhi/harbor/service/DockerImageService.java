@@ -11,8 +11,18 @@ import com.github.dockerjava.core.DockerClientConfig;
 import com.github.dockerjava.core.DockerClientImpl;
 import com.github.dockerjava.httpclient5.ApacheDockerHttpClient;
 import com.github.dockerjava.transport.DockerHttpClient;
+import com.techzhi.harbor.archive.ArchiveCompression;
+import com.techzhi.harbor.archive.DockerArchive;
+import com.techzhi.harbor.archive.ImageInspector;
+import com.techzhi.harbor.archive.ImageMetadata;
+import com.techzhi.harbor.client.HarborMetadataCache;
+import com.techzhi.harbor.client.RegistryClient;
 import com.techzhi.harbor.config.HarborProperties;
 import com.techzhi.harbor.exception.HarborException;
+import com.techzhi.harbor.transfer.JobJournal;
+import com.techzhi.harbor.transfer.StreamCopier;
+import com.techzhi.harbor.transfer.TransferEngineSelector;
+import com.techzhi.harbor.transfer.TransferScheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -24,11 +34,11 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -40,26 +50,54 @@ import java.util.stream.Collectors;
 public class DockerImageService {
 
     private static final Logger logger = LoggerFactory.getLogger(DockerImageService.class);
-    
-    // 优化的缓冲区大小
-    private static final int BUFFER_SIZE = 1024 * 1024; // 1MB缓冲区
-    private static final int MAX_CONCURRENT_OPERATIONS = 5;
 
     private final HarborProperties properties;
+    private final RegistryImageService registryImageService;
+    private final TransferScheduler transferScheduler;
+    private final boolean ownsTransferScheduler;
+    private final JobJournal jobJournal;
+    private final ImageInspector imageInspector;
     private DockerClient dockerClient;
+    private LocalImageIndex localImageIndex;
+    private volatile Supplier<TransferEngineSelector> transferEngineSelector = () -> null;
+    private volatile HarborMetadataCache metadataCache;
     private AuthConfig authConfig;
-    private ExecutorService executorService;
 
     public DockerImageService(HarborProperties properties) {
+        this(properties, new RegistryImageService(new RegistryClient(properties), properties));
+    }
+
+    public DockerImageService(HarborProperties properties, RegistryImageService registryImageService) {
+        this(properties, registryImageService, new TransferScheduler(properties), true, null);
+    }
+
+    public DockerImageService(HarborProperties properties, RegistryImageService registryImageService,
+                              TransferScheduler transferScheduler) {
+        this(properties, registryImageService, transferScheduler, false, null);
+    }
+
+    /**
+     * @param jobJournal 批量任务日志，为null时批量接口不记录进度
+     */
+    public DockerImageService(HarborProperties properties, RegistryImageService registryImageService,
+                              TransferScheduler transferScheduler, JobJournal jobJournal) {
+        this(properties, registryImageService, transferScheduler, false, jobJournal);
+    }
+
+    private DockerImageService(HarborProperties properties, RegistryImageService registryImageService,
+                               TransferScheduler transferScheduler, boolean ownsTransferScheduler,
+                               JobJournal jobJournal) {
         this.properties = properties;
+        this.registryImageService = registryImageService;
+        this.transferScheduler = transferScheduler;
+        this.ownsTransferScheduler = ownsTransferScheduler;
+        this.jobJournal = jobJournal;
+        this.imageInspector = new ImageInspector(properties);
     }
 
     @PostConstruct
     public void init() {
         try {
-            // 初始化线程池
-            this.executorService = Executors.newFixedThreadPool(MAX_CONCURRENT_OPERATIONS);
-            
             // 创建高性能Docker客户端配置
             DockerClientConfig config = DefaultDockerClientConfig.createDefaultConfigBuilder()
                     .withDockerTlsVerify(false)
@@ -74,6 +112,7 @@ public class DockerImageService {
 
             // 创建Docker客户端
             this.dockerClient = DockerClientImpl.getInstance(config, httpClient);
+            this.localImageIndex = new LocalImageIndex(dockerClient);
 
             // 创建Harbor认证配置
             String harborRegistry = extractRegistryFromHost(properties.getHost());
@@ -91,8 +130,11 @@ public class DockerImageService {
 
     @PreDestroy
     public void destroy() {
-        if (executorService != null) {
-            executorService.shutdown();
+        if (ownsTransferScheduler) {
+            transferScheduler.shutdown();
+        }
+        if (localImageIndex != null) {
+            localImageIndex.close();
         }
         if (dockerClient != null) {
             try {
@@ -154,6 +196,7 @@ public class DockerImageService {
                     .withAuthConfig(authConfig)
                     .exec(new ResultCallback.Adapter<PushResponseItem>())
                     .awaitCompletion(15, TimeUnit.MINUTES);
+            invalidateCache(projectName, imageName, tag);
             
             logger.info("Successfully pushed image: {}", fullImageName);
         } catch (Exception e) {
@@ -173,28 +216,31 @@ public class DockerImageService {
      * 将指定项目的镜像保存为tar文件 - 优化版本
      */
     public void saveImageToFile(String projectName, String imageName, String tag, String filePath) {
+        ArchiveCompression compression = ArchiveCompression.fromFileName(filePath);
+        if (usesRegistry()) {
+            logger.info("Saving image via Registry API: {}/{}:{} -> {}", projectName, imageName, tag, filePath);
+            if (compression == ArchiveCompression.NONE) {
+                registryImageService.pullArchive(projectName, imageName, tag, Paths.get(filePath));
+            } else {
+                saveCompressedFromRegistry(projectName, imageName, tag, filePath, compression);
+            }
+            return;
+        }
         try {
             String harborRegistry = extractRegistryFromHost(properties.getHost());
             String fullImageName = String.format("%s/%s/%s:%s", harborRegistry, projectName, imageName, tag);
             
-            logger.info("Saving image to file: {} -> {}", fullImageName, filePath);
+            logger.info("Saving image to file: {} -> {} ({})", fullImageName, filePath, compression);
             
-            // 使用更大的缓冲区和NIO进行优化
-            try (InputStream inputStream = dockerClient.saveImageCmd(fullImageName).exec();
-                 BufferedOutputStream bos = new BufferedOutputStream(
-                     Files.newOutputStream(Paths.get(filePath)), BUFFER_SIZE)) {
-                
-                byte[] buffer = new byte[BUFFER_SIZE];
-                int bytesRead;
-                long totalBytes = 0;
-                
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    bos.write(buffer, 0, bytesRead);
-                    totalBytes += bytesRead;
-                    
-                    // 每10MB记录一次进度
-                    if (totalBytes % (10 * 1024 * 1024) == 0) {
-                        logger.debug("Saved {} MB to file: {}", totalBytes / (1024 * 1024), filePath);
+            // 缓冲区取自共享池；.tar.gz/.tar.zst 按扩展名多线程压缩，压缩流自带分块缓冲
+            try (InputStream inputStream = dockerClient.saveImageCmd(fullImageName).exec()) {
+                long totalBytes;
+                if (compression == ArchiveCompression.NONE) {
+                    totalBytes = StreamCopier.copy(inputStream, Paths.get(filePath));
+                } else {
+                    try (OutputStream out = compression.compressing(
+                            Files.newOutputStream(Paths.get(filePath)), properties.getIo())) {
+                        totalBytes = StreamCopier.copy(inputStream, out);
                     }
                 }
                 
@@ -206,8 +252,76 @@ public class DockerImageService {
         }
     }
 
+    /**
+     * 将镜像以未压缩的docker-archive tar格式写入输出流，不落盘；输出流由调用方关闭
+     * DOCKER模式下转发 docker save 的输出，REGISTRY模式下直接从Registry顺序拉取各层
+     *
+     * @return 写出的tar字节数
+     */
+    public long saveImage(String projectName, String imageName, String tag, OutputStream out) {
+        if (usesRegistry()) {
+            return registryImageService.pullArchiveStream(projectName, imageName, tag, out).getArchiveSize();
+        }
+        String harborRegistry = extractRegistryFromHost(properties.getHost());
+        String fullImageName = String.format("%s/%s/%s:%s", harborRegistry, projectName, imageName, tag);
+        logger.info("Saving image to stream: {}", fullImageName);
+        try (InputStream inputStream = dockerClient.saveImageCmd(fullImageName).exec()) {
+            long totalBytes = StreamCopier.copy(inputStream, out);
+            out.flush();
+            logger.info("Successfully saved image to stream: {} ({} bytes)", fullImageName, totalBytes);
+            return totalBytes;
+        } catch (Exception e) {
+            logger.error("Failed to save image to stream: {}", fullImageName, e);
+            throw new HarborException("Failed to save image to stream", e);
+        }
+    }
+
+    /**
+     * REGISTRY模式保存压缩包：从Registry流式拉取并边拉取边压缩写入目标文件，不落地未压缩的tar
+     */
+    private void saveCompressedFromRegistry(String projectName, String imageName, String tag, String filePath,
+                                            ArchiveCompression compression) {
+        Path target = Paths.get(filePath);
+        try {
+            long archiveSize;
+            try (OutputStream out = compression.compressing(Files.newOutputStream(target), properties.getIo())) {
+                archiveSize = registryImageService.pullArchiveStream(projectName, imageName, tag, out)
+                        .getArchiveSize();
+            }
+            logger.info("Saved {}/{}:{} into {} ({} -> {} bytes)", projectName, imageName, tag, filePath,
+                    archiveSize, Files.size(target));
+        } catch (Exception e) {
+            try {
+                Files.deleteIfExists(target);
+            } catch (IOException deleteError) {
+                logger.warn("Failed to delete incomplete archive: {}", target);
+            }
+            if (e instanceof HarborException) {
+                throw (HarborException) e;
+            }
+            logger.error("Failed to save compressed image: {}/{}: {} -> {}", projectName, imageName, tag, filePath, e);
+            throw new HarborException("Failed to save image to file", e);
+        }
+    }
+
+    /**
+     * 打开tar包供 docker load 读取：gzip由守护进程原生解压，直接转发以减少经过socket的数据量；
+     * zstd在读取过程中流式解压
+     */
+    private InputStream openForDockerLoad(Path path) throws IOException {
+        InputStream in = StreamCopier.openInputStream(path);
+        try {
+            ArchiveCompression compression = ArchiveCompression.detect(in);
+            return compression == ArchiveCompression.ZSTD ? compression.decompressing(in) : in;
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
     /**
      * 从tar文件加载镜像 - 优化版本
+     * 支持 .tar / .tar.gz / .tar.zst，压缩格式按文件内容识别
      */
     public void loadImageFromFile(String filePath) {
         try {
@@ -220,13 +334,12 @@ public class DockerImageService {
             logger.info("Loading image from file: {} ({} MB)", filePath, fileSize / (1024 * 1024));
             
             // 使用更大的缓冲区进行加载
-            try (BufferedInputStream bis = new BufferedInputStream(
-                    Files.newInputStream(path), BUFFER_SIZE)) {
-                
-                dockerClient.loadImageCmd(bis).exec();
+            LocalImageIndex.LoadResult loaded;
+            try (InputStream bis = openForDockerLoad(path)) {
+                loaded = localImageIndex.load(bis);
             }
             
-            logger.info("Successfully loaded image from file: {}", filePath);
+            logger.info("Successfully loaded image from file: {} {}", filePath, loaded);
         } catch (Exception e) {
             logger.error("Failed to load image from file: {}", filePath, e);
             throw new HarborException("Failed to load image from file", e);
@@ -309,20 +422,13 @@ public class DockerImageService {
                 return fileNameInfo;
             }
             
-            // 方法2: 从tar文件内容解析manifest.json
+            // 方法2: 只读取tar包中的manifest.json和镜像配置，结果按文件缓存；不再加载到Docker守护进程中获取
             DockerImageInfo manifestInfo = parseImageInfoFromManifest(filePath);
             if (manifestInfo != null) {
                 logger.debug("Successfully parsed from manifest: {}:{}", manifestInfo.getName(), manifestInfo.getTag());
                 return manifestInfo;
             }
             
-            // 方法3: 加载镜像后从Docker API获取信息
-            DockerImageInfo dockerApiInfo = parseImageInfoFromDockerApi(filePath);
-            if (dockerApiInfo != null) {
-                logger.debug("Successfully parsed from Docker API: {}:{}", dockerApiInfo.getName(), dockerApiInfo.getTag());
-                return dockerApiInfo;
-            }
-            
             logger.warn("All parsing methods failed for: {}", filePath);
             return null;
             
@@ -344,10 +450,8 @@ public class DockerImageService {
             Path path = Paths.get(filePath);
             String fileName = path.getFileName().toString();
             
-            // 移除.tar扩展名
-            if (fileName.endsWith(".tar")) {
-                fileName = fileName.substring(0, fileName.length() - 4);
-            }
+            // 移除.tar及压缩扩展名
+            fileName = ArchiveCompression.stripExtension(fileName);
             
             // 处理路径分隔符 (registry/project/imageName_tag)
             if (fileName.contains("/")) {
@@ -396,51 +500,16 @@ public class DockerImageService {
 
     /**
      * 从tar文件的manifest.json解析镜像信息
+     * 通过元数据检查器读取，不启动tar子进程也不读取层数据
      */
     private DockerImageInfo parseImageInfoFromManifest(String filePath) {
         try {
-            // 使用tar命令提取manifest.json内容
-            ProcessBuilder pb = new ProcessBuilder("tar", "-xOf", filePath, "manifest.json");
-            Process process = pb.start();
-            
-            StringBuilder manifestContent = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    manifestContent.append(line);
-                }
-            }
-            
-            int exitCode = process.waitFor();
-            if (exitCode == 0 && manifestContent.length() > 0) {
-                // 简单的JSON解析 (避免引入额外依赖)
-                String manifest = manifestContent.toString();
-                
-                // 查找RepoTags字段
-                String repoTagsPattern = "\"RepoTags\":\\s*\\[\\s*\"([^\"]+)\"";
-                java.util.regex.Pattern pattern = java.util.regex.Pattern.compile(repoTagsPattern);
-                java.util.regex.Matcher matcher = pattern.matcher(manifest);
-                
-                if (matcher.find()) {
-                    String repoTag = matcher.group(1);
-                    if (repoTag.contains(":")) {
-                        String[] parts = repoTag.split(":");
-                        String imageName = parts[0];
-                        String tag = parts[1];
-                        
-                        // 如果镜像名包含registry信息，只取镜像名部分
-                        if (imageName.contains("/")) {
-                            String[] nameParts = imageName.split("/");
-                            imageName = nameParts[nameParts.length - 1];
-                        }
-                        
-                        if (isValidImageName(imageName) && isValidTag(tag)) {
-                            return new DockerImageInfo(imageName, tag);
-                        }
-                    }
+            for (String repoTag : inspectImage(filePath).getRepoTags()) {
+                DockerImageInfo info = parseRepoTag(repoTag);
+                if (info != null) {
+                    return info;
                 }
             }
-            
         } catch (Exception e) {
             logger.debug("Failed to parse manifest from tar file: {}", filePath, e);
         }
@@ -449,65 +518,52 @@ public class DockerImageService {
     }
 
     /**
-     * 通过Docker API解析镜像信息 (临时加载镜像获取信息)
+     * 检查镜像tar包的元数据：镜像名、标签、架构、操作系统以及各层摘要和大小
+     * 只读取manifest.json和镜像配置，不需要Docker守护进程；结果按（路径, 大小, 修改时间）缓存，
+     * 重复检查同一文件直接返回
+     *
+     * @param filePath 镜像tar文件路径，支持 .tar / .tar.gz / .tar.zst
+     * @return 镜像元数据
      */
-    public DockerImageInfo parseImageInfoFromDockerApi(String filePath) {
+    public ImageMetadata inspectImage(String filePath) {
         try {
-            logger.debug("Attempting to parse image info via Docker API for: {}", filePath);
-            
-            // 记录加载前的镜像列表
-            List<Image> imagesBefore = dockerClient.listImagesCmd().exec();
-            
-            // 临时加载镜像
-            try (BufferedInputStream bis = new BufferedInputStream(
-                    Files.newInputStream(Paths.get(filePath)), BUFFER_SIZE)) {
-                dockerClient.loadImageCmd(bis).exec();
-            }
-            
-            // 获取加载后的镜像列表
-            List<Image> imagesAfter = dockerClient.listImagesCmd().exec();
-            
-            // 找出新加载的镜像
-            for (Image image : imagesAfter) {
-                boolean isNewImage = imagesBefore.stream()
-                        .noneMatch(beforeImage -> beforeImage.getId().equals(image.getId()));
-                
-                if (isNewImage && image.getRepoTags() != null && image.getRepoTags().length > 0) {
-                    String repoTag = image.getRepoTags()[0];
-                    if (!repoTag.equals("<none>:<none>")) {
-                        String[] parts = repoTag.split(":");
-                        if (parts.length == 2) {
-                            String imageName = parts[0];
-                            String tag = parts[1];
-                            
-                            // 提取纯镜像名
-                            if (imageName.contains("/")) {
-                                String[] nameParts = imageName.split("/");
-                                imageName = nameParts[nameParts.length - 1];
-                            }
-                            
-                            // 清理临时加载的镜像
-                            try {
-                                dockerClient.removeImageCmd(image.getId()).withForce(true).exec();
-                            } catch (Exception cleanupEx) {
-                                logger.debug("Failed to cleanup temporary image: {}", image.getId());
-                            }
-                            
-                            if (isValidImageName(imageName) && isValidTag(tag)) {
-                                return new DockerImageInfo(imageName, tag);
-                            }
-                        }
-                    }
-                }
-            }
-            
+            return imageInspector.inspect(Paths.get(filePath));
+        } catch (HarborException e) {
+            throw e;
         } catch (Exception e) {
-            logger.debug("Failed to parse image info via Docker API: {}", filePath, e);
+            throw new HarborException("Failed to inspect image archive " + filePath + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 解析 [registry[:port]/][project/]name:tag 形式的镜像引用，只保留镜像名和标签
+     */
+    private DockerImageInfo parseRepoTag(String repoTag) {
+        int slash = repoTag.lastIndexOf('/');
+        int colon = repoTag.lastIndexOf(':');
+        if (colon <= slash) {
+            return null;
         }
+        String imageName = repoTag.substring(slash + 1, colon);
+        String tag = repoTag.substring(colon + 1);
         
+        if (isValidImageName(imageName) && isValidTag(tag)) {
+            return new DockerImageInfo(imageName, tag);
+        }
         return null;
     }
 
+    /**
+     * 解析镜像信息
+     *
+     * @deprecated 原实现把整个镜像加载到Docker守护进程中再删除，每个文件需要数分钟；
+     * 现在只读取tar包元数据，请使用 {@link #inspectImage(String)}
+     */
+    @Deprecated
+    public DockerImageInfo parseImageInfoFromDockerApi(String filePath) {
+        return parseImageInfoFromManifest(filePath);
+    }
+
     /**
      * 验证镜像名称是否有效
      */
@@ -598,71 +654,30 @@ public class DockerImageService {
             }
             
             long fileSize = Files.size(path);
-            logger.info("Starting optimized load and push for image: {} ({} MB)", filePath, fileSize / (1024 * 1024));
-            
-            // 构建目标镜像名称
-            String harborRegistry = extractRegistryFromHost(properties.getHost());
-            String targetImageName = String.format("%s/%s/%s:%s", harborRegistry, projectName, imageName, tag);
-            
-            // 第1步：优化加载镜像 - 使用更大的缓冲区和NIO
-            logger.info("Step 1: Loading image from tar file...");
-            long loadStartTime = System.currentTimeMillis();
-            
-            try (BufferedInputStream bis = new BufferedInputStream(
-                    Files.newInputStream(path), BUFFER_SIZE)) {
-                
-                dockerClient.loadImageCmd(bis).exec();
+
+            // AUTO模式：由传输引擎选择器按大小、可用性和实测吞吐量选择推送方式
+            TransferEngineSelector selector = properties.getPushMode() == HarborProperties.PushMode.AUTO
+                    ? transferEngineSelector.get() : null;
+            if (selector != null) {
+                return selector.push(path, projectName, imageName, tag).getImage();
             }
-            
-            long loadTime = System.currentTimeMillis() - loadStartTime;
-            logger.info("Step 1 completed in {} ms: Image loaded successfully", loadTime);
-            
-            // 第2步：智能镜像标记 - 避免遍历所有镜像
-            logger.info("Step 2: Tagging image...");
-            long tagStartTime = System.currentTimeMillis();
-            
-            // 尝试从tar文件名推断原始镜像名
-            String originalImageName = extractImageNameFromTarFile(filePath, imageName);
-            
-            // 执行标记操作 - 使用推断的镜像名或直接使用提供的镜像名
-            try {
-                // 首先尝试使用推断的镜像名
-                dockerClient.tagImageCmd(originalImageName, harborRegistry + "/" + projectName + "/" + imageName, tag).exec();
-            } catch (Exception e) {
-                logger.debug("Failed to tag with inferred name: {}, trying direct approach", originalImageName);
-                
-                // 如果失败，查找最近加载的镜像
-                List<Image> images = dockerClient.listImagesCmd().withDanglingFilter(false).exec();
-                String imageId = findRecentlyLoadedImage(images, imageName, startTime);
-                
-                if (imageId != null) {
-                    dockerClient.tagImageCmd(imageId, harborRegistry + "/" + projectName + "/" + imageName, tag).exec();
-                } else {
-                    throw new HarborException("Cannot find loaded image to tag: " + imageName);
+
+            // REGISTRY模式：不经过Docker守护进程，直接上传tar中的层
+            if (usesRegistry()) {
+                logger.info("Starting registry push for image: {} ({} MB)", filePath, fileSize / (1024 * 1024));
+                try (InputStream in = StreamCopier.openInputStream(path)) {
+                    ArchiveCompression compression = ArchiveCompression.detect(in);
+                    if (compression != ArchiveCompression.NONE) {
+                        // 压缩包无法随机访问，边解压边上传
+                        return registryImageService.pushArchiveStream(compression.decompressing(in),
+                                projectName, imageName, tag).getImage();
+                    }
                 }
+                return registryImageService.pushArchive(path, projectName, imageName, tag).getImage();
             }
-            
-            long tagTime = System.currentTimeMillis() - tagStartTime;
-            logger.info("Step 2 completed in {} ms: Image tagged as {}", tagTime, targetImageName);
-            
-            // 第3步：高效推送
-            logger.info("Step 3: Pushing image to Harbor...");
-            long pushStartTime = System.currentTimeMillis();
-            
-            dockerClient.pushImageCmd(targetImageName)
-                    .withAuthConfig(authConfig)
-                    .exec(new ResultCallback.Adapter<PushResponseItem>())
-                    .awaitCompletion(15, TimeUnit.MINUTES);
-            
-            long pushTime = System.currentTimeMillis() - pushStartTime;
-            logger.info("Step 3 completed in {} ms: Image pushed successfully", pushTime);
-            
-            long totalTime = System.currentTimeMillis() - startTime;
-            logger.info("OPTIMIZATION SUCCESS: Total operation completed in {} ms (Load: {}ms, Tag: {}ms, Push: {}ms)", 
-                    totalTime, loadTime, tagTime, pushTime);
-            logger.info("Performance improvement: Load and push completed for {}", targetImageName);
-            
-            return targetImageName;
+
+            logger.info("Starting optimized load and push for image: {} ({} MB)", filePath, fileSize / (1024 * 1024));
+            return loadAndPushWithDaemon(path, projectName, imageName, tag);
             
         } catch (Exception e) {
             long totalTime = System.currentTimeMillis() - startTime;
@@ -673,87 +688,274 @@ public class DockerImageService {
     }
     
     /**
-     * 从tar文件名推断原始镜像名
+     * 不论推送模式，经由Docker守护进程 load/tag/push，供传输引擎调用
+     *
+     * @return 推送成功后的完整Harbor镜像地址
+     */
+    public String loadAndPushWithDaemon(Path path, String projectName, String imageName, String tag) {
+        long startTime = System.currentTimeMillis();
+        try (InputStream bis = openForDockerLoad(path)) {
+            return loadTagAndPush(bis, projectName, imageName, tag, startTime);
+        } catch (HarborException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new HarborException("Failed to load and push image via docker daemon: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Docker守护进程是否可连接
      */
-    private String extractImageNameFromTarFile(String filePath, String expectedImageName) {
+    public boolean isDaemonAvailable() {
+        if (dockerClient == null) {
+            return false;
+        }
         try {
-            Path path = Paths.get(filePath);
-            String fileName = path.getFileName().toString();
-            
-            // 移除.tar扩展名
-            if (fileName.endsWith(".tar")) {
-                fileName = fileName.substring(0, fileName.length() - 4);
-            }
-            
-            // 如果文件名包含版本号，尝试构建完整的镜像名
-            if (fileName.contains("_")) {
-                String[] parts = fileName.split("_");
-                if (parts.length >= 2) {
-                    String imageName = parts[0];
-                    String version = parts[1];
-                    return imageName + ":" + version;
-                }
-            }
-            
-            // 返回期望的镜像名加上latest标签
-            return expectedImageName + ":latest";
-            
+            dockerClient.pingCmd().exec();
+            return true;
         } catch (Exception e) {
-            logger.debug("Failed to extract image name from tar file: {}", filePath);
-            return expectedImageName + ":latest";
+            logger.debug("Docker daemon is not reachable: {}", e.getMessage());
+            return false;
         }
     }
-    
+
     /**
-     * 查找最近加载的镜像
-     */
-    private String findRecentlyLoadedImage(List<Image> images, String expectedImageName, long startTime) {
-        // 查找创建时间最近的匹配镜像
-        for (Image image : images) {
-            if (image.getCreated() * 1000 >= startTime - 60000) { // 1分钟内创建的镜像
-                if (image.getRepoTags() != null) {
-                    for (String repoTag : image.getRepoTags()) {
-                        if (repoTag.contains(expectedImageName) || repoTag.equals("<none>:<none>")) {
-                            return image.getId();
-                        }
-                    }
-                }
-                // 如果没有标签，可能是刚加载的镜像
-                if (image.getRepoTags() == null || image.getRepoTags().length == 0) {
-                    return image.getId();
-                }
+     * 设置AUTO推送模式使用的传输引擎选择器，未设置时AUTO模式按REGISTRY方式推送
+     */
+    public void setTransferEngineSelector(TransferEngineSelector transferEngineSelector) {
+        this.transferEngineSelector = () -> transferEngineSelector;
+    }
+
+    /**
+     * 设置按需获取传输引擎选择器的方式，每次AUTO推送时才解析；
+     * 选择器依赖的Docker引擎又依赖本服务，延迟解析避免循环依赖
+     */
+    public void setTransferEngineSelectorProvider(Supplier<TransferEngineSelector> transferEngineSelector) {
+        this.transferEngineSelector = transferEngineSelector;
+    }
+
+    /**
+     * 设置元数据查询缓存，经Docker守护进程推送后清除对应条目
+     */
+    public void setMetadataCache(HarborMetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    private void invalidateCache(String projectName, String imageName, String tag) {
+        HarborMetadataCache cache = metadataCache;
+        if (cache != null) {
+            cache.invalidateTag(projectName, imageName, tag);
+        }
+    }
+
+    /**
+     * REGISTRY和AUTO模式下，流式推送、保存和导出都直接使用Registry API
+     */
+    private boolean usesRegistry() {
+        return properties.getPushMode() == HarborProperties.PushMode.REGISTRY
+                || properties.getPushMode() == HarborProperties.PushMode.AUTO;
+    }
+
+    /**
+     * 从tar流加载镜像并推送到Harbor，流可以是 .tar / .tar.gz / .tar.zst，格式按内容识别
+     * REGISTRY模式下边解压边上传各层，DOCKER模式下流式交给守护进程加载；全程不落盘，流由调用方关闭
+     *
+     * @param tarStream 镜像tar流
+     * @param sourceName tar的来源（文件名或对象键），用于日志
+     * @param projectName Harbor项目名称
+     * @param imageName 镜像名称
+     * @param tag 镜像标签
+     * @return 推送成功后的完整Harbor镜像地址
+     */
+    public String loadAndPushImage(InputStream tarStream, String sourceName, String projectName, String imageName,
+                                   String tag) {
+        long startTime = System.currentTimeMillis();
+        try {
+            InputStream in = tarStream.markSupported() ? tarStream : new BufferedInputStream(tarStream, 64 * 1024);
+            ArchiveCompression compression = ArchiveCompression.detect(in);
+            if (usesRegistry()) {
+                logger.info("Starting registry push for image stream: {} ({})", sourceName, compression);
+                return registryImageService.pushArchiveStream(compression.decompressing(in),
+                        projectName, imageName, tag).getImage();
             }
+            logger.info("Starting load and push for image stream: {} ({})", sourceName, compression);
+            // gzip由守护进程原生解压
+            InputStream loadStream = compression == ArchiveCompression.ZSTD ? compression.decompressing(in) : in;
+            return loadTagAndPush(loadStream, projectName, imageName, tag, startTime);
+        } catch (HarborException e) {
+            throw e;
+        } catch (Exception e) {
+            long totalTime = System.currentTimeMillis() - startTime;
+            logger.error("Failed to load and push image stream after {} ms: {} -> {}/{}: {}",
+                    totalTime, sourceName, projectName, imageName, tag, e.getMessage());
+            throw new HarborException("Failed to load and push image: " + e.getMessage(), e);
         }
-        return null;
+    }
+
+    /**
+     * 通过Docker守护进程加载tar流，标记为Harbor镜像名后推送
+     */
+    private String loadTagAndPush(InputStream tarStream, String projectName, String imageName,
+                                  String tag, long startTime) throws Exception {
+        // 构建目标镜像名称
+        String harborRegistry = extractRegistryFromHost(properties.getHost());
+        String targetImageName = String.format("%s/%s/%s:%s", harborRegistry, projectName, imageName, tag);
+        
+        // 第1步：优化加载镜像 - 使用更大的缓冲区和NIO
+        logger.info("Step 1: Loading image from tar file...");
+        long loadStartTime = System.currentTimeMillis();
+        
+        LocalImageIndex.LoadResult loaded = localImageIndex.load(tarStream);
+        
+        long loadTime = System.currentTimeMillis() - loadStartTime;
+        logger.info("Step 1 completed in {} ms: Image loaded successfully {}", loadTime, loaded);
+        
+        // 第2步：按 docker load 响应报告的镜像标记，不需要遍历本地镜像
+        logger.info("Step 2: Tagging image...");
+        long tagStartTime = System.currentTimeMillis();
+        
+        String sourceImage = loaded.select(imageName);
+        dockerClient.tagImageCmd(sourceImage, harborRegistry + "/" + projectName + "/" + imageName, tag).exec();
+        
+        long tagTime = System.currentTimeMillis() - tagStartTime;
+        logger.info("Step 2 completed in {} ms: Image tagged as {}", tagTime, targetImageName);
+        
+        // 第3步：高效推送
+        logger.info("Step 3: Pushing image to Harbor...");
+        long pushStartTime = System.currentTimeMillis();
+        
+        dockerClient.pushImageCmd(targetImageName)
+                .withAuthConfig(authConfig)
+                .exec(new ResultCallback.Adapter<PushResponseItem>())
+                .awaitCompletion(15, TimeUnit.MINUTES);
+        invalidateCache(projectName, imageName, tag);
+        
+        long pushTime = System.currentTimeMillis() - pushStartTime;
+        logger.info("Step 3 completed in {} ms: Image pushed successfully", pushTime);
+        
+        long totalTime = System.currentTimeMillis() - startTime;
+        logger.info("OPTIMIZATION SUCCESS: Total operation completed in {} ms (Load: {}ms, Tag: {}ms, Push: {}ms)", 
+                totalTime, loadTime, tagTime, pushTime);
+        logger.info("Performance improvement: Load and push completed for {}", targetImageName);
+        
+        return targetImageName;
     }
 
     /**
      * 异步加载和推送镜像 - 为批量操作提供高性能支持
      */
     public CompletableFuture<String> loadAndPushImageAsync(String filePath, String projectName, String imageName, String tag) {
-        return CompletableFuture.supplyAsync(() -> {
-            return loadAndPushImage(filePath, projectName, imageName, tag);
-        }, executorService);
+        return loadAndPushImageAsync(filePath, projectName, imageName, tag, TransferScheduler.Priority.NORMAL);
+    }
+
+    /**
+     * 按指定优先级异步加载和推送镜像，以tar文件大小作为预估传输字节数交给传输调度器
+     */
+    public CompletableFuture<String> loadAndPushImageAsync(String filePath, String projectName, String imageName,
+                                                           String tag, TransferScheduler.Priority priority) {
+        return transferScheduler.submit(projectName, estimateFileSize(filePath), priority,
+                () -> loadAndPushImage(filePath, projectName, imageName, tag));
+    }
+
+    /**
+     * 传输调度统计：排队深度、在途字节和等待时间
+     */
+    public TransferScheduler.SchedulerStatistics getTransferStatistics() {
+        return transferScheduler.getStatistics();
+    }
+
+    /**
+     * REGISTRY模式及Registry端复制使用的服务
+     */
+    public RegistryImageService getRegistryImageService() {
+        return registryImageService;
+    }
+
+    private static long estimateFileSize(String filePath) {
+        try {
+            return Files.size(Paths.get(filePath));
+        } catch (Exception e) {
+            // 文件不可读时由任务本身报错，这里不占用字节预算
+            return 0;
+        }
     }
 
     /**
      * 批量加载和推送镜像 - 并行处理多个镜像
+     * 配置了批量任务日志时，每个条目的完成状态写入日志；同一批次在进程中断后重新调用时，
+     * 文件未变化的已完成条目直接返回上次的结果，其余条目继续执行
      */
     public List<String> batchLoadAndPushImages(List<BatchImageInfo> imageInfos) {
         logger.info("Starting batch load and push for {} images", imageInfos.size());
-        
-        List<CompletableFuture<String>> futures = imageInfos.stream()
-                .map(info -> loadAndPushImageAsync(info.getFilePath(), info.getProjectName(), 
-                        info.getImageName(), info.getTag()))
-                .collect(Collectors.toList());
-        
+
+        List<String> targets = imageInfos.stream().map(DockerImageService::batchTarget).collect(Collectors.toList());
+        JobJournal.Job job = jobJournal == null ? null : jobJournal.openJob(JobJournal.jobId("load", targets));
+        List<String> itemKeys = new ArrayList<>(imageInfos.size());
+        int resumed = 0;
+
+        List<CompletableFuture<String>> futures = new ArrayList<>(imageInfos.size());
+        for (int i = 0; i < imageInfos.size(); i++) {
+            BatchImageInfo info = imageInfos.get(i);
+            if (job == null) {
+                futures.add(loadAndPushImageAsync(info.getFilePath(), info.getProjectName(),
+                        info.getImageName(), info.getTag(), info.getPriority()));
+                continue;
+            }
+            String itemKey = batchItemKey(info, targets.get(i));
+            itemKeys.add(itemKey);
+            if (job.isCompleted(itemKey)) {
+                resumed++;
+                futures.add(CompletableFuture.completedFuture(job.getResult(itemKey)));
+            } else {
+                job.started(itemKey);
+                futures.add(loadAndPushImageAsync(info.getFilePath(), info.getProjectName(),
+                        info.getImageName(), info.getTag(), info.getPriority())
+                        .whenComplete((image, error) -> {
+                            if (error == null) {
+                                job.completed(itemKey, image);
+                            } else {
+                                job.failed(itemKey, String.valueOf(error.getMessage()));
+                            }
+                        }));
+            }
+        }
+        if (resumed > 0) {
+            logger.info("Resuming batch {}: {} of {} images already pushed", job.getId(), resumed, imageInfos.size());
+        }
+
         // 等待所有操作完成
-        List<String> results = futures.stream()
-                .map(CompletableFuture::join)
-                .collect(Collectors.toList());
-        
-        logger.info("Batch operation completed, {} images processed", results.size());
-        return results;
+        try {
+            List<String> results = futures.stream()
+                    .map(CompletableFuture::join)
+                    .collect(Collectors.toList());
+
+            logger.info("Batch operation completed, {} images processed", results.size());
+            return results;
+        } finally {
+            if (job != null) {
+                job.finish(itemKeys);
+            }
+        }
+    }
+
+    private static String batchTarget(BatchImageInfo info) {
+        return info.getFilePath() + " -> " + info.getProjectName() + "/" + info.getImageName() + ":" + info.getTag();
+    }
+
+    /**
+     * 批量条目键，附带文件大小和修改时间，文件被替换后不会被误认为已完成
+     */
+    private static String batchItemKey(BatchImageInfo info, String target) {
+        long size = -1;
+        long modified = -1;
+        try {
+            Path path = Paths.get(info.getFilePath());
+            size = Files.size(path);
+            modified = Files.getLastModifiedTime(path).toMillis();
+        } catch (Exception e) {
+            // 文件不可读时由任务本身报错
+        }
+        return target + " (" + size + " bytes, modified " + modified + ")";
     }
 
     /**
@@ -774,6 +976,7 @@ public class DockerImageService {
             logger.info("Removing local image: {}", fullImageName);
             
             dockerClient.removeImageCmd(fullImageName).withForce(true).exec();
+            localImageIndex.refresh(fullImageName);
             
             logger.info("Successfully removed local image: {}", fullImageName);
         } catch (Exception e) {
@@ -782,6 +985,21 @@ public class DockerImageService {
         }
     }
 
+    /**
+     * 本地镜像索引，按镜像ID和仓库标签查询，由Docker事件流保持更新
+     */
+    public LocalImageIndex getLocalImageIndex() {
+        return localImageIndex;
+    }
+
+    /**
+     * 本地属于指定Harbor项目的全部镜像引用（registry/project/image:tag），从本地镜像索引查询
+     */
+    public List<String> listLocalProjectImages(String projectName) {
+        String harborRegistry = extractRegistryFromHost(properties.getHost());
+        return localImageIndex.findRepoTags(harborRegistry + "/" + projectName + "/");
+    }
+
     /**
      * 列出本地镜像
      */
@@ -815,12 +1033,19 @@ public class DockerImageService {
         private String projectName;
         private String imageName;
         private String tag;
+        private TransferScheduler.Priority priority;
         
         public BatchImageInfo(String filePath, String projectName, String imageName, String tag) {
+            this(filePath, projectName, imageName, tag, TransferScheduler.Priority.NORMAL);
+        }
+
+        public BatchImageInfo(String filePath, String projectName, String imageName, String tag,
+                              TransferScheduler.Priority priority) {
             this.filePath = filePath;
             this.projectName = projectName;
             this.imageName = imageName;
             this.tag = tag;
+            this.priority = priority;
         }
         
         // Getters
@@ -828,5 +1053,6 @@ public class DockerImageService {
         public String getProjectName() { return projectName; }
         public String getImageName() { return imageName; }
         public String getTag() { return tag; }
+        public TransferScheduler.Priority getPriority() { return priority; }
     }
 } 
\ No newline at end of file
@@ -0,0 +1,36 @@
+package com.techzhi.harbor.service;
+
+import com.techzhi.harbor.transfer.ImageTransferEngine;
+
+import java.nio.file.Path;
+
+/**
+ * 经由Docker守护进程 load/tag/push
+ *
+ * @author techzhi
+ */
+public class DockerTransferEngine implements ImageTransferEngine {
+
+    public static final String NAME = "docker";
+
+    private final DockerImageService dockerImageService;
+
+    public DockerTransferEngine(DockerImageService dockerImageService) {
+        this.dockerImageService = dockerImageService;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return dockerImageService.isDaemonAvailable();
+    }
+
+    @Override
+    public String push(Path tarFile, String projectName, String imageName, String tag) {
+        return dockerImageService.loadAndPushWithDaemon(tarFile, projectName, imageName, tag);
+    }
+}
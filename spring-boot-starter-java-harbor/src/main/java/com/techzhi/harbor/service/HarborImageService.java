@@ -2,6 +2,8 @@ package com.techzhi.harbor.service;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.techzhi.harbor.client.HarborClient;
+import com.techzhi.harbor.client.HarborMetadataCache;
+import com.techzhi.harbor.client.PageIterator;
 import com.techzhi.harbor.config.HarborProperties;
 import com.techzhi.harbor.exception.HarborException;
 import com.techzhi.harbor.model.HarborImage;
@@ -10,9 +12,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Harbor镜像服务
@@ -27,9 +37,20 @@ public class HarborImageService {
     private final HarborClient harborClient;
     private final HarborProperties properties;
 
+    /**
+     * 元数据查询缓存，未启用时为null
+     */
+    private final HarborMetadataCache metadataCache;
+
     public HarborImageService(HarborClient harborClient, HarborProperties properties) {
+        this(harborClient, properties, properties.getCache().isEnabled() ? new HarborMetadataCache(properties) : null);
+    }
+
+    public HarborImageService(HarborClient harborClient, HarborProperties properties,
+                              HarborMetadataCache metadataCache) {
         this.harborClient = harborClient;
         this.properties = properties;
+        this.metadataCache = metadataCache;
     }
 
     /**
@@ -40,13 +61,48 @@ public class HarborImageService {
     }
 
     /**
-     * 获取指定项目下的所有镜像列表
+     * 获取指定项目下的所有镜像列表（逐页取完）
      */
     public List<HarborImage> listImages(String projectName) {
+        try (Stream<HarborImage> images = streamImages(projectName)) {
+            return images.collect(Collectors.toList());
+        } catch (Exception e) {
+            logger.error("Failed to list images for project: {}", projectName, e);
+            throw new HarborException("Failed to list images", e);
+        }
+    }
+
+    /**
+     * 按需翻页遍历默认项目下的镜像
+     */
+    public Stream<HarborImage> streamImages() {
+        return streamImages(properties.getProject());
+    }
+
+    /**
+     * 按需翻页遍历指定项目下的镜像，处理当前页时预取下一页；提前结束时应关闭流
+     */
+    public Stream<HarborImage> streamImages(String projectName) {
+        return iterateImages(projectName).stream();
+    }
+
+    /**
+     * 按需翻页的镜像迭代器，提前结束时应调用close
+     */
+    public PageIterator<HarborImage> iterateImages(String projectName) {
+        String path = String.format("/api/v2.0/projects/%s/repositories", encode(projectName));
+        return iterate(path, new TypeReference<List<HarborImage>>() {});
+    }
+
+    /**
+     * 流式遍历指定项目下的镜像：逐条解析响应，每解析出一个镜像就回调consumer，内存占用与镜像数量无关
+     *
+     * @return 处理的镜像数
+     */
+    public long forEachImage(String projectName, Consumer<? super HarborImage> consumer) {
+        String path = String.format("/api/v2.0/projects/%s/repositories", encode(projectName));
         try {
-            String path = String.format("/api/v2.0/projects/%s/repositories", 
-                    URLEncoder.encode(projectName, "UTF-8"));
-            return harborClient.get(path, new TypeReference<List<HarborImage>>() {});
+            return harborClient.forEach(firstPage(path), new TypeReference<HarborImage>() {}, consumer);
         } catch (Exception e) {
             logger.error("Failed to list images for project: {}", projectName, e);
             throw new HarborException("Failed to list images", e);
@@ -61,14 +117,43 @@ public class HarborImageService {
     }
 
     /**
-     * 获取指定项目和镜像的所有标签
+     * 获取指定项目和镜像的所有标签（逐页取完）
      */
     public List<HarborTag> listImageTags(String projectName, String imageName) {
+        try (Stream<HarborTag> tags = streamImageTags(projectName, imageName)) {
+            return tags.collect(Collectors.toList());
+        } catch (Exception e) {
+            logger.error("Failed to list tags for image: {}/{}", projectName, imageName, e);
+            throw new HarborException("Failed to list image tags", e);
+        }
+    }
+
+    /**
+     * 按需翻页遍历镜像的标签，处理当前页时预取下一页；提前结束时应关闭流
+     */
+    public Stream<HarborTag> streamImageTags(String projectName, String imageName) {
+        return iterateImageTags(projectName, imageName).stream();
+    }
+
+    /**
+     * 按需翻页的标签迭代器，提前结束时应调用close
+     */
+    public PageIterator<HarborTag> iterateImageTags(String projectName, String imageName) {
+        String path = String.format("/api/v2.0/projects/%s/repositories/%s/artifacts",
+                encode(projectName), encode(imageName));
+        return iterate(path, new TypeReference<List<HarborTag>>() {});
+    }
+
+    /**
+     * 流式遍历镜像的标签：逐条解析响应，每解析出一个标签就回调consumer，内存占用与标签数量无关
+     *
+     * @return 处理的标签数
+     */
+    public long forEachImageTag(String projectName, String imageName, Consumer<? super HarborTag> consumer) {
+        String path = String.format("/api/v2.0/projects/%s/repositories/%s/artifacts",
+                encode(projectName), encode(imageName));
         try {
-            String path = String.format("/api/v2.0/projects/%s/repositories/%s/artifacts", 
-                    URLEncoder.encode(projectName, "UTF-8"),
-                    URLEncoder.encode(imageName, "UTF-8"));
-            return harborClient.get(path, new TypeReference<List<HarborTag>>() {});
+            return harborClient.forEach(firstPage(path), new TypeReference<HarborTag>() {}, consumer);
         } catch (Exception e) {
             logger.error("Failed to list tags for image: {}/{}", projectName, imageName, e);
             throw new HarborException("Failed to list image tags", e);
@@ -88,8 +173,11 @@ public class HarborImageService {
     public boolean imageExists(String projectName, String imageName) {
         try {
             String path = String.format("/api/v2.0/projects/%s/repositories/%s", 
-                    URLEncoder.encode(projectName, "UTF-8"),
-                    URLEncoder.encode(imageName, "UTF-8"));
+                    encode(projectName), encode(imageName));
+            if (metadataCache != null) {
+                return metadataCache.get(HarborMetadataCache.IMAGE_EXISTS, projectName, imageName, null,
+                        (etag, lastModified) -> exists(path, etag, lastModified)) != null;
+            }
             harborClient.get(path, new TypeReference<Map<String, Object>>() {});
             return true;
         } catch (HarborException e) {
@@ -116,9 +204,11 @@ public class HarborImageService {
     public boolean imageTagExists(String projectName, String imageName, String tag) {
         try {
             String path = String.format("/api/v2.0/projects/%s/repositories/%s/artifacts/%s", 
-                    URLEncoder.encode(projectName, "UTF-8"),
-                    URLEncoder.encode(imageName, "UTF-8"),
-                    URLEncoder.encode(tag, "UTF-8"));
+                    encode(projectName), encode(imageName), encode(tag));
+            if (metadataCache != null) {
+                return metadataCache.get(HarborMetadataCache.TAG_EXISTS, projectName, imageName, tag,
+                        (etag, lastModified) -> exists(path, etag, lastModified)) != null;
+            }
             harborClient.get(path, new TypeReference<Map<String, Object>>() {});
             return true;
         } catch (HarborException e) {
@@ -132,6 +222,23 @@ public class HarborImageService {
         }
     }
 
+    /**
+     * 条件请求资源，存在时值为TRUE，不存在时值为null
+     */
+    private HarborClient.ConditionalResult<Boolean> exists(String path, String etag, String lastModified) {
+        try {
+            HarborClient.ConditionalResult<Map<String, Object>> result = harborClient.getConditional(path, etag,
+                    lastModified, new TypeReference<Map<String, Object>>() {});
+            return new HarborClient.ConditionalResult<>(result.isNotModified(), Boolean.TRUE, result.getEtag(),
+                    result.getLastModified());
+        } catch (HarborException e) {
+            if (e.getCode() == 404) {
+                return new HarborClient.ConditionalResult<>(false, null, null, null);
+            }
+            throw e;
+        }
+    }
+
     /**
      * 删除镜像
      */
@@ -148,6 +255,9 @@ public class HarborImageService {
                     URLEncoder.encode(projectName, "UTF-8"),
                     URLEncoder.encode(imageName, "UTF-8"));
             harborClient.delete(path);
+            if (metadataCache != null) {
+                metadataCache.invalidateImage(projectName, imageName);
+            }
             logger.info("Successfully deleted image: {}/{}", projectName, imageName);
         } catch (Exception e) {
             logger.error("Failed to delete image: {}/{}", projectName, imageName, e);
@@ -172,6 +282,9 @@ public class HarborImageService {
                     URLEncoder.encode(imageName, "UTF-8"),
                     URLEncoder.encode(tag, "UTF-8"));
             harborClient.delete(path);
+            if (metadataCache != null) {
+                metadataCache.invalidateTag(projectName, imageName, tag);
+            }
             logger.info("Successfully deleted image tag: {}/{}: {}", projectName, imageName, tag);
         } catch (Exception e) {
             logger.error("Failed to delete image tag: {}/{}: {}", projectName, imageName, tag, e);
@@ -192,8 +305,13 @@ public class HarborImageService {
     public HarborImage getImageInfo(String projectName, String imageName) {
         try {
             String path = String.format("/api/v2.0/projects/%s/repositories/%s", 
-                    URLEncoder.encode(projectName, "UTF-8"),
-                    URLEncoder.encode(imageName, "UTF-8"));
+                    encode(projectName), encode(imageName));
+            if (metadataCache != null) {
+                // 不存在时抛出异常，不进入缓存
+                return metadataCache.get(HarborMetadataCache.IMAGE_INFO, projectName, imageName, null,
+                        (etag, lastModified) -> harborClient.getConditional(path, etag, lastModified,
+                                new TypeReference<HarborImage>() {}));
+            }
             return harborClient.get(path, new TypeReference<HarborImage>() {});
         } catch (Exception e) {
             logger.error("Failed to get image info: {}/{}", projectName, imageName, e);
@@ -201,6 +319,13 @@ public class HarborImageService {
         }
     }
 
+    /**
+     * 元数据查询缓存，未启用时为null
+     */
+    public HarborMetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
     /**
      * 搜索镜像
      */
@@ -209,17 +334,199 @@ public class HarborImageService {
     }
 
     /**
-     * 在指定项目中搜索镜像
+     * 在指定项目中搜索镜像（逐页取完）
      */
     public List<HarborImage> searchImages(String projectName, String keyword) {
-        try {
-            String path = String.format("/api/v2.0/projects/%s/repositories?q=%s", 
-                    URLEncoder.encode(projectName, "UTF-8"),
-                    URLEncoder.encode(keyword, "UTF-8"));
-            return harborClient.get(path, new TypeReference<List<HarborImage>>() {});
+        String path = String.format("/api/v2.0/projects/%s/repositories?q=%s",
+                encode(projectName), encode(keyword));
+        try (Stream<HarborImage> images = iterate(path, new TypeReference<List<HarborImage>>() {}).stream()) {
+            return images.collect(Collectors.toList());
         } catch (Exception e) {
             logger.error("Failed to search images with keyword: {} in project: {}", keyword, projectName, e);
             throw new HarborException("Failed to search images", e);
         }
     }
+
+    // 以下为异步API：请求交给OkHttp调度器执行，并发受 harbor.max-requests / max-requests-per-host 限制，
+    // 少量线程即可同时发起大量查询。future在OkHttp调度线程上完成，后续回调中不应做阻塞操作；失败时以HarborException结束
+
+    /**
+     * 异步获取指定项目下的所有镜像（逐页取完）
+     */
+    public CompletableFuture<List<HarborImage>> listImagesAsync(String projectName) {
+        String path = String.format("/api/v2.0/projects/%s/repositories", encode(projectName));
+        return collectAsync(firstPage(path), new TypeReference<List<HarborImage>>() {}, new ArrayList<>());
+    }
+
+    /**
+     * 异步获取指定项目和镜像的所有标签（逐页取完）
+     */
+    public CompletableFuture<List<HarborTag>> listImageTagsAsync(String projectName, String imageName) {
+        String path = String.format("/api/v2.0/projects/%s/repositories/%s/artifacts",
+                encode(projectName), encode(imageName));
+        return collectAsync(firstPage(path), new TypeReference<List<HarborTag>>() {}, new ArrayList<>());
+    }
+
+    /**
+     * 异步检查镜像是否存在
+     */
+    public CompletableFuture<Boolean> imageExistsAsync(String imageName) {
+        return imageExistsAsync(properties.getProject(), imageName);
+    }
+
+    /**
+     * 异步检查指定项目中的镜像是否存在
+     */
+    public CompletableFuture<Boolean> imageExistsAsync(String projectName, String imageName) {
+        String path = String.format("/api/v2.0/projects/%s/repositories/%s",
+                encode(projectName), encode(imageName));
+        if (metadataCache != null) {
+            return metadataCache.getAsync(HarborMetadataCache.IMAGE_EXISTS, projectName, imageName, null,
+                    (etag, lastModified) -> existsAsync(path, etag, lastModified)).thenApply(Objects::nonNull);
+        }
+        return harborClient.getAsync(path, new TypeReference<Map<String, Object>>() {})
+                .handle((body, error) -> {
+                    if (error != null) {
+                        requireNotFound(error, "Failed to check image existence");
+                    }
+                    return error == null;
+                });
+    }
+
+    /**
+     * 异步检查镜像标签是否存在
+     */
+    public CompletableFuture<Boolean> imageTagExistsAsync(String imageName, String tag) {
+        return imageTagExistsAsync(properties.getProject(), imageName, tag);
+    }
+
+    /**
+     * 异步检查指定项目中的镜像标签是否存在
+     */
+    public CompletableFuture<Boolean> imageTagExistsAsync(String projectName, String imageName, String tag) {
+        String path = String.format("/api/v2.0/projects/%s/repositories/%s/artifacts/%s",
+                encode(projectName), encode(imageName), encode(tag));
+        if (metadataCache != null) {
+            return metadataCache.getAsync(HarborMetadataCache.TAG_EXISTS, projectName, imageName, tag,
+                    (etag, lastModified) -> existsAsync(path, etag, lastModified)).thenApply(Objects::nonNull);
+        }
+        return harborClient.getAsync(path, new TypeReference<Map<String, Object>>() {})
+                .handle((body, error) -> {
+                    if (error != null) {
+                        requireNotFound(error, "Failed to check image tag existence");
+                    }
+                    return error == null;
+                });
+    }
+
+    /**
+     * exists的异步版本
+     */
+    private CompletableFuture<HarborClient.ConditionalResult<Boolean>> existsAsync(String path, String etag,
+                                                                                  String lastModified) {
+        return harborClient.getConditionalAsync(path, etag, lastModified, new TypeReference<Map<String, Object>>() {})
+                .handle((result, error) -> {
+                    if (error != null) {
+                        requireNotFound(error, "Failed to check existence");
+                        return new HarborClient.ConditionalResult<>(false, null, null, null);
+                    }
+                    return new HarborClient.ConditionalResult<>(result.isNotModified(), Boolean.TRUE,
+                            result.getEtag(), result.getLastModified());
+                });
+    }
+
+    /**
+     * 异步获取镜像详细信息
+     */
+    public CompletableFuture<HarborImage> getImageInfoAsync(String imageName) {
+        return getImageInfoAsync(properties.getProject(), imageName);
+    }
+
+    /**
+     * 异步获取指定项目中镜像的详细信息
+     */
+    public CompletableFuture<HarborImage> getImageInfoAsync(String projectName, String imageName) {
+        String path = String.format("/api/v2.0/projects/%s/repositories/%s",
+                encode(projectName), encode(imageName));
+        if (metadataCache != null) {
+            return metadataCache.getAsync(HarborMetadataCache.IMAGE_INFO, projectName, imageName, null,
+                    (etag, lastModified) -> harborClient.getConditionalAsync(path, etag, lastModified,
+                            new TypeReference<HarborImage>() {}));
+        }
+        return harborClient.getAsync(path, new TypeReference<HarborImage>() {});
+    }
+
+    /**
+     * 异步删除指定项目中的镜像
+     */
+    public CompletableFuture<Void> deleteImageAsync(String projectName, String imageName) {
+        String path = String.format("/api/v2.0/projects/%s/repositories/%s",
+                encode(projectName), encode(imageName));
+        return harborClient.deleteAsync(path).thenRun(() -> {
+            if (metadataCache != null) {
+                metadataCache.invalidateImage(projectName, imageName);
+            }
+            logger.info("Successfully deleted image: {}/{}", projectName, imageName);
+        });
+    }
+
+    /**
+     * 异步删除指定项目中的镜像标签
+     */
+    public CompletableFuture<Void> deleteImageTagAsync(String projectName, String imageName, String tag) {
+        String path = String.format("/api/v2.0/projects/%s/repositories/%s/artifacts/%s",
+                encode(projectName), encode(imageName), encode(tag));
+        return harborClient.deleteAsync(path).thenRun(() -> {
+            if (metadataCache != null) {
+                metadataCache.invalidateTag(projectName, imageName, tag);
+            }
+            logger.info("Successfully deleted image tag: {}/{}: {}", projectName, imageName, tag);
+        });
+    }
+
+    /**
+     * 依次异步取回各页，上一页完成后再请求下一页
+     */
+    private <T> CompletableFuture<List<T>> collectAsync(String path, TypeReference<List<T>> typeReference,
+                                                        List<T> items) {
+        return harborClient.getPageAsync(path, typeReference).thenCompose(page -> {
+            items.addAll(page.getItems());
+            return page.hasNext() && !page.getItems().isEmpty()
+                    ? collectAsync(page.getNext(), typeReference, items)
+                    : CompletableFuture.completedFuture(items);
+        });
+    }
+
+    /**
+     * 异步请求的失败为404时视为不存在，其他错误以HarborException重新抛出
+     */
+    private static void requireNotFound(Throwable error, String message) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof HarborException) {
+            if (((HarborException) cause).getCode() == 404) {
+                return;
+            }
+            throw (HarborException) cause;
+        }
+        throw new HarborException(message, cause);
+    }
+
+    /**
+     * 从第一页开始按 harbor.page-size 翻页
+     */
+    private <T> PageIterator<T> iterate(String path, TypeReference<List<T>> typeReference) {
+        return new PageIterator<>(firstPage(path), next -> harborClient.getPageAsync(next, typeReference));
+    }
+
+    private String firstPage(String path) {
+        return path + (path.contains("?") ? "&" : "?") + "page=1&page_size=" + properties.getPageSize();
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new HarborException("Failed to encode " + value, e);
+        }
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,488 @@
+package com.techzhi.harbor.service;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.async.ResultCallback;
+import com.github.dockerjava.api.command.InspectImageResponse;
+import com.github.dockerjava.api.exception.NotFoundException;
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.api.model.EventType;
+import com.github.dockerjava.api.model.Image;
+import com.github.dockerjava.api.model.LoadResponseItem;
+import com.techzhi.harbor.exception.HarborException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 本地镜像内存索引
+ * 首次查询时用一次 listImagesCmd 建立按镜像ID和仓库标签的索引，之后订阅Docker事件流增量更新，
+ * 查询不再遍历守护进程中的全部镜像；事件流断开后下一次查询重新建立索引和订阅。
+ * 加载镜像时从 docker load 的响应中解析出加载的镜像ID和标签，不再按创建时间猜测
+ *
+ * @author techzhi
+ */
+public class LocalImageIndex implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalImageIndex.class);
+
+    private static final String LOADED_IMAGE = "Loaded image: ";
+    private static final String LOADED_IMAGE_ID = "Loaded image ID: ";
+    private static final String NONE_TAG = "<none>:<none>";
+
+    /**
+     * 不改变本地镜像集合的事件
+     */
+    private static final Set<String> IGNORED_ACTIONS = new LinkedHashSet<>(Arrays.asList("push", "save"));
+
+    private final DockerClient dockerClient;
+    private final Map<String, LocalImage> imagesById = new HashMap<>();
+    private final Map<String, String> idsByRepoTag = new HashMap<>();
+    private final Object seedLock = new Object();
+
+    /**
+     * 建立索引期间收到的事件，索引建立后重新处理
+     */
+    private final List<Event> pendingEvents = new ArrayList<>();
+    private volatile boolean seeded;
+    private volatile boolean closed;
+    private EventSubscription subscription;
+    private EventSubscription seeding;
+
+    public LocalImageIndex(DockerClient dockerClient) {
+        this.dockerClient = dockerClient;
+    }
+
+    /**
+     * 按镜像ID查找，支持带或不带 sha256: 前缀的完整ID
+     */
+    public LocalImage findById(String imageId) {
+        ensureSeeded();
+        synchronized (this) {
+            return imagesById.get(normalizeId(imageId));
+        }
+    }
+
+    /**
+     * 按仓库标签查找，未写标签时按latest查找
+     */
+    public LocalImage findByRepoTag(String repoTag) {
+        ensureSeeded();
+        synchronized (this) {
+            String id = idsByRepoTag.get(normalizeRepoTag(repoTag));
+            return id != null ? imagesById.get(id) : null;
+        }
+    }
+
+    /**
+     * 以指定前缀开头的全部仓库标签，如 "harbor.local/flow/"
+     */
+    public List<String> findRepoTags(String prefix) {
+        ensureSeeded();
+        List<String> repoTags = new ArrayList<>();
+        synchronized (this) {
+            for (String repoTag : idsByRepoTag.keySet()) {
+                if (repoTag.startsWith(prefix)) {
+                    repoTags.add(repoTag);
+                }
+            }
+        }
+        Collections.sort(repoTags);
+        return repoTags;
+    }
+
+    /**
+     * 索引中的镜像数
+     */
+    public int size() {
+        ensureSeeded();
+        synchronized (this) {
+            return imagesById.size();
+        }
+    }
+
+    /**
+     * 通过Docker守护进程加载tar流，从响应中解析加载的镜像并立即更新索引
+     */
+    public LoadResult load(InputStream tarStream) {
+        LoadCallback callback = new LoadCallback();
+        try {
+            dockerClient.loadImageAsyncCmd(tarStream).exec(callback).awaitCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HarborException("Interrupted while loading image", e);
+        }
+        if (callback.error != null) {
+            throw new HarborException("Failed to load image: " + callback.error);
+        }
+        LoadResult result = parseLoadResponse(callback.messages);
+        if (result.getRepoTags().isEmpty() && result.getImageIds().isEmpty()) {
+            throw new HarborException("Docker load response did not report any image: " + callback.messages);
+        }
+        if (seeded) {
+            for (String reference : result.getReferences()) {
+                refresh(reference);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 从守护进程重新读取单个镜像（ID或仓库标签）并更新索引，镜像不存在时从索引中移除
+     */
+    public void refresh(String reference) {
+        InspectImageResponse response;
+        try {
+            response = dockerClient.inspectImageCmd(reference).exec();
+        } catch (NotFoundException e) {
+            forget(reference);
+            return;
+        }
+        put(new LocalImage(response.getId(), response.getRepoTags(),
+                response.getSize() != null ? response.getSize() : 0));
+    }
+
+    /**
+     * 解析 docker load 的响应消息：带标签的镜像报告 "Loaded image: name:tag"，未打标签的报告 "Loaded image ID: sha256:..."
+     */
+    static LoadResult parseLoadResponse(List<String> messages) {
+        LoadResult result = new LoadResult();
+        for (String message : messages) {
+            for (String line : message.split("\n")) {
+                line = line.trim();
+                if (line.startsWith(LOADED_IMAGE_ID)) {
+                    result.imageIds.add(line.substring(LOADED_IMAGE_ID.length()).trim());
+                } else if (line.startsWith(LOADED_IMAGE)) {
+                    result.repoTags.add(line.substring(LOADED_IMAGE.length()).trim());
+                }
+            }
+        }
+        return result;
+    }
+
+    private void ensureSeeded() {
+        if (seeded) {
+            return;
+        }
+        synchronized (seedLock) {
+            if (seeded) {
+                return;
+            }
+            if (closed) {
+                throw new HarborException("Local image index is closed");
+            }
+            long startTime = System.currentTimeMillis();
+            // 先订阅再列出镜像，两者之间发生的变化由暂存的事件补上
+            EventSubscription newSubscription = new EventSubscription();
+            synchronized (this) {
+                seeding = newSubscription;
+                pendingEvents.clear();
+            }
+            try {
+                dockerClient.eventsCmd().withEventTypeFilter(EventType.IMAGE).exec(newSubscription);
+                List<Image> images = dockerClient.listImagesCmd().exec();
+                List<Event> missed;
+                synchronized (this) {
+                    imagesById.clear();
+                    idsByRepoTag.clear();
+                    for (Image image : images) {
+                        putLocked(new LocalImage(image.getId(),
+                                image.getRepoTags() != null ? Arrays.asList(image.getRepoTags()) : null,
+                                image.getSize() != null ? image.getSize() : 0));
+                    }
+                    subscription = newSubscription;
+                    seeding = null;
+                    seeded = true;
+                    missed = new ArrayList<>(pendingEvents);
+                    pendingEvents.clear();
+                }
+                logger.info("Local image index seeded with {} images in {} ms",
+                        images.size(), System.currentTimeMillis() - startTime);
+                for (Event event : missed) {
+                    apply(event);
+                }
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    seeding = null;
+                    pendingEvents.clear();
+                }
+                closeQuietly(newSubscription);
+                throw new HarborException("Failed to build local image index", e);
+            }
+        }
+    }
+
+    private void onEvent(EventSubscription source, Event event) {
+        synchronized (this) {
+            if (source == seeding) {
+                pendingEvents.add(event);
+                return;
+            }
+            if (source != subscription || !seeded) {
+                return;
+            }
+        }
+        apply(event);
+    }
+
+    private void apply(Event event) {
+        String action = event.getAction() != null ? event.getAction() : event.getStatus();
+        if (action == null || IGNORED_ACTIONS.contains(action)) {
+            return;
+        }
+        String reference = event.getActor() != null && event.getActor().getId() != null
+                ? event.getActor().getId() : event.getId();
+        if (reference == null) {
+            return;
+        }
+        try {
+            if ("delete".equals(action)) {
+                forget(reference);
+            } else {
+                refresh(reference);
+            }
+        } catch (RuntimeException e) {
+            // 无法确认当前状态时丢弃索引，下一次查询重新建立
+            logger.warn("Failed to apply docker {} event for {}, rebuilding local image index", action, reference, e);
+            invalidate(null);
+        }
+    }
+
+    /**
+     * 事件流断开或出错：下一次查询重新建立索引和订阅
+     */
+    private void invalidate(EventSubscription source) {
+        EventSubscription previous;
+        synchronized (this) {
+            if (source != null && source != subscription) {
+                return;
+            }
+            previous = subscription;
+            subscription = null;
+            seeded = false;
+        }
+        closeQuietly(previous);
+    }
+
+    private synchronized void put(LocalImage image) {
+        putLocked(image);
+    }
+
+    private void putLocked(LocalImage image) {
+        LocalImage previous = imagesById.put(image.getId(), image);
+        if (previous != null) {
+            for (String repoTag : previous.getRepoTags()) {
+                if (!image.getRepoTags().contains(repoTag) && image.getId().equals(idsByRepoTag.get(repoTag))) {
+                    idsByRepoTag.remove(repoTag);
+                }
+            }
+        }
+        for (String repoTag : image.getRepoTags()) {
+            String oldId = idsByRepoTag.put(repoTag, image.getId());
+            // 标签被移到新镜像上：旧镜像去掉这个标签
+            if (oldId != null && !oldId.equals(image.getId())) {
+                LocalImage old = imagesById.get(oldId);
+                if (old != null) {
+                    imagesById.put(oldId, old.withoutRepoTag(repoTag));
+                }
+            }
+        }
+    }
+
+    private synchronized void forget(String reference) {
+        String id = idsByRepoTag.remove(normalizeRepoTag(reference));
+        if (id != null) {
+            LocalImage image = imagesById.get(id);
+            if (image != null) {
+                imagesById.put(id, image.withoutRepoTag(normalizeRepoTag(reference)));
+            }
+            return;
+        }
+        LocalImage removed = imagesById.remove(normalizeId(reference));
+        if (removed != null) {
+            for (String repoTag : removed.getRepoTags()) {
+                idsByRepoTag.remove(repoTag, removed.getId());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        invalidate(null);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close docker event stream", e);
+        }
+    }
+
+    private static String normalizeId(String imageId) {
+        return imageId.startsWith("sha256:") ? imageId : "sha256:" + imageId;
+    }
+
+    private static String normalizeRepoTag(String repoTag) {
+        int colon = repoTag.lastIndexOf(':');
+        return colon > repoTag.lastIndexOf('/') ? repoTag : repoTag + ":latest";
+    }
+
+    /**
+     * 事件流订阅，每次建立索引使用新的实例，旧实例的回调被忽略
+     */
+    private class EventSubscription extends ResultCallback.Adapter<Event> {
+
+        @Override
+        public void onNext(Event event) {
+            onEvent(this, event);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (!closed) {
+                logger.warn("Docker event stream failed, local image index will be rebuilt: {}",
+                        throwable.getMessage());
+            }
+            invalidate(this);
+            super.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            invalidate(this);
+            super.onComplete();
+        }
+    }
+
+    /**
+     * 收集 docker load 响应中的消息和错误
+     */
+    private static class LoadCallback extends ResultCallback.Adapter<LoadResponseItem> {
+        private final List<String> messages = new ArrayList<>();
+        private volatile String error;
+
+        @Override
+        public void onNext(LoadResponseItem item) {
+            if (item.getErrorDetail() != null) {
+                error = item.getErrorDetail().getMessage();
+            } else if (item.getStream() != null) {
+                messages.add(item.getStream());
+            } else if (item.getStatus() != null) {
+                messages.add(item.getStatus());
+            }
+        }
+    }
+
+    /**
+     * 索引中的本地镜像
+     */
+    public static class LocalImage {
+        private final String id;
+        private final List<String> repoTags;
+        private final long size;
+
+        LocalImage(String id, List<String> repoTags, long size) {
+            this.id = id;
+            List<String> tags = new ArrayList<>();
+            if (repoTags != null) {
+                for (String repoTag : repoTags) {
+                    if (!NONE_TAG.equals(repoTag)) {
+                        tags.add(repoTag);
+                    }
+                }
+            }
+            this.repoTags = Collections.unmodifiableList(tags);
+            this.size = size;
+        }
+
+        LocalImage withoutRepoTag(String repoTag) {
+            List<String> tags = new ArrayList<>(repoTags);
+            tags.remove(repoTag);
+            return new LocalImage(id, tags, size);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public List<String> getRepoTags() {
+            return repoTags;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return "LocalImage{" +
+                    "id='" + id + '\'' +
+                    ", repoTags=" + repoTags +
+                    ", size=" + size +
+                    '}';
+        }
+    }
+
+    /**
+     * docker load 报告的镜像
+     */
+    public static class LoadResult {
+        private final List<String> repoTags = new ArrayList<>();
+        private final List<String> imageIds = new ArrayList<>();
+
+        public List<String> getRepoTags() {
+            return repoTags;
+        }
+
+        public List<String> getImageIds() {
+            return imageIds;
+        }
+
+        /**
+         * 全部可用于引用加载结果的名称：先标签后ID
+         */
+        public List<String> getReferences() {
+            List<String> references = new ArrayList<>(repoTags);
+            references.addAll(imageIds);
+            return references;
+        }
+
+        /**
+         * 选择要重新打标签的源镜像：优先选仓库名最后一段与期望镜像名相同的标签，其次第一个标签，最后是镜像ID
+         */
+        public String select(String expectedImageName) {
+            String expected = expectedImageName.substring(expectedImageName.lastIndexOf('/') + 1);
+            for (String repoTag : repoTags) {
+                int colon = repoTag.lastIndexOf(':');
+                String repository = colon > repoTag.lastIndexOf('/') ? repoTag.substring(0, colon) : repoTag;
+                if (repository.substring(repository.lastIndexOf('/') + 1).equals(expected)) {
+                    return repoTag;
+                }
+            }
+            return !repoTags.isEmpty() ? repoTags.get(0) : imageIds.get(0);
+        }
+
+        @Override
+        public String toString() {
+            return "LoadResult{" +
+                    "repoTags=" + repoTags +
+                    ", imageIds=" + imageIds +
+                    '}';
+        }
+    }
+}
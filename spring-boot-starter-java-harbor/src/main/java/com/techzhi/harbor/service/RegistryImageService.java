@@ -0,0 +1,2075 @@
+package com.techzhi.harbor.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.techzhi.harbor.archive.DockerArchive;
+import com.techzhi.harbor.archive.TarHeaders;
+import com.techzhi.harbor.archive.TarIndex;
+import com.techzhi.harbor.archive.TarStreamReader;
+import com.techzhi.harbor.client.HarborMetadataCache;
+import com.techzhi.harbor.client.RegistryClient;
+import com.techzhi.harbor.config.HarborProperties;
+import com.techzhi.harbor.exception.HarborException;
+import com.techzhi.harbor.transfer.DigestEngine;
+import com.techzhi.harbor.transfer.DirectBufferPool;
+import com.techzhi.harbor.transfer.LayerStore;
+import com.techzhi.harbor.transfer.StreamCopier;
+import com.techzhi.harbor.transfer.UploadSessionStore;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Registry V2 镜像服务
+ * 不经过Docker守护进程，直接从docker-archive tar包中读取层并以blob形式上传到Harbor
+ *
+ * @author techzhi
+ */
+@Service
+public class RegistryImageService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RegistryImageService.class);
+
+    public static final String OCI_MANIFEST_MEDIA_TYPE = "application/vnd.oci.image.manifest.v1+json";
+    public static final String OCI_CONFIG_MEDIA_TYPE = "application/vnd.oci.image.config.v1+json";
+    public static final String OCI_LAYER_MEDIA_TYPE = "application/vnd.oci.image.layer.v1.tar";
+    public static final String OCI_LAYER_GZIP_MEDIA_TYPE = "application/vnd.oci.image.layer.v1.tar+gzip";
+    public static final String OCI_INDEX_MEDIA_TYPE = "application/vnd.oci.image.index.v1+json";
+
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+    private static final Pattern BLOB_ENTRY = Pattern.compile("^blobs/(sha256)/([a-f0-9]{64})$");
+
+    /**
+     * 推送tar流时暂存在内存中的条目大小上限，更大的条目边读边上传
+     */
+    private static final int STREAM_INLINE_LIMIT = 1024 * 1024;
+
+    private final RegistryClient registryClient;
+    private volatile HarborMetadataCache metadataCache;
+    private final HarborProperties properties;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * 已知blob位置：摘要 -> 出现过该blob的仓库
+     */
+    private final Map<String, Set<String>> blobLocations = new ConcurrentHashMap<>();
+
+    private final UploadSessionStore sessionStore;
+
+    /**
+     * 本地层缓存，未启用时为null
+     */
+    private final LayerStore layerStore;
+
+    private final DigestEngine digestEngine;
+    private final boolean ownsDigestEngine;
+
+    /**
+     * 正在推送的blob：摘要 -> 完成信号，同一JVM内并发任务推送同一blob时后到者等待先到者完成
+     */
+    private final Map<String, CompletableFuture<Void>> inFlightBlobs = new ConcurrentHashMap<>();
+
+    /**
+     * 层上传线程池，单个镜像内的并发度由信号量按layerConcurrency限制
+     */
+    private final ExecutorService layerExecutor;
+
+    public RegistryImageService(RegistryClient registryClient, HarborProperties properties) {
+        this(registryClient, properties, new DigestEngine(properties), true);
+    }
+
+    public RegistryImageService(RegistryClient registryClient, HarborProperties properties, DigestEngine digestEngine) {
+        this(registryClient, properties, digestEngine, false);
+    }
+
+    private RegistryImageService(RegistryClient registryClient, HarborProperties properties, DigestEngine digestEngine,
+                                 boolean ownsDigestEngine) {
+        this.registryClient = registryClient;
+        this.properties = properties;
+        this.digestEngine = digestEngine;
+        this.ownsDigestEngine = ownsDigestEngine;
+        this.sessionStore = new UploadSessionStore(Paths.get(properties.getRegistry().getSessionDir()));
+        this.layerStore = LayerStore.open(properties);
+        this.layerExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "registry-layer-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 设置元数据查询缓存，推送清单后清除对应条目
+     */
+    public void setMetadataCache(HarborMetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    private void invalidateCache(String repository, String tag) {
+        HarborMetadataCache cache = metadataCache;
+        if (cache != null) {
+            cache.invalidateRepository(repository, tag);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        layerExecutor.shutdown();
+        if (ownsDigestEngine) {
+            digestEngine.shutdown();
+        }
+    }
+
+    /**
+     * 注册表是否可连接
+     */
+    public boolean ping() {
+        return registryClient.ping();
+    }
+
+    /**
+     * 将docker-archive tar包推送到默认项目
+     */
+    public PushResult pushArchive(Path tarFile, String imageName, String tag) {
+        return pushArchive(tarFile, properties.getProject(), imageName, tag);
+    }
+
+    /**
+     * 将docker-archive tar包直接推送到Harbor指定项目
+     * 依次上传镜像配置和各层blob，全部成功后再提交清单
+     *
+     * @param tarFile 镜像tar文件
+     * @param projectName Harbor项目名称
+     * @param imageName 镜像名称
+     * @param tag 镜像标签
+     * @return 推送结果
+     */
+    public PushResult pushArchive(Path tarFile, String projectName, String imageName, String tag) {
+        long startTime = System.currentTimeMillis();
+        String repository = projectName + "/" + imageName;
+        String targetImageName = String.format("%s/%s:%s", registryClient.getRegistryAddress(), repository, tag);
+
+        if (!Files.exists(tarFile)) {
+            throw new HarborException("Image file not found: " + tarFile);
+        }
+
+        try (DockerArchive archive = DockerArchive.open(tarFile)) {
+            logger.info("Pushing image archive via Registry API: {} -> {}", tarFile, targetImageName);
+
+            archive.validate();
+            DockerArchive.ManifestItem item = archive.getManifest();
+            byte[] config = archive.getConfig();
+            String configDigest = sha256(config);
+            List<String> diffIds = readDiffIds(config);
+
+            TransferStats stats = new TransferStats();
+
+            // 第1步：上传镜像配置
+            stats.record(pushBlob(repository, configDigest, config), config.length);
+
+            // 第2步：各层并行上传，已存在或可跨仓库挂载的层跳过传输
+            List<Map<String, Object>> layers = pushLayers(archive, repository, diffIds, stats);
+
+            // 第3步：所有blob就绪后提交清单
+            String manifestDigest = commitManifest(repository, tag, configDigest, config.length, layers);
+
+            long totalTime = System.currentTimeMillis() - startTime;
+            PushResult result = new PushResult(targetImageName, manifestDigest, layers.size(), stats, totalTime);
+            logger.info("Successfully pushed image via Registry API in {} ms: {}", totalTime, result);
+            return result;
+        } catch (HarborException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("Failed to push image archive via Registry API: {} -> {}", tarFile, targetImageName, e);
+            throw new HarborException("Failed to push image archive: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 从顺序读取的tar流推送镜像，用于压缩后的tar等无法随机访问的输入，不落临时文件
+     * 超过 {@value #STREAM_INLINE_LIMIT} 字节的条目边读边以分块方式上传并计算摘要，内存中只保留当前分块；
+     * 较小的条目（manifest.json、镜像配置、小层）暂存在内存中，读到manifest.json后据此组装清单。
+     * 流无法回退，分块上传失败时只能从Registry已确认的、仍在当前分块内的位置重传
+     *
+     * @param tarStream 解压后的tar流
+     * @return 推送结果
+     */
+    public PushResult pushArchiveStream(InputStream tarStream, String projectName, String imageName, String tag) {
+        long startTime = System.currentTimeMillis();
+        String repository = projectName + "/" + imageName;
+        String targetImageName = String.format("%s/%s:%s", registryClient.getRegistryAddress(), repository, tag);
+
+        try {
+            logger.info("Pushing image stream via Registry API -> {}", targetImageName);
+            TarStreamReader reader = new TarStreamReader(tarStream);
+            TransferStats stats = new TransferStats();
+            Map<String, byte[]> smallEntries = new HashMap<>();
+            Map<String, StreamedBlob> streamed = new HashMap<>();
+            TarIndex.Entry entry;
+            while ((entry = reader.next()) != null) {
+                if (entry.getSize() <= STREAM_INLINE_LIMIT) {
+                    smallEntries.put(entry.getName(), reader.readEntry());
+                } else {
+                    streamed.put(entry.getName(), streamBlob(repository, entry, reader.entryStream(), stats));
+                }
+            }
+
+            byte[] manifestJson = smallEntries.get(DockerArchive.MANIFEST_ENTRY);
+            if (manifestJson == null) {
+                throw new HarborException("Not a docker-archive, manifest.json missing from stream");
+            }
+            DockerArchive.ManifestItem item = DockerArchive.parseManifest(manifestJson);
+            // 链接的目标可能出现在链接之后，读完整个流后再解析
+            byte[] config = smallEntries.get(reader.resolve(item.getConfig()));
+            if (config == null) {
+                throw new HarborException("Image config missing from stream: " + item.getConfig());
+            }
+            String configDigest = sha256(config);
+            stats.record(pushBlob(repository, configDigest, config), config.length);
+
+            List<Map<String, Object>> layers = new ArrayList<>();
+            for (String layer : item.getLayers()) {
+                String layerPath = reader.resolve(layer);
+                StreamedBlob blob = streamed.get(layerPath);
+                if (blob == null) {
+                    byte[] content = smallEntries.get(layerPath);
+                    if (content == null) {
+                        throw new HarborException("Layer missing from stream: " + layer);
+                    }
+                    blob = new StreamedBlob(sha256(content), content.length, isGzip(content));
+                    stats.record(pushBlob(repository, blob.digest, content), content.length);
+                    streamed.put(layerPath, blob);
+                }
+                layers.add(descriptor(blob.gzip ? OCI_LAYER_GZIP_MEDIA_TYPE : OCI_LAYER_MEDIA_TYPE,
+                        blob.digest, blob.size));
+            }
+
+            String manifestDigest = commitManifest(repository, tag, configDigest, config.length, layers);
+            long totalTime = System.currentTimeMillis() - startTime;
+            PushResult result = new PushResult(targetImageName, manifestDigest, layers.size(), stats, totalTime);
+            logger.info("Successfully pushed image stream via Registry API in {} ms: {}", totalTime, result);
+            return result;
+        } catch (HarborException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("Failed to push image stream via Registry API -> {}", targetImageName, e);
+            throw new HarborException("Failed to push image stream: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 边读边上传tar流中的一个大条目：摘要可由条目名确定且目标已有时直接跳过，否则分块上传并同时计算摘要
+     */
+    private StreamedBlob streamBlob(String repository, TarIndex.Entry entry, InputStream content,
+                                    TransferStats stats) throws IOException {
+        HarborProperties.Registry config = properties.getRegistry();
+        String expected = null;
+        Matcher matcher = BLOB_ENTRY.matcher(entry.getName());
+        if (matcher.matches()) {
+            expected = matcher.group(1) + ":" + matcher.group(2);
+        }
+
+        byte[] buffer = new byte[(int) Math.min(config.getChunkSize(), entry.getSize())];
+        int length = readChunk(content, buffer);
+        boolean gzip = isGzip(buffer);
+        if (expected != null) {
+            BlobOutcome outcome = reuseExistingBlob(repository, expected);
+            if (outcome != null) {
+                stats.record(outcome, entry.getSize());
+                return new StreamedBlob(expected, entry.getSize(), gzip);
+            }
+        }
+
+        MessageDigest digest = DigestEngine.newSha256();
+        String location = registryClient.startUpload(repository);
+        long committed = 0;
+        while (length > 0) {
+            digest.update(buffer, 0, length);
+            long chunkStart = committed;
+            int failures = 0;
+            while (committed < chunkStart + length) {
+                try {
+                    int from = (int) (committed - chunkStart);
+                    RegistryClient.UploadStatus status = registryClient.uploadChunk(repository, location, committed,
+                            RequestBody.create(OCTET_STREAM, buffer, from, length - from));
+                    location = status.getLocation();
+                    committed = status.getOffset();
+                } catch (IOException | HarborException e) {
+                    if (!isRetryable(e) || ++failures > config.getUploadRetries()) {
+                        throw e;
+                    }
+                    logger.warn("Streamed upload of {} interrupted at offset {} ({}), retry {}/{}", entry.getName(),
+                            committed, e.getMessage(), failures, config.getUploadRetries());
+                    backoff(failures);
+                    RegistryClient.UploadStatus status = registryClient.getUploadStatus(repository, location);
+                    if (status == null || status.getOffset() < chunkStart) {
+                        throw new HarborException("Upload session of " + entry.getName()
+                                + " lost data that can no longer be re-read from the stream", e);
+                    }
+                    location = status.getLocation();
+                    committed = status.getOffset();
+                }
+            }
+            length = readChunk(content, buffer);
+        }
+        if (committed != entry.getSize()) {
+            throw new HarborException("Streamed " + committed + " of " + entry.getSize() + " bytes for "
+                    + entry.getName());
+        }
+
+        String actual = DigestEngine.toDigest(digest);
+        if (expected != null && !expected.equals(actual)) {
+            throw new HarborException("Blob " + entry.getName() + " has digest " + actual);
+        }
+        registryClient.completeUpload(repository, location, actual, null);
+        rememberBlobLocation(actual, repository);
+        stats.record(BlobOutcome.UPLOADED, entry.getSize());
+        logger.info("Streamed {} as {} ({} bytes)", entry.getName(), actual, entry.getSize());
+        return new StreamedBlob(actual, entry.getSize(), gzip);
+    }
+
+    private static int readChunk(InputStream in, byte[] buffer) throws IOException {
+        int length = 0;
+        int read;
+        while (length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+        }
+        return length;
+    }
+
+    /**
+     * 所有blob就绪后提交OCI清单
+     *
+     * @return 清单摘要
+     */
+    private String commitManifest(String repository, String tag, String configDigest, long configSize,
+                                  List<Map<String, Object>> layers) throws IOException {
+        Map<String, Object> manifest = new LinkedHashMap<>();
+        manifest.put("schemaVersion", 2);
+        manifest.put("mediaType", OCI_MANIFEST_MEDIA_TYPE);
+        manifest.put("config", descriptor(OCI_CONFIG_MEDIA_TYPE, configDigest, configSize));
+        manifest.put("layers", layers);
+        byte[] manifestBytes = objectMapper.writeValueAsBytes(manifest);
+        String manifestDigest = registryClient.putManifest(repository, tag, OCI_MANIFEST_MEDIA_TYPE, manifestBytes);
+        invalidateCache(repository, tag);
+        return manifestDigest != null ? manifestDigest : sha256(manifestBytes);
+    }
+
+    /**
+     * 将默认项目中的镜像拉取为docker-archive tar包
+     */
+    public PullResult pullArchive(String imageName, String tag, Path targetFile) {
+        return pullArchive(properties.getProject(), imageName, tag, targetFile);
+    }
+
+    /**
+     * 不经过Docker守护进程，直接从Harbor拉取镜像并写为docker-archive tar包
+     * 先按清单中各blob的大小规划好整个tar的布局，再并行下载各层、按位置写入各自的条目，数据只落盘一次；
+     * 层以仓库中的原始形式存放在 blobs/sha256/ 下，同时生成 manifest.json 与 OCI index.json，
+     * docker load 和 skopeo 均可直接导入
+     *
+     * @param projectName Harbor项目名称
+     * @param imageName 镜像名称
+     * @param tag 镜像标签
+     * @param targetFile 目标tar文件
+     * @return 拉取结果
+     */
+    public PullResult pullArchive(String projectName, String imageName, String tag, Path targetFile) {
+        long startTime = System.currentTimeMillis();
+        String repository = projectName + "/" + imageName;
+        String sourceImageName = String.format("%s/%s:%s", registryClient.getRegistryAddress(), repository, tag);
+        Path partFile = targetFile.resolveSibling(targetFile.getFileName() + ".part");
+
+        try {
+            logger.info("Pulling image via Registry API: {} -> {}", sourceImageName, targetFile);
+
+            RegistryClient.ManifestResponse manifest = resolvePlatformManifest(repository,
+                    registryClient.getManifest(repository, tag));
+            Map<String, Object> manifestJson = objectMapper.readValue(manifest.getContent(),
+                    new TypeReference<Map<String, Object>>() {});
+            BlobRef config = BlobRef.of(manifestJson.get("config"));
+            List<BlobRef> layers = new ArrayList<>();
+            Object layerList = manifestJson.get("layers");
+            if (config == null || !(layerList instanceof List)) {
+                throw new HarborException("Unsupported manifest type: " + manifest.getMediaType());
+            }
+            for (Object layer : (List<?>) layerList) {
+                layers.add(BlobRef.of(layer));
+            }
+
+            byte[] configBytes = downloadConfig(repository, config.digest);
+
+            ArchiveLayout layout = new ArchiveLayout();
+            Map<String, Long> layerOffsets = new LinkedHashMap<>();
+            for (BlobRef layer : layers) {
+                if (!layerOffsets.containsKey(layer.digest)) {
+                    layerOffsets.put(layer.digest, layout.add(blobEntryName(layer.digest), layer.size, null));
+                }
+            }
+            layout.add(blobEntryName(config.digest), configBytes.length, configBytes);
+            layout.add(blobEntryName(manifest.getDigest()), manifest.getContent().length, manifest.getContent());
+            layout.add(DockerArchive.MANIFEST_ENTRY, dockerManifest(config, layers, sourceImageName));
+            layout.add("oci-layout", "{\"imageLayoutVersion\":\"1.0.0\"}".getBytes(StandardCharsets.UTF_8));
+            layout.add("index.json", ociIndex(manifest, sourceImageName, tag));
+
+            TransferStats stats = new TransferStats();
+            try (FileChannel out = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                layout.writeMetadata(out);
+                downloadLayers(repository, layers, layerOffsets, partFile, stats);
+                out.force(false);
+            }
+            moveIntoPlace(partFile, targetFile);
+
+            long totalTime = System.currentTimeMillis() - startTime;
+            PullResult result = new PullResult(sourceImageName, manifest.getDigest(), layers.size(),
+                    stats.bytesSent, stats.bytesSkipped, layout.size, totalTime);
+            logger.info("Successfully pulled image via Registry API in {} ms: {}", totalTime, result);
+            return result;
+        } catch (Exception e) {
+            try {
+                Files.deleteIfExists(partFile);
+            } catch (IOException ignored) {
+                // 残留的.part文件在下次拉取时被覆盖
+            }
+            if (e instanceof HarborException) {
+                throw (HarborException) e;
+            }
+            logger.error("Failed to pull image via Registry API: {} -> {}", sourceImageName, targetFile, e);
+            throw new HarborException("Failed to pull image archive: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 从Harbor拉取镜像并以docker-archive tar格式顺序写入输出流，布局与 {@link #pullArchive} 相同
+     * 各层依次下载并直接写出，不落盘，内存占用与镜像大小无关；用于写入对象存储等不可随机写的目标。
+     * 输出流由调用方关闭
+     *
+     * @return 拉取结果，archiveSize为写出的tar字节数
+     */
+    public PullResult pullArchiveStream(String projectName, String imageName, String tag, OutputStream out) {
+        long startTime = System.currentTimeMillis();
+        String repository = projectName + "/" + imageName;
+        String sourceImageName = String.format("%s/%s:%s", registryClient.getRegistryAddress(), repository, tag);
+
+        try {
+            logger.info("Streaming image via Registry API: {}", sourceImageName);
+
+            RegistryClient.ManifestResponse manifest = resolvePlatformManifest(repository,
+                    registryClient.getManifest(repository, tag));
+            List<BlobRef> blobs = manifestBlobs(manifest);
+            BlobRef config = blobs.get(0);
+            List<BlobRef> layers = blobs.subList(1, blobs.size());
+            byte[] configBytes = downloadConfig(repository, config.digest);
+
+            TransferStats stats = new TransferStats();
+            long size = 0;
+            Set<String> written = new HashSet<>();
+            for (BlobRef layer : layers) {
+                if (!written.add(layer.digest)) {
+                    continue;
+                }
+                out.write(TarHeaders.fileHeader(blobEntryName(layer.digest), layer.size, 0));
+                long layerStart = System.currentTimeMillis();
+                BlobOutcome outcome = copyFromCache(layer, out) ? BlobOutcome.CACHED
+                        : downloadBlob(repository, layer, out);
+                out.write(new byte[(int) (TarHeaders.paddedSize(layer.size) - layer.size)]);
+                stats.record(outcome, layer.size);
+                size += TarHeaders.entrySize(layer.size);
+                logger.info("Layer {} ({} bytes) {} in {} ms", layer.digest, layer.size,
+                        outcome == BlobOutcome.CACHED ? "CACHED" : "STREAMED",
+                        System.currentTimeMillis() - layerStart);
+            }
+            size += writeStreamEntry(out, blobEntryName(config.digest), configBytes);
+            size += writeStreamEntry(out, blobEntryName(manifest.getDigest()), manifest.getContent());
+            size += writeStreamEntry(out, DockerArchive.MANIFEST_ENTRY, dockerManifest(config, layers, sourceImageName));
+            size += writeStreamEntry(out, "oci-layout",
+                    "{\"imageLayoutVersion\":\"1.0.0\"}".getBytes(StandardCharsets.UTF_8));
+            size += writeStreamEntry(out, "index.json", ociIndex(manifest, sourceImageName, tag));
+            out.write(new byte[TarHeaders.END_OF_ARCHIVE_SIZE]);
+            size += TarHeaders.END_OF_ARCHIVE_SIZE;
+            out.flush();
+
+            long totalTime = System.currentTimeMillis() - startTime;
+            PullResult result = new PullResult(sourceImageName, manifest.getDigest(), layers.size(),
+                    stats.bytesSent, stats.bytesSkipped, size, totalTime);
+            logger.info("Successfully streamed image via Registry API in {} ms: {}", totalTime, result);
+            return result;
+        } catch (HarborException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("Failed to stream image via Registry API: {}", sourceImageName, e);
+            throw new HarborException("Failed to stream image archive: " + e.getMessage(), e);
+        }
+    }
+
+    private static long writeStreamEntry(OutputStream out, String name, byte[] content) throws IOException {
+        out.write(TarHeaders.fileHeader(name, content.length, 0));
+        out.write(content);
+        out.write(new byte[(int) (TarHeaders.paddedSize(content.length) - content.length)]);
+        return TarHeaders.entrySize(content.length);
+    }
+
+    /**
+     * 将项目中指定仓库的全部标签导出为一个OCI镜像布局目录
+     * 各仓库的标签列表并行获取，各标签并行处理（上限均为 harbor.registry.export-concurrency），所有镜像共用 blobs/sha256/，
+     * 相同的层只下载和写入一次；index.json 中每个标签对应一条记录，
+     * 以 org.opencontainers.image.ref.name 标注 "仓库:标签"，可用 skopeo 的 oci:目录:仓库:标签 引用。
+     * 目录中已存在且大小一致的blob不再下载，中断后重新导出即可继续
+     *
+     * @param projectName Harbor项目名称
+     * @param imageNames 要导出的仓库（不含项目前缀）
+     * @param targetDir 目标目录
+     * @return 导出结果，单个标签失败不影响其他标签
+     */
+    public ExportResult exportLayout(String projectName, List<String> imageNames, Path targetDir) {
+        long startTime = System.currentTimeMillis();
+        logger.info("Exporting {} repositories of project {} into OCI layout {}", imageNames.size(), projectName,
+                targetDir);
+        try {
+            Path blobDir = targetDir.resolve("blobs").resolve("sha256");
+            Files.createDirectories(blobDir);
+            Files.write(targetDir.resolve("oci-layout"),
+                    "{\"imageLayoutVersion\":\"1.0.0\"}".getBytes(StandardCharsets.UTF_8));
+
+            LayoutExport export = new LayoutExport(blobDir);
+            int concurrency = Math.max(1, properties.getRegistry().getExportConcurrency());
+            Semaphore listPermits = new Semaphore(concurrency);
+            Map<String, Future<List<String>>> listings = new LinkedHashMap<>();
+            for (String imageName : imageNames) {
+                String repository = projectName + "/" + imageName;
+                listPermits.acquire();
+                listings.put(imageName, layerExecutor.submit(() -> {
+                    try {
+                        return registryClient.listTags(repository);
+                    } finally {
+                        listPermits.release();
+                    }
+                }));
+            }
+
+            Semaphore permits = new Semaphore(concurrency);
+            List<Future<?>> futures = new ArrayList<>();
+            for (Map.Entry<String, Future<List<String>>> listing : listings.entrySet()) {
+                String imageName = listing.getKey();
+                String repository = projectName + "/" + imageName;
+                List<String> tags;
+                try {
+                    tags = listing.getValue().get();
+                } catch (ExecutionException e) {
+                    logger.error("Failed to list tags of {}", repository, e.getCause());
+                    export.failures.add(repository + " - " + e.getCause().getMessage());
+                    continue;
+                }
+                for (String tag : tags) {
+                    permits.acquire();
+                    futures.add(layerExecutor.submit(() -> {
+                        try {
+                            exportTag(repository, imageName, tag, export);
+                        } catch (Exception e) {
+                            logger.error("Failed to export {}:{}", repository, tag, e);
+                            export.failures.add(repository + ":" + tag + " - " + e.getMessage());
+                        } finally {
+                            permits.release();
+                        }
+                    }));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            List<Map<String, Object>> manifests = new ArrayList<>(export.manifests.values());
+            Map<String, Object> index = new LinkedHashMap<>();
+            index.put("schemaVersion", 2);
+            index.put("mediaType", OCI_INDEX_MEDIA_TYPE);
+            index.put("manifests", manifests);
+            Path indexFile = targetDir.resolve("index.json");
+            Path partFile = targetDir.resolve("index.json.part");
+            Files.write(partFile, objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(index));
+            moveIntoPlace(partFile, indexFile);
+
+            ExportResult result = new ExportResult(targetDir, manifests.size(), export,
+                    System.currentTimeMillis() - startTime);
+            logger.info("Completed OCI layout export of project {}: {}", projectName, result);
+            return result;
+        } catch (HarborException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("Failed to export project {} into {}", projectName, targetDir, e);
+            throw new HarborException("Failed to export project: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 导出单个标签：写入其引用的blob（已写入或正在由其他任务写入的blob直接复用）和清单本身
+     */
+    private void exportTag(String repository, String imageName, String tag, LayoutExport export) throws Exception {
+        long tagStart = System.currentTimeMillis();
+        RegistryClient.ManifestResponse manifest = resolvePlatformManifest(repository,
+                registryClient.getManifest(repository, tag));
+        for (BlobRef blob : manifestBlobs(manifest)) {
+            exportBlob(repository, blob, export);
+        }
+        Path manifestFile = export.blobDir.resolve(manifest.getDigest().substring(7));
+        if (!Files.exists(manifestFile)) {
+            Path partFile = manifestFile.resolveSibling(manifestFile.getFileName() + ".part");
+            Files.write(partFile, manifest.getContent());
+            moveIntoPlace(partFile, manifestFile);
+        }
+
+        Map<String, Object> descriptor = descriptor(manifest.getMediaType(), manifest.getDigest(),
+                manifest.getContent().length);
+        Map<String, String> annotations = new LinkedHashMap<>();
+        annotations.put("io.containerd.image.name",
+                String.format("%s/%s:%s", registryClient.getRegistryAddress(), repository, tag));
+        annotations.put("org.opencontainers.image.ref.name", imageName + ":" + tag);
+        descriptor.put("annotations", annotations);
+        export.manifests.put(imageName + ":" + tag, descriptor);
+        logger.info("Exported {}:{} in {} ms", repository, tag, System.currentTimeMillis() - tagStart);
+    }
+
+    /**
+     * 每个blob只由第一个需要它的任务写入，其余任务等待其完成
+     */
+    private void exportBlob(String repository, BlobRef blob, LayoutExport export) throws Exception {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        CompletableFuture<Void> existing = export.blobs.putIfAbsent(blob.digest, done);
+        if (existing != null) {
+            try {
+                existing.join();
+            } catch (CompletionException e) {
+                // 写入该blob的任务失败，由当前任务重试
+                export.blobs.remove(blob.digest, existing);
+                exportBlob(repository, blob, export);
+                return;
+            }
+            export.stats.bytesDeduplicated.addAndGet(blob.size);
+            return;
+        }
+
+        try {
+            Path blobFile = export.blobDir.resolve(blob.digest.substring(7));
+            if (Files.exists(blobFile) && Files.size(blobFile) == blob.size) {
+                export.stats.record(BlobOutcome.EXISTING, blob.size);
+            } else {
+                Path partFile = blobFile.resolveSibling(blobFile.getFileName() + ".part");
+                try (FileChannel out = FileChannel.open(partFile, StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    BlobOutcome outcome = copyFromCache(blob, out, 0) ? BlobOutcome.CACHED
+                            : downloadBlob(repository, blob, out, 0);
+                    out.force(false);
+                    export.stats.record(outcome, blob.size);
+                } catch (Exception e) {
+                    Files.deleteIfExists(partFile);
+                    throw e;
+                }
+                moveIntoPlace(partFile, blobFile);
+            }
+            done.complete(null);
+        } catch (Exception e) {
+            done.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * 单平台清单引用的blob，镜像配置在前
+     */
+    private List<BlobRef> manifestBlobs(RegistryClient.ManifestResponse manifest) throws IOException {
+        Map<String, Object> json = objectMapper.readValue(manifest.getContent(),
+                new TypeReference<Map<String, Object>>() {});
+        BlobRef config = BlobRef.of(json.get("config"));
+        Object layers = json.get("layers");
+        if (config == null || !(layers instanceof List)) {
+            throw new HarborException("Unsupported manifest type: " + manifest.getMediaType());
+        }
+        List<BlobRef> blobs = new ArrayList<>();
+        blobs.add(config);
+        for (Object layer : (List<?>) layers) {
+            blobs.add(BlobRef.of(layer));
+        }
+        return blobs;
+    }
+
+    /**
+     * 在Registry端将镜像复制到另一个项目，镜像名和标签不变
+     */
+    public PushResult copyImage(String sourceProject, String imageName, String tag, String targetProject) {
+        return copyImage(sourceProject, imageName, tag, targetProject, imageName, tag);
+    }
+
+    /**
+     * 在Registry端复制镜像：读取源清单，把其中的blob从源仓库跨仓库挂载到目标仓库，再以目标标签上传原清单。
+     * 镜像数据不经过本机，同一Harbor内通常只产生几KB流量；无法挂载的blob才从源仓库流式转发到目标仓库。
+     * 多平台索引会连同其引用的各平台清单一起复制，清单内容不变，摘要与源镜像一致
+     *
+     * @return 复制结果，bytesSkipped为挂载或已存在而无需传输的字节数
+     */
+    public PushResult copyImage(String sourceProject, String sourceImage, String sourceTag,
+                                String targetProject, String targetImage, String targetTag) {
+        long startTime = System.currentTimeMillis();
+        String sourceRepository = sourceProject + "/" + sourceImage;
+        String targetRepository = targetProject + "/" + targetImage;
+        String targetImageName = String.format("%s/%s:%s", registryClient.getRegistryAddress(), targetRepository,
+                targetTag);
+
+        try {
+            logger.info("Copying image via Registry API: {}:{} -> {}", sourceRepository, sourceTag, targetImageName);
+            TransferStats stats = new TransferStats();
+            AtomicInteger layerCount = new AtomicInteger();
+            String manifestDigest = copyManifest(sourceRepository, sourceTag, targetRepository, targetTag, stats,
+                    layerCount);
+
+            PushResult result = new PushResult(targetImageName, manifestDigest, layerCount.get(), stats,
+                    System.currentTimeMillis() - startTime);
+            logger.info("Successfully copied image: {}", result);
+            return result;
+        } catch (HarborException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("Failed to copy image via Registry API: {}:{} -> {}", sourceRepository, sourceTag,
+                    targetImageName, e);
+            throw new HarborException("Failed to copy image: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 复制仓库中的全部标签到另一个项目
+     *
+     * @return 各标签的复制结果
+     */
+    public List<PushResult> copyRepository(String sourceProject, String imageName, String targetProject) {
+        List<PushResult> results = new ArrayList<>();
+        for (String tag : registryClient.listTags(sourceProject + "/" + imageName)) {
+            results.add(copyImage(sourceProject, imageName, tag, targetProject));
+        }
+        return results;
+    }
+
+    /**
+     * 复制一个清单及其引用的全部blob，索引先复制其引用的各子清单
+     *
+     * @return 目标仓库中的清单摘要
+     */
+    private String copyManifest(String sourceRepository, String reference, String targetRepository,
+                                String targetReference, TransferStats stats, AtomicInteger layerCount)
+            throws IOException {
+        RegistryClient.ManifestResponse manifest = registryClient.getManifest(sourceRepository, reference);
+        Map<String, Object> json = objectMapper.readValue(manifest.getContent(),
+                new TypeReference<Map<String, Object>>() {});
+
+        Object children = json.get("manifests");
+        if (children instanceof List) {
+            for (Object child : (List<?>) children) {
+                String digest = String.valueOf(((Map<?, ?>) child).get("digest"));
+                copyManifest(sourceRepository, digest, targetRepository, digest, stats, layerCount);
+            }
+        } else {
+            List<BlobRef> blobs = manifestBlobs(manifest);
+            for (BlobRef blob : blobs) {
+                BlobOutcome outcome = copyBlob(sourceRepository, targetRepository, blob);
+                stats.record(outcome, blob.size);
+                logger.debug("Blob {} ({} bytes) {} into {}", blob.digest, blob.size, outcome, targetRepository);
+            }
+            layerCount.addAndGet(blobs.size() - 1);
+        }
+        String digest = registryClient.putManifest(targetRepository, targetReference, manifest.getMediaType(),
+                manifest.getContent());
+        invalidateCache(targetRepository, targetReference);
+        return digest;
+    }
+
+    /**
+     * 目标仓库已有则跳过，否则优先从源仓库挂载，最后才经本机流式转发
+     */
+    private BlobOutcome copyBlob(String sourceRepository, String targetRepository, BlobRef blob) {
+        rememberBlobLocation(blob.digest, sourceRepository);
+        BlobOutcome outcome = reuseExistingBlob(targetRepository, blob.digest);
+        if (outcome != null) {
+            return outcome;
+        }
+
+        int failures = 0;
+        while (true) {
+            try (RegistryClient.BlobStream stream = registryClient.openBlob(sourceRepository, blob.digest, 0)) {
+                // 目标Registry按摘要校验上传内容，转发途中无需再计算
+                registryClient.uploadBlob(targetRepository, blob.digest, new RequestBody() {
+                    @Override
+                    public MediaType contentType() {
+                        return OCTET_STREAM;
+                    }
+
+                    @Override
+                    public long contentLength() {
+                        return blob.size;
+                    }
+
+                    @Override
+                    public boolean isOneShot() {
+                        // 源流只能读一次，连接失败时由外层重新打开源流重试
+                        return true;
+                    }
+
+                    @Override
+                    public void writeTo(BufferedSink sink) throws IOException {
+                        sink.writeAll(stream.getBody().source());
+                    }
+                });
+                rememberBlobLocation(blob.digest, targetRepository);
+                return BlobOutcome.UPLOADED;
+            } catch (HarborException e) {
+                if (!isRetryable(e) || ++failures > properties.getRegistry().getUploadRetries()) {
+                    throw e;
+                }
+                logger.warn("Streaming copy of {} to {} failed ({}), retry {}/{}", blob.digest, targetRepository,
+                        e.getMessage(), failures, properties.getRegistry().getUploadRetries());
+                backoff(failures);
+            }
+        }
+    }
+
+    /**
+     * 多平台索引按 harbor.registry.platform 选出单平台清单
+     */
+    private RegistryClient.ManifestResponse resolvePlatformManifest(String repository,
+                                                                    RegistryClient.ManifestResponse manifest)
+            throws IOException {
+        Map<String, Object> json = objectMapper.readValue(manifest.getContent(),
+                new TypeReference<Map<String, Object>>() {});
+        Object manifests = json.get("manifests");
+        if (!(manifests instanceof List)) {
+            return manifest;
+        }
+        String platform = properties.getRegistry().getPlatform();
+        String selected = null;
+        for (Object item : (List<?>) manifests) {
+            Map<?, ?> descriptor = (Map<?, ?>) item;
+            Object platformInfo = descriptor.get("platform");
+            if (platformInfo instanceof Map) {
+                Map<?, ?> info = (Map<?, ?>) platformInfo;
+                String name = info.get("os") + "/" + info.get("architecture");
+                if (platform.equals(name) || platform.equals(name + "/" + info.get("variant"))) {
+                    selected = String.valueOf(descriptor.get("digest"));
+                    break;
+                }
+            }
+        }
+        if (selected == null) {
+            throw new HarborException("No manifest for platform " + platform + " in " + repository);
+        }
+        logger.debug("Selected {} manifest {} from index", platform, selected);
+        return registryClient.getManifest(repository, selected);
+    }
+
+    /**
+     * 并行下载各层，每层用独立的通道按规划好的位置写入；层缓存中已有的层直接从缓存复制
+     */
+    private void downloadLayers(String repository, List<BlobRef> layers, Map<String, Long> layerOffsets,
+                                Path partFile, TransferStats stats) throws Exception {
+        Map<String, BlobRef> unique = new LinkedHashMap<>();
+        for (BlobRef layer : layers) {
+            unique.putIfAbsent(layer.digest, layer);
+        }
+
+        Semaphore permits = new Semaphore(Math.max(1, properties.getRegistry().getLayerConcurrency()));
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Future<?>> futures = new ArrayList<>();
+        for (BlobRef layer : unique.values()) {
+            if (failure.get() != null) {
+                break;
+            }
+            long dataOffset = layerOffsets.get(layer.digest) + TarHeaders.BLOCK_SIZE;
+            permits.acquire();
+            futures.add(layerExecutor.submit(() -> {
+                try (FileChannel out = FileChannel.open(partFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    if (failure.get() != null) {
+                        return null;
+                    }
+                    long layerStart = System.currentTimeMillis();
+                    BlobOutcome outcome = copyFromCache(layer, out, dataOffset) ? BlobOutcome.CACHED
+                            : downloadBlob(repository, layer, out, dataOffset);
+                    stats.record(outcome, layer.size);
+                    logger.info("Layer {} ({} bytes) {} in {} ms", layer.digest, layer.size, outcome,
+                            System.currentTimeMillis() - layerStart);
+                    return null;
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                    throw e;
+                } finally {
+                    permits.release();
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                failure.compareAndSet(null, e.getCause());
+            }
+        }
+        Throwable error = failure.get();
+        if (error != null) {
+            if (error instanceof Exception) {
+                throw (Exception) error;
+            }
+            throw new HarborException("Layer download failed", error);
+        }
+    }
+
+    private boolean copyFromCache(BlobRef layer, FileChannel out, long position) throws IOException {
+        if (layerStore == null) {
+            return false;
+        }
+        try (LayerStore.CachedLayer cached = layerStore.get(layer.digest)) {
+            if (cached == null || cached.getSize() != layer.size) {
+                return false;
+            }
+            FileChannel source = cached.getChannel();
+            long copied = 0;
+            while (copied < layer.size) {
+                long transferred = source.transferTo(copied, layer.size - copied, out.position(position + copied));
+                if (transferred <= 0) {
+                    throw new IOException("Unexpected end of cached layer " + layer.digest);
+                }
+                copied += transferred;
+            }
+            return true;
+        }
+    }
+
+    private boolean copyFromCache(BlobRef layer, OutputStream out) throws IOException {
+        if (layerStore == null) {
+            return false;
+        }
+        try (LayerStore.CachedLayer cached = layerStore.get(layer.digest)) {
+            if (cached == null || cached.getSize() != layer.size) {
+                return false;
+            }
+            StreamCopier.copy(cached.getPath(), out);
+            return true;
+        }
+    }
+
+    /**
+     * 下载单个blob写入输出流，边写边校验摘要；连接中断时以Range请求从已写出的位置继续，
+     * 服务端不支持Range时重新下载并跳过已写出的部分
+     */
+    private BlobOutcome downloadBlob(String repository, BlobRef layer, OutputStream out) throws IOException {
+        MessageDigest digest = DigestEngine.newSha256();
+        long written = 0;
+        int failures = 0;
+        byte[] buffer = new byte[64 * 1024];
+        while (true) {
+            try (RegistryClient.BlobStream blob = registryClient.openBlob(repository, layer.digest, written)) {
+                long position = blob.getOffset();
+                if (position != written) {
+                    digest = DigestEngine.newSha256();
+                }
+                BufferedSource source = blob.getBody().source();
+                int read;
+                while ((read = source.read(buffer)) != -1) {
+                    if (position + read > layer.size) {
+                        throw new HarborException("Blob " + layer.digest + " is larger than " + layer.size);
+                    }
+                    digest.update(buffer, 0, read);
+                    int skip = (int) Math.max(0, Math.min(read, written - position));
+                    if (read > skip) {
+                        out.write(buffer, skip, read - skip);
+                        written += read - skip;
+                    }
+                    position += read;
+                }
+                if (written < layer.size) {
+                    throw new IOException("Blob stream ended at " + written + "/" + layer.size + " bytes");
+                }
+                break;
+            } catch (IOException | HarborException e) {
+                if (!isRetryable(e) || ++failures > properties.getRegistry().getUploadRetries()) {
+                    throw e;
+                }
+                logger.warn("Download of {} interrupted at {}/{} bytes ({}), retry {}/{}", layer.digest, written,
+                        layer.size, e.getMessage(), failures, properties.getRegistry().getUploadRetries());
+                backoff(failures);
+            }
+        }
+
+        String actual = DigestEngine.toDigest(digest);
+        if (!actual.equals(layer.digest)) {
+            throw new HarborException("Downloaded blob " + layer.digest + " has digest " + actual);
+        }
+        return BlobOutcome.DOWNLOADED;
+    }
+
+    /**
+     * 下载单个blob到指定位置，边写边校验摘要；连接中断时以Range请求从已写入的位置继续
+     */
+    private BlobOutcome downloadBlob(String repository, BlobRef layer, FileChannel out, long position)
+            throws IOException {
+        MessageDigest digest = DigestEngine.newSha256();
+        long written = 0;
+        int failures = 0;
+        DirectBufferPool pool = DirectBufferPool.getDefault();
+        ByteBuffer buffer = pool.acquire();
+        try {
+            while (true) {
+                try (RegistryClient.BlobStream blob = registryClient.openBlob(repository, layer.digest, written)) {
+                    if (blob.getOffset() != written) {
+                        // 服务端不支持Range，从头开始
+                        digest = DigestEngine.newSha256();
+                        written = blob.getOffset();
+                    }
+                    BufferedSource source = blob.getBody().source();
+                    buffer.clear();
+                    while (source.read(buffer) != -1) {
+                        buffer.flip();
+                        if (written + buffer.remaining() > layer.size) {
+                            throw new HarborException("Blob " + layer.digest + " is larger than " + layer.size);
+                        }
+                        digest.update(buffer.duplicate());
+                        while (buffer.hasRemaining()) {
+                            written += out.write(buffer, position + written);
+                        }
+                        buffer.clear();
+                    }
+                    if (written < layer.size) {
+                        throw new IOException("Blob stream ended at " + written + "/" + layer.size + " bytes");
+                    }
+                    break;
+                } catch (IOException | HarborException e) {
+                    if (!isRetryable(e) || ++failures > properties.getRegistry().getUploadRetries()) {
+                        throw e;
+                    }
+                    logger.warn("Download of {} interrupted at {}/{} bytes ({}), retry {}/{}", layer.digest, written,
+                            layer.size, e.getMessage(), failures, properties.getRegistry().getUploadRetries());
+                    backoff(failures);
+                }
+            }
+        } finally {
+            pool.release(buffer);
+        }
+
+        String actual = DigestEngine.toDigest(digest);
+        if (!actual.equals(layer.digest)) {
+            throw new HarborException("Downloaded blob " + layer.digest + " has digest " + actual);
+        }
+        if (layerStore != null) {
+            layerStore.put(layer.digest, null, out, position, layer.size);
+        }
+        return BlobOutcome.DOWNLOADED;
+    }
+
+    /**
+     * 下载镜像配置并校验摘要，连接中断时重试
+     */
+    private byte[] downloadConfig(String repository, String digest) {
+        int failures = 0;
+        while (true) {
+            try {
+                byte[] content = registryClient.getBlob(repository, digest);
+                if (!digest.equals(sha256(content))) {
+                    throw new HarborException("Image config digest mismatch: " + digest);
+                }
+                return content;
+            } catch (HarborException e) {
+                if (!isRetryable(e) || ++failures > properties.getRegistry().getUploadRetries()) {
+                    throw e;
+                }
+                logger.warn("Download of config {} failed ({}), retry {}/{}", digest, e.getMessage(), failures,
+                        properties.getRegistry().getUploadRetries());
+                backoff(failures);
+            }
+        }
+    }
+
+    private static String blobEntryName(String digest) {
+        return "blobs/" + digest.replace(':', '/');
+    }
+
+    /**
+     * docker load 使用的 manifest.json
+     */
+    private byte[] dockerManifest(BlobRef config, List<BlobRef> layers, String repoTag) throws IOException {
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("Config", blobEntryName(config.digest));
+        item.put("RepoTags", Collections.singletonList(repoTag));
+        List<String> layerPaths = new ArrayList<>();
+        for (BlobRef layer : layers) {
+            layerPaths.add(blobEntryName(layer.digest));
+        }
+        item.put("Layers", layerPaths);
+        return objectMapper.writeValueAsBytes(Collections.singletonList(item));
+    }
+
+    /**
+     * OCI镜像布局的 index.json
+     */
+    private byte[] ociIndex(RegistryClient.ManifestResponse manifest, String imageName, String tag)
+            throws IOException {
+        Map<String, Object> descriptor = descriptor(manifest.getMediaType(), manifest.getDigest(),
+                manifest.getContent().length);
+        Map<String, String> annotations = new LinkedHashMap<>();
+        annotations.put("io.containerd.image.name", imageName);
+        annotations.put("org.opencontainers.image.ref.name", tag);
+        descriptor.put("annotations", annotations);
+        Map<String, Object> index = new LinkedHashMap<>();
+        index.put("schemaVersion", 2);
+        index.put("mediaType", OCI_INDEX_MEDIA_TYPE);
+        index.put("manifests", Collections.singletonList(descriptor));
+        return objectMapper.writeValueAsBytes(index);
+    }
+
+    private static void moveIntoPlace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 校验docker-archive tar包中未压缩层的内容与镜像配置中的diff_id一致，各层摘要并行计算
+     * 压缩层的diff_id对应解压后的内容，不在此校验范围内
+     *
+     * @param tarFile 镜像tar文件
+     */
+    public void verifyArchive(Path tarFile) {
+        try (DockerArchive archive = DockerArchive.open(tarFile)) {
+            archive.validate();
+            List<String> diffIds = readDiffIds(archive.getConfig());
+            List<TarIndex.Entry> layerEntries = archive.getLayerEntries();
+            Map<Integer, CompletableFuture<String>> digests = new LinkedHashMap<>();
+            for (int i = 0; i < layerEntries.size() && i < diffIds.size(); i++) {
+                TarIndex.Entry entry = layerEntries.get(i);
+                if (!isGzip(archive.getIndex(), entry)) {
+                    digests.put(i, digestEngine.sha256Async(archive.getChannel(), entry.getOffset(), entry.getSize()));
+                }
+            }
+            for (Map.Entry<Integer, CompletableFuture<String>> digest : digests.entrySet()) {
+                String actual = digest.getValue().join();
+                String expected = diffIds.get(digest.getKey());
+                if (!expected.equals(actual)) {
+                    throw new HarborException(String.format("Layer %s does not match diff_id %s (actual %s)",
+                            layerEntries.get(digest.getKey()).getName(), expected, actual));
+                }
+            }
+            logger.info("Verified {} layers of {}", digests.size(), tarFile);
+        } catch (HarborException e) {
+            throw e;
+        } catch (CompletionException e) {
+            throw new HarborException("Failed to verify image archive: " + e.getCause().getMessage(), e.getCause());
+        } catch (Exception e) {
+            logger.error("Failed to verify image archive: {}", tarFile, e);
+            throw new HarborException("Failed to verify image archive: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 以每个镜像最多layerConcurrency个的并发度上传各层；
+     * 需要计算摘要的层提前交给摘要引擎在多个核上并行计算，或在上传的同一遍读取中计算；
+     * 任一层失败时不再提交新的层，并在所有已提交的层结束后抛出异常，清单不会被提交
+     *
+     * @return 按manifest顺序排列的层描述
+     */
+    private List<Map<String, Object>> pushLayers(DockerArchive archive, String repository, List<String> diffIds,
+                                                 TransferStats stats) throws Exception {
+        List<TarIndex.Entry> layerEntries = archive.getLayerEntries();
+        Semaphore permits = new Semaphore(Math.max(1, properties.getRegistry().getLayerConcurrency()));
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Future<Map<String, Object>>> futures = new ArrayList<>();
+
+        // 同一层在manifest中重复出现时只上传一次
+        Map<String, Future<Map<String, Object>>> submitted = new HashMap<>();
+
+        List<LayerPlan> plans = new ArrayList<>();
+        for (int i = 0; i < layerEntries.size(); i++) {
+            if (!submitted.containsKey(layerEntries.get(i).getName())) {
+                submitted.put(layerEntries.get(i).getName(), null);
+                plans.add(planLayer(archive, layerEntries.get(i), i, i < diffIds.size() ? diffIds.get(i) : null));
+            }
+        }
+        submitted.clear();
+
+        try {
+            int next = 0;
+            for (int i = 0; i < layerEntries.size() && failure.get() == null; i++) {
+                Future<Map<String, Object>> duplicate = submitted.get(layerEntries.get(i).getName());
+                if (duplicate != null) {
+                    futures.add(duplicate);
+                    continue;
+                }
+                LayerPlan plan = plans.get(next++);
+                permits.acquire();
+                futures.add(layerExecutor.submit(() -> {
+                    try {
+                        if (failure.get() != null) {
+                            return null;
+                        }
+                        return pushLayer(archive, repository, plan, layerEntries.size(), stats);
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                        throw e;
+                    } finally {
+                        plan.close();
+                        permits.release();
+                    }
+                }));
+                submitted.put(layerEntries.get(i).getName(), futures.get(futures.size() - 1));
+            }
+
+            List<Map<String, Object>> layers = new ArrayList<>();
+            for (Future<Map<String, Object>> future : futures) {
+                try {
+                    layers.add(future.get());
+                } catch (ExecutionException e) {
+                    failure.compareAndSet(null, e.getCause());
+                }
+            }
+
+            Throwable error = failure.get();
+            if (error != null) {
+                if (error instanceof Exception) {
+                    throw (Exception) error;
+                }
+                throw new HarborException("Layer upload failed", error);
+            }
+            return layers;
+        } finally {
+            // 未提交的层释放占用的缓存层；已提交的层在任务结束时释放，重复关闭无影响
+            for (LayerPlan plan : plans) {
+                if (!plan.started) {
+                    plan.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * 确定层的摘要来源：无需计算、命中层缓存、提前并行计算，或留到上传时边传边算
+     */
+    private LayerPlan planLayer(DockerArchive archive, TarIndex.Entry entry, int index, String diffId)
+            throws IOException {
+        LayerPlan plan = new LayerPlan(entry, index, diffId, isGzip(archive.getIndex(), entry));
+        plan.digest = knownLayerDigest(entry, plan.gzip, diffId);
+        if (plan.digest == null && layerStore != null && diffId != null) {
+            plan.cached = layerStore.findByDiffId(diffId);
+        }
+        if (plan.digest == null && plan.cached == null && !properties.getRegistry().isDigestWhileUploading()) {
+            plan.pendingDigest = digestEngine.sha256Async(archive.getChannel(), entry.getOffset(), entry.getSize());
+        }
+        return plan;
+    }
+
+    /**
+     * 推送单个层并返回其描述
+     * 启用层缓存时，需要计算摘要的压缩层先按diff_id查缓存，命中则直接推送缓存中的同内容层，跳过摘要计算
+     */
+    private Map<String, Object> pushLayer(DockerArchive archive, String repository, LayerPlan plan, int layerCount,
+                                          TransferStats stats) throws Exception {
+        plan.started = true;
+        TarIndex.Entry entry = plan.entry;
+        long layerStart = System.currentTimeMillis();
+
+        BlobOutcome outcome;
+        String digest;
+        long size;
+        if (plan.cached != null) {
+            digest = plan.cached.getDigest();
+            size = plan.cached.getSize();
+            logger.debug("Layer {} found in cache as {}, skipping digest computation", plan.diffId, digest);
+            outcome = pushBlob(repository, digest, plan.cached.getChannel(), 0, size);
+        } else {
+            size = entry.getSize();
+            digest = plan.digest;
+            if (digest == null && plan.pendingDigest != null) {
+                try {
+                    digest = plan.pendingDigest.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+            if (digest != null) {
+                outcome = pushBlob(repository, digest, archive.getChannel(), entry.getOffset(), size);
+            } else {
+                digest = uploadWithDigest(repository, archive, entry);
+                outcome = BlobOutcome.UPLOADED;
+            }
+            // 只缓存需要计算摘要的层；未压缩层和OCI布局中的层摘要已知，复制一份只会多一次磁盘写入
+            if (layerStore != null && plan.digest == null) {
+                layerStore.put(digest, plan.diffId, archive.getChannel(), entry.getOffset(), size);
+            }
+        }
+        if (layerStore != null) {
+            layerStore.addRepository(digest, repository);
+        }
+
+        stats.record(outcome, size);
+        logger.info("Layer {}/{} {} ({} bytes) {} in {} ms", plan.index + 1, layerCount,
+                digest, size, outcome, System.currentTimeMillis() - layerStart);
+        return descriptor(plan.gzip ? OCI_LAYER_GZIP_MEDIA_TYPE : OCI_LAYER_MEDIA_TYPE, digest, size);
+    }
+
+    /**
+     * 摘要未知的层边上传边计算摘要，上传结束时以算出的摘要提交
+     */
+    private String uploadWithDigest(String repository, DockerArchive archive, TarIndex.Entry entry) throws IOException {
+        String sessionKey = "pending:" + DigestEngine.sha256((archive.getPath().toAbsolutePath() + "|"
+                + Files.getLastModifiedTime(archive.getPath()).toMillis() + "|" + entry.getName() + "|"
+                + entry.getOffset() + "|" + entry.getSize()).getBytes(StandardCharsets.UTF_8)).substring(7);
+        String digest = uploadResumable(repository, null, sessionKey, archive.getChannel(), entry.getOffset(),
+                entry.getSize());
+        rememberBlobLocation(digest, repository);
+        logger.debug("Computed digest {} of {} while uploading", digest, entry.getName());
+        return digest;
+    }
+
+    /**
+     * 推送内存中的小blob（镜像配置等）
+     */
+    private BlobOutcome pushBlob(String repository, String digest, byte[] content) {
+        BlobOutcome outcome = reuseExistingBlob(repository, digest);
+        if (outcome != null) {
+            return outcome;
+        }
+        registryClient.uploadBlob(repository, digest, RequestBody.create(OCTET_STREAM, content));
+        rememberBlobLocation(digest, repository);
+        return BlobOutcome.UPLOADED;
+    }
+
+    /**
+     * 推送tar包中的层，超过分块大小时以可续传的分块方式上传；
+     * 其他任务正在推送同一blob时先等待其结束，之后通常可直接复用或跨仓库挂载
+     */
+    private BlobOutcome pushBlob(String repository, String digest, FileChannel channel, long offset, long size)
+            throws IOException {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        CompletableFuture<Void> other;
+        while ((other = inFlightBlobs.putIfAbsent(digest, done)) != null) {
+            logger.debug("Waiting for concurrent upload of {}", digest);
+            other.join();
+        }
+        try {
+            BlobOutcome outcome = reuseExistingBlob(repository, digest);
+            if (outcome != null) {
+                return outcome;
+            }
+            if (size <= properties.getRegistry().getChunkSize()) {
+                registryClient.uploadBlob(repository, digest, RegistryClient.fileRegion(channel, offset, size));
+            } else {
+                uploadResumable(repository, digest, digest, channel, offset, size);
+            }
+            rememberBlobLocation(digest, repository);
+            return BlobOutcome.UPLOADED;
+        } finally {
+            inFlightBlobs.remove(digest, done);
+            done.complete(null);
+        }
+    }
+
+    /**
+     * 先HEAD确认目标仓库是否已存在该blob，再尝试从已知仓库跨仓库挂载
+     *
+     * @return 无需上传时返回对应结果，否则返回null
+     */
+    private BlobOutcome reuseExistingBlob(String repository, String digest) {
+        if (registryClient.getBlobSize(repository, digest) >= 0) {
+            rememberBlobLocation(digest, repository);
+            return BlobOutcome.EXISTING;
+        }
+
+        if (properties.getRegistry().isCrossRepositoryMount()) {
+            for (String source : mountCandidates(digest, repository)) {
+                try {
+                    if (registryClient.mountBlob(repository, digest, source)) {
+                        logger.debug("Mounted blob {} from {} into {}", digest, source, repository);
+                        rememberBlobLocation(digest, repository);
+                        return BlobOutcome.MOUNTED;
+                    }
+                } catch (HarborException e) {
+                    logger.debug("Cross-repository mount of {} from {} failed: {}", digest, source, e.getMessage());
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 分块上传blob，每个分块确认后持久化上传地址和偏移量；
+     * 网络错误时向Registry查询已接收的字节数后从该位置继续，JVM重启后同样从持久化的会话继续。
+     * digest为null时在写出分块的同时计算摘要，续传时已确认的前缀从本地文件补算
+     *
+     * @param sessionKey 持久化会话的键，摘要已知时即为摘要
+     * @return blob摘要
+     */
+    private String uploadResumable(String repository, String digest, String sessionKey, FileChannel channel,
+                                   long offset, long size) throws IOException {
+        HarborProperties.Registry config = properties.getRegistry();
+        long chunkSize = config.getChunkSize();
+        DigestEngine.RunningDigest running = digest == null ? digestEngine.newRunningDigest(channel, offset) : null;
+
+        String location;
+        long committed = 0;
+        boolean resync;
+        UploadSessionStore.UploadSession session = sessionStore.load(repository, sessionKey);
+        if (session != null) {
+            location = session.getLocation();
+            resync = true;
+            logger.info("Resuming upload of {} to {} from saved session", sessionKey, repository);
+        } else {
+            location = registryClient.startUpload(repository);
+            sessionStore.save(new UploadSessionStore.UploadSession(repository, sessionKey, location, 0));
+            resync = false;
+        }
+
+        int failures = 0;
+        while (true) {
+            try {
+                if (resync) {
+                    RegistryClient.UploadStatus status = registryClient.getUploadStatus(repository, location);
+                    if (status == null) {
+                        // 会话已失效：可能上一次的最终PUT已成功，否则重新开始
+                        if (digest != null && registryClient.getBlobSize(repository, digest) >= 0) {
+                            break;
+                        }
+                        logger.info("Upload session for {} expired, restarting from 0", sessionKey);
+                        location = registryClient.startUpload(repository);
+                        committed = 0;
+                    } else {
+                        location = status.getLocation();
+                        committed = status.getOffset();
+                        logger.info("Upload of {} resumes at {}/{} bytes", sessionKey, committed, size);
+                    }
+                    sessionStore.save(new UploadSessionStore.UploadSession(repository, sessionKey, location, committed));
+                    resync = false;
+                }
+
+                if (committed >= size) {
+                    if (digest == null) {
+                        digest = running.digestAt(size);
+                    }
+                    registryClient.completeUpload(repository, location, digest, null);
+                    break;
+                }
+
+                long length = Math.min(chunkSize, size - committed);
+                RegistryClient.FileRegionBody chunk = RegistryClient.fileRegion(channel, offset + committed, length,
+                        running == null ? null : running.stateAt(committed));
+                RegistryClient.UploadStatus status = registryClient.uploadChunk(repository, location, committed, chunk);
+                if (running != null && status.getOffset() == committed + length && chunk.getDigest() != null) {
+                    running.commit(committed + length, chunk.getDigest());
+                }
+                location = status.getLocation();
+                committed = status.getOffset();
+                sessionStore.save(new UploadSessionStore.UploadSession(repository, sessionKey, location, committed));
+                failures = 0;
+            } catch (IOException | HarborException e) {
+                if (!isRetryable(e) || ++failures > config.getUploadRetries()) {
+                    logger.error("Chunked upload of {} to {} failed at offset {}/{}; session kept in {}",
+                            sessionKey, repository, committed, size, sessionStore.getDirectory());
+                    throw e;
+                }
+                logger.warn("Chunked upload of {} interrupted at offset {}/{} ({}), retry {}/{}",
+                        sessionKey, committed, size, e.getMessage(), failures, config.getUploadRetries());
+                backoff(failures);
+                resync = true;
+            }
+        }
+        sessionStore.remove(repository, sessionKey);
+        return digest;
+    }
+
+    private static boolean isRetryable(Exception e) {
+        if (e instanceof IOException) {
+            return true;
+        }
+        int code = ((HarborException) e).getCode();
+        return code == -1 || code == 408 || code == 416 || code == 429 || code >= 500;
+    }
+
+    private static void backoff(int attempt) {
+        try {
+            Thread.sleep(Math.min(500L * attempt, 10000L));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HarborException("Interrupted while waiting to retry upload", e);
+        }
+    }
+
+    /**
+     * 挂载候选仓库：先取曾推送过该blob的仓库，再取配置的公共来源仓库
+     */
+    private Set<String> mountCandidates(String digest, String repository) {
+        Set<String> candidates = new LinkedHashSet<>();
+        Set<String> known = blobLocations.get(digest);
+        if (known != null) {
+            candidates.addAll(known);
+        }
+        if (layerStore != null) {
+            candidates.addAll(layerStore.getRepositories(digest));
+        }
+        candidates.addAll(properties.getRegistry().getMountSources());
+        candidates.remove(repository);
+        return candidates;
+    }
+
+    /**
+     * 记录blob所在的仓库，供之后的推送跨仓库挂载
+     */
+    public void rememberBlobLocation(String digest, String repository) {
+        blobLocations.computeIfAbsent(digest, key -> ConcurrentHashMap.newKeySet()).add(repository);
+    }
+
+    /**
+     * 无需计算即可确定的层摘要：OCI布局下直接取blob文件名；未压缩层的摘要即镜像配置中的diff_id；否则返回null
+     */
+    private static String knownLayerDigest(TarIndex.Entry entry, boolean gzip, String diffId) {
+        Matcher matcher = BLOB_ENTRY.matcher(entry.getName());
+        if (matcher.matches()) {
+            return matcher.group(1) + ":" + matcher.group(2);
+        }
+        if (!gzip && diffId != null) {
+            return diffId;
+        }
+        return null;
+    }
+
+    private List<String> readDiffIds(byte[] config) throws IOException {
+        Map<String, Object> configJson = objectMapper.readValue(config, new TypeReference<Map<String, Object>>() {});
+        Object rootfs = configJson.get("rootfs");
+        if (rootfs instanceof Map) {
+            Object diffIds = ((Map<?, ?>) rootfs).get("diff_ids");
+            if (diffIds instanceof List) {
+                List<String> result = new ArrayList<>();
+                for (Object diffId : (List<?>) diffIds) {
+                    result.add(String.valueOf(diffId));
+                }
+                return result;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private boolean isGzip(TarIndex index, TarIndex.Entry entry) throws IOException {
+        return isGzip(index.readHead(entry, 2));
+    }
+
+    private static boolean isGzip(byte[] head) {
+        return head.length >= 2 && head[0] == (byte) 0x1f && head[1] == (byte) 0x8b;
+    }
+
+    private static Map<String, Object> descriptor(String mediaType, String digest, long size) {
+        Map<String, Object> descriptor = new LinkedHashMap<>();
+        descriptor.put("mediaType", mediaType);
+        descriptor.put("digest", digest);
+        descriptor.put("size", size);
+        return descriptor;
+    }
+
+    private static String sha256(byte[] content) {
+        return DigestEngine.sha256(content);
+    }
+
+    /**
+     * 清单中引用的blob
+     */
+    private static class BlobRef {
+        private final String digest;
+        private final long size;
+
+        BlobRef(String digest, long size) {
+            this.digest = digest;
+            this.size = size;
+        }
+
+        static BlobRef of(Object descriptor) {
+            if (!(descriptor instanceof Map)) {
+                return null;
+            }
+            Map<?, ?> map = (Map<?, ?>) descriptor;
+            return new BlobRef(String.valueOf(map.get("digest")), ((Number) map.get("size")).longValue());
+        }
+    }
+
+    /**
+     * 预先规划的tar布局：每个条目的位置在写入前即已确定，内容可以按任意顺序并行写入
+     */
+    private static class ArchiveLayout {
+        private final List<long[]> headers = new ArrayList<>();
+        private final List<byte[]> headerBytes = new ArrayList<>();
+        private final Map<Long, byte[]> contents = new LinkedHashMap<>();
+        private long size;
+
+        /**
+         * 追加一个条目
+         *
+         * @param content 内存中的内容，由下载任务填充时为null
+         * @return 条目头所在位置
+         */
+        long add(String name, long length, byte[] content) {
+            long offset = size;
+            headers.add(new long[]{offset});
+            headerBytes.add(TarHeaders.fileHeader(name, length, 0));
+            if (content != null) {
+                contents.put(offset + TarHeaders.BLOCK_SIZE, content);
+            }
+            size += TarHeaders.entrySize(length);
+            return offset;
+        }
+
+        long add(String name, byte[] content) {
+            return add(name, content.length, content);
+        }
+
+        /**
+         * 写入所有条目头、内存中的小条目和结束标记；写入结束标记同时确定了文件的最终大小
+         */
+        void writeMetadata(FileChannel out) throws IOException {
+            for (int i = 0; i < headers.size(); i++) {
+                writeFully(out, ByteBuffer.wrap(headerBytes.get(i)), headers.get(i)[0]);
+            }
+            for (Map.Entry<Long, byte[]> content : contents.entrySet()) {
+                writeFully(out, ByteBuffer.wrap(content.getValue()), content.getKey());
+            }
+            writeFully(out, ByteBuffer.allocate(TarHeaders.END_OF_ARCHIVE_SIZE), size);
+            size += TarHeaders.END_OF_ARCHIVE_SIZE;
+        }
+
+        private static void writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += out.write(buffer, position);
+            }
+        }
+    }
+
+    /**
+     * 拉取结果
+     */
+    public static class PullResult {
+        private final String image;
+        private final String manifestDigest;
+        private final int layerCount;
+        private final long bytesDownloaded;
+        private final long bytesFromCache;
+        private final long archiveSize;
+        private final long elapsedMillis;
+
+        PullResult(String image, String manifestDigest, int layerCount, long bytesDownloaded, long bytesFromCache,
+                   long archiveSize, long elapsedMillis) {
+            this.image = image;
+            this.manifestDigest = manifestDigest;
+            this.layerCount = layerCount;
+            this.bytesDownloaded = bytesDownloaded;
+            this.bytesFromCache = bytesFromCache;
+            this.archiveSize = archiveSize;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public String getImage() {
+            return image;
+        }
+
+        public String getManifestDigest() {
+            return manifestDigest;
+        }
+
+        public int getLayerCount() {
+            return layerCount;
+        }
+
+        public long getBytesDownloaded() {
+            return bytesDownloaded;
+        }
+
+        public long getBytesFromCache() {
+            return bytesFromCache;
+        }
+
+        public long getArchiveSize() {
+            return archiveSize;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "PullResult{" +
+                    "image='" + image + '\'' +
+                    ", manifestDigest='" + manifestDigest + '\'' +
+                    ", layerCount=" + layerCount +
+                    ", bytesDownloaded=" + bytesDownloaded +
+                    ", bytesFromCache=" + bytesFromCache +
+                    ", archiveSize=" + archiveSize +
+                    ", elapsedMillis=" + elapsedMillis +
+                    '}';
+        }
+    }
+
+    /**
+     * 单个层的推送计划
+     */
+    private static class LayerPlan implements Closeable {
+        private final TarIndex.Entry entry;
+        private final int index;
+        private final String diffId;
+        private final boolean gzip;
+        private String digest;
+        private LayerStore.CachedLayer cached;
+        private CompletableFuture<String> pendingDigest;
+        private volatile boolean started;
+
+        LayerPlan(TarIndex.Entry entry, int index, String diffId, boolean gzip) {
+            this.entry = entry;
+            this.index = index;
+            this.diffId = diffId;
+            this.gzip = gzip;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (cached != null) {
+                cached.close();
+            }
+        }
+    }
+
+    /**
+     * 从tar流上传的blob
+     */
+    private static class StreamedBlob {
+        private final String digest;
+        private final long size;
+        private final boolean gzip;
+
+        StreamedBlob(String digest, long size, boolean gzip) {
+            this.digest = digest;
+            this.size = size;
+            this.gzip = gzip;
+        }
+    }
+
+    /**
+     * 一次布局导出的共享状态
+     */
+    private static class LayoutExport {
+        private final Path blobDir;
+        private final Map<String, CompletableFuture<Void>> blobs = new ConcurrentHashMap<>();
+        private final Map<String, Map<String, Object>> manifests = new ConcurrentSkipListMap<>();
+        private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        private final ExportStats stats = new ExportStats();
+
+        LayoutExport(Path blobDir) {
+            this.blobDir = blobDir;
+        }
+    }
+
+    /**
+     * 导出过程中的blob统计：EXISTING为目录中已有，CACHED为从层缓存复制，DOWNLOADED为实际下载
+     */
+    private static class ExportStats extends TransferStats {
+        private final AtomicLong bytesDeduplicated = new AtomicLong();
+        private long bytesFromCache;
+
+        @Override
+        synchronized void record(BlobOutcome outcome, long size) {
+            super.record(outcome, size);
+            if (outcome == BlobOutcome.CACHED) {
+                bytesFromCache += size;
+            }
+        }
+    }
+
+    /**
+     * 布局导出结果
+     */
+    public static class ExportResult {
+        private final Path directory;
+        private final int imageCount;
+        private final List<String> failures;
+        private final int blobsWritten;
+        private final long bytesDownloaded;
+        private final long bytesFromCache;
+        private final long bytesExisting;
+        private final long bytesDeduplicated;
+        private final long elapsedMillis;
+
+        ExportResult(Path directory, int imageCount, LayoutExport export, long elapsedMillis) {
+            ExportStats stats = export.stats;
+            this.directory = directory;
+            this.imageCount = imageCount;
+            this.failures = new ArrayList<>(export.failures);
+            TransferStats totals = stats;
+            synchronized (stats) {
+                this.blobsWritten = totals.blobsDownloaded + totals.blobsCached;
+                this.bytesDownloaded = totals.bytesSent;
+                this.bytesFromCache = stats.bytesFromCache;
+                this.bytesExisting = totals.bytesSkipped - stats.bytesFromCache;
+            }
+            this.bytesDeduplicated = stats.bytesDeduplicated.get();
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public Path getDirectory() {
+            return directory;
+        }
+
+        /**
+         * 成功导出的标签数
+         */
+        public int getImageCount() {
+            return imageCount;
+        }
+
+        /**
+         * 导出失败的仓库或标签及原因
+         */
+        public List<String> getFailures() {
+            return failures;
+        }
+
+        /**
+         * 本次新写入的blob数
+         */
+        public int getBlobsWritten() {
+            return blobsWritten;
+        }
+
+        public long getBytesDownloaded() {
+            return bytesDownloaded;
+        }
+
+        public long getBytesFromCache() {
+            return bytesFromCache;
+        }
+
+        /**
+         * 目录中已存在（之前导出过）而跳过的字节数
+         */
+        public long getBytesExisting() {
+            return bytesExisting;
+        }
+
+        /**
+         * 多个镜像共用同一blob而省去的写入字节数
+         */
+        public long getBytesDeduplicated() {
+            return bytesDeduplicated;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "ExportResult{" +
+                    "directory=" + directory +
+                    ", imageCount=" + imageCount +
+                    ", failures=" + failures.size() +
+                    ", blobsWritten=" + blobsWritten +
+                    ", bytesDownloaded=" + bytesDownloaded +
+                    ", bytesFromCache=" + bytesFromCache +
+                    ", bytesExisting=" + bytesExisting +
+                    ", bytesDeduplicated=" + bytesDeduplicated +
+                    ", elapsedMillis=" + elapsedMillis +
+                    '}';
+        }
+    }
+
+    /**
+     * 单个blob的传输结果
+     */
+    public enum BlobOutcome {
+        /**
+         * 目标仓库或目录已存在，未传输
+         */
+        EXISTING,
+        /**
+         * 推送时从其他仓库挂载，未传输
+         */
+        MOUNTED,
+        /**
+         * 推送时实际上传
+         */
+        UPLOADED,
+        /**
+         * 拉取或导出时从本地层缓存复制，未经网络
+         */
+        CACHED,
+        /**
+         * 拉取或导出时实际下载
+         */
+        DOWNLOADED
+    }
+
+    /**
+     * blob传输统计：bytesSent为经网络传输的字节数，bytesSkipped为无需传输的字节数
+     */
+    static class TransferStats {
+        private long bytesSent;
+        private long bytesSkipped;
+        private int blobsExisting;
+        private int blobsMounted;
+        private int blobsUploaded;
+        private int blobsCached;
+        private int blobsDownloaded;
+
+        synchronized void record(BlobOutcome outcome, long size) {
+            switch (outcome) {
+                case EXISTING:
+                    blobsExisting++;
+                    bytesSkipped += size;
+                    break;
+                case MOUNTED:
+                    blobsMounted++;
+                    bytesSkipped += size;
+                    break;
+                case CACHED:
+                    blobsCached++;
+                    bytesSkipped += size;
+                    break;
+                case DOWNLOADED:
+                    blobsDownloaded++;
+                    bytesSent += size;
+                    break;
+                default:
+                    blobsUploaded++;
+                    bytesSent += size;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 推送结果
+     */
+    public static class PushResult {
+        private final String image;
+        private final String manifestDigest;
+        private final int layerCount;
+        private final long bytesSent;
+        private final long bytesSkipped;
+        private final int blobsExisting;
+        private final int blobsMounted;
+        private final int blobsUploaded;
+        private final long elapsedMillis;
+
+        PushResult(String image, String manifestDigest, int layerCount, TransferStats stats, long elapsedMillis) {
+            this.image = image;
+            this.manifestDigest = manifestDigest;
+            this.layerCount = layerCount;
+            this.bytesSent = stats.bytesSent;
+            this.bytesSkipped = stats.bytesSkipped;
+            this.blobsExisting = stats.blobsExisting;
+            this.blobsMounted = stats.blobsMounted;
+            this.blobsUploaded = stats.blobsUploaded;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public String getImage() {
+            return image;
+        }
+
+        public String getManifestDigest() {
+            return manifestDigest;
+        }
+
+        public int getLayerCount() {
+            return layerCount;
+        }
+
+        /**
+         * 实际上传的字节数
+         */
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        /**
+         * 因已存在或跨仓库挂载而跳过的字节数
+         */
+        public long getBytesSkipped() {
+            return bytesSkipped;
+        }
+
+        public int getBlobsExisting() {
+            return blobsExisting;
+        }
+
+        public int getBlobsMounted() {
+            return blobsMounted;
+        }
+
+        public int getBlobsUploaded() {
+            return blobsUploaded;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "PushResult{" +
+                    "image='" + image + '\'' +
+                    ", manifestDigest='" + manifestDigest + '\'' +
+                    ", layerCount=" + layerCount +
+                    ", bytesSent=" + bytesSent +
+                    ", bytesSkipped=" + bytesSkipped +
+                    ", blobsExisting=" + blobsExisting +
+                    ", blobsMounted=" + blobsMounted +
+                    ", blobsUploaded=" + blobsUploaded +
+                    ", elapsedMillis=" + elapsedMillis +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.techzhi.harbor.service;
+
+import com.techzhi.harbor.archive.ArchiveCompression;
+import com.techzhi.harbor.exception.HarborException;
+import com.techzhi.harbor.transfer.ImageTransferEngine;
+import com.techzhi.harbor.transfer.StreamCopier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * 通过Registry HTTP API V2直接上传tar包中的层，不依赖Docker守护进程
+ *
+ * @author techzhi
+ */
+public class RegistryTransferEngine implements ImageTransferEngine {
+
+    public static final String NAME = "registry";
+
+    private final RegistryImageService registryImageService;
+
+    public RegistryTransferEngine(RegistryImageService registryImageService) {
+        this.registryImageService = registryImageService;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return registryImageService.ping();
+    }
+
+    @Override
+    public String push(Path tarFile, String projectName, String imageName, String tag) {
+        try (InputStream in = StreamCopier.openInputStream(tarFile)) {
+            ArchiveCompression compression = ArchiveCompression.detect(in);
+            if (compression != ArchiveCompression.NONE) {
+                // 压缩包无法随机访问，边解压边上传
+                return registryImageService.pushArchiveStream(compression.decompressing(in),
+                        projectName, imageName, tag).getImage();
+            }
+        } catch (IOException e) {
+            throw new HarborException("Failed to read image archive: " + tarFile, e);
+        }
+        return registryImageService.pushArchive(tarFile, projectName, imageName, tag).getImage();
+    }
+}
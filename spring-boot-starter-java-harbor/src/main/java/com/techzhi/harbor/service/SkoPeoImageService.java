@@ -1,10 +1,19 @@
 package com.techzhi.harbor.service;
 
 
+import com.techzhi.harbor.client.HarborMetadataCache;
 import com.techzhi.harbor.config.HarborProperties;
+import com.techzhi.harbor.exception.HarborException;
+import com.techzhi.harbor.util.SkopeoExecutor;
 import com.techzhi.harbor.util.SkopeoUtil;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author shouzhi
  */
@@ -12,9 +21,44 @@ import org.springframework.stereotype.Service;
 public class SkoPeoImageService {
 
      private final HarborProperties properties;
+     private final SkopeoExecutor skopeoExecutor;
+     private final boolean ownsExecutor;
+     private volatile HarborMetadataCache metadataCache;
 
      public SkoPeoImageService(HarborProperties properties) {
+         this(properties, new SkopeoExecutor(properties), true);
+     }
+
+     public SkoPeoImageService(HarborProperties properties, SkopeoExecutor skopeoExecutor) {
+         this(properties, skopeoExecutor, false);
+     }
+
+     private SkoPeoImageService(HarborProperties properties, SkopeoExecutor skopeoExecutor, boolean ownsExecutor) {
          this.properties = properties;
+         this.skopeoExecutor = skopeoExecutor;
+         this.ownsExecutor = ownsExecutor;
+     }
+
+     /**
+      * 设置元数据查询缓存，推送成功后清除对应条目
+      */
+     public void setMetadataCache(HarborMetadataCache metadataCache) {
+         this.metadataCache = metadataCache;
+     }
+
+     private void invalidateCache(SkopeoExecutor.SkopeoResult result, String projectName, String imageName,
+                                  String imageTag) {
+         HarborMetadataCache cache = metadataCache;
+         if (cache != null && result != null && result.isSuccess()) {
+             cache.invalidateTag(projectName, imageName, imageTag);
+         }
+     }
+
+     @PreDestroy
+     public void destroy() {
+         if (ownsExecutor) {
+             skopeoExecutor.destroy();
+         }
      }
 
 
@@ -26,15 +70,111 @@ public class SkoPeoImageService {
       * @return 执行结果
       */
      public String pushTarToHarbor(String tarFilePath, String imageName, String imageTag) {
-         return SkopeoUtil.pushTarToHarbor(
-                 properties.getHost(),
-                 properties.getUsername(),
-                 properties.getPassword(),
-                 tarFilePath,
-                 properties.getProject(),
-                 imageName,
-                 imageTag
-         );
-     }
-
-}
\ No newline at end of file
+         return SkopeoUtil.describe(pushTar(tarFilePath, imageName, imageTag));
+     }
+
+     /**
+      * 推送镜像到harbor，返回退出码、耗时和复制进度
+      * @param tarFilePath 本地tar文件路径
+      * @param imageName 镜像名称
+      * @param imageTag 镜像标签
+      * @return 执行结果
+      */
+     public SkopeoExecutor.SkopeoResult pushTar(String tarFilePath, String imageName, String imageTag) {
+         return pushTar(tarFilePath, properties.getProject(), imageName, imageTag);
+     }
+
+     /**
+      * 推送镜像到harbor的指定项目
+      * @param tarFilePath 本地tar文件路径
+      * @param projectName Harbor项目名称
+      * @param imageName 镜像名称
+      * @param imageTag 镜像标签
+      * @return 执行结果
+      */
+     public SkopeoExecutor.SkopeoResult pushTar(String tarFilePath, String projectName, String imageName,
+                                                String imageTag) {
+         SkopeoExecutor.SkopeoResult result = SkopeoUtil.copyTarToHarbor(skopeoExecutor, properties.getHost(),
+                 properties.getUsername(), properties.getPassword(), tarFilePath, projectName, imageName, imageTag);
+         invalidateCache(result, projectName, imageName, imageTag);
+         return result;
+     }
+
+     /**
+      * skopeo是否可以执行
+      */
+     public boolean isAvailable() {
+         try {
+             return skopeoExecutor.execute(Collections.singletonList("--version"), 10000).isSuccess();
+         } catch (HarborException e) {
+             return false;
+         }
+     }
+
+     /**
+      * 推送后的完整Harbor镜像地址
+      */
+     public String imageReference(String projectName, String imageName, String imageTag) {
+         return SkopeoUtil.registryOf(properties.getHost()) + "/" + projectName + "/" + imageName + ":" + imageTag;
+     }
+
+     /**
+      * 并行推送多个tar包，同时运行的skopeo进程数不超过 harbor.skopeo.max-concurrency；
+      * 单个失败不影响其他条目，结果与输入顺序一致
+      * @param pushes 待推送的tar包
+      * @return 各条目的执行结果
+      */
+     public List<SkopeoExecutor.SkopeoResult> batchPushTars(List<TarPush> pushes) {
+         List<CompletableFuture<SkopeoExecutor.SkopeoResult>> futures = new ArrayList<>();
+         for (TarPush push : pushes) {
+             String projectName = push.getProjectName() != null ? push.getProjectName() : properties.getProject();
+             futures.add(SkopeoUtil.copyTarToHarborAsync(skopeoExecutor, properties.getHost(),
+                     properties.getUsername(), properties.getPassword(), push.getTarFilePath(),
+                     projectName, push.getImageName(), push.getImageTag())
+                     .whenComplete((result, error) -> invalidateCache(result, projectName, push.getImageName(),
+                             push.getImageTag())));
+         }
+         List<SkopeoExecutor.SkopeoResult> results = new ArrayList<>();
+         for (CompletableFuture<SkopeoExecutor.SkopeoResult> future : futures) {
+             results.add(future.join());
+         }
+         return results;
+     }
+
+     /**
+      * skopeo执行统计：运行中/等待中的进程数、成功/失败/超时次数以及复制和跳过的层数
+      */
+     public SkopeoExecutor.ExecutorStatistics getStatistics() {
+         return skopeoExecutor.getStatistics();
+     }
+
+     /**
+      * 批量推送条目
+      */
+     public static class TarPush {
+         private final String tarFilePath;
+         private final String projectName;
+         private final String imageName;
+         private final String imageTag;
+
+         public TarPush(String tarFilePath, String imageName, String imageTag) {
+             this(tarFilePath, null, imageName, imageTag);
+         }
+
+         /**
+          * @param projectName Harbor项目名称，为null时使用默认项目
+          */
+         public TarPush(String tarFilePath, String projectName, String imageName, String imageTag) {
+             this.tarFilePath = tarFilePath;
+             this.projectName = projectName;
+             this.imageName = imageName;
+             this.imageTag = imageTag;
+         }
+
+         public String getTarFilePath() { return tarFilePath; }
+         public String getProjectName() { return projectName; }
+         public String getImageName() { return imageName; }
+         public String getImageTag() { return imageTag; }
+     }
+
+}
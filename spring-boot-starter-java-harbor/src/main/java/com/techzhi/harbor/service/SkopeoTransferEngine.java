@@ -0,0 +1,53 @@
+package com.techzhi.harbor.service;
+
+import com.techzhi.harbor.archive.ArchiveCompression;
+import com.techzhi.harbor.exception.HarborException;
+import com.techzhi.harbor.transfer.ImageTransferEngine;
+import com.techzhi.harbor.util.SkopeoExecutor;
+
+import java.nio.file.Path;
+
+/**
+ * 通过 skopeo copy docker-archive: 推送
+ *
+ * @author techzhi
+ */
+public class SkopeoTransferEngine implements ImageTransferEngine {
+
+    public static final String NAME = "skopeo";
+
+    private final SkoPeoImageService skoPeoImageService;
+
+    public SkopeoTransferEngine(SkoPeoImageService skoPeoImageService) {
+        this.skoPeoImageService = skoPeoImageService;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return skoPeoImageService.isAvailable();
+    }
+
+    /**
+     * docker-archive传输只读取未压缩或gzip压缩的tar包
+     */
+    @Override
+    public boolean supports(ArchiveCompression compression) {
+        return compression == ArchiveCompression.NONE || compression == ArchiveCompression.GZIP;
+    }
+
+    @Override
+    public String push(Path tarFile, String projectName, String imageName, String tag) {
+        SkopeoExecutor.SkopeoResult result = skoPeoImageService.pushTar(tarFile.toString(), projectName,
+                imageName, tag);
+        if (!result.isSuccess()) {
+            throw new HarborException("skopeo copy failed (exit " + result.getExitCode()
+                    + (result.isTimedOut() ? ", timed out" : "") + "): " + result.getError());
+        }
+        return skoPeoImageService.imageReference(projectName, imageName, tag);
+    }
+}
@@ -0,0 +1,191 @@
+package com.techzhi.harbor.transfer;
+
+import com.techzhi.harbor.config.HarborProperties;
+import com.techzhi.harbor.exception.HarborException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SHA-256摘要计算引擎
+ * 通过FileChannel按位置读取到池化的直接缓冲区中计算摘要，同一文件的多个区间可在多个核上并行计算；
+ * {@link RunningDigest} 用于在上传的同一遍读取中计算摘要
+ *
+ * @author techzhi
+ */
+public class DigestEngine {
+
+    private final DirectBufferPool bufferPool;
+    private final ExecutorService executor;
+
+    public DigestEngine(HarborProperties properties) {
+        this(properties.getIo().getDigestParallelism(), DirectBufferPool.getDefault());
+    }
+
+    public DigestEngine(int parallelism, DirectBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, parallelism), new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "harbor-digest-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 计算文件区间的摘要
+     */
+    public String sha256(FileChannel channel, long offset, long length) throws IOException {
+        MessageDigest digest = newSha256();
+        update(digest, channel, offset, length);
+        return toDigest(digest);
+    }
+
+    /**
+     * 在摘要线程池中计算文件区间的摘要，FileChannel按位置读取，多个区间可共用同一通道并行计算
+     */
+    public CompletableFuture<String> sha256Async(FileChannel channel, long offset, long length) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(sha256(channel, offset, length));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 将文件区间的内容追加到摘要中
+     */
+    public void update(MessageDigest digest, FileChannel channel, long offset, long length) throws IOException {
+        ByteBuffer buffer = bufferPool.acquire();
+        try {
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                buffer.clear();
+                if (end - position < buffer.capacity()) {
+                    buffer.limit((int) (end - position));
+                }
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of file at offset " + position);
+                }
+                buffer.flip();
+                digest.update(buffer);
+                position += read;
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * 创建从文件区间起点开始的增量摘要
+     */
+    public RunningDigest newRunningDigest(FileChannel channel, long offset) {
+        return new RunningDigest(channel, offset);
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public static String sha256(byte[] content) {
+        return "sha256:" + toHex(newSha256().digest(content));
+    }
+
+    /**
+     * 结束摘要计算并格式化为 sha256:hex
+     */
+    public static String toDigest(MessageDigest digest) {
+        return "sha256:" + toHex(digest.digest());
+    }
+
+    /**
+     * 复制摘要的中间状态
+     */
+    public static MessageDigest copy(MessageDigest digest) {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new HarborException("Digest state cannot be copied: " + digest.getAlgorithm(), e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * 跟随上传进度的增量摘要：记录已确认前缀的摘要状态，
+     * 分块上传成功后接收该分块写出时顺带计算的状态；偏移量与已确认前缀不一致时（重试回退、重启续传）从文件补算
+     */
+    public class RunningDigest {
+        private final FileChannel channel;
+        private final long offset;
+        private MessageDigest state = newSha256();
+        private long position;
+
+        RunningDigest(FileChannel channel, long offset) {
+            this.channel = channel;
+            this.offset = offset;
+        }
+
+        /**
+         * 返回前length字节摘要状态的副本，供分块写出时继续计算
+         */
+        public MessageDigest stateAt(long length) throws IOException {
+            if (length < position) {
+                state = newSha256();
+                position = 0;
+            }
+            if (length > position) {
+                update(state, channel, offset + position, length - position);
+                position = length;
+            }
+            return copy(state);
+        }
+
+        /**
+         * 分块确认后记录新的已确认前缀
+         */
+        public void commit(long length, MessageDigest after) {
+            this.state = after;
+            this.position = length;
+        }
+
+        /**
+         * 前length字节的摘要
+         */
+        public String digestAt(long length) throws IOException {
+            return toDigest(stateAt(length));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.techzhi.harbor.transfer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 直接内存缓冲区池
+ * 复用固定大小的直接缓冲区，避免大文件读写时反复分配1MB堆数组和额外的堆外拷贝
+ *
+ * @author techzhi
+ */
+public class DirectBufferPool {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private static final DirectBufferPool DEFAULT = new DirectBufferPool(DEFAULT_BUFFER_SIZE, 32);
+
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> free;
+
+    public DirectBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(Math.max(1, maxPooled));
+    }
+
+    /**
+     * JVM内共享的默认缓冲区池（1MB缓冲区，最多缓存32个）
+     */
+    public static DirectBufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * 取出一个已清空的缓冲区，池中没有空闲缓冲区时新分配
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * 归还缓冲区，池已满时直接丢弃
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.isDirect() && buffer.capacity() == bufferSize) {
+            free.offer(buffer);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.techzhi.harbor.transfer;
+
+import com.techzhi.harbor.archive.ArchiveCompression;
+
+import java.nio.file.Path;
+
+/**
+ * 镜像传输引擎：把本地镜像tar包推送到Harbor的一种方式（Docker守护进程、skopeo、Registry HTTP API等）
+ * 由 {@link TransferEngineSelector} 按镜像大小、可用性和实测吞吐量为每个任务选择
+ *
+ * @author techzhi
+ */
+public interface ImageTransferEngine {
+
+    /**
+     * 引擎名称，与 harbor.engine.order 中的名称对应
+     */
+    String getName();
+
+    /**
+     * 引擎当前是否可用（守护进程可连接、可执行文件存在等），结果由选择器按 harbor.engine.availability-ttl 缓存
+     */
+    boolean isAvailable();
+
+    /**
+     * 是否支持该压缩格式的tar包
+     */
+    default boolean supports(ArchiveCompression compression) {
+        return true;
+    }
+
+    /**
+     * 推送tar包
+     *
+     * @return 推送成功后的完整Harbor镜像地址
+     */
+    String push(Path tarFile, String projectName, String imageName, String tag);
+}
@@ -0,0 +1,471 @@
+package com.techzhi.harbor.transfer;
+
+import com.techzhi.harbor.config.HarborProperties;
+import com.techzhi.harbor.exception.HarborException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * 批量传输任务的本地追加式日志，JVM中途退出后批量接口据此跳过已完成的条目、继续未完成的条目
+ * 每条状态变更为一行带CRC32校验的记录，追加到内存缓冲后立即返回，由刷盘线程按 flush-interval
+ * 成组写入并fsync，调用方不为单个条目等待磁盘；末尾写了一半的记录在重放时按校验失败截断。
+ * 一个任务的所有条目都完成后写入结束记录，下次打开日志时压缩掉已结束的任务
+ *
+ * @author techzhi
+ */
+public class JobJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobJournal.class);
+
+    static final String JOURNAL_FILE = "jobs.journal";
+
+    private static final char STARTED = 'S';
+    private static final char DONE = 'D';
+    private static final char FAILED = 'F';
+    private static final char ENDED = 'E';
+
+    /**
+     * 缓冲超过该大小时不等刷盘间隔，立即唤醒刷盘线程
+     */
+    private static final int EAGER_FLUSH_BYTES = 256 * 1024;
+
+    private final Path file;
+    private final long flushIntervalMillis;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+    private final FileChannel channel;
+    private final Thread flusher;
+
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private long appended;
+    private long durable;
+    private IOException failure;
+    private volatile boolean closed;
+
+    public JobJournal(HarborProperties properties) {
+        this(Paths.get(properties.getJournal().getDirectory()), properties.getJournal().getFlushInterval());
+    }
+
+    public JobJournal(Path directory, long flushIntervalMillis) {
+        this.file = directory.resolve(JOURNAL_FILE);
+        this.flushIntervalMillis = Math.max(1, flushIntervalMillis);
+        try {
+            Files.createDirectories(directory);
+            int records = replay();
+            compact(records);
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new HarborException("Failed to open job journal " + file + ": " + e.getMessage(), e);
+        }
+        this.flusher = new Thread(this::flushLoop, "harbor-journal-flush");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+        if (!jobs.isEmpty()) {
+            logger.info("Job journal {} has {} unfinished jobs", file, jobs.size());
+        }
+    }
+
+    /**
+     * 以操作类型和批次内容计算任务标识，同一批次重新调用时得到相同的标识
+     */
+    public static String jobId(String type, List<String> parts) {
+        String digest = DigestEngine.sha256(String.join("\n", parts).getBytes(StandardCharsets.UTF_8));
+        return type + "-" + digest.substring("sha256:".length(), "sha256:".length() + 32);
+    }
+
+    /**
+     * 打开任务，已存在未结束的同名任务时返回其重放后的状态
+     *
+     * @param jobId 任务标识，同一批次重新执行时应得到相同的标识
+     */
+    public Job openJob(String jobId) {
+        return jobs.computeIfAbsent(jobId, Job::new);
+    }
+
+    /**
+     * 等待此前追加的所有记录写入磁盘
+     */
+    public void flush() {
+        synchronized (lock) {
+            long target = appended;
+            lock.notifyAll();
+            while (durable < target && failure == null && !closed) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new HarborException("Interrupted while flushing job journal");
+                }
+            }
+            if (failure != null) {
+                throw new HarborException("Failed to write job journal " + file + ": " + failure.getMessage(),
+                        failure);
+            }
+        }
+    }
+
+    /**
+     * 刷盘后关闭日志
+     */
+    @PreDestroy
+    public void destroy() {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } catch (HarborException e) {
+            logger.warn("Job journal {} closed with unwritten records", file, e);
+        }
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            flusher.join(1000);
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.warn("Failed to close job journal {}", file, e);
+        }
+    }
+
+    private void append(char type, String jobId, String item, String value) {
+        byte[] record = encode(type, jobId, item, value);
+        synchronized (lock) {
+            if (closed) {
+                logger.warn("Job journal {} is closed, dropping record {} {} {}", file, type, jobId, item);
+                return;
+            }
+            buffer.write(record, 0, record.length);
+            appended++;
+            if (buffer.size() >= EAGER_FLUSH_BYTES) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 成组提交：每个刷盘周期把缓冲中的全部记录一次写入并fsync
+     */
+    private void flushLoop() {
+        while (!closed) {
+            byte[] batch;
+            long target;
+            synchronized (lock) {
+                if (buffer.size() == 0) {
+                    try {
+                        lock.wait(flushIntervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (buffer.size() == 0) {
+                    continue;
+                }
+                batch = buffer.toByteArray();
+                buffer = new ByteArrayOutputStream(Math.max(32, batch.length));
+                target = appended;
+            }
+            IOException error = null;
+            try {
+                ByteBuffer bytes = ByteBuffer.wrap(batch);
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                error = e;
+                logger.error("Failed to write {} bytes to job journal {}", batch.length, file, e);
+            }
+            synchronized (lock) {
+                if (error != null) {
+                    failure = error;
+                } else {
+                    durable = target;
+                }
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 重放日志重建未结束任务的状态，遇到写了一半或校验失败的记录时截断其后的内容
+     *
+     * @return 有效记录数
+     */
+    private int replay() throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        byte[] content = Files.readAllBytes(file);
+        int records = 0;
+        int start = 0;
+        while (start < content.length) {
+            int end = start;
+            while (end < content.length && content[end] != '\n') {
+                end++;
+            }
+            String[] fields = end < content.length
+                    ? decode(new String(content, start, end - start, StandardCharsets.UTF_8)) : null;
+            if (fields == null) {
+                logger.warn("Truncating job journal {} at offset {}: incomplete or corrupt record", file, start);
+                try (FileChannel truncate = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    truncate.truncate(start);
+                    truncate.force(false);
+                }
+                break;
+            }
+            apply(fields);
+            records++;
+            start = end + 1;
+        }
+        return records;
+    }
+
+    private void apply(String[] fields) {
+        char type = fields[0].charAt(0);
+        String jobId = fields[1];
+        if (type == ENDED) {
+            jobs.remove(jobId);
+            return;
+        }
+        Job job = openJob(jobId);
+        String item = fields[2];
+        if (type == STARTED) {
+            job.items.putIfAbsent(item, new ItemState(ItemStatus.PENDING, null));
+        } else if (type == DONE) {
+            job.items.put(item, new ItemState(ItemStatus.DONE, fields[3]));
+        } else if (type == FAILED) {
+            job.items.put(item, new ItemState(ItemStatus.FAILED, fields[3]));
+        }
+    }
+
+    /**
+     * 只保留未结束任务的最新状态，写入临时文件后原子替换
+     */
+    private void compact(int records) throws IOException {
+        int live = 0;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Job job : jobs.values()) {
+            for (Map.Entry<String, ItemState> entry : job.items.entrySet()) {
+                ItemState state = entry.getValue();
+                char type = state.status == ItemStatus.DONE ? DONE
+                        : state.status == ItemStatus.FAILED ? FAILED : STARTED;
+                byte[] record = encode(type, job.id, entry.getKey(), state.value);
+                out.write(record, 0, record.length);
+                live++;
+            }
+        }
+        if (live == records) {
+            return;
+        }
+        Path temp = file.resolveSibling(JOURNAL_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap(out.toByteArray());
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        logger.debug("Compacted job journal {} from {} to {} records", file, records, live);
+    }
+
+    private static byte[] encode(char type, String jobId, String item, String value) {
+        StringBuilder line = new StringBuilder().append(type).append('\t').append(escape(jobId));
+        if (item != null) {
+            line.append('\t').append(escape(item));
+        }
+        if (value != null) {
+            line.append('\t').append(escape(value));
+        }
+        byte[] payload = line.toString().getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        byte[] suffix = String.format("\t%08x\n", crc.getValue()).getBytes(StandardCharsets.UTF_8);
+        byte[] record = new byte[payload.length + suffix.length];
+        System.arraycopy(payload, 0, record, 0, payload.length);
+        System.arraycopy(suffix, 0, record, payload.length, suffix.length);
+        return record;
+    }
+
+    /**
+     * 解析一行记录，校验失败时返回null
+     */
+    private static String[] decode(String line) {
+        int separator = line.lastIndexOf('\t');
+        if (separator < 0) {
+            return null;
+        }
+        byte[] payload = line.substring(0, separator).getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        if (!String.format("%08x", crc.getValue()).equals(line.substring(separator + 1))) {
+            return null;
+        }
+        String[] fields = line.substring(0, separator).split("\t", -1);
+        char type = fields[0].isEmpty() ? 0 : fields[0].charAt(0);
+        int expected = type == ENDED ? 2 : type == STARTED ? 3 : type == DONE || type == FAILED ? 4 : -1;
+        if (fields.length != expected) {
+            return null;
+        }
+        for (int i = 1; i < fields.length; i++) {
+            fields[i] = unescape(fields[i]);
+        }
+        return fields;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                result.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private enum ItemStatus {
+        PENDING, DONE, FAILED
+    }
+
+    private static final class ItemState {
+        final ItemStatus status;
+        final String value;
+
+        ItemState(ItemStatus status, String value) {
+            this.status = status;
+            this.value = value;
+        }
+    }
+
+    /**
+     * 日志中的一个批量任务，条目以调用方给出的键标识
+     */
+    public final class Job {
+        private final String id;
+        private final Map<String, ItemState> items = new ConcurrentHashMap<>();
+
+        private Job(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * 条目在之前的执行中是否已完成
+         */
+        public boolean isCompleted(String item) {
+            ItemState state = items.get(item);
+            return state != null && state.status == ItemStatus.DONE;
+        }
+
+        /**
+         * 已完成条目记录的结果，未完成时为null
+         */
+        public String getResult(String item) {
+            ItemState state = items.get(item);
+            return state != null && state.status == ItemStatus.DONE ? state.value : null;
+        }
+
+        public int getCompletedCount() {
+            int count = 0;
+            for (ItemState state : items.values()) {
+                if (state.status == ItemStatus.DONE) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * 尚未完成（未开始、执行中或失败）的条目
+         */
+        public List<String> getUnfinishedItems() {
+            List<String> unfinished = new ArrayList<>();
+            for (Map.Entry<String, ItemState> entry : items.entrySet()) {
+                if (entry.getValue().status != ItemStatus.DONE) {
+                    unfinished.add(entry.getKey());
+                }
+            }
+            return unfinished;
+        }
+
+        public void started(String item) {
+            items.put(item, new ItemState(ItemStatus.PENDING, null));
+            append(STARTED, id, item, null);
+        }
+
+        public void completed(String item, String result) {
+            String value = result == null ? "" : result;
+            items.put(item, new ItemState(ItemStatus.DONE, value));
+            append(DONE, id, item, value);
+        }
+
+        public void failed(String item, String error) {
+            String value = error == null ? "" : error;
+            items.put(item, new ItemState(ItemStatus.FAILED, value));
+            append(FAILED, id, item, value);
+        }
+
+        /**
+         * 本次执行的条目都已完成时结束任务并刷盘，之后同名任务重新开始；
+         * 仍有未完成条目时保留，供下次执行继续。不在本次条目中的旧记录（如文件被替换前的条目）不影响结束
+         *
+         * @param currentItems 本次执行的全部条目
+         * @return 任务是否已结束
+         */
+        public boolean finish(Collection<String> currentItems) {
+            for (String item : currentItems) {
+                if (!isCompleted(item)) {
+                    flush();
+                    return false;
+                }
+            }
+            jobs.remove(id, this);
+            append(ENDED, id, null, null);
+            flush();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package com.techzhi.harbor.transfer;
+
+import com.techzhi.harbor.config.HarborProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本地内容寻址的层缓存
+ * 层按sha256摘要存放在 {@code <directory>/sha256/<hex>}，旁边的属性文件记录diff_id和已确认存在该层的仓库；
+ * 总大小超过上限时按最近最少使用淘汰，正在被读取的层不会被淘汰。
+ * 同一目录在JVM内只对应一个实例，可在并发任务间共享
+ *
+ * @author techzhi
+ */
+public class LayerStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(LayerStore.class);
+
+    private static final Map<Path, LayerStore> INSTANCES = new ConcurrentHashMap<>();
+
+    private final Path directory;
+    private volatile long maxBytes;
+
+    /**
+     * 缓存条目，按访问顺序排列，最前面的最久未使用
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, String> digestsByDiffId = new HashMap<>();
+    private final Map<String, Integer> pins = new HashMap<>();
+    private final Set<String> writing = new HashSet<>();
+    private long totalBytes;
+
+    LayerStore(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        load();
+    }
+
+    /**
+     * 按配置打开层缓存，未启用时返回null
+     */
+    public static LayerStore open(HarborProperties properties) {
+        HarborProperties.LayerCache config = properties.getLayerCache();
+        if (!config.isEnabled()) {
+            return null;
+        }
+        return open(Paths.get(config.getDirectory()), config.getMaxSize());
+    }
+
+    /**
+     * 打开指定目录的层缓存，同一目录返回同一实例
+     */
+    public static LayerStore open(Path directory, long maxBytes) {
+        LayerStore store = INSTANCES.computeIfAbsent(directory.toAbsolutePath().normalize(),
+                path -> new LayerStore(path, maxBytes));
+        store.maxBytes = maxBytes;
+        return store;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized boolean contains(String digest) {
+        return entries.containsKey(digest);
+    }
+
+    /**
+     * 按摘要取出缓存的层，不存在时返回null；返回的层在关闭前不会被淘汰
+     */
+    public synchronized CachedLayer get(String digest) {
+        Entry entry = entries.get(digest);
+        return entry == null ? null : pin(entry);
+    }
+
+    /**
+     * 按未压缩内容的diff_id取出缓存的层，用于跳过压缩层的摘要计算
+     */
+    public synchronized CachedLayer findByDiffId(String diffId) {
+        String digest = digestsByDiffId.get(diffId);
+        return digest == null ? null : get(digest);
+    }
+
+    /**
+     * 从文件通道的指定区间写入一个层，已存在或正由其他任务写入时直接返回
+     *
+     * @param digest 层摘要，调用方保证与内容一致
+     * @param diffId 未压缩内容的摘要，可为null
+     */
+    public void put(String digest, String diffId, FileChannel source, long offset, long size) throws IOException {
+        synchronized (this) {
+            Entry existing = entries.get(digest);
+            if (existing != null) {
+                if (diffId != null && existing.diffId == null) {
+                    existing.diffId = diffId;
+                    digestsByDiffId.put(diffId, digest);
+                    writeMetadata(existing);
+                }
+                touch(existing);
+                return;
+            }
+            if (size > maxBytes || !writing.add(digest)) {
+                return;
+            }
+        }
+
+        Path temp = null;
+        try {
+            Path data = dataFile(digest);
+            Files.createDirectories(data.getParent());
+            temp = data.resolveSibling(".tmp-" + UUID.randomUUID());
+            try (FileChannel target = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                long copied = 0;
+                while (copied < size) {
+                    long transferred = source.transferTo(offset + copied, size - copied, target);
+                    if (transferred <= 0) {
+                        throw new IOException("Unexpected end of source at offset " + (offset + copied));
+                    }
+                    copied += transferred;
+                }
+            }
+            move(temp, data);
+            temp = null;
+
+            Entry entry = new Entry(digest, diffId, size);
+            writeMetadata(entry);
+            synchronized (this) {
+                entries.put(digest, entry);
+                totalBytes += size;
+                if (diffId != null) {
+                    digestsByDiffId.put(diffId, digest);
+                }
+                logger.debug("Cached layer {} ({} bytes), cache size {}/{} bytes", digest, size, totalBytes, maxBytes);
+                evict();
+            }
+        } finally {
+            synchronized (this) {
+                writing.remove(digest);
+            }
+            if (temp != null) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * 记录已确认存在该层的仓库，供跨仓库挂载使用（包括JVM重启之后）
+     */
+    public synchronized void addRepository(String digest, String repository) {
+        Entry entry = entries.get(digest);
+        if (entry != null && entry.repositories.add(repository)) {
+            writeMetadata(entry);
+        }
+    }
+
+    /**
+     * 已确认存在该层的仓库
+     */
+    public synchronized Set<String> getRepositories(String digest) {
+        Entry entry = entries.get(digest);
+        return entry == null ? Collections.<String>emptySet() : new LinkedHashSet<>(entry.repositories);
+    }
+
+    /**
+     * 淘汰最久未使用且未被占用的层，直到总大小不超过上限，调用方须持有锁
+     */
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (pins.containsKey(entry.digest)) {
+                continue;
+            }
+            iterator.remove();
+            totalBytes -= entry.size;
+            if (entry.diffId != null) {
+                digestsByDiffId.remove(entry.diffId, entry.digest);
+            }
+            try {
+                Files.deleteIfExists(metadataFile(entry.digest));
+                Files.deleteIfExists(dataFile(entry.digest));
+                logger.debug("Evicted cached layer {} ({} bytes)", entry.digest, entry.size);
+            } catch (IOException e) {
+                logger.warn("Failed to delete evicted layer {}", entry.digest, e);
+            }
+        }
+    }
+
+    private CachedLayer pin(Entry entry) {
+        pins.merge(entry.digest, 1, Integer::sum);
+        touch(entry);
+        return new CachedLayer(entry.digest, entry.diffId, entry.size, dataFile(entry.digest));
+    }
+
+    private synchronized void unpin(String digest) {
+        Integer count = pins.get(digest);
+        if (count == null || count <= 1) {
+            pins.remove(digest);
+            evict();
+        } else {
+            pins.put(digest, count - 1);
+        }
+    }
+
+    /**
+     * 更新数据文件的修改时间，重启后据此恢复LRU顺序
+     */
+    private void touch(Entry entry) {
+        try {
+            Files.setLastModifiedTime(dataFile(entry.digest), FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            logger.debug("Failed to touch cached layer {}", entry.digest, e);
+        }
+    }
+
+    /**
+     * 启动时扫描缓存目录，丢弃不完整的条目并按修改时间恢复LRU顺序
+     */
+    private void load() {
+        Path blobs = directory.resolve("sha256");
+        if (!Files.isDirectory(blobs)) {
+            return;
+        }
+        List<Entry> loaded = new ArrayList<>();
+        final Map<String, Long> modified = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(blobs)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(".tmp-")) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                if (!name.endsWith(".properties")) {
+                    continue;
+                }
+                Entry entry = readMetadata(file);
+                Path data = dataFile(entry == null ? "sha256:" + name.substring(0, name.indexOf('.')) : entry.digest);
+                if (entry == null || !Files.exists(data) || Files.size(data) != entry.size) {
+                    logger.warn("Discarding incomplete cached layer: {}", file);
+                    Files.deleteIfExists(file);
+                    Files.deleteIfExists(data);
+                    continue;
+                }
+                loaded.add(entry);
+                modified.put(entry.digest, Files.getLastModifiedTime(data).toMillis());
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to scan layer cache directory: {}", directory, e);
+        }
+        loaded.sort((a, b) -> Long.compare(modified.get(a.digest), modified.get(b.digest)));
+        for (Entry entry : loaded) {
+            entries.put(entry.digest, entry);
+            totalBytes += entry.size;
+            if (entry.diffId != null) {
+                digestsByDiffId.put(entry.diffId, entry.digest);
+            }
+        }
+        evict();
+        logger.info("Layer cache opened at {}: {} layers, {} bytes", directory, entries.size(), totalBytes);
+    }
+
+    private Entry readMetadata(Path file) {
+        Properties values = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            values.load(in);
+            Entry entry = new Entry(values.getProperty("digest"), values.getProperty("diffId"),
+                    Long.parseLong(values.getProperty("size")));
+            String repositories = values.getProperty("repositories", "");
+            for (String repository : repositories.split(",")) {
+                if (!repository.isEmpty()) {
+                    entry.repositories.add(repository);
+                }
+            }
+            return entry.digest == null ? null : entry;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 写入条目属性文件，先写临时文件再原子替换；持锁写入保证与淘汰和并发更新的顺序一致
+     */
+    private synchronized void writeMetadata(Entry entry) {
+        Properties values = new Properties();
+        values.setProperty("digest", entry.digest);
+        values.setProperty("size", String.valueOf(entry.size));
+        if (entry.diffId != null) {
+            values.setProperty("diffId", entry.diffId);
+        }
+        values.setProperty("repositories", String.join(",", entry.repositories));
+        Path file = metadataFile(entry.digest);
+        Path temp = file.resolveSibling(".tmp-" + UUID.randomUUID());
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                values.store(out, null);
+            }
+            move(temp, file);
+        } catch (IOException e) {
+            logger.warn("Failed to write layer cache metadata: {}", file, e);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // 临时文件在下次启动时清理
+            }
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private Path dataFile(String digest) {
+        return directory.resolve("sha256").resolve(digest.substring(digest.indexOf(':') + 1));
+    }
+
+    private Path metadataFile(String digest) {
+        return directory.resolve("sha256").resolve(digest.substring(digest.indexOf(':') + 1) + ".properties");
+    }
+
+    private static class Entry {
+        private final String digest;
+        private volatile String diffId;
+        private final long size;
+        private final Set<String> repositories = new LinkedHashSet<>();
+
+        Entry(String digest, String diffId, long size) {
+            this.digest = digest;
+            this.diffId = diffId;
+            this.size = size;
+        }
+    }
+
+    /**
+     * 被占用的缓存层，关闭后才可能被淘汰
+     */
+    public class CachedLayer implements Closeable {
+        private final String digest;
+        private final String diffId;
+        private final long size;
+        private final Path path;
+        private FileChannel channel;
+        private boolean closed;
+
+        CachedLayer(String digest, String diffId, long size, Path path) {
+            this.digest = digest;
+            this.diffId = diffId;
+            this.size = size;
+            this.path = path;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        public String getDiffId() {
+            return diffId;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * 层内容的只读通道，随本对象关闭
+         */
+        public synchronized FileChannel getChannel() throws IOException {
+            if (channel == null) {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+            }
+            return channel;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } finally {
+                unpin(digest);
+            }
+        }
+    }
+}
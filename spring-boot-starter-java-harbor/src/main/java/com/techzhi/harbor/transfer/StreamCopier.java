@@ -0,0 +1,296 @@
+package com.techzhi.harbor.transfer;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 镜像tar流拷贝工具
+ * 两端都是文件时使用 FileChannel.transferTo/transferFrom 由内核拷贝；一端是文件时经 {@link DirectBufferPool}
+ * 中的直接缓冲区读写；两端都只能按字节数组读写时使用池化的堆数组。
+ * 所有缓冲区都取自共享池，并发保存/加载时不再每次分配1MB数组
+ *
+ * @author techzhi
+ */
+public final class StreamCopier {
+
+    private static final int MAX_POOLED_ARRAYS = 32;
+
+    private static final BlockingQueue<byte[]> ARRAYS = new ArrayBlockingQueue<>(MAX_POOLED_ARRAYS);
+
+    private StreamCopier() {
+    }
+
+    /**
+     * 将输入流写入文件（覆盖已有文件），返回写入的字节数
+     */
+    public static long copy(InputStream in, Path target) throws IOException {
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            return copy(in, out);
+        }
+    }
+
+    /**
+     * 将输入流写入文件通道的当前位置；输入为文件流时由内核直接拷贝
+     */
+    public static long copy(InputStream in, FileChannel out) throws IOException {
+        if (in instanceof FileInputStream) {
+            FileChannel source = ((FileInputStream) in).getChannel();
+            long start = out.position();
+            long count = transfer(source, out, start);
+            out.position(start + count);
+            return count;
+        }
+        DirectBufferPool pool = DirectBufferPool.getDefault();
+        ByteBuffer buffer = pool.acquire();
+        byte[] array = acquireArray();
+        try {
+            long total = 0;
+            int read;
+            while ((read = fill(in, array)) > 0) {
+                buffer.clear();
+                buffer.put(array, 0, read);
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                total += read;
+            }
+            return total;
+        } finally {
+            releaseArray(array);
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * 将文件全部内容写入输出流；输出为文件流时由内核直接拷贝
+     */
+    public static long copy(Path source, OutputStream out) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            if (out instanceof FileOutputStream) {
+                out.flush();
+                FileChannel target = ((FileOutputStream) out).getChannel();
+                long count = in.size();
+                long position = 0;
+                while (position < count) {
+                    position += in.transferTo(position, count - position, target);
+                }
+                return count;
+            }
+            DirectBufferPool pool = DirectBufferPool.getDefault();
+            ByteBuffer buffer = pool.acquire();
+            byte[] array = acquireArray();
+            try {
+                long total = 0;
+                while (true) {
+                    buffer.clear();
+                    if (in.read(buffer) < 0) {
+                        return total;
+                    }
+                    buffer.flip();
+                    int length = buffer.remaining();
+                    buffer.get(array, 0, length);
+                    out.write(array, 0, length);
+                    total += length;
+                }
+            } finally {
+                releaseArray(array);
+                pool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * 在两个流之间拷贝，返回拷贝的字节数；两端都是文件流时由内核直接拷贝
+     */
+    public static long copy(InputStream in, OutputStream out) throws IOException {
+        if (in instanceof FileInputStream && out instanceof FileOutputStream) {
+            out.flush();
+            FileChannel target = ((FileOutputStream) out).getChannel();
+            long count = transfer(((FileInputStream) in).getChannel(), target, target.position());
+            target.position(target.position() + count);
+            return count;
+        }
+        byte[] array = acquireArray();
+        try {
+            long total = 0;
+            int read;
+            while ((read = in.read(array)) != -1) {
+                out.write(array, 0, read);
+                total += read;
+            }
+            return total;
+        } finally {
+            releaseArray(array);
+        }
+    }
+
+    /**
+     * 打开文件的输入流，读缓冲为池中的直接缓冲区，关闭时归还；支持mark/reset
+     */
+    public static InputStream openInputStream(Path path) throws IOException {
+        return new PooledFileInputStream(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    private static long transfer(FileChannel source, FileChannel target, long targetPosition) throws IOException {
+        long total = 0;
+        long transferred;
+        while ((transferred = target.transferFrom(source, targetPosition + total, Long.MAX_VALUE)) > 0) {
+            total += transferred;
+        }
+        return total;
+    }
+
+    /**
+     * 读满数组或读到流末尾，合并小块读取以减少写入系统调用
+     */
+    private static int fill(InputStream in, byte[] array) throws IOException {
+        int length = 0;
+        while (length < array.length) {
+            int read = in.read(array, length, array.length - length);
+            if (read == -1) {
+                break;
+            }
+            length += read;
+        }
+        return length;
+    }
+
+    private static byte[] acquireArray() {
+        byte[] array = ARRAYS.poll();
+        return array != null ? array : new byte[DirectBufferPool.DEFAULT_BUFFER_SIZE];
+    }
+
+    private static void releaseArray(byte[] array) {
+        ARRAYS.offer(array);
+    }
+
+    /**
+     * 以池化直接缓冲区为读缓冲的文件输入流，FileChannel可定位，mark/reset不受缓冲区大小限制
+     */
+    private static final class PooledFileInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private ByteBuffer buffer;
+        private long mark = -1;
+
+        PooledFileInputStream(FileChannel channel) {
+            this.channel = channel;
+            this.buffer = DirectBufferPool.getDefault().acquire();
+            this.buffer.limit(0);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            if (count <= 0) {
+                return 0;
+            }
+            long position = position();
+            long target = Math.min(position + count, channel.size());
+            seek(target);
+            return target - position;
+        }
+
+        @Override
+        public int available() throws IOException {
+            ensureOpen();
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, channel.size() - position()));
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            try {
+                mark = position();
+            } catch (IOException e) {
+                mark = -1;
+            }
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            if (mark < 0) {
+                throw new IOException("Mark not set");
+            }
+            seek(mark);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (buffer == null) {
+                return;
+            }
+            DirectBufferPool.getDefault().release(buffer);
+            buffer = null;
+            channel.close();
+        }
+
+        private boolean fill() throws IOException {
+            ensureOpen();
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+            buffer.clear();
+            int read;
+            do {
+                read = channel.read(buffer);
+            } while (read == 0);
+            buffer.flip();
+            return read > 0;
+        }
+
+        private long position() throws IOException {
+            ensureOpen();
+            return channel.position() - buffer.remaining();
+        }
+
+        private void seek(long target) throws IOException {
+            long bufferStart = channel.position() - buffer.limit();
+            if (target >= bufferStart && target <= channel.position()) {
+                buffer.position((int) (target - bufferStart));
+            } else {
+                channel.position(target);
+                buffer.clear();
+                buffer.limit(0);
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (buffer == null) {
+                throw new IOException("Stream closed");
+            }
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.techzhi.harbor.transfer;
+
+import com.techzhi.harbor.archive.ArchiveCompression;
+import com.techzhi.harbor.config.HarborProperties;
+import com.techzhi.harbor.exception.HarborException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 传输引擎选择器
+ * 按镜像大小分档，为每档记录各引擎实测吞吐量的指数滑动平均；每个任务在可用且支持该压缩格式的引擎中，
+ * 先尝试该档尚无测量值的引擎，其余按吞吐量从高到低排列，并每隔若干个任务让测量最旧的引擎重新测一次。
+ * 推送失败时由下一个引擎接着推送，并让失败引擎的可用性缓存立即过期，下一个任务前重新探测；
+ * 失败可能源于输入本身（损坏的tar包、项目不存在、认证失败），不直接把引擎判为不可用
+ *
+ * @author techzhi
+ */
+public class TransferEngineSelector {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransferEngineSelector.class);
+
+    private final Map<String, EngineState> engines = new LinkedHashMap<>();
+    private final long availabilityTtl;
+    private final double smoothing;
+    private final long[] sizeBuckets;
+    private final int explorationInterval;
+    private final long[] bucketJobs;
+
+    public TransferEngineSelector(List<? extends ImageTransferEngine> engines, HarborProperties properties) {
+        HarborProperties.Engine config = properties.getEngine();
+        this.availabilityTtl = config.getAvailabilityTtl();
+        this.smoothing = config.getSmoothing();
+        this.explorationInterval = config.getExplorationInterval();
+        List<Long> buckets = new ArrayList<>(config.getSizeBuckets());
+        Collections.sort(buckets);
+        this.sizeBuckets = new long[buckets.size()];
+        for (int i = 0; i < buckets.size(); i++) {
+            sizeBuckets[i] = buckets.get(i);
+        }
+        this.bucketJobs = new long[sizeBuckets.length + 1];
+
+        // 按配置顺序排列，未列出的引擎不参与选择
+        for (String name : config.getOrder()) {
+            for (ImageTransferEngine engine : engines) {
+                if (engine.getName().equals(name) && !this.engines.containsKey(name)) {
+                    this.engines.put(name, new EngineState(engine, bucketJobs.length));
+                }
+            }
+        }
+        if (this.engines.isEmpty()) {
+            throw new HarborException("No image transfer engine enabled, check harbor.engine.order");
+        }
+        logger.info("Image transfer engines: {}", this.engines.keySet());
+    }
+
+    /**
+     * 选择引擎推送tar包，失败时依次改用其他引擎
+     */
+    public TransferResult push(Path tarFile, String projectName, String imageName, String tag) {
+        long size;
+        ArchiveCompression compression;
+        try {
+            size = Files.size(tarFile);
+            try (InputStream in = StreamCopier.openInputStream(tarFile)) {
+                compression = ArchiveCompression.detect(in);
+            }
+        } catch (IOException e) {
+            throw new HarborException("Failed to read image archive: " + tarFile, e);
+        }
+
+        List<ImageTransferEngine> candidates = select(size, compression);
+        if (candidates.isEmpty()) {
+            throw new HarborException("No available transfer engine for " + tarFile + " (" + compression + ")");
+        }
+        RuntimeException lastError = null;
+        int attempts = 0;
+        for (ImageTransferEngine engine : candidates) {
+            attempts++;
+            long startTime = System.currentTimeMillis();
+            try {
+                String image = engine.push(tarFile, projectName, imageName, tag);
+                long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+                recordSuccess(engine.getName(), size, elapsed);
+                TransferResult result = new TransferResult(engine.getName(), image, size, elapsed, attempts);
+                logger.info("Pushed {} via {} engine: {}", tarFile, engine.getName(), result);
+                return result;
+            } catch (RuntimeException e) {
+                recordFailure(engine.getName());
+                logger.warn("Transfer engine {} failed for {} after {} ms, trying next engine: {}",
+                        engine.getName(), tarFile, System.currentTimeMillis() - startTime, e.getMessage());
+                lastError = e;
+            }
+        }
+        throw new HarborException("All transfer engines failed for " + tarFile + ": " + lastError.getMessage(),
+                lastError);
+    }
+
+    /**
+     * 按选择顺序返回适合该大小和压缩格式的可用引擎
+     */
+    public List<ImageTransferEngine> select(long size, ArchiveCompression compression) {
+        int bucket = bucketOf(size);
+        List<EngineState> candidates = new ArrayList<>();
+        for (EngineState state : engines.values()) {
+            if (state.engine.supports(compression) && isAvailable(state)) {
+                candidates.add(state);
+            }
+        }
+
+        List<ImageTransferEngine> ordered = new ArrayList<>();
+        synchronized (this) {
+            List<EngineState> measured = new ArrayList<>();
+            for (EngineState state : candidates) {
+                if (state.samples[bucket] == 0) {
+                    ordered.add(state.engine);
+                } else {
+                    measured.add(state);
+                }
+            }
+            measured.sort(Comparator.comparingDouble((EngineState state) -> state.throughput[bucket]).reversed());
+            long jobs = ++bucketJobs[bucket];
+            if (ordered.isEmpty() && measured.size() > 1 && explorationInterval > 0 && jobs % explorationInterval == 0) {
+                // 主机负载和网络会变化：定期让测量最旧的引擎重新测一次
+                EngineState stalest = Collections.min(measured,
+                        Comparator.comparingLong((EngineState state) -> state.lastSample[bucket]));
+                measured.remove(stalest);
+                measured.add(0, stalest);
+            }
+            for (EngineState state : measured) {
+                ordered.add(state.engine);
+            }
+        }
+        return ordered;
+    }
+
+    public synchronized List<EngineStatistics> getStatistics() {
+        List<EngineStatistics> statistics = new ArrayList<>();
+        for (EngineState state : engines.values()) {
+            List<Double> throughput = new ArrayList<>();
+            List<Integer> samples = new ArrayList<>();
+            for (int i = 0; i < bucketJobs.length; i++) {
+                throughput.add(state.throughput[i]);
+                samples.add(state.samples[i]);
+            }
+            statistics.add(new EngineStatistics(state.engine.getName(), state.available, state.completed,
+                    state.failed, throughput, samples));
+        }
+        return statistics;
+    }
+
+    private boolean isAvailable(EngineState state) {
+        synchronized (this) {
+            if (state.available != null && System.currentTimeMillis() - state.checkedAt < availabilityTtl) {
+                return state.available;
+            }
+        }
+        boolean available;
+        try {
+            available = state.engine.isAvailable();
+        } catch (RuntimeException e) {
+            logger.debug("Availability check of transfer engine {} failed", state.engine.getName(), e);
+            available = false;
+        }
+        synchronized (this) {
+            if (state.available == null || state.available != available) {
+                logger.info("Transfer engine {} is {}", state.engine.getName(), available ? "available" : "unavailable");
+            }
+            state.available = available;
+            state.checkedAt = System.currentTimeMillis();
+        }
+        return available;
+    }
+
+    private synchronized void recordSuccess(String name, long size, long elapsedMillis) {
+        EngineState state = engines.get(name);
+        int bucket = bucketOf(size);
+        double bytesPerSecond = size * 1000.0 / elapsedMillis;
+        state.throughput[bucket] = state.samples[bucket] == 0 ? bytesPerSecond
+                : smoothing * bytesPerSecond + (1 - smoothing) * state.throughput[bucket];
+        state.samples[bucket]++;
+        state.lastSample[bucket] = System.currentTimeMillis();
+        state.completed++;
+    }
+
+    private synchronized void recordFailure(String name) {
+        EngineState state = engines.get(name);
+        state.failed++;
+        state.checkedAt = 0;
+    }
+
+    private int bucketOf(long size) {
+        int bucket = 0;
+        while (bucket < sizeBuckets.length && size >= sizeBuckets[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    private static class EngineState {
+        private final ImageTransferEngine engine;
+        private final double[] throughput;
+        private final int[] samples;
+        private final long[] lastSample;
+        private Boolean available;
+        private long checkedAt;
+        private long completed;
+        private long failed;
+
+        EngineState(ImageTransferEngine engine, int buckets) {
+            this.engine = engine;
+            this.throughput = new double[buckets];
+            this.samples = new int[buckets];
+            this.lastSample = new long[buckets];
+        }
+    }
+
+    /**
+     * 一次推送的结果
+     */
+    public static class TransferResult {
+        private final String engine;
+        private final String image;
+        private final long bytes;
+        private final long elapsedMillis;
+        private final int attempts;
+
+        TransferResult(String engine, String image, long bytes, long elapsedMillis, int attempts) {
+            this.engine = engine;
+            this.image = image;
+            this.bytes = bytes;
+            this.elapsedMillis = elapsedMillis;
+            this.attempts = attempts;
+        }
+
+        /**
+         * 完成推送的引擎
+         */
+        public String getEngine() {
+            return engine;
+        }
+
+        public String getImage() {
+            return image;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * 尝试的引擎数，大于1表示前面的引擎失败
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        @Override
+        public String toString() {
+            return "TransferResult{" +
+                    "engine='" + engine + '\'' +
+                    ", image='" + image + '\'' +
+                    ", bytes=" + bytes +
+                    ", elapsedMillis=" + elapsedMillis +
+                    ", attempts=" + attempts +
+                    '}';
+        }
+    }
+
+    /**
+     * 引擎统计
+     */
+    public static class EngineStatistics {
+        private final String name;
+        private final Boolean available;
+        private final long completed;
+        private final long failed;
+        private final List<Double> throughput;
+        private final List<Integer> samples;
+
+        EngineStatistics(String name, Boolean available, long completed, long failed, List<Double> throughput,
+                         List<Integer> samples) {
+            this.name = name;
+            this.available = available;
+            this.completed = completed;
+            this.failed = failed;
+            this.throughput = throughput;
+            this.samples = samples;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 最近一次探测或推送得到的可用性，尚未探测时为null
+         */
+        public Boolean getAvailable() {
+            return available;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * 各大小档的吞吐量滑动平均（字节/秒），未测量的档为0
+         */
+        public List<Double> getThroughput() {
+            return throughput;
+        }
+
+        /**
+         * 各大小档的测量次数
+         */
+        public List<Integer> getSamples() {
+            return samples;
+        }
+
+        @Override
+        public String toString() {
+            return "EngineStatistics{" +
+                    "name='" + name + '\'' +
+                    ", available=" + available +
+                    ", completed=" + completed +
+                    ", failed=" + failed +
+                    ", throughput=" + throughput +
+                    ", samples=" + samples +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package com.techzhi.harbor.transfer;
+
+import com.techzhi.harbor.config.HarborProperties;
+import com.techzhi.harbor.exception.HarborException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按字节加权的镜像传输调度器
+ * 任务按预估字节数占用全局在途字节预算，高优先级先于低优先级，同一优先级内按项目轮转，
+ * 预算不足时允许较小的任务先执行，大任务等待超过starvationTimeout后暂停接纳新任务直到其可以执行
+ *
+ * @author techzhi
+ */
+public class TransferScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransferScheduler.class);
+
+    private final int maxConcurrentJobs;
+    private final long maxInFlightBytes;
+    private final long starvationTimeoutNanos;
+    private final ExecutorService executor;
+
+    /**
+     * 各优先级下按项目分组的等待队列，LinkedHashMap的顺序即项目轮转顺序
+     */
+    private final Map<Priority, LinkedHashMap<String, Deque<Job<?>>>> queues = new EnumMap<>(Priority.class);
+
+    private int queuedJobs;
+    private long queuedBytes;
+    private int runningJobs;
+    private long inFlightBytes;
+    private long admittedJobs;
+    private long completedJobs;
+    private long failedJobs;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+    private boolean shutdown;
+
+    public TransferScheduler(HarborProperties properties) {
+        HarborProperties.Transfer transfer = properties.getTransfer();
+        this.maxConcurrentJobs = Math.max(1, transfer.getMaxConcurrentJobs());
+        this.maxInFlightBytes = Math.max(1, transfer.getMaxInFlightBytes());
+        this.starvationTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, transfer.getStarvationTimeout()));
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new LinkedHashMap<>());
+        }
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "harbor-transfer-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 以普通优先级提交传输任务
+     */
+    public <T> CompletableFuture<T> submit(String project, long estimatedBytes, Callable<T> task) {
+        return submit(project, estimatedBytes, Priority.NORMAL, task);
+    }
+
+    /**
+     * 提交传输任务
+     *
+     * @param project        所属项目，用于项目间轮转
+     * @param estimatedBytes 预估传输字节数（通常为tar文件大小），占用在途字节预算
+     * @param priority       优先级
+     * @param task           传输任务
+     */
+    public <T> CompletableFuture<T> submit(String project, long estimatedBytes, Priority priority, Callable<T> task) {
+        Job<T> job = new Job<>(project == null ? "" : project, Math.max(0, estimatedBytes),
+                priority == null ? Priority.NORMAL : priority, task);
+        synchronized (this) {
+            if (shutdown) {
+                throw new HarborException("Transfer scheduler has been shut down");
+            }
+            queues.get(job.priority).computeIfAbsent(job.project, key -> new ArrayDeque<>()).addLast(job);
+            queuedJobs++;
+            queuedBytes += job.bytes;
+            logger.debug("Queued transfer job: project={}, bytes={}, priority={}, queueDepth={}",
+                    job.project, job.bytes, job.priority, queuedJobs);
+            dispatch();
+        }
+        return job.future;
+    }
+
+    /**
+     * 排队中的任务数
+     */
+    public synchronized int getQueueDepth() {
+        return queuedJobs;
+    }
+
+    /**
+     * 指定项目排队中的任务数
+     */
+    public synchronized int getQueueDepth(String project) {
+        int depth = 0;
+        for (LinkedHashMap<String, Deque<Job<?>>> byProject : queues.values()) {
+            Deque<Job<?>> jobs = byProject.get(project);
+            if (jobs != null) {
+                depth += jobs.size();
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * 当前调度统计快照
+     */
+    public synchronized SchedulerStatistics getStatistics() {
+        long now = System.nanoTime();
+        long oldestWaitNanos = 0;
+        for (LinkedHashMap<String, Deque<Job<?>>> byProject : queues.values()) {
+            for (Deque<Job<?>> jobs : byProject.values()) {
+                for (Job<?> job : jobs) {
+                    oldestWaitNanos = Math.max(oldestWaitNanos, now - job.enqueuedAt);
+                }
+            }
+        }
+        return new SchedulerStatistics(queuedJobs, queuedBytes, runningJobs, inFlightBytes, completedJobs, failedJobs,
+                admittedJobs == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / admittedJobs),
+                TimeUnit.NANOSECONDS.toMillis(maxWaitNanos), TimeUnit.NANOSECONDS.toMillis(oldestWaitNanos));
+    }
+
+    /**
+     * 停止调度：排队中的任务以异常结束，已在执行的任务继续完成
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+            for (LinkedHashMap<String, Deque<Job<?>>> byProject : queues.values()) {
+                for (Deque<Job<?>> jobs : byProject.values()) {
+                    for (Job<?> job : jobs) {
+                        job.future.completeExceptionally(new HarborException("Transfer scheduler has been shut down"));
+                    }
+                }
+                byProject.clear();
+            }
+            queuedJobs = 0;
+            queuedBytes = 0;
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * 在并发数和字节预算允许的范围内接纳排队任务，调用方须持有锁
+     */
+    private void dispatch() {
+        while (!shutdown && runningJobs < maxConcurrentJobs) {
+            Job<?> job = selectNext();
+            if (job == null) {
+                return;
+            }
+            long waited = System.nanoTime() - job.enqueuedAt;
+            queuedJobs--;
+            queuedBytes -= job.bytes;
+            runningJobs++;
+            inFlightBytes += job.bytes;
+            admittedJobs++;
+            totalWaitNanos += waited;
+            maxWaitNanos = Math.max(maxWaitNanos, waited);
+            logger.debug("Admitted transfer job: project={}, bytes={}, waited={}ms, inFlightBytes={}",
+                    job.project, job.bytes, TimeUnit.NANOSECONDS.toMillis(waited), inFlightBytes);
+            executor.execute(() -> run(job));
+        }
+    }
+
+    /**
+     * 选出下一个可执行任务并从队列移除；存在饥饿任务且其放不进预算时返回null
+     */
+    private Job<?> selectNext() {
+        long now = System.nanoTime();
+        for (Priority priority : Priority.values()) {
+            LinkedHashMap<String, Deque<Job<?>>> byProject = queues.get(priority);
+            for (Map.Entry<String, Deque<Job<?>>> entry : byProject.entrySet()) {
+                Iterator<Job<?>> iterator = entry.getValue().iterator();
+                while (iterator.hasNext()) {
+                    Job<?> job = iterator.next();
+                    if (job.future.isDone()) {
+                        // 排队期间已被调用方取消
+                        iterator.remove();
+                        queuedJobs--;
+                        queuedBytes -= job.bytes;
+                        continue;
+                    }
+                    if (fits(job)) {
+                        iterator.remove();
+                        rotate(byProject, entry.getKey());
+                        return job;
+                    }
+                    if (now - job.enqueuedAt >= starvationTimeoutNanos) {
+                        return null;
+                    }
+                }
+            }
+            byProject.values().removeIf(Deque::isEmpty);
+        }
+        return null;
+    }
+
+    private boolean fits(Job<?> job) {
+        return runningJobs == 0 || inFlightBytes + job.bytes <= maxInFlightBytes;
+    }
+
+    /**
+     * 被选中的项目移到轮转顺序末尾
+     */
+    private static void rotate(LinkedHashMap<String, Deque<Job<?>>> byProject, String project) {
+        Deque<Job<?>> jobs = byProject.remove(project);
+        if (!jobs.isEmpty()) {
+            byProject.put(project, jobs);
+        }
+    }
+
+    /**
+     * 执行任务；先释放预算、更新统计并派发后续任务，再完成future，
+     * 被唤醒的调用方看到的统计和预算已包含本任务
+     */
+    private <T> void run(Job<T> job) {
+        T result = null;
+        Throwable error = null;
+        try {
+            result = job.task.call();
+        } catch (Throwable e) {
+            error = e;
+        }
+        synchronized (this) {
+            runningJobs--;
+            inFlightBytes -= job.bytes;
+            completedJobs++;
+            if (error != null) {
+                failedJobs++;
+            }
+            dispatch();
+        }
+        if (error != null) {
+            job.future.completeExceptionally(error);
+        } else {
+            job.future.complete(result);
+        }
+    }
+
+    /**
+     * 任务优先级
+     */
+    public enum Priority {
+        HIGH, NORMAL, LOW
+    }
+
+    private static class Job<T> {
+        private final String project;
+        private final long bytes;
+        private final Priority priority;
+        private final Callable<T> task;
+        private final long enqueuedAt = System.nanoTime();
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Job(String project, long bytes, Priority priority, Callable<T> task) {
+            this.project = project;
+            this.bytes = bytes;
+            this.priority = priority;
+            this.task = task;
+        }
+    }
+
+    /**
+     * 调度统计
+     */
+    public static class SchedulerStatistics {
+        private final int queuedJobs;
+        private final long queuedBytes;
+        private final int runningJobs;
+        private final long inFlightBytes;
+        private final long completedJobs;
+        private final long failedJobs;
+        private final long averageWaitMillis;
+        private final long maxWaitMillis;
+        private final long oldestWaitMillis;
+
+        SchedulerStatistics(int queuedJobs, long queuedBytes, int runningJobs, long inFlightBytes, long completedJobs,
+                            long failedJobs, long averageWaitMillis, long maxWaitMillis, long oldestWaitMillis) {
+            this.queuedJobs = queuedJobs;
+            this.queuedBytes = queuedBytes;
+            this.runningJobs = runningJobs;
+            this.inFlightBytes = inFlightBytes;
+            this.completedJobs = completedJobs;
+            this.failedJobs = failedJobs;
+            this.averageWaitMillis = averageWaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+            this.oldestWaitMillis = oldestWaitMillis;
+        }
+
+        public int getQueuedJobs() {
+            return queuedJobs;
+        }
+
+        public long getQueuedBytes() {
+            return queuedBytes;
+        }
+
+        public int getRunningJobs() {
+            return runningJobs;
+        }
+
+        public long getInFlightBytes() {
+            return inFlightBytes;
+        }
+
+        public long getCompletedJobs() {
+            return completedJobs;
+        }
+
+        public long getFailedJobs() {
+            return failedJobs;
+        }
+
+        /**
+         * 已接纳任务的平均排队时间
+         */
+        public long getAverageWaitMillis() {
+            return averageWaitMillis;
+        }
+
+        public long getMaxWaitMillis() {
+            return maxWaitMillis;
+        }
+
+        /**
+         * 当前排队最久的任务已等待的时间
+         */
+        public long getOldestWaitMillis() {
+            return oldestWaitMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("SchedulerStatistics{queued=%d (%d bytes), running=%d (%d bytes), completed=%d, "
+                            + "failed=%d, avgWait=%dms, maxWait=%dms, oldestWait=%dms}",
+                    queuedJobs, queuedBytes, runningJobs, inFlightBytes, completedJobs, failedJobs,
+                    averageWaitMillis, maxWaitMillis, oldestWaitMillis);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.techzhi.harbor.transfer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * blob分块上传会话的本地持久化存储
+ * 每个（仓库, 摘要）对应一个属性文件，记录上传地址和已确认的偏移量，
+ * 网络中断或JVM重启后可据此从最后确认的字节继续上传
+ *
+ * @author techzhi
+ */
+public class UploadSessionStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadSessionStore.class);
+
+    private final Path directory;
+
+    public UploadSessionStore(Path directory) {
+        this.directory = directory;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * 读取上传会话，不存在或已损坏时返回null
+     */
+    public synchronized UploadSession load(String repository, String digest) {
+        Path file = fileFor(repository, digest);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Properties values = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            values.load(in);
+            return new UploadSession(repository, digest, values.getProperty("location"),
+                    Long.parseLong(values.getProperty("offset", "0")));
+        } catch (Exception e) {
+            logger.warn("Discarding unreadable upload session: {}", file, e);
+            remove(repository, digest);
+            return null;
+        }
+    }
+
+    /**
+     * 保存上传会话，先写临时文件再原子替换，避免进程中断留下半个文件
+     */
+    public synchronized void save(UploadSession session) {
+        Path file = fileFor(session.getRepository(), session.getDigest());
+        Properties values = new Properties();
+        values.setProperty("repository", session.getRepository());
+        values.setProperty("digest", session.getDigest());
+        values.setProperty("location", session.getLocation());
+        values.setProperty("offset", String.valueOf(session.getOffset()));
+        try {
+            Files.createDirectories(directory);
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                values.store(out, null);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // 持久化失败只影响断点续传，不影响本次上传
+            logger.warn("Failed to persist upload session: {}", file, e);
+        }
+    }
+
+    /**
+     * 删除上传会话
+     */
+    public synchronized void remove(String repository, String digest) {
+        try {
+            Files.deleteIfExists(fileFor(repository, digest));
+        } catch (IOException e) {
+            logger.debug("Failed to remove upload session for {}@{}", repository, digest, e);
+        }
+    }
+
+    private Path fileFor(String repository, String digest) {
+        return directory.resolve(repository.replaceAll("[^a-zA-Z0-9._-]", "_") + "_"
+                + digest.replace(':', '_') + ".session");
+    }
+
+    /**
+     * 上传会话：上传地址和Registry已确认接收的字节数
+     */
+    public static class UploadSession {
+        private final String repository;
+        private final String digest;
+        private final String location;
+        private final long offset;
+
+        public UploadSession(String repository, String digest, String location, long offset) {
+            this.repository = repository;
+            this.digest = digest;
+            this.location = location;
+            this.offset = offset;
+        }
+
+        public String getRepository() {
+            return repository;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+    }
+}
@@ -1,13 +1,20 @@
 package com.techzhi.harbor.util;
 
-import com.github.dockerjava.api.model.Image;
+import com.techzhi.harbor.client.PageIterator;
+import com.techzhi.harbor.exception.HarborException;
 import com.techzhi.harbor.model.HarborImage;
 import com.techzhi.harbor.model.HarborTag;
 import com.techzhi.harbor.service.DockerImageService;
 import com.techzhi.harbor.service.HarborImageService;
+import com.techzhi.harbor.service.RegistryImageService;
+import com.techzhi.harbor.transfer.JobJournal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -22,32 +29,107 @@ public class HarborUtil {
 
     private final HarborImageService harborImageService;
     private final DockerImageService dockerImageService;
+    private final RegistryImageService registryImageService;
+    private final JobJournal jobJournal;
 
+    /**
+     * 镜像同步和导出使用DockerImageService中的RegistryImageService
+     */
     public HarborUtil(HarborImageService harborImageService, DockerImageService dockerImageService) {
+        this(harborImageService, dockerImageService,
+                dockerImageService != null ? dockerImageService.getRegistryImageService() : null);
+    }
+
+    public HarborUtil(HarborImageService harborImageService, DockerImageService dockerImageService,
+                      RegistryImageService registryImageService) {
+        this(harborImageService, dockerImageService, registryImageService, null);
+    }
+
+    /**
+     * @param jobJournal 批量任务日志，为null时批量导出不记录进度
+     */
+    public HarborUtil(HarborImageService harborImageService, DockerImageService dockerImageService,
+                      RegistryImageService registryImageService, JobJournal jobJournal) {
         this.harborImageService = harborImageService;
         this.dockerImageService = dockerImageService;
+        this.registryImageService = registryImageService;
+        this.jobJournal = jobJournal;
     }
 
     /**
-     * 完整的镜像同步操作：从源Harbor下载镜像并上传到目标Harbor
+     * 镜像同步：在Harbor端将镜像从源项目复制到目标项目，镜像数据不经过本机
+     * 源仓库中的blob直接跨仓库挂载到目标仓库，再以相同标签上传原清单
      */
-    public void syncImage(String sourceProject, String targetProject, String imageName, String tag) {
+    public RegistryImageService.PushResult syncImage(String sourceProject, String targetProject, String imageName,
+                                                     String tag) {
         logger.info("Starting image sync: {}/{}: {} -> {}", sourceProject, imageName, tag, targetProject);
-        
+
         try {
-            // 1. 从源项目下载镜像
-            dockerImageService.pullImage(sourceProject, imageName, tag);
-            
-            // 2. 重新标记镜像到目标项目
-            dockerImageService.pushImage(targetProject, imageName, tag);
-            
-            logger.info("Successfully synced image: {}/{}: {} -> {}", sourceProject, imageName, tag, targetProject);
+            RegistryImageService.PushResult result = requireRegistryImageService()
+                    .copyImage(sourceProject, imageName, tag, targetProject);
+            logger.info("Successfully synced image: {}/{}: {} -> {} ({} bytes mounted or existing, {} bytes copied)",
+                    sourceProject, imageName, tag, targetProject, result.getBytesSkipped(), result.getBytesSent());
+            return result;
         } catch (Exception e) {
             logger.error("Failed to sync image: {}/{}: {} -> {}", sourceProject, imageName, tag, targetProject, e);
             throw e;
         }
     }
 
+    /**
+     * 批量同步：将源项目中所有镜像的所有标签复制到目标项目
+     * 单个镜像失败不影响其余镜像，结果中以 "FAILED: " 开头标记
+     *
+     * @return 每个标签的同步结果（目标镜像地址或失败信息）
+     */
+    public List<String> syncProject(String sourceProject, String targetProject) {
+        logger.info("Starting project sync: {} -> {}", sourceProject, targetProject);
+        RegistryImageService service = requireRegistryImageService();
+
+        List<String> results = new ArrayList<>();
+        int successCount = 0;
+        int failureCount = 0;
+        long bytesSkipped = 0;
+        long bytesSent = 0;
+
+        for (HarborImage image : harborImageService.listImages(sourceProject)) {
+            String imageName = stripProject(sourceProject, image.getName());
+            try {
+                for (RegistryImageService.PushResult result : service.copyRepository(sourceProject, imageName,
+                        targetProject)) {
+                    results.add(result.getImage());
+                    successCount++;
+                    bytesSkipped += result.getBytesSkipped();
+                    bytesSent += result.getBytesSent();
+                }
+            } catch (Exception e) {
+                failureCount++;
+                logger.error("Failed to sync repository: {}/{} -> {}", sourceProject, imageName, targetProject, e);
+                results.add("FAILED: " + sourceProject + "/" + imageName + " - " + e.getMessage());
+            }
+        }
+
+        logger.info("Project sync completed: {} -> {}, {} tags synced, {} repositories failed, "
+                        + "{} bytes mounted or existing, {} bytes copied",
+                sourceProject, targetProject, successCount, failureCount, bytesSkipped, bytesSent);
+        return results;
+    }
+
+    /**
+     * Harbor返回的仓库名带项目前缀
+     */
+    private static String stripProject(String projectName, String repositoryName) {
+        return repositoryName.startsWith(projectName + "/")
+                ? repositoryName.substring(projectName.length() + 1) : repositoryName;
+    }
+
+    private RegistryImageService requireRegistryImageService() {
+        if (registryImageService == null) {
+            throw new HarborException("Image sync requires a RegistryImageService");
+        }
+        return registryImageService;
+    }
+
     /**
      * 批量下载项目中的所有镜像
      */
@@ -79,10 +161,15 @@ public class HarborUtil {
 
     /**
      * 批量导出项目中的所有镜像为tar文件
+     * 配置了批量任务日志时，进程中断后以相同参数重新调用会跳过已导出且文件仍存在的标签
      */
     public void exportAllImagesInProject(String projectName, String exportDir) {
         logger.info("Starting to export all images in project: {} to directory: {}", projectName, exportDir);
-        
+
+        JobJournal.Job job = jobJournal == null ? null : jobJournal.openJob(JobJournal.jobId("export",
+                Arrays.asList(projectName, Paths.get(exportDir).toAbsolutePath().toString())));
+        List<String> itemKeys = new ArrayList<>();
+        int resumed = 0;
         try {
             List<HarborImage> images = harborImageService.listImages(projectName);
             
@@ -90,25 +177,67 @@ public class HarborUtil {
                 List<HarborTag> tags = harborImageService.listImageTags(projectName, image.getName());
                 
                 for (HarborTag tag : tags) {
+                    String itemKey = image.getName() + ":" + tag.getName();
+                    itemKeys.add(itemKey);
+                    if (job != null && job.isCompleted(itemKey) && Files.exists(Paths.get(job.getResult(itemKey)))) {
+                        resumed++;
+                        continue;
+                    }
                     try {
                         String fileName = String.format("%s_%s_%s.tar", projectName, image.getName(), tag.getName())
                                 .replaceAll("[^a-zA-Z0-9._-]", "_");
                         String filePath = exportDir + "/" + fileName;
-                        
+
+                        if (job != null) {
+                            job.started(itemKey);
+                        }
                         dockerImageService.saveImageToFile(projectName, image.getName(), tag.getName(), filePath);
+                        if (job != null) {
+                            job.completed(itemKey, filePath);
+                        }
                         logger.info("Successfully exported image: {}/{}: {} to {}", 
                                 projectName, image.getName(), tag.getName(), filePath);
                     } catch (Exception e) {
+                        if (job != null) {
+                            job.failed(itemKey, String.valueOf(e.getMessage()));
+                        }
                         logger.error("Failed to export image: {}/{}: {}", 
                                 projectName, image.getName(), tag.getName(), e);
                     }
                 }
             }
             
-            logger.info("Completed exporting all images in project: {}", projectName);
+            logger.info("Completed exporting all images in project: {} ({} already exported before restart)",
+                    projectName, resumed);
         } catch (Exception e) {
             logger.error("Failed to export all images in project: {}", projectName, e);
             throw e;
+        } finally {
+            if (job != null) {
+                job.finish(itemKeys);
+            }
+        }
+    }
+
+    /**
+     * 将项目中所有镜像导出为一个OCI镜像布局目录，各镜像共用的层只保存一份，标签并行导出
+     */
+    public RegistryImageService.ExportResult exportProjectLayout(String projectName, String exportDir) {
+        logger.info("Starting OCI layout export of project: {} to directory: {}", projectName, exportDir);
+
+        try {
+            List<String> imageNames = new ArrayList<>();
+            for (HarborImage image : harborImageService.listImages(projectName)) {
+                imageNames.add(stripProject(projectName, image.getName()));
+            }
+            RegistryImageService.ExportResult result = requireRegistryImageService()
+                    .exportLayout(projectName, imageNames, Paths.get(exportDir));
+            logger.info("Completed OCI layout export of project: {} ({} images, {} failures)",
+                    projectName, result.getImageCount(), result.getFailures().size());
+            return result;
+        } catch (Exception e) {
+            logger.error("Failed to export project {} as OCI layout", projectName, e);
+            throw e;
         }
     }
 
@@ -119,30 +248,20 @@ public class HarborUtil {
         logger.info("Starting to cleanup local images for project: {}", projectName);
         
         try {
-            List<Image> localImages = dockerImageService.listLocalImages();
+            // 从本地镜像索引取出该项目的镜像引用，不再遍历守护进程中的全部镜像
+            String prefix = "/" + projectName + "/";
             int cleanedCount = 0;
             
-            for (Image image : localImages) {
-                if (image.getRepoTags() != null) {
-                    for (String repoTag : image.getRepoTags()) {
-                        if (repoTag.contains("/" + projectName + "/")) {
-                            try {
-                                String[] parts = repoTag.split(":");
-                                if (parts.length == 2) {
-                                    String[] nameParts = parts[0].split("/");
-                                    if (nameParts.length >= 2) {
-                                        String imageName = nameParts[nameParts.length - 1];
-                                        String tag = parts[1];
-                                        dockerImageService.removeLocalImage(projectName, imageName, tag);
-                                        cleanedCount++;
-                                        logger.info("Cleaned up local image: {}", repoTag);
-                                    }
-                                }
-                            } catch (Exception e) {
-                                logger.warn("Failed to cleanup local image: {}", repoTag, e);
-                            }
-                        }
-                    }
+            for (String repoTag : dockerImageService.listLocalProjectImages(projectName)) {
+                try {
+                    String reference = repoTag.substring(repoTag.indexOf(prefix) + prefix.length());
+                    int colon = reference.lastIndexOf(':');
+                    dockerImageService.removeLocalImage(projectName, reference.substring(0, colon),
+                            reference.substring(colon + 1));
+                    cleanedCount++;
+                    logger.info("Cleaned up local image: {}", repoTag);
+                } catch (Exception e) {
+                    logger.warn("Failed to cleanup local image: {}", repoTag, e);
                 }
             }
             
@@ -259,15 +378,16 @@ public class HarborUtil {
      * 获取镜像统计信息
      */
     public ImageStatistics getImageStatistics(String projectName) {
-        try {
-            List<HarborImage> images = harborImageService.listImages(projectName);
-            
-            long totalImages = images.size();
+        // 逐页累加，不在内存中保留整个镜像列表
+        try (PageIterator<HarborImage> images = harborImageService.iterateImages(projectName)) {
+            long totalImages = 0;
             long totalSize = 0;
             long totalPullCount = 0;
             int totalTags = 0;
             
-            for (HarborImage image : images) {
+            while (images.hasNext()) {
+                HarborImage image = images.next();
+                totalImages++;
                 if (image.getSize() != null) {
                     totalSize += image.getSize();
                 }
@@ -0,0 +1,558 @@
+package com.techzhi.harbor.util;
+
+import com.techzhi.harbor.config.HarborProperties;
+import com.techzhi.harbor.exception.HarborException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * skopeo进程执行器
+ * 同时运行的skopeo进程数受信号量限制，每次调用有超时，超时后连同子进程一起强制结束；
+ * 标准输出和标准错误由独立线程读取，copy的进度行解析为层和配置的复制计数并汇总到执行器统计中
+ *
+ * @author techzhi
+ */
+public class SkopeoExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SkopeoExecutor.class);
+
+    /**
+     * 标准输出保留的最大字符数，inspect的JSON远小于此值
+     */
+    private static final int MAX_OUTPUT_CHARS = 4 * 1024 * 1024;
+
+    /**
+     * 标准错误只保留末尾的行
+     */
+    private static final int MAX_ERROR_LINES = 200;
+
+    private final String binary;
+    private final int maxConcurrency;
+    private final long copyTimeout;
+    private final long inspectTimeout;
+    private final String policy;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong blobsCopied = new AtomicLong();
+    private final AtomicLong blobsSkipped = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+
+    public SkopeoExecutor(HarborProperties properties) {
+        this(properties.getSkopeo().getBinary(), properties.getSkopeo().getMaxConcurrency(),
+                properties.getSkopeo().getCopyTimeout(), properties.getSkopeo().getInspectTimeout(),
+                properties.getSkopeo().getPolicy());
+    }
+
+    /**
+     * @param policy 签名策略文件路径，为空时使用skopeo默认策略
+     */
+    public SkopeoExecutor(String binary, int maxConcurrency, long copyTimeout, long inspectTimeout, String policy) {
+        this.binary = binary;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.copyTimeout = copyTimeout;
+        this.inspectTimeout = inspectTimeout;
+        this.policy = policy == null || policy.isEmpty() ? null : policy;
+        this.permits = new Semaphore(this.maxConcurrency, true);
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "harbor-skopeo-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 将镜像复制到目标位置，如 docker-archive:/data/app.tar 到 docker://harbor.local/flow/app:1
+     *
+     * @param destCredentials 目标仓库的 用户名:密码，为null时不传
+     */
+    public SkopeoResult copy(String source, String destination, String destCredentials) {
+        List<String> args = new ArrayList<>(Arrays.asList("copy", "--src-tls-verify=false", "--dest-tls-verify=false"));
+        if (policy != null) {
+            args.add("--policy");
+            args.add(policy);
+        }
+        if (destCredentials != null) {
+            args.add("--dest-creds=" + destCredentials);
+        }
+        args.add(source);
+        args.add(destination);
+        return execute(args, copyTimeout);
+    }
+
+    /**
+     * 异步复制，实际并发受执行器的进程数上限约束，适合批量推送时一次提交全部任务
+     */
+    public CompletableFuture<SkopeoResult> copyAsync(String source, String destination, String destCredentials) {
+        return CompletableFuture.supplyAsync(() -> copy(source, destination, destCredentials), executor);
+    }
+
+    /**
+     * 读取镜像信息，镜像不存在时结果的退出码非0
+     *
+     * @param credentials 仓库的 用户名:密码，为null时不传
+     */
+    public SkopeoResult inspect(String image, String credentials) {
+        List<String> args = new ArrayList<>(Arrays.asList("inspect", "--tls-verify=false"));
+        if (credentials != null) {
+            args.add("--creds=" + credentials);
+        }
+        args.add(image);
+        return execute(args, inspectTimeout);
+    }
+
+    /**
+     * 执行skopeo子命令，等待进程名额和进程运行的总时间不超过timeoutMillis
+     */
+    public SkopeoResult execute(List<String> args, long timeoutMillis) {
+        List<String> command = new ArrayList<>();
+        command.add(binary);
+        command.addAll(args);
+        String display = mask(command);
+        long startTime = System.currentTimeMillis();
+        long deadline = startTime + timeoutMillis;
+
+        waiting.incrementAndGet();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HarborException("Interrupted while waiting for a skopeo slot: " + display, e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+        if (!acquired) {
+            return record(new SkopeoResult(display, -1, true, System.currentTimeMillis() - startTime,
+                    "", "Timed out waiting for a skopeo slot", new SkopeoProgress()));
+        }
+
+        running.incrementAndGet();
+        Process process = null;
+        try {
+            logger.debug("Executing: {}", display);
+            process = new ProcessBuilder(command).start();
+            process.getOutputStream().close();
+            SkopeoProgress progress = new SkopeoProgress();
+            StringBuilder output = new StringBuilder();
+            Deque<String> errors = new ArrayDeque<>();
+            Future<?> stdout = executor.submit(drain(process.getInputStream(), line -> {
+                progress.accept(line);
+                if (output.length() < MAX_OUTPUT_CHARS) {
+                    output.append(line).append('\n');
+                }
+            }));
+            Future<?> stderr = executor.submit(drain(process.getErrorStream(), line -> {
+                if (errors.size() >= MAX_ERROR_LINES) {
+                    errors.removeFirst();
+                }
+                errors.addLast(line);
+            }));
+
+            boolean exited = process.waitFor(Math.max(0, deadline - System.currentTimeMillis()),
+                    TimeUnit.MILLISECONDS);
+            if (!exited) {
+                logger.warn("skopeo timed out after {} ms, killing process tree: {}", timeoutMillis, display);
+                destroyTree(process);
+                process.waitFor(10, TimeUnit.SECONDS);
+            }
+            awaitQuietly(stdout);
+            awaitQuietly(stderr);
+            SkopeoResult result = new SkopeoResult(display, exited ? process.exitValue() : -1, !exited,
+                    System.currentTimeMillis() - startTime, output.toString(), String.join("\n", errors), progress);
+            return record(result);
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            throw new HarborException("Failed to start skopeo: " + display, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            destroyTree(process);
+            throw new HarborException("Interrupted while running skopeo: " + display, e);
+        } finally {
+            running.decrementAndGet();
+            permits.release();
+        }
+    }
+
+    private SkopeoResult record(SkopeoResult result) {
+        totalMillis.addAndGet(result.getDurationMillis());
+        blobsCopied.addAndGet(result.getProgress().getBlobsCopied());
+        blobsSkipped.addAndGet(result.getProgress().getBlobsSkipped());
+        if (result.isTimedOut()) {
+            timedOut.incrementAndGet();
+        } else if (result.isSuccess()) {
+            completed.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+        }
+        if (result.isSuccess()) {
+            logger.info("skopeo finished in {} ms: {} {}", result.getDurationMillis(), result.getCommand(),
+                    result.getProgress());
+        } else {
+            logger.warn("skopeo failed (exit {}, timedOut={}) in {} ms: {}: {}", result.getExitCode(),
+                    result.isTimedOut(), result.getDurationMillis(), result.getCommand(), result.getError());
+        }
+        return result;
+    }
+
+    public ExecutorStatistics getStatistics() {
+        return new ExecutorStatistics(maxConcurrency, running.get(), waiting.get(), completed.get(), failed.get(),
+                timedOut.get(), blobsCopied.get(), blobsSkipped.get(), totalMillis.get());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    private static Runnable drain(InputStream in, LineConsumer consumer) {
+        return () -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    consumer.accept(line);
+                }
+            } catch (IOException e) {
+                // 进程被强制结束时管道关闭
+                logger.debug("skopeo output stream closed: {}", e.getMessage());
+            }
+        };
+    }
+
+    private static void awaitQuietly(Future<?> future) throws InterruptedException {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * 强制结束进程及其全部子进程：Java 9+ 通过 Process.descendants()，Java 8 通过 pkill -P 按父进程号结束
+     */
+    static void destroyTree(Process process) {
+        if (process == null) {
+            return;
+        }
+        try {
+            Method descendants = Process.class.getMethod("descendants");
+            Method destroyForcibly = Class.forName("java.lang.ProcessHandle").getMethod("destroyForcibly");
+            // 先收集子进程，父进程结束后它们会被init收养而无法再找到
+            Object[] handles = ((Stream<?>) descendants.invoke(process)).toArray();
+            process.destroyForcibly();
+            for (Object handle : handles) {
+                destroyForcibly.invoke(handle);
+            }
+            return;
+        } catch (NoSuchMethodException | ClassNotFoundException e) {
+            killChildren(process);
+        } catch (ReflectiveOperationException e) {
+            logger.debug("Failed to enumerate skopeo child processes", e);
+        }
+        process.destroyForcibly();
+    }
+
+    private static void killChildren(Process process) {
+        try {
+            Field pidField = process.getClass().getDeclaredField("pid");
+            pidField.setAccessible(true);
+            int pid = pidField.getInt(process);
+            new ProcessBuilder("pkill", "-KILL", "-P", String.valueOf(pid)).start().waitFor(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            logger.debug("Failed to kill skopeo child processes", e);
+        }
+    }
+
+    /**
+     * 日志和结果中隐藏凭据
+     */
+    private static String mask(List<String> command) {
+        StringBuilder display = new StringBuilder();
+        for (String arg : command) {
+            if (display.length() > 0) {
+                display.append(' ');
+            }
+            int colon = arg.indexOf(':');
+            if (arg.startsWith("--") && arg.contains("creds=") && colon > 0) {
+                display.append(arg, 0, colon + 1).append("******");
+            } else {
+                display.append(arg);
+            }
+        }
+        return display.toString();
+    }
+
+    private interface LineConsumer {
+        void accept(String line);
+    }
+
+    /**
+     * skopeo copy 的进度：按 "Copying blob ..." / "Copying config ..." / "Writing manifest ..." 输出行计数
+     */
+    public static class SkopeoProgress {
+        private volatile int blobsCopied;
+        private volatile int blobsSkipped;
+        private volatile int configsCopied;
+        private volatile boolean manifestWritten;
+        private volatile String phase;
+
+        void accept(String line) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("Copying blob")) {
+                if (trimmed.contains("skipped") || trimmed.contains("already exists")) {
+                    blobsSkipped++;
+                } else {
+                    blobsCopied++;
+                }
+                phase = "blob";
+            } else if (trimmed.startsWith("Copying config")) {
+                configsCopied++;
+                phase = "config";
+            } else if (trimmed.startsWith("Writing manifest")) {
+                manifestWritten = true;
+                phase = "manifest";
+            } else if (trimmed.startsWith("Storing signatures")) {
+                phase = "signatures";
+            } else if (trimmed.startsWith("Getting image source signatures")) {
+                phase = "source";
+            }
+        }
+
+        public int getBlobsCopied() {
+            return blobsCopied;
+        }
+
+        public int getBlobsSkipped() {
+            return blobsSkipped;
+        }
+
+        public int getConfigsCopied() {
+            return configsCopied;
+        }
+
+        public boolean isManifestWritten() {
+            return manifestWritten;
+        }
+
+        /**
+         * 最近一次进入的阶段：source / blob / config / manifest / signatures，尚未开始时为null
+         */
+        public String getPhase() {
+            return phase;
+        }
+
+        @Override
+        public String toString() {
+            return "SkopeoProgress{" +
+                    "blobsCopied=" + blobsCopied +
+                    ", blobsSkipped=" + blobsSkipped +
+                    ", configsCopied=" + configsCopied +
+                    ", manifestWritten=" + manifestWritten +
+                    ", phase='" + phase + '\'' +
+                    '}';
+        }
+    }
+
+    /**
+     * 一次skopeo调用的结果
+     */
+    public static class SkopeoResult {
+        private final String command;
+        private final int exitCode;
+        private final boolean timedOut;
+        private final long durationMillis;
+        private final String output;
+        private final String error;
+        private final SkopeoProgress progress;
+
+        SkopeoResult(String command, int exitCode, boolean timedOut, long durationMillis, String output,
+                     String error, SkopeoProgress progress) {
+            this.command = command;
+            this.exitCode = exitCode;
+            this.timedOut = timedOut;
+            this.durationMillis = durationMillis;
+            this.output = output;
+            this.error = error;
+            this.progress = progress;
+        }
+
+        public boolean isSuccess() {
+            return !timedOut && exitCode == 0;
+        }
+
+        /**
+         * 执行的命令，凭据已隐藏
+         */
+        public String getCommand() {
+            return command;
+        }
+
+        /**
+         * 进程退出码，超时时为-1
+         */
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        /**
+         * 标准输出
+         */
+        public String getOutput() {
+            return output;
+        }
+
+        /**
+         * 标准错误的末尾部分
+         */
+        public String getError() {
+            return error;
+        }
+
+        public SkopeoProgress getProgress() {
+            return progress;
+        }
+
+        @Override
+        public String toString() {
+            return "SkopeoResult{" +
+                    "command='" + command + '\'' +
+                    ", exitCode=" + exitCode +
+                    ", timedOut=" + timedOut +
+                    ", durationMillis=" + durationMillis +
+                    ", progress=" + progress +
+                    '}';
+        }
+    }
+
+    /**
+     * 执行器统计
+     */
+    public static class ExecutorStatistics {
+        private final int maxConcurrency;
+        private final int running;
+        private final int waiting;
+        private final long completed;
+        private final long failed;
+        private final long timedOut;
+        private final long blobsCopied;
+        private final long blobsSkipped;
+        private final long totalMillis;
+
+        ExecutorStatistics(int maxConcurrency, int running, int waiting, long completed, long failed, long timedOut,
+                           long blobsCopied, long blobsSkipped, long totalMillis) {
+            this.maxConcurrency = maxConcurrency;
+            this.running = running;
+            this.waiting = waiting;
+            this.completed = completed;
+            this.failed = failed;
+            this.timedOut = timedOut;
+            this.blobsCopied = blobsCopied;
+            this.blobsSkipped = blobsSkipped;
+            this.totalMillis = totalMillis;
+        }
+
+        public int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        public int getRunning() {
+            return running;
+        }
+
+        /**
+         * 等待进程名额的调用数
+         */
+        public int getWaiting() {
+            return waiting;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getTimedOut() {
+            return timedOut;
+        }
+
+        public long getBlobsCopied() {
+            return blobsCopied;
+        }
+
+        /**
+         * 目标仓库已存在而跳过的层数
+         */
+        public long getBlobsSkipped() {
+            return blobsSkipped;
+        }
+
+        /**
+         * 全部调用的累计耗时（含等待名额）
+         */
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "ExecutorStatistics{" +
+                    "maxConcurrency=" + maxConcurrency +
+                    ", running=" + running +
+                    ", waiting=" + waiting +
+                    ", completed=" + completed +
+                    ", failed=" + failed +
+                    ", timedOut=" + timedOut +
+                    ", blobsCopied=" + blobsCopied +
+                    ", blobsSkipped=" + blobsSkipped +
+                    ", totalMillis=" + totalMillis +
+                    '}';
+        }
+    }
+}
@@ -1,44 +1,70 @@
 package com.techzhi.harbor.util;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import com.techzhi.harbor.config.HarborProperties;
+
+import java.util.concurrent.CompletableFuture;
 
 public class SkopeoUtil {
 
-       /**
-     * 通用的skopeo命令执行方法
-     * @param skopeoCommand skopeo命令数组
-     * @return 返回命令的执行结果
+    /**
+     * 静态方法共用的执行器，进程数上限和超时取默认配置；Spring环境中请使用 SkoPeoImageService
      */
-    private static String executeSkopeoCommand(String[] skopeoCommand) {
-      ProcessBuilder processBuilder = new ProcessBuilder(skopeoCommand);
-      processBuilder.redirectErrorStream(true); // 将错误输出流重定向到标准输出流
+    private static final SkopeoExecutor EXECUTOR = new SkopeoExecutor(new HarborProperties());
 
-      StringBuilder output = new StringBuilder();
-      try {
-          Process process = processBuilder.start(); // 启动进程
-          BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream())); // 获取输出流
-          String line;
-          while ((line = reader.readLine()) != null) { // 读取输出
-              output.append(line).append("\n");
-          }
-          int exitCode = process.waitFor(); // 等待进程结束
-          if (exitCode == 0) {
-              output.append("镜像操作成功！\n");
-          } else {
-              output.append("镜像操作失败，退出码：").append(exitCode).append("\n");
-          }
-      } catch (IOException e) {
-          output.append("启动skopeo进程失败！\n");
-          e.printStackTrace();
-      } catch (InterruptedException e) {
-          output.append("skopeo进程被中断！\n");
-          e.printStackTrace();
+    /**
+     * 把结构化结果转换为原来的文本形式
+     * @param result skopeo执行结果
+     * @return 返回命令的执行结果
+     */
+    public static String describe(SkopeoExecutor.SkopeoResult result) {
+      StringBuilder output = new StringBuilder(result.getOutput());
+      if (!result.getError().isEmpty()) {
+          output.append(result.getError()).append("\n");
+      }
+      if (result.isSuccess()) {
+          output.append("镜像操作成功！\n");
+      } else if (result.isTimedOut()) {
+          output.append("skopeo执行超时，已结束进程！\n");
+      } else {
+          output.append("镜像操作失败，退出码：").append(result.getExitCode()).append("\n");
       }
       return output.toString();
   }
 
+  /**
+   * 去掉Harbor地址中的协议前缀，skopeo的镜像引用只接受 host[:port]
+   */
+  public static String registryOf(String harborUrl) {
+      return harborUrl.replaceFirst("^https?://", "").replaceAll("/+$", "");
+  }
+
+  /**
+   * 将本地tar包中的镜像推送到Harbor仓库，返回结构化结果
+   * @param executor skopeo执行器
+   * @return skopeo执行结果
+   */
+  public static SkopeoExecutor.SkopeoResult copyTarToHarbor(SkopeoExecutor executor, String harborUrl,
+                                                            String harborUsername, String harborPassword,
+                                                            String tarFilePath, String harborProject,
+                                                            String imageName, String imageTag) {
+      String harborImage = registryOf(harborUrl) + "/" + harborProject + "/" + imageName + ":" + imageTag;
+      return executor.copy("docker-archive:" + tarFilePath, "docker://" + harborImage,
+              harborUsername + ":" + harborPassword);
+  }
+
+  /**
+   * 异步推送本地tar包，多个调用并行执行，同时运行的进程数受执行器上限约束
+   * @param executor skopeo执行器
+   * @return skopeo执行结果
+   */
+  public static CompletableFuture<SkopeoExecutor.SkopeoResult> copyTarToHarborAsync(
+          SkopeoExecutor executor, String harborUrl, String harborUsername, String harborPassword,
+          String tarFilePath, String harborProject, String imageName, String imageTag) {
+      String harborImage = registryOf(harborUrl) + "/" + harborProject + "/" + imageName + ":" + imageTag;
+      return executor.copyAsync("docker-archive:" + tarFilePath, "docker://" + harborImage,
+              harborUsername + ":" + harborPassword);
+  }
+
 
   /**
    * 将本地tar包中的镜像推送到Harbor仓库
@@ -54,15 +80,8 @@ public class SkopeoUtil {
   public static String pushTarToHarbor(String harborUrl, String harborUsername, String harborPassword,
                                        String tarFilePath, String harborProject,
                                        String imageName, String imageTag) {
-      String harborImage = harborUrl + "/" + harborProject + "/" + imageName + ":" + imageTag;
-      String[] command = {
-          "skopeo", "copy",
-          "--tls-verify=false",
-          "--dest-creds=" + harborUsername + ":" + harborPassword,
-          "docker-archive:" + tarFilePath,
-          "docker://" + harborImage
-      };
-      return executeSkopeoCommand(command);
+      return describe(copyTarToHarbor(EXECUTOR, harborUrl, harborUsername, harborPassword, tarFilePath,
+              harborProject, imageName, imageTag));
   }
 
   /**
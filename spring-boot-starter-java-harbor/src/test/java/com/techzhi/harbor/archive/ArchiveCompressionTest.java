@@ -0,0 +1,125 @@
+package com.techzhi.harbor.archive;
+
+import com.techzhi.harbor.config.HarborProperties;
+import com.techzhi.harbor.support.FakeRegistry;
+import com.techzhi.harbor.support.TestArchives;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ArchiveCompression / ParallelGzipOutputStream / TarStreamReader 测试
+ *
+ * @author techzhi
+ */
+class ArchiveCompressionTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("多线程gzip输出为标准gzip，跨多个分块可被GZIPInputStream完整解压")
+    void testParallelGzipRoundTrip() throws Exception {
+        byte[] content = new byte[300 * 1024 + 123];
+        byte[] text = TestArchives.textLayer(200 * 1024, 1);
+        System.arraycopy(text, 0, content, 0, text.length);
+        System.arraycopy(TestArchives.randomLayer(content.length - text.length, 2), 0,
+                content, text.length, content.length - text.length);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new ParallelGzipOutputStream(compressed, 6, 4, 32 * 1024)) {
+            // 不按分块边界写入
+            for (int offset = 0; offset < content.length; offset += 10000) {
+                out.write(content, offset, Math.min(10000, content.length - offset));
+            }
+        }
+
+        byte[] gzip = compressed.toByteArray();
+        assertEquals(ArchiveCompression.GZIP, ArchiveCompression.detect(gzip, gzip.length));
+        assertTrue(gzip.length < content.length, "文本部分应被压缩");
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            assertArrayEquals(content, TestArchives.toBytes(in));
+        }
+
+        ByteArrayOutputStream empty = new ByteArrayOutputStream();
+        new ParallelGzipOutputStream(empty, 6, 2, 32 * 1024).close();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(empty.toByteArray()))) {
+            assertEquals(0, TestArchives.toBytes(in).length);
+        }
+    }
+
+    @Test
+    @DisplayName("按扩展名选择格式，按魔数识别并解压gzip与zstd")
+    void testCompressAndDetect() throws Exception {
+        assertEquals(ArchiveCompression.GZIP, ArchiveCompression.fromFileName("/data/nginx_1.21.tar.gz"));
+        assertEquals(ArchiveCompression.GZIP, ArchiveCompression.fromFileName("nginx.TGZ"));
+        assertEquals(ArchiveCompression.ZSTD, ArchiveCompression.fromFileName("nginx.tar.zst"));
+        assertEquals(ArchiveCompression.NONE, ArchiveCompression.fromFileName("nginx.tar"));
+        assertEquals("nginx_1.21", ArchiveCompression.stripExtension("nginx_1.21.tar.zst"));
+        assertEquals("nginx_1.21", ArchiveCompression.stripExtension("nginx_1.21.tgz"));
+
+        HarborProperties.Io io = new HarborProperties.Io();
+        io.setCompressionThreads(3);
+        io.setCompressionBlockSize(64 * 1024);
+        byte[] content = TestArchives.textLayer(500 * 1024, 3);
+        for (ArchiveCompression compression : ArchiveCompression.values()) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream out = compression.compressing(compressed, io)) {
+                out.write(content);
+            }
+            byte[] bytes = compressed.toByteArray();
+            assertEquals(compression, ArchiveCompression.detect(bytes, bytes.length));
+            try (InputStream in = ArchiveCompression.decompress(new ByteArrayInputStream(bytes))) {
+                assertArrayEquals(content, TestArchives.toBytes(in), compression.name());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("顺序读取压缩tar包中的条目")
+    void testTarStreamReader() throws Exception {
+        Path tar = tempDir.resolve("demo.tar");
+        byte[] first = TestArchives.randomLayer(5000, 4);
+        byte[] second = TestArchives.randomLayer(700, 5);
+        TestArchives.writeDockerArchive(tar, "demo:1.0", first, second);
+
+        Path gz = tempDir.resolve("demo.tar.gz");
+        try (OutputStream out = new ParallelGzipOutputStream(Files.newOutputStream(gz), 6, 2, 32 * 1024)) {
+            Files.copy(tar, out);
+        }
+
+        try (InputStream in = ArchiveCompression.decompress(Files.newInputStream(gz))) {
+            TarStreamReader reader = new TarStreamReader(in);
+            TarIndex.Entry layer = reader.next();
+            assertEquals(layerName(first), layer.getName());
+            assertEquals(first.length, layer.getSize());
+            assertEquals(512, layer.getOffset());
+            // 只读一部分，剩余内容由next()跳过
+            assertEquals(first[0] & 0xff, reader.entryStream().read());
+
+            TarIndex.Entry next = reader.next();
+            assertEquals(layerName(second), next.getName());
+            assertArrayEquals(second, TestArchives.toBytes(reader.entryStream()));
+
+            assertTrue(reader.next().getName().endsWith(".json"));
+            TarIndex.Entry manifest = reader.next();
+            assertEquals(DockerArchive.MANIFEST_ENTRY, manifest.getName());
+            assertEquals("demo:1.0", DockerArchive.parseManifest(reader.readEntry()).getRepoTags().get(0));
+            assertNull(reader.next());
+        }
+    }
+
+    private static String layerName(byte[] layer) {
+        return FakeRegistry.sha256(layer).substring(7) + "/layer.tar";
+    }
+}
@@ -0,0 +1,82 @@
+package com.techzhi.harbor.archive;
+
+import com.techzhi.harbor.support.FakeRegistry;
+import com.techzhi.harbor.support.TestArchives;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ImageInspector测试：只读元数据得到镜像信息，按（路径, 大小, 修改时间）缓存
+ *
+ * @author techzhi
+ */
+class ImageInspectorTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("未压缩和gzip压缩的tar包得到相同的名称、标签、平台和层信息")
+    void testInspectPlainAndCompressed() throws Exception {
+        byte[] base = TestArchives.randomLayer(100 * 1024, 1);
+        byte[] app = TestArchives.randomLayer(20 * 1024, 2);
+        Path tar = tempDir.resolve("demo.tar");
+        byte[] config = TestArchives.writeDockerArchive(tar, "harbor.local/flow/demo:1.2", base, app);
+        Path gz = tempDir.resolve("demo.tar.gz");
+        Files.write(gz, TestArchives.gzip(Files.readAllBytes(tar), 6));
+
+        ImageInspector inspector = new ImageInspector((Path) null);
+        for (Path path : Arrays.asList(tar, gz)) {
+            ImageMetadata metadata = inspector.inspect(path);
+            assertEquals("harbor.local/flow/demo", metadata.getName());
+            assertEquals(Arrays.asList("1.2"), metadata.getTags());
+            assertEquals("amd64", metadata.getArchitecture());
+            assertEquals("linux", metadata.getOs());
+            assertEquals(FakeRegistry.sha256(config), metadata.getConfigDigest());
+            assertEquals(Files.size(path), metadata.getArchiveSize());
+            assertEquals(2, metadata.getLayers().size());
+            assertEquals(FakeRegistry.sha256(base), metadata.getLayers().get(0).getDiffId());
+            assertEquals(base.length, metadata.getLayers().get(0).getSize());
+            assertEquals(FakeRegistry.sha256(app), metadata.getLayers().get(1).getDiffId());
+            assertEquals(app.length, metadata.getLayers().get(1).getSize());
+        }
+        assertEquals(ArchiveCompression.GZIP, inspector.inspect(gz).getCompression());
+    }
+
+    @Test
+    @DisplayName("磁盘缓存按路径、大小和修改时间命中，文件变化后重新读取")
+    void testDiskCache() throws Exception {
+        Path cache = tempDir.resolve("cache");
+        Path tar = tempDir.resolve("web_1.tar");
+        TestArchives.writeDockerArchive(tar, "web:1", TestArchives.randomLayer(8 * 1024, 3));
+        ImageMetadata first = new ImageInspector(cache).inspect(tar);
+        try (Stream<Path> files = Files.list(cache)) {
+            assertEquals(1, files.count());
+        }
+
+        // 内容被破坏但大小和修改时间不变：新实例从磁盘缓存返回，说明没有重新读取tar
+        FileTime modified = Files.getLastModifiedTime(tar);
+        byte[] garbage = new byte[(int) Files.size(tar)];
+        Files.write(tar, garbage);
+        Files.setLastModifiedTime(tar, modified);
+        ImageMetadata cached = new ImageInspector(cache).inspect(tar);
+        assertEquals(first.getConfigDigest(), cached.getConfigDigest());
+        assertEquals(Arrays.asList("web:1"), cached.getRepoTags());
+
+        // 重新写入不同镜像并更新修改时间后得到新的结果
+        TestArchives.writeDockerArchive(tar, "web:2", TestArchives.randomLayer(8 * 1024, 4));
+        Files.setLastModifiedTime(tar, FileTime.fromMillis(modified.toMillis() + 5000));
+        ImageMetadata refreshed = new ImageInspector(cache).inspect(tar);
+        assertEquals(Arrays.asList("2"), refreshed.getTags());
+        assertNotEquals(first.getConfigDigest(), refreshed.getConfigDigest());
+    }
+}
@@ -0,0 +1,181 @@
+package com.techzhi.harbor.archive;
+
+import com.techzhi.harbor.exception.HarborException;
+import com.techzhi.harbor.support.TestArchives;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TarIndex / TarStreamReader链接解析 / DockerArchive 测试
+ *
+ * @author techzhi
+ */
+class TarIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("索引普通条目、GNU长文件名和PAX路径")
+    void testIndexEntries() throws Exception {
+        String longName = "blobs/sha256/" + repeat('a', 64) + "/" + repeat('b', 60) + ".tar";
+        String paxName = "pax/" + repeat('c', 120);
+        byte[] first = TestArchives.randomLayer(1000, 1);
+        byte[] second = "long-name".getBytes(StandardCharsets.UTF_8);
+        byte[] third = "pax-name".getBytes(StandardCharsets.UTF_8);
+
+        Path tar = tempDir.resolve("mixed.tar");
+        try (OutputStream out = Files.newOutputStream(tar)) {
+            TestArchives.writeEntry(out, "./first.bin", first);
+            writeTyped(out, "././@LongLink", 'L', (longName + "\0").getBytes(StandardCharsets.UTF_8));
+            TestArchives.writeEntry(out, longName.substring(0, 99), second);
+            String record = "path=" + paxName + "\n";
+            int length = record.length() + 4;
+            writeTyped(out, "PaxHeaders/x", 'x', (length + " " + record).getBytes(StandardCharsets.UTF_8));
+            TestArchives.writeEntry(out, "truncated", third);
+            out.write(new byte[1024]);
+        }
+
+        try (TarIndex index = TarIndex.open(tar)) {
+            assertEquals(3, index.getEntries().size());
+            assertArrayEquals(first, index.read("first.bin"));
+            assertArrayEquals(second, index.read(longName));
+            assertArrayEquals(third, index.read(paxName));
+
+            ByteBuffer mapped = index.map(index.requireEntry("first.bin"));
+            assertEquals(first.length, mapped.remaining());
+            assertEquals(first[999], mapped.get(999));
+
+            assertNull(index.getEntry("missing"));
+            assertThrows(HarborException.class, () -> index.requireEntry("missing"));
+        }
+    }
+
+    @Test
+    @DisplayName("符号链接和硬链接解析到目标条目，支持PAX linkpath和GNU长链接名")
+    void testLinks() throws Exception {
+        byte[] layer = TestArchives.randomLayer(3000, 3);
+        byte[] deep = "deep".getBytes(StandardCharsets.UTF_8);
+        String longTarget = "deep/" + repeat('d', 120) + "/layer.tar";
+
+        Path tar = tempDir.resolve("links.tar");
+        try (OutputStream out = Files.newOutputStream(tar)) {
+            // 链接在目标之前
+            TestArchives.writeLink(out, "dup/layer.tar", '2', "../orig/layer.tar");
+            TestArchives.writeEntry(out, "./orig/layer.tar", layer);
+            TestArchives.writeLink(out, "hard.tar", '1', "./orig/layer.tar");
+            TestArchives.writeLink(out, "chain.tar", '2', "dup/layer.tar");
+            writeTyped(out, "././@LongLink", 'L', (longTarget + "\0").getBytes(StandardCharsets.UTF_8));
+            TestArchives.writeEntry(out, longTarget.substring(0, 99), deep);
+            writeTyped(out, "././@LongLink", 'K', ("/" + longTarget + "\0").getBytes(StandardCharsets.UTF_8));
+            TestArchives.writeLink(out, "gnu-link", '1', "truncated");
+            String record = "linkpath=../" + longTarget + "\n";
+            int length = record.length() + 4;
+            writeTyped(out, "PaxHeaders/x", 'x', (length + " " + record).getBytes(StandardCharsets.UTF_8));
+            TestArchives.writeLink(out, "pax/link", '2', "truncated");
+            TestArchives.writeLink(out, "dangling", '2', "missing");
+            TestArchives.writeLink(out, "loop-a", '2', "loop-b");
+            TestArchives.writeLink(out, "loop-b", '2', "loop-a");
+            out.write(new byte[1024]);
+        }
+
+        try (TarIndex index = TarIndex.open(tar)) {
+            assertEquals(7, index.getEntries().size());
+            assertEquals("dup/layer.tar", index.getEntries().iterator().next().getName());
+            assertArrayEquals(layer, index.read("dup/layer.tar"));
+            assertArrayEquals(layer, index.read("hard.tar"));
+            assertArrayEquals(layer, index.read("chain.tar"));
+            assertEquals("orig/layer.tar", index.requireEntry("chain.tar").getLinkTarget());
+            assertNull(index.requireEntry("orig/layer.tar").getLinkTarget());
+            assertArrayEquals(deep, index.read("gnu-link"));
+            assertArrayEquals(deep, index.read("pax/link"));
+            assertNull(index.getEntry("dangling"));
+            assertNull(index.getEntry("loop-a"));
+        }
+
+        try (InputStream in = Files.newInputStream(tar)) {
+            TarStreamReader reader = new TarStreamReader(in);
+            assertEquals("orig/layer.tar", reader.next().getName());
+            assertArrayEquals(layer, reader.readEntry());
+            assertEquals(longTarget, reader.next().getName());
+            assertNull(reader.next());
+            assertEquals("orig/layer.tar", reader.resolve("dup/layer.tar"));
+            assertEquals("orig/layer.tar", reader.resolve("chain.tar"));
+            assertEquals(longTarget, reader.resolve("pax/link"));
+            assertEquals(longTarget, reader.resolve("./gnu-link"));
+            assertEquals("missing", reader.resolve("dangling"));
+            assertNull(reader.resolve("loop-a"));
+        }
+    }
+
+    @Test
+    @DisplayName("旧版docker save以符号链接存放重复层，校验和按层读取解析到目标")
+    void testDockerArchiveWithLinkedLayer() throws Exception {
+        byte[] layer = TestArchives.randomLayer(4096, 8);
+        byte[] other = TestArchives.randomLayer(1024, 9);
+        Path tar = tempDir.resolve("legacy.tar");
+        TestArchives.writeLinkedLayerArchive(tar, "legacy:1", layer, other);
+
+        try (DockerArchive archive = DockerArchive.open(tar)) {
+            archive.validate();
+            List<TarIndex.Entry> layers = archive.getLayerEntries();
+            assertEquals(3, layers.size());
+            assertEquals(layers.get(0).getOffset(), layers.get(2).getOffset());
+            assertArrayEquals(layer, archive.readEntry(layers.get(2).getName()));
+        }
+    }
+
+    @Test
+    @DisplayName("DockerArchive读取manifest并校验层完整性")
+    void testDockerArchive() throws Exception {
+        Path tar = tempDir.resolve("demo.tar");
+        byte[] layer = TestArchives.randomLayer(2048, 7);
+        byte[] config = TestArchives.writeDockerArchive(tar, "harbor.local/flow/demo:2.0", layer);
+
+        try (DockerArchive archive = DockerArchive.open(tar)) {
+            archive.validate();
+            assertEquals("harbor.local/flow/demo:2.0", archive.getManifest().getRepoTags().get(0));
+            assertArrayEquals(config, archive.getConfig());
+            assertEquals(layer.length, archive.getLayerEntries().get(0).getSize());
+        }
+
+        Path broken = tempDir.resolve("broken.tar");
+        try (OutputStream out = Files.newOutputStream(broken)) {
+            TestArchives.writeEntry(out, "manifest.json",
+                    "[{\"Config\":\"c.json\",\"RepoTags\":[\"a:b\"],\"Layers\":[\"x/layer.tar\"]}]"
+                            .getBytes(StandardCharsets.UTF_8));
+            TestArchives.writeEntry(out, "c.json", "{}".getBytes(StandardCharsets.UTF_8));
+            out.write(new byte[1024]);
+        }
+        try (DockerArchive archive = DockerArchive.open(broken)) {
+            assertThrows(HarborException.class, archive::validate);
+        }
+    }
+
+    private static void writeTyped(OutputStream out, String name, char type, byte[] content) throws Exception {
+        java.io.ByteArrayOutputStream buffer = new java.io.ByteArrayOutputStream();
+        TestArchives.writeEntry(buffer, name, content);
+        byte[] bytes = buffer.toByteArray();
+        bytes[156] = (byte) type;
+        out.write(bytes);
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
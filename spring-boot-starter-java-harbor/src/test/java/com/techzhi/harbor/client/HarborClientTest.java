@@ -0,0 +1,228 @@
+package com.techzhi.harbor.client;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.techzhi.harbor.config.HarborProperties;
+import com.techzhi.harbor.exception.HarborException;
+import com.techzhi.harbor.model.HarborImage;
+import com.techzhi.harbor.service.HarborImageService;
+import com.techzhi.harbor.support.FakeHarbor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * HarborClient测试，基于进程内的假Harbor API
+ *
+ * @author techzhi
+ */
+class HarborClientTest {
+
+    private static final String ARTIFACT = "/api/v2.0/projects/flow/repositories/app/artifacts/v1";
+
+    private FakeHarbor harbor;
+    private HarborProperties properties;
+    private HarborClient harborClient;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        harbor = new FakeHarbor();
+        harbor.addTags("flow", "app", 2);
+        properties = new HarborProperties();
+        properties.setHost(harbor.getUrl());
+        harborClient = new HarborClient(properties);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        harborClient.close();
+        harbor.close();
+    }
+
+    @Test
+    @DisplayName("并发的相同GET只发一次请求，各调用方得到内容相同的独立结果")
+    void testCoalescesConcurrentGets() throws Exception {
+        harbor.setDelayMillis(300);
+        HarborImageService service = new HarborImageService(harborClient, properties);
+
+        List<Boolean> results = concurrently(64, () -> service.imageTagExists("flow", "app", "v1"));
+        assertEquals(64, results.size());
+        assertTrue(results.stream().allMatch(Boolean::booleanValue));
+        assertEquals(1, countRequests("GET " + ARTIFACT));
+        assertEquals(63, harborClient.getCoalescedRequests());
+
+        List<Map<String, Object>> bodies = concurrently(8,
+                () -> harborClient.get(ARTIFACT, new TypeReference<Map<String, Object>>() {}));
+        for (int i = 1; i < bodies.size(); i++) {
+            assertNotSame(bodies.get(0), bodies.get(i));
+            assertEquals(bodies.get(0), bodies.get(i));
+        }
+    }
+
+    @Test
+    @DisplayName("合并的调用方修改自己拿到的结果不影响其他调用方")
+    void testCoalescedResultsAreIndependent() throws Exception {
+        harbor.setDelayMillis(300);
+        TypeReference<Map<String, Object>> type = new TypeReference<Map<String, Object>>() {};
+
+        List<Map<String, Object>> bodies = concurrently(8, () -> {
+            Map<String, Object> body = harborClient.get(ARTIFACT, type);
+            String name = (String) body.get("name");
+            body.put("name", "changed");
+            return Collections.singletonMap("name", name);
+        });
+        for (Map<String, Object> body : bodies) {
+            assertEquals("v1", body.get("name"));
+        }
+
+        CompletableFuture<Map<String, Object>> first = harborClient.getAsync(ARTIFACT, type);
+        CompletableFuture<Map<String, Object>> second = harborClient.getAsync(ARTIFACT, type);
+        first.get(10, TimeUnit.SECONDS).clear();
+        assertEquals("v1", second.get(10, TimeUnit.SECONDS).get("name"));
+        assertEquals(2, countRequests("GET " + ARTIFACT));
+    }
+
+    @Test
+    @DisplayName("同一URL不同结果类型不合并，请求结束后不再复用结果")
+    void testDoesNotCoalesceAcrossTypesOrTime() throws Exception {
+        harbor.setDelayMillis(200);
+        String repository = "/api/v2.0/projects/flow/repositories/app";
+
+        concurrently(2, () -> harborClient.get(repository, new TypeReference<Map<String, Object>>() {}));
+        concurrently(2, () -> harborClient.get(repository, new TypeReference<HarborImage>() {}));
+        assertEquals(2, countRequests("GET " + repository));
+
+        harbor.setDelayMillis(0);
+        harborClient.get(ARTIFACT, new TypeReference<Map<String, Object>>() {});
+        harborClient.get(ARTIFACT, new TypeReference<Map<String, Object>>() {});
+        assertEquals(2, countRequests("GET " + ARTIFACT));
+    }
+
+    @Test
+    @DisplayName("合并的请求失败时所有调用方得到同一个异常")
+    void testSharesFailure() throws Exception {
+        harbor.setDelayMillis(300);
+        String missing = "/api/v2.0/projects/flow/repositories/app/artifacts/v9";
+
+        List<Integer> codes = concurrently(16, () -> {
+            try {
+                harborClient.get(missing, new TypeReference<Map<String, Object>>() {});
+                return 200;
+            } catch (HarborException e) {
+                return e.getCode();
+            }
+        });
+        assertTrue(codes.stream().allMatch(code -> code == 404), codes.toString());
+        assertEquals(1, countRequests("GET " + missing));
+    }
+
+    @Test
+    @DisplayName("关闭合并后每个调用各自请求")
+    void testCoalescingCanBeDisabled() throws Exception {
+        harbor.setDelayMillis(200);
+        properties.setRequestCoalescing(false);
+
+        concurrently(4, () -> harborClient.get(ARTIFACT, new TypeReference<Map<String, Object>>() {}));
+        assertEquals(4, countRequests("GET " + ARTIFACT));
+        assertEquals(0, harborClient.getCoalescedRequests());
+    }
+
+    @Test
+    @DisplayName("异步查询由少量调度线程完成，单主机并发不超过上限")
+    void testAsyncFanOutRespectsPerHostLimit() throws Exception {
+        harbor.addTags("flow", "app", 200);
+        harbor.setDelayMillis(50);
+        properties.setMaxRequestsPerHost(4);
+        HarborClient limited = new HarborClient(properties);
+        try {
+            HarborImageService service = new HarborImageService(limited, properties);
+            List<CompletableFuture<Boolean>> lookups = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                lookups.add(service.imageTagExistsAsync("flow", "app", "v" + i));
+            }
+            lookups.add(service.imageTagExistsAsync("flow", "app", "missing"));
+            CompletableFuture.allOf(lookups.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+            for (int i = 0; i < 200; i++) {
+                assertTrue(lookups.get(i).get());
+            }
+            assertFalse(lookups.get(200).get());
+            assertEquals(201, harbor.getRequests().size());
+            assertTrue(harbor.getMaxConcurrentRequests() <= 4, "max " + harbor.getMaxConcurrentRequests());
+        } finally {
+            limited.close();
+        }
+    }
+
+    @Test
+    @DisplayName("异步GET与同步GET合并，单个调用方取消不影响其他调用方")
+    void testAsyncCoalescingAndCancel() throws Exception {
+        harbor.setDelayMillis(300);
+        TypeReference<Map<String, Object>> type = new TypeReference<Map<String, Object>>() {};
+
+        CompletableFuture<Map<String, Object>> first = harborClient.getAsync(ARTIFACT, type);
+        CompletableFuture<Map<String, Object>> cancelled = harborClient.getAsync(ARTIFACT, type);
+        Future<Map<String, Object>> blocking = executor.submit(() -> harborClient.get(ARTIFACT, type));
+        cancelled.cancel(true);
+
+        assertEquals("v1", first.get(10, TimeUnit.SECONDS).get("name"));
+        assertEquals(first.get(), blocking.get(10, TimeUnit.SECONDS));
+        assertTrue(cancelled.isCancelled());
+        assertEquals(1, countRequests("GET " + ARTIFACT));
+    }
+
+    @Test
+    @DisplayName("异步请求失败时future以HarborException结束")
+    void testAsyncFailure() throws Exception {
+        CompletableFuture<Void> delete = harborClient.deleteAsync(ARTIFACT);
+        assertNull(delete.get(10, TimeUnit.SECONDS));
+
+        ExecutionException error = assertThrows(ExecutionException.class,
+                () -> harborClient.deleteAsync(ARTIFACT).get(10, TimeUnit.SECONDS));
+        assertEquals(404, ((HarborException) error.getCause()).getCode());
+
+        error = assertThrows(ExecutionException.class, () -> harborClient.postAsync("/api/v2.0/projects",
+                Collections.singletonMap("project_name", "flow"), new TypeReference<Map<String, Object>>() {})
+                .get(10, TimeUnit.SECONDS));
+        assertEquals(404, ((HarborException) error.getCause()).getCode());
+    }
+
+    private <T> List<T> concurrently(int threads, Callable<T> call) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<T>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return call.call();
+            }));
+        }
+        start.countDown();
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : futures) {
+            results.add(future.get(30, TimeUnit.SECONDS));
+        }
+        return results;
+    }
+
+    private long countRequests(String request) {
+        return harbor.getRequests().stream().filter(request::equals).count();
+    }
+}
@@ -0,0 +1,96 @@
+package com.techzhi.harbor.config;
+
+import com.techzhi.harbor.service.DockerImageService;
+import com.techzhi.harbor.support.TestArchives;
+import com.techzhi.harbor.transfer.ImageTransferEngine;
+import com.techzhi.harbor.transfer.TransferEngineSelector;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * HarborAutoConfiguration测试：默认Bean的装配，以及用户自定义Bean替换默认Bean后的联动
+ *
+ * @author techzhi
+ */
+class HarborAutoConfigurationTest {
+
+    private final ApplicationContextRunner runner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(HarborAutoConfiguration.class))
+            .withPropertyValues("harbor.host=http://127.0.0.1:1", "harbor.project=flow", "harbor.push-mode=AUTO");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("默认配置下选择器与Docker服务互相依赖也能启动")
+    void testDefaultContext() {
+        runner.run(context -> {
+            assertNull(context.getStartupFailure());
+            assertEquals(1, context.getBeansOfType(TransferEngineSelector.class).size());
+            assertEquals(1, context.getBeansOfType(DockerImageService.class).size());
+        });
+    }
+
+    @Test
+    @DisplayName("用户自定义的传输引擎选择器在AUTO模式下被DockerImageService使用")
+    void testUserDefinedSelector() throws Exception {
+        Path tar = tempDir.resolve("demo.tar");
+        TestArchives.writeDockerArchive(tar, "demo:1", TestArchives.randomLayer(1024, 1));
+
+        runner.withUserConfiguration(CustomSelectorConfiguration.class)
+                .withPropertyValues("harbor.engine.order=custom").run(context -> {
+            assertNull(context.getStartupFailure());
+            RecordingEngine engine = context.getBean(RecordingEngine.class);
+            String image = context.getBean(DockerImageService.class)
+                    .loadAndPushImage(tar.toString(), "flow", "demo", "1");
+            assertEquals("custom/flow/demo:1", image);
+            assertEquals(Collections.singletonList("flow/demo:1"), engine.pushed);
+        });
+    }
+
+    @Configuration
+    static class CustomSelectorConfiguration {
+
+        @Bean
+        RecordingEngine recordingEngine() {
+            return new RecordingEngine();
+        }
+
+        @Bean
+        TransferEngineSelector customSelector(RecordingEngine engine, HarborProperties properties) {
+            return new TransferEngineSelector(Collections.singletonList(engine), properties);
+        }
+    }
+
+    static class RecordingEngine implements ImageTransferEngine {
+        private final List<String> pushed = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public String getName() {
+            return "custom";
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public String push(Path tarFile, String projectName, String imageName, String tag) {
+            pushed.add(projectName + "/" + imageName + ":" + tag);
+            return "custom/" + projectName + "/" + imageName + ":" + tag;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.techzhi.harbor.ingest;
+
+import com.techzhi.harbor.client.RegistryClient;
+import com.techzhi.harbor.config.HarborProperties;
+import com.techzhi.harbor.service.DockerImageService;
+import com.techzhi.harbor.service.RegistryImageService;
+import com.techzhi.harbor.support.FakeRegistry;
+import com.techzhi.harbor.support.TestArchives;
+import com.techzhi.harbor.transfer.DigestEngine;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * WatchFolderIngestService测试，文件经由假Registry以REGISTRY模式推送
+ *
+ * @author techzhi
+ */
+class WatchFolderIngestServiceTest {
+
+    private FakeRegistry registry;
+    private HarborProperties properties;
+    private DigestEngine digestEngine;
+    private WatchFolderIngestService ingestService;
+    private Path inbox;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        registry = new FakeRegistry();
+        properties = new HarborProperties();
+        properties.setHost(registry.getUrl());
+        properties.setUsername("admin");
+        properties.setPassword("Harbor12345");
+        properties.setProject("flow");
+        properties.setPushMode(HarborProperties.PushMode.REGISTRY);
+        properties.getRegistry().setSessionDir(tempDir.resolve("sessions").toString());
+        inbox = Files.createDirectories(tempDir.resolve("inbox"));
+        HarborProperties.Ingest ingest = properties.getIngest();
+        ingest.setDirectory(inbox.toString());
+        ingest.setStableMillis(300);
+        ingest.setPollInterval(50);
+        ingest.setRetryBackoff(10);
+        digestEngine = new DigestEngine(properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (ingestService != null) {
+            ingestService.destroy();
+        }
+        digestEngine.shutdown();
+        registry.close();
+    }
+
+    @Test
+    @DisplayName("启动前已存在的文件和写入中的文件都在写完后各推送一次并移入processed")
+    void testIngestsCompletedFiles() throws Exception {
+        byte[] existingLayer = TestArchives.randomLayer(64 * 1024, 1);
+        TestArchives.writeDockerArchive(inbox.resolve("existing_1.tar"), "existing:1", existingLayer);
+        start();
+
+        byte[] growingLayer = TestArchives.randomLayer(512 * 1024, 2);
+        Path source = tempDir.resolve("growing_2.tar");
+        TestArchives.writeDockerArchive(source, "growing:2", growingLayer);
+        byte[] content = Files.readAllBytes(source);
+        try (OutputStream out = Files.newOutputStream(inbox.resolve("growing_2.tar"))) {
+            // 分段写入，间隔小于stable-millis，写完之前不应被推送
+            int chunk = content.length / 8;
+            for (int offset = 0; offset < content.length; offset += chunk) {
+                out.write(content, offset, Math.min(chunk, content.length - offset));
+                out.flush();
+                Thread.sleep(100);
+                assertNull(registry.getManifest("flow/growing", "2"), "未写完的文件不应被推送");
+            }
+        }
+
+        awaitUntil(() -> ingestService.getStatistics().getPushed() == 2);
+        assertArrayEquals(existingLayer, registry.getBlobs("flow/existing").get(FakeRegistry.sha256(existingLayer)));
+        assertArrayEquals(growingLayer, registry.getBlobs("flow/growing").get(FakeRegistry.sha256(growingLayer)));
+        assertTrue(Files.exists(inbox.resolve("processed/existing_1.tar")));
+        assertTrue(Files.exists(inbox.resolve("processed/growing_2.tar")));
+        assertFalse(Files.exists(inbox.resolve("growing_2.tar")));
+        assertEquals(2, manifestPuts());
+    }
+
+    @Test
+    @DisplayName("内容相同的文件只推送一次，重启后依据记录继续去重")
+    void testDeduplicatesByContent() throws Exception {
+        Path source = tempDir.resolve("app_1.tar");
+        TestArchives.writeDockerArchive(source, "app:1", TestArchives.randomLayer(128 * 1024, 3));
+        Files.copy(source, inbox.resolve("app_1.tar"));
+        Files.copy(source, inbox.resolve("app_1-copy.tar"));
+        start();
+
+        awaitUntil(() -> ingestService.getStatistics().getPushed() + ingestService.getStatistics().getDuplicates() == 2);
+        assertEquals(1, ingestService.getStatistics().getPushed());
+        assertEquals(1, ingestService.getStatistics().getDuplicates());
+
+        ingestService.destroy();
+        Files.copy(source, inbox.resolve("app_1.tar"));
+        start();
+        awaitUntil(() -> ingestService.getStatistics().getDuplicates() == 1);
+        assertEquals(0, ingestService.getStatistics().getPushed());
+        assertEquals(1, manifestPuts());
+        assertFalse(Files.exists(inbox.resolve("app_1.tar")));
+    }
+
+    @Test
+    @DisplayName("推送成功后移入processed失败时，等待中的相同内容文件仍按重复处理")
+    void testDuplicateWaiterReleasedWhenMoveFails() throws Exception {
+        Path source = tempDir.resolve("app_1.tar");
+        TestArchives.writeDockerArchive(source, "app:1", TestArchives.randomLayer(128 * 1024, 4));
+        Files.copy(source, inbox.resolve("app_1.tar"));
+        Files.copy(source, inbox.resolve("app_1-copy.tar"));
+        registry.setUploadDelayMillis(300);
+        RegistryImageService registryImageService = new RegistryImageService(new RegistryClient(properties),
+                properties, digestEngine);
+        DockerImageService dockerImageService = new DockerImageService(properties, registryImageService) {
+            @Override
+            public String loadAndPushImage(String filePath, String projectName) {
+                String image = super.loadAndPushImage(filePath, projectName);
+                // 推送成功后文件消失，随后移入processed失败
+                try {
+                    Files.delete(Paths.get(filePath));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return image;
+            }
+        };
+        ingestService = new WatchFolderIngestService(dockerImageService, digestEngine, properties);
+        ingestService.start();
+
+        awaitUntil(() -> ingestService.getStatistics().getDuplicates() == 1);
+        assertEquals(0, ingestService.getStatistics().getPushed());
+        assertEquals(1, manifestPuts());
+        try (Stream<Path> processed = Files.list(inbox.resolve("processed"))) {
+            assertEquals(1, processed.filter(file -> file.toString().endsWith(".tar")).count());
+        }
+    }
+
+    @Test
+    @DisplayName("队列满时文件留在目录中等待，所有文件最终都被推送")
+    void testBackpressureKeepsEveryFile() throws Exception {
+        properties.getIngest().setWorkers(1);
+        properties.getIngest().setQueueCapacity(1);
+        registry.setUploadDelayMillis(50);
+        start();
+
+        int count = 6;
+        for (int i = 0; i < count; i++) {
+            TestArchives.writeDockerArchive(inbox.resolve("batch_" + i + ".tar"), "batch:" + i,
+                    TestArchives.randomLayer(32 * 1024, 10 + i));
+        }
+
+        awaitUntil(() -> ingestService.getStatistics().getPushed() == count);
+        assertTrue(ingestService.getStatistics().getBackpressureEvents() > 0, "单工作线程和容量1的队列应触发背压");
+        for (int i = 0; i < count; i++) {
+            assertNotNull(registry.getManifest("flow/batch", String.valueOf(i)));
+            assertTrue(Files.exists(inbox.resolve("processed/batch_" + i + ".tar")));
+        }
+    }
+
+    @Test
+    @DisplayName("重试耗尽的文件移入failed并记录错误")
+    void testFailedFileMovedAside() throws Exception {
+        properties.getIngest().setMaxRetries(1);
+        start();
+
+        Files.write(inbox.resolve("broken_1.tar"), "not a tar archive".getBytes());
+
+        awaitUntil(() -> ingestService.getStatistics().getFailed() == 1);
+        assertTrue(Files.exists(inbox.resolve("failed/broken_1.tar")));
+        assertTrue(Files.exists(inbox.resolve("failed/broken_1.tar.error")));
+        assertFalse(Files.exists(inbox.resolve("broken_1.tar")));
+        assertEquals(0, ingestService.getStatistics().getPushed());
+    }
+
+    private void start() {
+        RegistryImageService registryImageService = new RegistryImageService(new RegistryClient(properties),
+                properties, digestEngine);
+        ingestService = new WatchFolderIngestService(new DockerImageService(properties, registryImageService),
+                digestEngine, properties);
+        ingestService.start();
+    }
+
+    private long manifestPuts() {
+        return registry.getRequests().stream()
+                .filter(request -> request.startsWith("PUT") && request.contains("/manifests/"))
+                .count();
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for ingest");
+            Thread.sleep(20);
+        }
+    }
+}
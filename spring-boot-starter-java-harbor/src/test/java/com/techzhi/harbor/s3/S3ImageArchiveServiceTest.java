@@ -0,0 +1,249 @@
+package com.techzhi.harbor.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.techzhi.harbor.archive.ArchiveCompression;
+import com.techzhi.harbor.archive.DockerArchive;
+import com.techzhi.harbor.client.RegistryClient;
+import com.techzhi.harbor.config.HarborProperties;
+import com.techzhi.harbor.exception.HarborException;
+import com.techzhi.harbor.service.DockerImageService;
+import com.techzhi.harbor.service.RegistryImageService;
+import com.techzhi.harbor.support.FakeRegistry;
+import com.techzhi.harbor.support.TestArchives;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * S3ImageArchiveService测试，S3为内存实现，镜像经由假Registry以REGISTRY模式保存和推送
+ *
+ * @author techzhi
+ */
+class S3ImageArchiveServiceTest {
+
+    private static final String BUCKET = "images";
+
+    private FakeRegistry registry;
+    private HarborProperties properties;
+    private InMemoryS3 s3;
+    private S3ImageArchiveService archiveService;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        registry = new FakeRegistry();
+        properties = new HarborProperties();
+        properties.setHost(registry.getUrl());
+        properties.setUsername("admin");
+        properties.setPassword("Harbor12345");
+        properties.setProject("flow");
+        properties.setPushMode(HarborProperties.PushMode.REGISTRY);
+        properties.getRegistry().setSessionDir(tempDir.resolve("sessions").toString());
+        properties.getS3().setBucket(BUCKET);
+        properties.getS3().setPartSize(256 * 1024);
+        properties.getS3().setConcurrency(2);
+        s3 = new InMemoryS3();
+        RegistryImageService registryImageService = new RegistryImageService(new RegistryClient(properties), properties);
+        archiveService = new S3ImageArchiveService(s3.client, new DockerImageService(properties, registryImageService),
+                properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        archiveService.destroy();
+        registry.close();
+    }
+
+    @Test
+    @DisplayName("镜像直接保存为S3对象：分片并发上传不超过上限，对象为完整的docker-archive")
+    void testSaveImageToS3() throws Exception {
+        byte[] layer = TestArchives.randomLayer(1024 * 1024 + 77, 1);
+        pushSource("app", "1", layer);
+
+        S3ImageArchiveService.ArchiveResult result = archiveService.saveImage("flow", "app", "1", "releases/app_1.tar");
+
+        assertEquals(BUCKET, result.getBucket());
+        assertTrue(result.getPartCount() > 4, "1MB以上的tar应拆分为多个256KB分片");
+        assertTrue(s3.maxActiveUploads.get() <= 2, "同时上传的分片数不应超过concurrency");
+        byte[] object = s3.objects.get(BUCKET + "/releases/app_1.tar");
+        assertEquals(result.getTarSize(), object.length);
+
+        Path tar = tempDir.resolve("from-s3.tar");
+        Files.write(tar, object);
+        try (DockerArchive archive = DockerArchive.open(tar)) {
+            archive.validate();
+            assertArrayEquals(layer, archive.readEntry(archive.getLayerEntries().get(0).getName()));
+        }
+    }
+
+    @Test
+    @DisplayName("压缩保存到S3后分段并行读取，直接推送到另一个项目")
+    void testRoundTripThroughS3() throws Exception {
+        byte[] layer = TestArchives.textLayer(2 * 1024 * 1024, 2);
+        byte[] small = TestArchives.randomLayer(4096, 3);
+        pushSource("web", "2.0", layer, small);
+
+        S3ImageArchiveService.ArchiveResult saved = archiveService.saveImage("flow", "web", "2.0",
+                "releases/web_2.0.tar.gz");
+        assertTrue(saved.getObjectSize() < saved.getTarSize(), "对象应按扩展名gzip压缩");
+        byte[] object = s3.objects.get(BUCKET + "/releases/web_2.0.tar.gz");
+        assertEquals(ArchiveCompression.GZIP, ArchiveCompression.detect(object, object.length));
+
+        // 文本层压缩后很小，缩小分段以覆盖多段预取
+        properties.getS3().setPartSize(16 * 1024);
+        String image = archiveService.loadAndPushImage("releases/web_2.0.tar.gz", "mirror", "web", "2.0");
+
+        assertTrue(image.endsWith("/mirror/web:2.0"), image);
+        assertNotNull(registry.getManifest("mirror/web", "2.0"));
+        assertArrayEquals(layer, registry.getBlobs("mirror/web").get(FakeRegistry.sha256(layer)));
+        assertArrayEquals(small, registry.getBlobs("mirror/web").get(FakeRegistry.sha256(small)));
+        assertTrue(s3.rangeRequests.get() > 1, "对象应以多个Range请求读取");
+    }
+
+    @Test
+    @DisplayName("分片上传失败时中止整个上传，不留下残缺对象")
+    void testFailedPartAbortsUpload() throws Exception {
+        pushSource("broken", "1", TestArchives.randomLayer(1024 * 1024, 4));
+        s3.failPart = 3;
+
+        assertThrows(HarborException.class,
+                () -> archiveService.saveImage("flow", "broken", "1", "releases/broken_1.tar"));
+
+        assertFalse(s3.objects.containsKey(BUCKET + "/releases/broken_1.tar"));
+        assertEquals(1, s3.aborted.size());
+    }
+
+    private void pushSource(String image, String tag, byte[]... layers) throws Exception {
+        Path tar = tempDir.resolve(image + "_" + tag + ".tar");
+        TestArchives.writeDockerArchive(tar, image + ":" + tag, layers);
+        new RegistryImageService(new RegistryClient(properties), properties).pushArchive(tar, "flow", image, tag);
+    }
+
+    /**
+     * 基于Mockito的内存S3，实现分片上传、元数据和Range读取
+     */
+    private static final class InMemoryS3 {
+        final AmazonS3 client = mock(AmazonS3.class);
+        final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+        final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+        final List<String> aborted = new CopyOnWriteArrayList<>();
+        final AtomicInteger activeUploads = new AtomicInteger();
+        final AtomicInteger maxActiveUploads = new AtomicInteger();
+        final AtomicInteger rangeRequests = new AtomicInteger();
+        volatile int failPart = -1;
+
+        InMemoryS3() {
+            AtomicInteger uploadIds = new AtomicInteger();
+            when(client.initiateMultipartUpload(any(InitiateMultipartUploadRequest.class))).thenAnswer(invocation -> {
+                InitiateMultipartUploadRequest request = invocation.getArgument(0);
+                String uploadId = request.getBucketName() + "/" + request.getKey() + "#" + uploadIds.incrementAndGet();
+                uploads.put(uploadId, new TreeMap<>());
+                InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+                result.setUploadId(uploadId);
+                return result;
+            });
+            when(client.uploadPart(any(UploadPartRequest.class))).thenAnswer(invocation -> {
+                UploadPartRequest request = invocation.getArgument(0);
+                int active = activeUploads.incrementAndGet();
+                maxActiveUploads.accumulateAndGet(active, Math::max);
+                try {
+                    Thread.sleep(10);
+                    if (request.getPartNumber() == failPart) {
+                        throw new IllegalStateException("injected part failure");
+                    }
+                    byte[] content = TestArchives.toBytes(request.getInputStream());
+                    assertEquals(request.getPartSize(), content.length);
+                    Map<Integer, byte[]> parts = uploads.get(request.getUploadId());
+                    synchronized (parts) {
+                        parts.put(request.getPartNumber(), content);
+                    }
+                    UploadPartResult result = new UploadPartResult();
+                    result.setPartNumber(request.getPartNumber());
+                    result.setETag(FakeRegistry.sha256(content));
+                    return result;
+                } finally {
+                    activeUploads.decrementAndGet();
+                }
+            });
+            when(client.completeMultipartUpload(any(CompleteMultipartUploadRequest.class))).thenAnswer(invocation -> {
+                CompleteMultipartUploadRequest request = invocation.getArgument(0);
+                Map<Integer, byte[]> parts = uploads.remove(request.getUploadId());
+                ByteArrayOutputStream object = new ByteArrayOutputStream();
+                int expected = 1;
+                for (PartETag etag : request.getPartETags()) {
+                    assertEquals(expected++, etag.getPartNumber());
+                    object.write(parts.get(etag.getPartNumber()));
+                }
+                objects.put(request.getBucketName() + "/" + request.getKey(), object.toByteArray());
+                CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+                result.setETag(FakeRegistry.sha256(object.toByteArray()));
+                return result;
+            });
+            doAnswer(invocation -> {
+                AbortMultipartUploadRequest request = invocation.getArgument(0);
+                uploads.remove(request.getUploadId());
+                aborted.add(request.getUploadId());
+                return null;
+            }).when(client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+            when(client.getObjectMetadata(anyString(), anyString())).thenAnswer(invocation -> {
+                ObjectMetadata metadata = new ObjectMetadata();
+                metadata.setContentLength(requireObject(invocation.getArgument(0), invocation.getArgument(1)).length);
+                return metadata;
+            });
+            when(client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+                GetObjectRequest request = invocation.getArgument(0);
+                byte[] content = requireObject(request.getBucketName(), request.getKey());
+                long[] range = request.getRange();
+                rangeRequests.incrementAndGet();
+                S3Object object = new S3Object();
+                InputStream slice = new ByteArrayInputStream(Arrays.copyOfRange(content, (int) range[0],
+                        (int) Math.min(content.length, range[1] + 1)));
+                object.setObjectContent(slice);
+                return object;
+            });
+        }
+
+        private byte[] requireObject(String bucket, String key) {
+            byte[] content = objects.get(bucket + "/" + key);
+            if (content == null) {
+                throw new IllegalArgumentException("No such object: " + bucket + "/" + key);
+            }
+            return content;
+        }
+    }
+}
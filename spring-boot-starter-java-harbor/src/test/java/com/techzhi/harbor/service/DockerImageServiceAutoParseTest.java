@@ -1,9 +1,13 @@
 package com.techzhi.harbor.service;
 
 import com.techzhi.harbor.config.HarborProperties;
+import com.techzhi.harbor.support.TestArchives;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -17,6 +21,9 @@ public class DockerImageServiceAutoParseTest {
     private DockerImageService dockerImageService;
     private HarborProperties properties;
 
+    @TempDir
+    Path tempDir;
+
     @BeforeEach
     void setUp() {
         // 创建测试配置
@@ -192,6 +199,29 @@ public class DockerImageServiceAutoParseTest {
         }
     }
 
+    @Test
+    @DisplayName("测试从tar包manifest.json解析镜像信息")
+    void testParseImageInfoFromManifest() throws Exception {
+        Path tar = tempDir.resolve("archive.tar");
+        TestArchives.writeDockerArchive(tar, "192.168.50.103:80/flow/cust-cont-x86:20250616181022",
+                TestArchives.randomLayer(1024, 1));
+
+        java.lang.reflect.Method method = DockerImageService.class.getDeclaredMethod("parseImageInfoFromManifest", String.class);
+        method.setAccessible(true);
+
+        DockerImageService.DockerImageInfo result =
+                (DockerImageService.DockerImageInfo) method.invoke(dockerImageService, tar.toString());
+
+        assertNotNull(result, "应该能够从manifest解析镜像信息");
+        assertEquals("cust-cont-x86", result.getName());
+        assertEquals("20250616181022", result.getTag());
+
+        // 非tar文件返回null而不是抛出异常
+        Path notTar = tempDir.resolve("not-a-tar.tar");
+        java.nio.file.Files.write(notTar, "plain text".getBytes());
+        assertNull(method.invoke(dockerImageService, notTar.toString()));
+    }
+
     @Test
     @DisplayName("演示自动解析功能的使用方式")
     void demonstrateAutoParseUsage() {
@@ -0,0 +1,311 @@
+package com.techzhi.harbor.service;
+
+import com.techzhi.harbor.client.HarborClient;
+import com.techzhi.harbor.client.HarborMetadataCache;
+import com.techzhi.harbor.client.PageIterator;
+import com.techzhi.harbor.config.HarborProperties;
+import com.techzhi.harbor.exception.HarborException;
+import com.techzhi.harbor.model.HarborImage;
+import com.techzhi.harbor.model.HarborTag;
+import com.techzhi.harbor.support.FakeHarbor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * HarborImageService测试，基于进程内的假Harbor API，覆盖分页遍历和元数据缓存
+ *
+ * @author techzhi
+ */
+class HarborImageServiceTest {
+
+    private FakeHarbor harbor;
+    private HarborClient harborClient;
+    private HarborImageService harborImageService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        harbor = new FakeHarbor();
+        HarborProperties properties = new HarborProperties();
+        properties.setHost(harbor.getUrl());
+        properties.setProject("flow");
+        properties.setPageSize(100);
+        harborClient = new HarborClient(properties);
+        harborImageService = new HarborImageService(harborClient, properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        harborClient.close();
+        harbor.close();
+    }
+
+    @Test
+    @DisplayName("按Link头逐页取完全部仓库和标签")
+    void testListFollowsLinkHeader() {
+        harbor.addRepositories("flow", "app", 250);
+        harbor.addTags("flow", "app-0001", 130);
+
+        List<HarborImage> images = harborImageService.listImages();
+        assertEquals(250, images.size());
+        assertEquals("flow/app-0000", images.get(0).getName());
+        assertEquals("flow/app-0249", images.get(249).getName());
+        assertEquals(3, countRequests("/repositories?"));
+
+        List<HarborTag> tags = harborImageService.listImageTags("app-0001");
+        assertEquals(130, tags.size());
+        assertEquals("v129", tags.get(129).getName());
+        assertEquals(2, countRequests("/artifacts?"));
+    }
+
+    @Test
+    @DisplayName("处理当前页时已在请求下一页")
+    void testPrefetchesNextPage() throws Exception {
+        harbor.addRepositories("flow", "app", 300);
+        harbor.setDelayMillis(100);
+
+        try (PageIterator<HarborImage> images = harborImageService.iterateImages("flow")) {
+            int count = 0;
+            while (images.hasNext()) {
+                images.next();
+                if (++count % 100 == 1) {
+                    int page = count / 100 + 1;
+                    // 调用方还在处理第page页，下一页的请求已发出
+                    Thread.sleep(300);
+                    if (page < 3) {
+                        assertEquals(page + 1, countRequests("/repositories?"), harbor.getRequests().toString());
+                    }
+                }
+            }
+            assertEquals(300, count);
+            assertEquals(3, images.getPages());
+        }
+        assertEquals(3, countRequests("/repositories?"));
+    }
+
+    @Test
+    @DisplayName("提前结束遍历时不再请求后续页")
+    void testEarlyCloseStopsPaging() throws Exception {
+        harbor.addRepositories("flow", "app", 500);
+
+        try (Stream<HarborImage> images = harborImageService.streamImages("flow")) {
+            List<String> names = images.limit(5).map(HarborImage::getName).collect(Collectors.toList());
+            assertEquals(5, names.size());
+        }
+        Thread.sleep(200);
+        assertTrue(countRequests("/repositories?") <= 2, harbor.getRequests().toString());
+    }
+
+    @Test
+    @DisplayName("旧版本Harbor不返回Link头时按页码翻页，遇到不满的一页停止")
+    void testPagingWithoutLinkHeader() {
+        harbor.setLinkHeaders(false);
+        harbor.addRepositories("flow", "app", 200);
+
+        assertEquals(200, harborImageService.listImages("flow").size());
+        // 第3页为空，确认已取完
+        assertEquals(3, countRequests("/repositories?"));
+    }
+
+    @Test
+    @DisplayName("中间某页失败时抛出异常")
+    void testPageFailure() {
+        harbor.addRepositories("flow", "app", 250);
+        harbor.failPage(2);
+
+        HarborException error = assertThrows(HarborException.class, () -> harborImageService.listImages("flow"));
+        assertEquals("Failed to list images", error.getMessage());
+        assertEquals(500, ((HarborException) error.getCause()).getCode());
+    }
+
+    @Test
+    @DisplayName("流式遍历逐条回调，跨页取完全部仓库和标签")
+    void testForEachStreamsItems() {
+        harbor.addRepositories("flow", "app", 250);
+        harbor.addTags("flow", "app-0001", 130);
+
+        List<String> names = new ArrayList<>();
+        assertEquals(250, harborImageService.forEachImage("flow", image -> names.add(image.getName())));
+        assertEquals(250, names.size());
+        assertEquals("flow/app-0249", names.get(249));
+        assertEquals(3, countRequests("/repositories?"));
+
+        AtomicLong size = new AtomicLong();
+        assertEquals(130, harborImageService.forEachImageTag("flow", "app-0001",
+                tag -> size.addAndGet(tag.getSize())));
+        assertEquals(130, size.get());
+
+        harbor.setLinkHeaders(false);
+        assertEquals(250, harborImageService.forEachImage("flow", image -> { }));
+        assertEquals(0, harborImageService.forEachImage("empty", image -> { }));
+    }
+
+    @Test
+    @DisplayName("回调抛出异常时停止遍历，不再请求后续页")
+    void testForEachStopsOnCallbackFailure() {
+        harbor.addRepositories("flow", "app", 250);
+
+        HarborException error = assertThrows(HarborException.class, () -> harborImageService.forEachImage("flow",
+                image -> {
+                    if (image.getName().endsWith("-0042")) {
+                        throw new IllegalStateException("stop");
+                    }
+                }));
+        assertEquals("stop", error.getCause().getMessage());
+        assertEquals(1, countRequests("/repositories?"));
+    }
+
+    @Test
+    @DisplayName("缓存有效期内直接命中，不请求Harbor")
+    void testCacheHitsWithinTtl() {
+        harbor.addTags("flow", "app", 2);
+        HarborImageService cached = cachedService(60000, 60000);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(cached.imageExists("flow", "app"));
+            assertTrue(cached.imageTagExists("flow", "app", "v1"));
+            assertEquals("flow/app", cached.getImageInfo("flow", "app").getName());
+        }
+        assertEquals(1, countRequests("GET /api/v2.0/projects/flow/repositories/app/artifacts/v1"));
+        // imageExists 与 getImageInfo 各自缓存
+        assertEquals(2, harbor.getRequests().stream()
+                .filter("GET /api/v2.0/projects/flow/repositories/app"::equals).count());
+
+        HarborMetadataCache.CacheStatistics statistics = cached.getMetadataCache().getStatistics();
+        assertEquals(Long.valueOf(4), statistics.getHits().get(HarborMetadataCache.TAG_EXISTS));
+        assertEquals(Long.valueOf(1), statistics.getMisses().get(HarborMetadataCache.TAG_EXISTS));
+        assertEquals(3, statistics.getSize());
+        assertEquals(0.8, statistics.getHitRate(), 0.001);
+    }
+
+    @Test
+    @DisplayName("过期后带ETag发起条件请求，未变化时续期")
+    void testRevalidatesWithEtag() throws Exception {
+        harbor.addTags("flow", "app", 2);
+        HarborImageService cached = cachedService(50, 50);
+
+        assertTrue(cached.imageTagExists("flow", "app", "v1"));
+        Thread.sleep(100);
+        assertTrue(cached.imageTagExists("flow", "app", "v1"));
+        assertEquals(1, cached.getMetadataCache().getStatistics().getRevalidations());
+
+        // 数据变化后ETag不同，重新取回完整响应
+        harbor.addTags("flow", "app", 1);
+        Thread.sleep(100);
+        assertEquals(Integer.valueOf(3), cached.getImageInfo("flow", "app").getTagsCount());
+        Thread.sleep(100);
+        assertEquals(Integer.valueOf(3), cached.getImageInfo("flow", "app").getTagsCount());
+        assertEquals(2, cached.getMetadataCache().getStatistics().getRevalidations());
+    }
+
+    @Test
+    @DisplayName("删除和推送后清除相关缓存")
+    void testInvalidatesOnDeleteAndPush() {
+        harbor.addTags("flow", "app", 2);
+        HarborImageService cached = cachedService(60000, 60000);
+        HarborMetadataCache cache = cached.getMetadataCache();
+
+        assertTrue(cached.imageTagExists("flow", "app", "v1"));
+        assertEquals(Integer.valueOf(2), cached.getImageInfo("flow", "app").getTagsCount());
+        cached.deleteImageTag("flow", "app", "v1");
+        assertFalse(cached.imageTagExists("flow", "app", "v1"));
+        assertEquals(Integer.valueOf(1), cached.getImageInfo("flow", "app").getTagsCount());
+
+        // 不存在的结果按 not-found-ttl 缓存，本进程推送后立即可见
+        assertFalse(cached.imageTagExists("flow", "app", "v5"));
+        harbor.addTags("flow", "app", 6);
+        assertFalse(cached.imageTagExists("flow", "app", "v5"));
+        cache.invalidateRepository("flow/app", "v5");
+        assertTrue(cached.imageTagExists("flow", "app", "v5"));
+
+        cached.deleteImage("flow", "app");
+        assertFalse(cached.imageExists("flow", "app"));
+        assertFalse(cached.imageTagExists("flow", "app", "v5"));
+        assertTrue(cache.getStatistics().getInvalidations() >= 4);
+    }
+
+    @Test
+    @DisplayName("条目数超过上限时淘汰最久未访问的条目")
+    void testCacheIsBounded() {
+        HarborProperties properties = new HarborProperties();
+        properties.getCache().setMaxEntries(2);
+        HarborMetadataCache cache = new HarborMetadataCache(properties);
+        for (String image : new String[]{"a", "b", "a", "c"}) {
+            cache.get(HarborMetadataCache.IMAGE_EXISTS, "flow", image, null,
+                    (etag, lastModified) -> new HarborClient.ConditionalResult<>(false, Boolean.TRUE, null, null));
+        }
+        HarborMetadataCache.CacheStatistics statistics = cache.getStatistics();
+        assertEquals(2, statistics.getSize());
+        assertEquals(1, statistics.getEvictions());
+        assertEquals(Long.valueOf(1), statistics.getHits().get(HarborMetadataCache.IMAGE_EXISTS));
+        // b最久未访问，被淘汰
+        assertEquals(Boolean.TRUE, cache.get(HarborMetadataCache.IMAGE_EXISTS, "flow", "a", null,
+                (etag, lastModified) -> fail("a should still be cached")));
+    }
+
+    @Test
+    @DisplayName("异步列表逐页取完，某页失败时future以异常结束")
+    void testAsyncListing() throws Exception {
+        harbor.addRepositories("flow", "app", 250);
+        harbor.addTags("flow", "app-0001", 130);
+
+        CompletableFuture<List<HarborImage>> images = harborImageService.listImagesAsync("flow");
+        CompletableFuture<List<HarborTag>> tags = harborImageService.listImageTagsAsync("flow", "app-0001");
+        assertEquals(250, images.get(10, TimeUnit.SECONDS).size());
+        assertEquals("v129", tags.get(10, TimeUnit.SECONDS).get(129).getName());
+
+        harbor.failPage(2);
+        ExecutionException error = assertThrows(ExecutionException.class,
+                () -> harborImageService.listImagesAsync("flow").get(10, TimeUnit.SECONDS));
+        assertEquals(500, ((HarborException) error.getCause()).getCode());
+    }
+
+    @Test
+    @DisplayName("异步查询同样使用缓存，异步删除后清除相关条目")
+    void testAsyncLookupsUseCache() throws Exception {
+        harbor.addTags("flow", "app", 2);
+        HarborImageService cached = cachedService(60000, 60000);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(cached.imageExistsAsync("flow", "app").get(10, TimeUnit.SECONDS));
+            assertTrue(cached.imageTagExistsAsync("flow", "app", "v1").get(10, TimeUnit.SECONDS));
+            assertEquals(Integer.valueOf(2),
+                    cached.getImageInfoAsync("flow", "app").get(10, TimeUnit.SECONDS).getTagsCount());
+        }
+        assertEquals(1, countRequests("GET /api/v2.0/projects/flow/repositories/app/artifacts/v1"));
+
+        cached.deleteImageTagAsync("flow", "app", "v1").get(10, TimeUnit.SECONDS);
+        assertFalse(cached.imageTagExistsAsync("flow", "app", "v1").get(10, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(1),
+                cached.getImageInfoAsync("flow", "app").get(10, TimeUnit.SECONDS).getTagsCount());
+        assertEquals(Long.valueOf(2),
+                cached.getMetadataCache().getStatistics().getHits().get(HarborMetadataCache.TAG_EXISTS));
+    }
+
+    private HarborImageService cachedService(long ttl, long notFoundTtl) {
+        HarborProperties properties = new HarborProperties();
+        properties.setHost(harbor.getUrl());
+        properties.getCache().setEnabled(true);
+        properties.getCache().setImageExistsTtl(ttl);
+        properties.getCache().setTagExistsTtl(ttl);
+        properties.getCache().setImageInfoTtl(ttl);
+        properties.getCache().setNotFoundTtl(notFoundTtl);
+        return new HarborImageService(harborClient, properties);
+    }
+
+    private long countRequests(String fragment) {
+        return harbor.getRequests().stream().filter(request -> request.contains(fragment)).count();
+    }
+}
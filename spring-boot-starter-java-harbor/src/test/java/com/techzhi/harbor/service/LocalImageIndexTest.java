@@ -0,0 +1,206 @@
+package com.techzhi.harbor.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.async.ResultCallback;
+import com.github.dockerjava.api.command.EventsCmd;
+import com.github.dockerjava.api.command.InspectImageCmd;
+import com.github.dockerjava.api.command.InspectImageResponse;
+import com.github.dockerjava.api.command.ListImagesCmd;
+import com.github.dockerjava.api.command.LoadImageAsyncCmd;
+import com.github.dockerjava.api.exception.NotFoundException;
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.api.model.EventActor;
+import com.github.dockerjava.api.model.EventType;
+import com.github.dockerjava.api.model.Image;
+import com.github.dockerjava.api.model.LoadResponseItem;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * LocalImageIndex测试：一次建立索引后由事件增量更新，加载结果从docker load响应解析
+ *
+ * @author techzhi
+ */
+class LocalImageIndexTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String APP_ID = "sha256:" + repeat('a');
+    private static final String WEB_ID = "sha256:" + repeat('b');
+    private static final String NEW_ID = "sha256:" + repeat('c');
+
+    private DockerClient dockerClient;
+    private ListImagesCmd listImagesCmd;
+    private final Map<String, InspectImageResponse> daemonImages = new HashMap<>();
+    private final List<ResultCallback<Event>> subscriptions = new ArrayList<>();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        dockerClient = mock(DockerClient.class);
+        listImagesCmd = mock(ListImagesCmd.class);
+        when(dockerClient.listImagesCmd()).thenReturn(listImagesCmd);
+        when(listImagesCmd.exec()).thenReturn(Arrays.asList(
+                image(APP_ID, "harbor.local/flow/app:1", "harbor.local/flow/app:latest"),
+                image(WEB_ID, "harbor.local/flow/web:2"),
+                image("sha256:" + repeat('d'), "<none>:<none>")));
+
+        EventsCmd eventsCmd = mock(EventsCmd.class);
+        when(dockerClient.eventsCmd()).thenReturn(eventsCmd);
+        when(eventsCmd.withEventTypeFilter(EventType.IMAGE)).thenReturn(eventsCmd);
+        when(eventsCmd.exec(any())).thenAnswer(invocation -> {
+            ResultCallback<Event> callback = invocation.getArgument(0);
+            subscriptions.add(callback);
+            return callback;
+        });
+
+        when(dockerClient.inspectImageCmd(anyString())).thenAnswer(invocation -> {
+            String reference = invocation.getArgument(0);
+            InspectImageCmd command = mock(InspectImageCmd.class);
+            InspectImageResponse response = daemonImages.get(reference);
+            if (response == null) {
+                when(command.exec()).thenThrow(new NotFoundException("No such image: " + reference));
+            } else {
+                when(command.exec()).thenReturn(response);
+            }
+            return command;
+        });
+    }
+
+    @Test
+    @DisplayName("只列出一次镜像，之后按标签、删除事件增量更新")
+    void testSeedOnceAndFollowEvents() {
+        LocalImageIndex index = new LocalImageIndex(dockerClient);
+        assertEquals(3, index.size());
+        assertEquals(APP_ID, index.findByRepoTag("harbor.local/flow/app").getId());
+        assertEquals(Arrays.asList("harbor.local/flow/app:1", "harbor.local/flow/app:latest",
+                "harbor.local/flow/web:2"), index.findRepoTags("harbor.local/flow/"));
+        assertTrue(index.findById(repeat('d')).getRepoTags().isEmpty());
+
+        // 标签从app移到新加载的镜像上
+        daemonImages.put(NEW_ID, inspect(NEW_ID, "harbor.local/flow/app:latest"));
+        fire("tag", NEW_ID);
+        assertEquals(NEW_ID, index.findByRepoTag("harbor.local/flow/app:latest").getId());
+        assertEquals(Arrays.asList("harbor.local/flow/app:1"), index.findById(APP_ID).getRepoTags());
+
+        // web被删除
+        fire("delete", WEB_ID);
+        assertNull(index.findByRepoTag("harbor.local/flow/web:2"));
+        assertNull(index.findById(WEB_ID));
+
+        // push不改变本地镜像
+        fire("push", "harbor.local/flow/app:1");
+        assertEquals(3, index.size());
+        verify(dockerClient, times(1)).listImagesCmd();
+        index.close();
+    }
+
+    @Test
+    @DisplayName("事件流断开后下一次查询重新建立索引和订阅")
+    void testRebuildAfterStreamFailure() {
+        LocalImageIndex index = new LocalImageIndex(dockerClient);
+        assertNotNull(index.findByRepoTag("harbor.local/flow/web:2"));
+        subscriptions.get(0).onError(new RuntimeException("connection reset"));
+
+        assertNotNull(index.findByRepoTag("harbor.local/flow/web:2"));
+        verify(dockerClient, times(2)).listImagesCmd();
+        assertEquals(2, subscriptions.size());
+
+        // 旧订阅的迟到事件被忽略
+        daemonImages.put(NEW_ID, inspect(NEW_ID, "harbor.local/flow/late:1"));
+        subscriptions.get(0).onNext(event("tag", NEW_ID));
+        assertNull(index.findByRepoTag("harbor.local/flow/late:1"));
+        index.close();
+    }
+
+    @Test
+    @DisplayName("加载的镜像从docker load响应得到，并立即进入索引")
+    void testLoadResolvesImagesFromResponse() throws Exception {
+        LocalImageIndex index = new LocalImageIndex(dockerClient);
+        assertEquals(3, index.size());
+
+        daemonImages.put(NEW_ID, inspect(NEW_ID));
+        InputStream tar = new ByteArrayInputStream(new byte[0]);
+        mockLoad(tar, "{\"stream\":\"Loaded image ID: " + NEW_ID + "\\n\"}");
+        LocalImageIndex.LoadResult untagged = index.load(tar);
+        assertEquals(Arrays.asList(NEW_ID), untagged.getImageIds());
+        assertEquals(NEW_ID, untagged.select("app"));
+        assertNotNull(index.findById(NEW_ID));
+
+        daemonImages.put("harbor.local/flow/app:2", inspect(APP_ID, "harbor.local/flow/app:1",
+                "harbor.local/flow/app:latest", "harbor.local/flow/app:2"));
+        InputStream multi = new ByteArrayInputStream(new byte[0]);
+        mockLoad(multi, "{\"stream\":\"Loaded image: nginx:1.25\\n\"}",
+                "{\"stream\":\"Loaded image: harbor.local/flow/app:2\\n\"}");
+        LocalImageIndex.LoadResult tagged = index.load(multi);
+        assertEquals("harbor.local/flow/app:2", tagged.select("app"));
+        assertEquals("nginx:1.25", tagged.select("other"));
+        assertEquals(APP_ID, index.findByRepoTag("harbor.local/flow/app:2").getId());
+        verify(dockerClient, times(1)).listImagesCmd();
+        index.close();
+    }
+
+    private void mockLoad(InputStream tar, String... items) throws Exception {
+        LoadImageAsyncCmd command = mock(LoadImageAsyncCmd.class);
+        when(dockerClient.loadImageAsyncCmd(tar)).thenReturn(command);
+        List<LoadResponseItem> responses = new ArrayList<>();
+        for (String item : items) {
+            responses.add(OBJECT_MAPPER.readValue(item, LoadResponseItem.class));
+        }
+        when(command.exec(any())).thenAnswer(invocation -> {
+            ResultCallback<LoadResponseItem> callback = invocation.getArgument(0);
+            callback.onStart(() -> { });
+            for (LoadResponseItem response : responses) {
+                callback.onNext(response);
+            }
+            callback.onComplete();
+            return callback;
+        });
+    }
+
+    private void fire(String action, String id) {
+        subscriptions.get(subscriptions.size() - 1).onNext(event(action, id));
+    }
+
+    private static Event event(String action, String id) {
+        return new Event(action, id, null, System.currentTimeMillis() / 1000)
+                .withType(EventType.IMAGE)
+                .withAction(action)
+                .withEventActor(new EventActor().withId(id));
+    }
+
+    private static Image image(String id, String... repoTags) throws Exception {
+        Map<String, Object> json = new HashMap<>();
+        json.put("Id", id);
+        json.put("RepoTags", repoTags);
+        json.put("Size", 1024);
+        return OBJECT_MAPPER.convertValue(json, Image.class);
+    }
+
+    private static InspectImageResponse inspect(String id, String... repoTags) {
+        return new InspectImageResponse().withId(id).withRepoTags(Arrays.asList(repoTags)).withSize(1024L);
+    }
+
+    private static String repeat(char c) {
+        char[] chars = new char[64];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
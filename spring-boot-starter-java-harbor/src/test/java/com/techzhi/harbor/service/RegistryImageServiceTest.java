@@ -0,0 +1,649 @@
+package com.techzhi.harbor.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.techzhi.harbor.archive.ArchiveCompression;
+import com.techzhi.harbor.archive.DockerArchive;
+import com.techzhi.harbor.client.RegistryClient;
+import com.techzhi.harbor.config.HarborProperties;
+import com.techzhi.harbor.exception.HarborException;
+import com.techzhi.harbor.support.FakeRegistry;
+import com.techzhi.harbor.support.TestArchives;
+import com.techzhi.harbor.transfer.LayerStore;
+import com.techzhi.harbor.util.HarborUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * RegistryImageService测试，基于进程内的假Registry，不需要Docker守护进程和Harbor环境
+ *
+ * @author techzhi
+ */
+class RegistryImageServiceTest {
+
+    private FakeRegistry registry;
+    private HarborProperties properties;
+    private RegistryImageService registryImageService;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        registry = new FakeRegistry();
+        properties = new HarborProperties();
+        properties.setHost(registry.getUrl());
+        properties.setUsername("admin");
+        properties.setPassword("Harbor12345");
+        properties.setProject("flow");
+        properties.getRegistry().setSessionDir(tempDir.resolve("sessions").toString());
+        registryImageService = new RegistryImageService(new RegistryClient(properties), properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.close();
+    }
+
+    @Test
+    @DisplayName("直接推送tar包中的层和清单")
+    void testPushArchive() throws Exception {
+        byte[] base = TestArchives.randomLayer(300 * 1024, 1);
+        byte[] app = TestArchives.randomLayer(70 * 1024, 2);
+        Path tar = tempDir.resolve("demo_1.0.tar");
+        byte[] config = TestArchives.writeDockerArchive(tar, "demo:1.0", base, app);
+
+        RegistryImageService.PushResult result = registryImageService.pushArchive(tar, "flow", "demo", "1.0");
+
+        assertEquals(registry.getUrl().replace("http://", "") + "/flow/demo:1.0", result.getImage());
+        assertEquals(2, result.getLayerCount());
+        assertTrue(registry.getBlobs("flow/demo").containsKey(FakeRegistry.sha256(base)));
+        assertTrue(registry.getBlobs("flow/demo").containsKey(FakeRegistry.sha256(app)));
+        assertTrue(registry.getBlobs("flow/demo").containsKey(FakeRegistry.sha256(config)));
+
+        byte[] manifestBytes = registry.getManifest("flow/demo", "1.0");
+        assertNotNull(manifestBytes, "清单应该已提交");
+        assertEquals(FakeRegistry.sha256(manifestBytes), result.getManifestDigest());
+
+        JsonNode manifest = new ObjectMapper().readTree(manifestBytes);
+        assertEquals(FakeRegistry.sha256(config), manifest.get("config").get("digest").asText());
+        assertEquals(FakeRegistry.sha256(base), manifest.get("layers").get(0).get("digest").asText());
+        assertEquals(app.length, manifest.get("layers").get(1).get("size").asLong());
+    }
+
+    @Test
+    @DisplayName("已存在的层跳过上传，共享基础层跨仓库挂载")
+    void testSkipExistingAndMountSharedLayers() throws Exception {
+        byte[] base = TestArchives.randomLayer(200 * 1024, 10);
+        byte[] appA = TestArchives.randomLayer(10 * 1024, 11);
+        byte[] appB = TestArchives.randomLayer(12 * 1024, 12);
+        Path tarA = tempDir.resolve("a.tar");
+        Path tarB = tempDir.resolve("b.tar");
+        TestArchives.writeDockerArchive(tarA, "a:1", base, appA);
+        byte[] configB = TestArchives.writeDockerArchive(tarB, "b:1", base, appB);
+
+        RegistryImageService.PushResult first = registryImageService.pushArchive(tarA, "flow", "a", "1");
+        assertEquals(0, first.getBytesSkipped());
+        assertEquals(3, first.getBlobsUploaded());
+
+        RegistryImageService.PushResult second = registryImageService.pushArchive(tarB, "flow", "b", "1");
+        assertEquals(1, second.getBlobsMounted());
+        assertEquals(base.length, second.getBytesSkipped());
+        assertEquals(appB.length + configB.length, second.getBytesSent());
+        assertTrue(registry.getRequests().stream().anyMatch(request -> request.contains("mount=")));
+
+        long receivedBefore = registry.getBytesReceived();
+        RegistryImageService.PushResult again = registryImageService.pushArchive(tarA, "flow", "a", "1");
+        assertEquals(0, again.getBytesSent());
+        assertEquals(3, again.getBlobsExisting());
+        assertEquals(receivedBefore + registry.getManifest("flow/a", "1").length, registry.getBytesReceived());
+    }
+
+    @Test
+    @DisplayName("从配置的公共仓库挂载基础层")
+    void testMountFromConfiguredSource() throws Exception {
+        byte[] base = TestArchives.randomLayer(64 * 1024, 20);
+        registry.putBlob("library/base", base);
+        properties.getRegistry().getMountSources().add("library/base");
+
+        Path tar = tempDir.resolve("svc.tar");
+        TestArchives.writeDockerArchive(tar, "svc:1", base, TestArchives.randomLayer(1024, 21));
+
+        RegistryImageService.PushResult result = registryImageService.pushArchive(tar, "flow", "svc", "1");
+
+        assertEquals(1, result.getBlobsMounted());
+        assertEquals(base.length, result.getBytesSkipped());
+        assertArrayEquals(base, registry.getBlobs("flow/svc").get(FakeRegistry.sha256(base)));
+    }
+
+    @Test
+    @DisplayName("分块上传在分块失败后从已确认的偏移量继续")
+    void testChunkedUploadRetriesFromCommittedOffset() throws Exception {
+        byte[] layer = TestArchives.randomLayer(300 * 1024, 30);
+        Path tar = tempDir.resolve("big.tar");
+        TestArchives.writeDockerArchive(tar, "big:1", layer);
+        properties.getRegistry().setChunkSize(64 * 1024);
+        registry.failPatches(2, 1);
+
+        registryImageService.pushArchive(tar, "flow", "big", "1");
+
+        assertArrayEquals(layer, registry.getBlobs("flow/big").get(FakeRegistry.sha256(layer)));
+        // 只重发失败的那一个分块
+        assertTrue(registry.getBytesReceived() <= layer.length + 64 * 1024 + 4096);
+    }
+
+    @Test
+    @DisplayName("JVM重启后从持久化的上传会话断点续传")
+    void testChunkedUploadResumesAfterRestart() throws Exception {
+        byte[] layer = TestArchives.randomLayer(320 * 1024, 31);
+        Path tar = tempDir.resolve("resume.tar");
+        TestArchives.writeDockerArchive(tar, "resume:1", layer);
+        properties.getRegistry().setChunkSize(64 * 1024);
+        properties.getRegistry().setUploadRetries(0);
+        registry.failPatches(3, 1);
+
+        assertThrows(Exception.class, () -> registryImageService.pushArchive(tar, "flow", "resume", "1"));
+        long receivedBeforeRestart = registry.getBytesReceived();
+
+        // 模拟重启：新的服务实例，只共享会话目录
+        RegistryImageService restarted = new RegistryImageService(new RegistryClient(properties), properties);
+        restarted.pushArchive(tar, "flow", "resume", "1");
+
+        assertArrayEquals(layer, registry.getBlobs("flow/resume").get(FakeRegistry.sha256(layer)));
+        long resent = registry.getBytesReceived() - receivedBeforeRestart;
+        assertTrue(resent < layer.length - 2 * 64 * 1024, "重启后应只发送剩余部分, 实际发送: " + resent);
+    }
+
+    @Test
+    @DisplayName("单个镜像的各层按并发上限并行上传")
+    void testParallelLayerUpload() throws Exception {
+        byte[][] layers = new byte[6][];
+        for (int i = 0; i < layers.length; i++) {
+            layers[i] = TestArchives.randomLayer(16 * 1024, 40 + i);
+        }
+        Path tar = tempDir.resolve("parallel.tar");
+        TestArchives.writeDockerArchive(tar, "parallel:1", layers);
+        properties.getRegistry().setLayerConcurrency(3);
+        registry.setUploadDelayMillis(150);
+
+        RegistryImageService.PushResult result = registryImageService.pushArchive(tar, "flow", "parallel", "1");
+
+        assertEquals(6, result.getLayerCount());
+        assertTrue(registry.getMaxActiveUploads() >= 2, "各层应并行上传");
+        assertTrue(registry.getMaxActiveUploads() <= 3, "并发数不应超过layerConcurrency");
+        JsonNode manifest = new ObjectMapper().readTree(registry.getManifest("flow/parallel", "1"));
+        for (int i = 0; i < layers.length; i++) {
+            assertEquals(FakeRegistry.sha256(layers[i]), manifest.get("layers").get(i).get("digest").asText(),
+                    "清单中的层顺序应与tar一致");
+        }
+    }
+
+    @Test
+    @DisplayName("任一层失败时不提交清单")
+    void testManifestNotCommittedWhenLayerFails() throws Exception {
+        Path tar = tempDir.resolve("fail.tar");
+        TestArchives.writeDockerArchive(tar, "fail:1",
+                TestArchives.randomLayer(200 * 1024, 50), TestArchives.randomLayer(1024, 51));
+        properties.getRegistry().setChunkSize(64 * 1024);
+        properties.getRegistry().setUploadRetries(0);
+        registry.failPatches(0, 1);
+
+        assertThrows(Exception.class, () -> registryImageService.pushArchive(tar, "flow", "fail", "1"));
+        assertNull(registry.getManifest("flow/fail", "1"));
+    }
+
+    @Test
+    @DisplayName("启用层缓存后相同内容的压缩层跳过摘要计算和上传")
+    void testLayerCacheSkipsHashingAndUpload() throws Exception {
+        properties.getLayerCache().setEnabled(true);
+        properties.getLayerCache().setDirectory(tempDir.resolve("layers").toString());
+        registryImageService = new RegistryImageService(new RegistryClient(properties), properties);
+
+        byte[] base = TestArchives.textLayer(128 * 1024, 60);
+        Path first = tempDir.resolve("first.tar");
+        Path second = tempDir.resolve("second.tar");
+        TestArchives.writeDockerArchive(first, "first:1", 9, base);
+        TestArchives.writeDockerArchive(second, "second:1", 1, base, TestArchives.textLayer(1024, 61));
+        String cachedDigest = FakeRegistry.sha256(TestArchives.gzip(base, 9));
+
+        registryImageService.pushArchive(first, "flow", "first", "1");
+        RegistryImageService.PushResult result = registryImageService.pushArchive(second, "flow", "second", "1");
+
+        // 第二个tar中的基础层压缩结果不同，但按diff_id命中缓存后直接复用已推送的同内容层
+        JsonNode manifest = new ObjectMapper().readTree(registry.getManifest("flow/second", "1"));
+        assertEquals(cachedDigest, manifest.get("layers").get(0).get("digest").asText());
+        assertEquals(1, result.getBlobsMounted());
+        assertTrue(registry.getBlobs("flow/second").containsKey(cachedDigest));
+
+        // 未压缩层的摘要无需计算，不写入层缓存
+        byte[] plain = TestArchives.textLayer(16 * 1024, 62);
+        Path third = tempDir.resolve("third.tar");
+        TestArchives.writeDockerArchive(third, "third:1", plain);
+        registryImageService.pushArchive(third, "flow", "third", "1");
+        LayerStore store = LayerStore.open(tempDir.resolve("layers"), Long.MAX_VALUE);
+        assertTrue(store.contains(cachedDigest));
+        assertFalse(store.contains(FakeRegistry.sha256(plain)));
+    }
+
+    @Test
+    @DisplayName("摘要未知的压缩层边上传边计算摘要，分块重试后摘要仍然正确")
+    void testDigestWhileUploading() throws Exception {
+        byte[] layer = TestArchives.textLayer(400 * 1024, 70);
+        byte[] compressed = TestArchives.gzip(layer, 1);
+        Path tar = tempDir.resolve("stream.tar");
+        TestArchives.writeDockerArchive(tar, "stream:1", 1, layer);
+        properties.getRegistry().setChunkSize(8 * 1024);
+        registry.failPatches(2, 1);
+
+        registryImageService.pushArchive(tar, "flow", "stream", "1");
+
+        String digest = FakeRegistry.sha256(compressed);
+        JsonNode manifest = new ObjectMapper().readTree(registry.getManifest("flow/stream", "1"));
+        assertEquals(digest, manifest.get("layers").get(0).get("digest").asText());
+        assertEquals(RegistryImageService.OCI_LAYER_GZIP_MEDIA_TYPE,
+                manifest.get("layers").get(0).get("mediaType").asText());
+        assertArrayEquals(compressed, registry.getBlobs("flow/stream").get(digest));
+    }
+
+    @Test
+    @DisplayName("关闭边传边算时压缩层摘要提前并行计算，已存在的层不再上传")
+    void testPrecomputedDigests() throws Exception {
+        byte[] first = TestArchives.textLayer(64 * 1024, 71);
+        byte[] second = TestArchives.textLayer(32 * 1024, 72);
+        Path tar = tempDir.resolve("pre.tar");
+        TestArchives.writeDockerArchive(tar, "pre:1", 6, first, second);
+        registry.putBlob("flow/pre", TestArchives.gzip(first, 6));
+        properties.getRegistry().setDigestWhileUploading(false);
+        registryImageService = new RegistryImageService(new RegistryClient(properties), properties);
+
+        RegistryImageService.PushResult result = registryImageService.pushArchive(tar, "flow", "pre", "1");
+
+        assertEquals(1, result.getBlobsExisting());
+        assertTrue(registry.getBlobs("flow/pre").containsKey(FakeRegistry.sha256(TestArchives.gzip(second, 6))));
+    }
+
+    @Test
+    @DisplayName("校验tar包中各层内容与diff_id一致")
+    void testVerifyArchive() throws Exception {
+        byte[] layer = TestArchives.randomLayer(8192, 73);
+        Path tar = tempDir.resolve("verify.tar");
+        TestArchives.writeDockerArchive(tar, "verify:1", layer, TestArchives.randomLayer(4096, 74));
+        registryImageService.verifyArchive(tar);
+
+        // 篡改第一层中的一个字节（第一个条目的数据紧跟在512字节的头之后）
+        byte[] bytes = Files.readAllBytes(tar);
+        bytes[512 + 100] ^= 0x01;
+        Files.write(tar, bytes);
+        assertThrows(HarborException.class, () -> registryImageService.verifyArchive(tar));
+    }
+
+    @Test
+    @DisplayName("直接从Registry拉取为docker-archive tar包，可再次推送")
+    void testPullArchive() throws Exception {
+        byte[] base = TestArchives.textLayer(200 * 1024, 80);
+        byte[] app = TestArchives.textLayer(30 * 1024, 81);
+        Path source = tempDir.resolve("source.tar");
+        TestArchives.writeDockerArchive(source, "pull:1", 6, base, app, base);
+        RegistryImageService.PushResult pushed = registryImageService.pushArchive(source, "flow", "pull", "1");
+
+        Path pulled = tempDir.resolve("pulled.tar");
+        RegistryImageService.PullResult result = registryImageService.pullArchive("flow", "pull", "1", pulled);
+
+        assertEquals(pushed.getManifestDigest(), result.getManifestDigest());
+        assertEquals(3, result.getLayerCount());
+        assertEquals(Files.size(pulled), result.getArchiveSize());
+        assertFalse(Files.exists(tempDir.resolve("pulled.tar.part")));
+        try (DockerArchive archive = DockerArchive.open(pulled)) {
+            archive.validate();
+            assertEquals(registry.getUrl().replace("http://", "") + "/flow/pull:1",
+                    archive.getManifest().getRepoTags().get(0));
+            assertEquals(3, archive.getLayerEntries().size());
+            assertArrayEquals(TestArchives.gzip(base, 6), archive.readEntry(archive.getLayerEntries().get(0).getName()));
+            assertNotNull(archive.getEntry("index.json"));
+            assertNotNull(archive.getEntry("oci-layout"));
+        }
+
+        registryImageService.pushArchive(pulled, "flow", "copy", "1");
+        assertArrayEquals(registry.getManifest("flow/pull", "1"), registry.getManifest("flow/copy", "1"));
+    }
+
+    @Test
+    @DisplayName("下载中断后以Range请求续传")
+    void testPullResumesInterruptedDownload() throws Exception {
+        byte[] layer = TestArchives.randomLayer(256 * 1024, 82);
+        Path source = tempDir.resolve("resume-source.tar");
+        TestArchives.writeDockerArchive(source, "rp:1", layer);
+        registryImageService.pushArchive(source, "flow", "rp", "1");
+        registry.truncateDownloads(2);
+
+        Path pulled = tempDir.resolve("resume-pulled.tar");
+        registryImageService.pullArchive("flow", "rp", "1", pulled);
+
+        assertTrue(registry.getRequests().stream().anyMatch(request -> request.startsWith("GET")
+                && request.contains(FakeRegistry.sha256(layer))), "应下载层");
+        try (DockerArchive archive = DockerArchive.open(pulled)) {
+            assertArrayEquals(layer, archive.readEntry(archive.getLayerEntries().get(0).getName()));
+        }
+    }
+
+    @Test
+    @DisplayName("REGISTRY模式下保存镜像不依赖Docker守护进程，层缓存中已有的层不再下载")
+    void testSaveImageToFileRegistryMode() throws Exception {
+        properties.getLayerCache().setEnabled(true);
+        properties.getLayerCache().setDirectory(tempDir.resolve("save-layers").toString());
+        properties.setPushMode(HarborProperties.PushMode.REGISTRY);
+        registryImageService = new RegistryImageService(new RegistryClient(properties), properties);
+        byte[] layer = TestArchives.randomLayer(64 * 1024, 83);
+        Path source = tempDir.resolve("save-source.tar");
+        TestArchives.writeDockerArchive(source, "save:1", layer);
+        registryImageService.pushArchive(source, "flow", "save", "1");
+        // 未压缩层推送时不写入缓存，第一次拉取下载后才进入缓存
+        registryImageService.pullArchive("flow", "save", "1", tempDir.resolve("warm.tar"));
+        String layerRequest = "GET /v2/flow/save/blobs/" + FakeRegistry.sha256(layer);
+        long downloads = registry.getRequests().stream().filter(layerRequest::equals).count();
+
+        Path saved = tempDir.resolve("saved.tar");
+        new DockerImageService(properties, registryImageService).saveImageToFile("flow", "save", "1", saved.toString());
+
+        try (DockerArchive archive = DockerArchive.open(saved)) {
+            archive.validate();
+            assertArrayEquals(layer, archive.readEntry(archive.getLayerEntries().get(0).getName()));
+        }
+        assertEquals(downloads, registry.getRequests().stream().filter(layerRequest::equals).count(),
+                "缓存中的层不应再下载");
+    }
+
+    @Test
+    @DisplayName("只传入DockerImageService构造的HarborUtil同样可以同步镜像")
+    void testSyncImageWithTwoArgumentHarborUtil() throws Exception {
+        Path source = tempDir.resolve("sync.tar");
+        TestArchives.writeDockerArchive(source, "sync:1", TestArchives.randomLayer(16 * 1024, 84));
+        registryImageService.pushArchive(source, "dev", "sync", "1");
+
+        HarborUtil harborUtil = new HarborUtil(null, new DockerImageService(properties, registryImageService));
+        RegistryImageService.PushResult result = harborUtil.syncImage("dev", "prod", "sync", "1");
+
+        assertEquals(0, result.getBytesSent());
+        assertArrayEquals(registry.getManifest("dev/sync", "1"), registry.getManifest("prod/sync", "1"));
+    }
+
+    @Test
+    @DisplayName("Registry端复制镜像：blob从源仓库挂载，不经过本机")
+    void testCopyImageMountsBlobs() throws Exception {
+        byte[] base = TestArchives.randomLayer(128 * 1024, 90);
+        byte[] app = TestArchives.randomLayer(32 * 1024, 91);
+        Path archive = tempDir.resolve("copy.tar");
+        TestArchives.writeDockerArchive(archive, "copy:1", base, app);
+        registryImageService.pushArchive(archive, "dev", "copy", "1");
+        long received = registry.getBytesReceived();
+
+        RegistryImageService.PushResult result = registryImageService.copyImage("dev", "copy", "1", "prod");
+
+        assertEquals(0, result.getBytesSent());
+        assertEquals(3, result.getBlobsMounted());
+        assertEquals(2, result.getLayerCount());
+        assertEquals(received, registry.getBytesReceived() - registry.getManifest("prod/copy", "1").length,
+                "复制时只应上传清单");
+        assertArrayEquals(registry.getManifest("dev/copy", "1"), registry.getManifest("prod/copy", "1"));
+        assertArrayEquals(app, registry.getBlobs("prod/copy").get(FakeRegistry.sha256(app)));
+    }
+
+    @Test
+    @DisplayName("无法挂载时经本机流式转发blob")
+    void testCopyImageStreamsWithoutMount() throws Exception {
+        properties.getRegistry().setCrossRepositoryMount(false);
+        byte[] layer = TestArchives.randomLayer(96 * 1024, 92);
+        Path archive = tempDir.resolve("stream.tar");
+        TestArchives.writeDockerArchive(archive, "stream:1", layer);
+        registryImageService.pushArchive(archive, "dev", "stream", "1");
+
+        RegistryImageService.PushResult result = registryImageService.copyImage("dev", "stream", "1",
+                "prod", "renamed", "2");
+
+        assertEquals(2, result.getBlobsUploaded());
+        assertTrue(result.getImage().endsWith("/prod/renamed:2"));
+        assertArrayEquals(layer, registry.getBlobs("prod/renamed").get(FakeRegistry.sha256(layer)));
+        assertArrayEquals(registry.getManifest("dev/stream", "1"), registry.getManifest("prod/renamed", "2"));
+    }
+
+    @Test
+    @DisplayName("复制仓库的全部标签，多平台索引连同各平台清单一起复制")
+    void testCopyRepositoryWithIndex() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        List<Map<String, Object>> platforms = new ArrayList<>();
+        for (String arch : new String[]{"amd64", "arm64"}) {
+            byte[] config = ("{\"architecture\":\"" + arch + "\",\"os\":\"linux\"}").getBytes(StandardCharsets.UTF_8);
+            byte[] layer = TestArchives.randomLayer(16 * 1024, arch.hashCode());
+            registry.putBlob("dev/multi", config);
+            registry.putBlob("dev/multi", layer);
+            byte[] manifest = mapper.writeValueAsBytes(manifest(config, layer));
+            registry.putManifest("dev/multi", FakeRegistry.sha256(manifest),
+                    RegistryImageService.OCI_MANIFEST_MEDIA_TYPE, manifest);
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("mediaType", RegistryImageService.OCI_MANIFEST_MEDIA_TYPE);
+            entry.put("digest", FakeRegistry.sha256(manifest));
+            entry.put("size", manifest.length);
+            entry.put("platform", platform("linux", arch));
+            platforms.add(entry);
+        }
+        Map<String, Object> index = new LinkedHashMap<>();
+        index.put("schemaVersion", 2);
+        index.put("mediaType", RegistryImageService.OCI_INDEX_MEDIA_TYPE);
+        index.put("manifests", platforms);
+        byte[] indexBytes = mapper.writeValueAsBytes(index);
+        registry.putManifest("dev/multi", "1.0", RegistryImageService.OCI_INDEX_MEDIA_TYPE, indexBytes);
+        registry.putManifest("dev/multi", "latest", RegistryImageService.OCI_INDEX_MEDIA_TYPE, indexBytes);
+        registry.setTagPageSize(1);
+
+        List<RegistryImageService.PushResult> results = registryImageService.copyRepository("dev", "multi", "prod");
+
+        assertEquals(2, results.size());
+        assertEquals(FakeRegistry.sha256(indexBytes), results.get(0).getManifestDigest());
+        assertArrayEquals(indexBytes, registry.getManifest("prod/multi", "latest"));
+        for (Map<String, Object> entry : platforms) {
+            assertNotNull(registry.getManifest("prod/multi", (String) entry.get("digest")));
+        }
+        assertEquals(4, registry.getBlobs("prod/multi").size());
+    }
+
+    @Test
+    @DisplayName("项目导出为OCI布局：共用的层只写一次，重新导出跳过已有blob")
+    void testExportLayout() throws Exception {
+        properties.getRegistry().setExportConcurrency(3);
+        byte[] base = TestArchives.randomLayer(128 * 1024, 95);
+        for (int i = 0; i < 3; i++) {
+            Path archive = tempDir.resolve("export-" + i + ".tar");
+            TestArchives.writeDockerArchive(archive, "app" + (i % 2) + ":" + i, base,
+                    TestArchives.randomLayer(8 * 1024, 96 + i));
+            registryImageService.pushArchive(archive, "flow", "app" + (i % 2), String.valueOf(i));
+        }
+
+        Path layout = tempDir.resolve("layout");
+        RegistryImageService.ExportResult result = registryImageService.exportLayout("flow",
+                Arrays.asList("app0", "app1", "missing"), layout);
+
+        assertEquals(3, result.getImageCount());
+        assertEquals(1, result.getFailures().size());
+        assertEquals(2L * base.length, result.getBytesDeduplicated());
+        assertEquals(7, result.getBlobsWritten());
+        assertEquals(0, result.getBytesFromCache());
+        JsonNode index = new ObjectMapper().readTree(layout.resolve("index.json").toFile());
+        assertEquals(3, index.get("manifests").size());
+        assertEquals("app0:0", index.get("manifests").get(0).get("annotations")
+                .get("org.opencontainers.image.ref.name").asText());
+        assertTrue(Files.exists(layout.resolve("oci-layout")));
+        Path blobDir = layout.resolve("blobs").resolve("sha256");
+        // 1个共用层 + 3个各自的层 + 3个配置 + 3个清单
+        try (Stream<Path> blobs = Files.list(blobDir)) {
+            assertEquals(10, blobs.count());
+        }
+        assertArrayEquals(base, Files.readAllBytes(blobDir.resolve(FakeRegistry.sha256(base).substring(7))));
+
+        RegistryImageService.ExportResult again = registryImageService.exportLayout("flow",
+                Arrays.asList("app0", "app1"), layout);
+        assertEquals(0, again.getBytesDownloaded());
+        assertEquals(0, again.getBlobsWritten());
+        assertEquals(3, again.getImageCount());
+    }
+
+    @Test
+    @DisplayName("导出时层缓存命中的blob计为缓存复制，而非下载")
+    void testExportLayoutFromLayerCache() throws Exception {
+        properties.getLayerCache().setEnabled(true);
+        properties.getLayerCache().setDirectory(tempDir.resolve("layers").toString());
+        registryImageService = new RegistryImageService(new RegistryClient(properties), properties);
+        byte[] base = TestArchives.randomLayer(64 * 1024, 97);
+        byte[] app = TestArchives.randomLayer(16 * 1024, 98);
+        Path archive = tempDir.resolve("cached.tar");
+        TestArchives.writeDockerArchive(archive, "cached:1", base, app);
+        registryImageService.pushArchive(archive, "flow", "cached", "1");
+        registryImageService.pullArchive("flow", "cached", "1", tempDir.resolve("pulled.tar"));
+
+        RegistryImageService.ExportResult result = registryImageService.exportLayout("flow",
+                Collections.singletonList("cached"), tempDir.resolve("layout"));
+
+        assertEquals(1, result.getImageCount());
+        assertEquals(3, result.getBlobsWritten());
+        assertEquals(base.length + app.length, result.getBytesFromCache());
+        assertEquals(0, result.getBytesExisting());
+        assertTrue(result.getBytesDownloaded() > 0 && result.getBytesDownloaded() < 1024);
+    }
+
+    @Test
+    @DisplayName("REGISTRY模式下DockerImageService不依赖Docker守护进程")
+    void testDockerImageServiceRegistryMode() throws Exception {
+        Path tar = tempDir.resolve("nginx_1.21.tar");
+        TestArchives.writeDockerArchive(tar, "nginx:1.21", TestArchives.randomLayer(4096, 3));
+        properties.setPushMode(HarborProperties.PushMode.REGISTRY);
+
+        DockerImageService dockerImageService = new DockerImageService(properties, registryImageService);
+        String result = dockerImageService.loadAndPushImage(tar.toString());
+
+        assertTrue(result.endsWith("/flow/nginx:1.21"));
+        assertNotNull(registry.getManifest("flow/nginx", "1.21"));
+    }
+
+    @Test
+    @DisplayName("REGISTRY模式下.tar.gz/.tar.zst边解压边推送，保存时按扩展名压缩")
+    void testCompressedArchives() throws Exception {
+        properties.setPushMode(HarborProperties.PushMode.REGISTRY);
+        properties.getIo().setCompressionBlockSize(256 * 1024);
+        DockerImageService dockerImageService = new DockerImageService(properties, registryImageService);
+        // 大于内联上限的层走流式分块上传
+        byte[] large = TestArchives.textLayer(3 * 1024 * 1024 + 100, 120);
+        byte[] small = TestArchives.randomLayer(8 * 1024, 121);
+        Path tar = tempDir.resolve("packed.tar");
+        byte[] config = TestArchives.writeDockerArchive(tar, "packed:1", large, small);
+
+        for (ArchiveCompression compression : new ArchiveCompression[]{ArchiveCompression.GZIP, ArchiveCompression.ZSTD}) {
+            String tag = compression.name().toLowerCase();
+            Path packed = tempDir.resolve("packed_" + tag + compression.getExtension());
+            try (OutputStream out = compression.compressing(Files.newOutputStream(packed), properties.getIo())) {
+                Files.copy(tar, out);
+            }
+            String result = dockerImageService.loadAndPushImage(packed.toString());
+            assertTrue(result.endsWith("/flow/packed:" + tag), result);
+        }
+
+        Map<String, byte[]> blobs = registry.getBlobs("flow/packed");
+        assertArrayEquals(large, blobs.get(FakeRegistry.sha256(large)));
+        assertArrayEquals(small, blobs.get(FakeRegistry.sha256(small)));
+        assertArrayEquals(config, blobs.get(FakeRegistry.sha256(config)));
+        JsonNode manifest = new ObjectMapper().readTree(registry.getManifest("flow/packed", "zstd"));
+        assertEquals(FakeRegistry.sha256(large), manifest.get("layers").get(0).get("digest").asText());
+        assertEquals(large.length, manifest.get("layers").get(0).get("size").asLong());
+
+        Path saved = tempDir.resolve("saved.tar.gz");
+        dockerImageService.saveImageToFile("flow", "packed", "gzip", saved.toString());
+        assertEquals(ArchiveCompression.GZIP, ArchiveCompression.fromFileName(saved.toString()));
+        Path unpacked = tempDir.resolve("unpacked.tar");
+        try (InputStream in = ArchiveCompression.decompress(Files.newInputStream(saved))) {
+            Files.copy(in, unpacked);
+        }
+        try (DockerArchive archive = DockerArchive.open(unpacked)) {
+            archive.validate();
+            assertArrayEquals(large, archive.readEntry(archive.getLayerEntries().get(0).getName()));
+        }
+        assertFalse(Files.exists(tempDir.resolve("saved.tar.gz.pull.tar")), "边拉取边压缩，不应生成临时tar");
+    }
+
+    @Test
+    @DisplayName("旧版docker save以符号链接存放的重复层：按索引推送和边解压边推送都解析到目标")
+    void testPushArchiveWithLinkedLayer() throws Exception {
+        // 大于内联上限，流式推送时走分块上传
+        byte[] layer = TestArchives.randomLayer(1536 * 1024, 130);
+        byte[] other = TestArchives.randomLayer(16 * 1024, 131);
+        Path tar = tempDir.resolve("legacy.tar");
+        TestArchives.writeLinkedLayerArchive(tar, "legacy:1", layer, other);
+        List<String> expected = Arrays.asList(FakeRegistry.sha256(layer), FakeRegistry.sha256(other),
+                FakeRegistry.sha256(layer));
+
+        RegistryImageService.PushResult indexed = registryImageService.pushArchive(tar, "flow", "legacy", "index");
+        assertEquals(3, indexed.getLayerCount());
+        assertEquals(expected, layerDigests(registry.getManifest("flow/legacy", "index")));
+
+        Path packed = tempDir.resolve("legacy.tar.gz");
+        try (OutputStream out = ArchiveCompression.GZIP.compressing(Files.newOutputStream(packed),
+                properties.getIo())) {
+            Files.copy(tar, out);
+        }
+        try (InputStream in = ArchiveCompression.decompress(Files.newInputStream(packed))) {
+            RegistryImageService.PushResult streamed = registryImageService.pushArchiveStream(in, "flow", "legacy",
+                    "stream");
+            assertEquals(3, streamed.getLayerCount());
+        }
+        assertEquals(expected, layerDigests(registry.getManifest("flow/legacy", "stream")));
+        assertArrayEquals(layer, registry.getBlobs("flow/legacy").get(FakeRegistry.sha256(layer)));
+    }
+
+    private static List<String> layerDigests(byte[] manifestBytes) throws Exception {
+        List<String> digests = new ArrayList<>();
+        for (JsonNode layer : new ObjectMapper().readTree(manifestBytes).get("layers")) {
+            digests.add(layer.get("digest").asText());
+        }
+        return digests;
+    }
+
+    private static Map<String, Object> manifest(byte[] config, byte[] layer) {
+        Map<String, Object> manifest = new LinkedHashMap<>();
+        manifest.put("schemaVersion", 2);
+        manifest.put("mediaType", RegistryImageService.OCI_MANIFEST_MEDIA_TYPE);
+        manifest.put("config", descriptor(RegistryImageService.OCI_CONFIG_MEDIA_TYPE, config));
+        manifest.put("layers", Collections.singletonList(
+                descriptor(RegistryImageService.OCI_LAYER_MEDIA_TYPE, layer)));
+        return manifest;
+    }
+
+    private static Map<String, Object> descriptor(String mediaType, byte[] content) {
+        Map<String, Object> descriptor = new LinkedHashMap<>();
+        descriptor.put("mediaType", mediaType);
+        descriptor.put("digest", FakeRegistry.sha256(content));
+        descriptor.put("size", content.length);
+        return descriptor;
+    }
+
+    private static Map<String, Object> platform(String os, String architecture) {
+        Map<String, Object> platform = new LinkedHashMap<>();
+        platform.put("os", os);
+        platform.put("architecture", architecture);
+        return platform;
+    }
+}
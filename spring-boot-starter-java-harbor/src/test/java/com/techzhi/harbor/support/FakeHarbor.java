@@ -0,0 +1,278 @@
+package com.techzhi.harbor.support;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 进程内的Harbor API假服务，实现仓库和制品列表的分页查询，以及单个仓库/制品的查询（带ETag）和删除
+ *
+ * @author techzhi
+ */
+public class FakeHarbor implements AutoCloseable {
+
+    private static final Pattern REPOSITORIES = Pattern.compile("^/api/v2\\.0/projects/([^/]+)/repositories$");
+    private static final Pattern ARTIFACTS = Pattern.compile(
+            "^/api/v2\\.0/projects/([^/]+)/repositories/([^/]+)/artifacts$");
+    private static final Pattern REPOSITORY = Pattern.compile("^/api/v2\\.0/projects/([^/]+)/repositories/([^/]+)$");
+    private static final Pattern ARTIFACT = Pattern.compile(
+            "^/api/v2\\.0/projects/([^/]+)/repositories/([^/]+)/artifacts/([^/]+)$");
+
+    private final HttpServer server;
+    private final Map<String, List<String>> repositories = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> artifacts = new ConcurrentHashMap<>();
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    private volatile long delayMillis;
+    private volatile boolean linkHeaders = true;
+    private volatile int failPage = -1;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+    /**
+     * 数据每变化一次加一，作为单个资源查询的ETag
+     */
+    private final AtomicInteger version = new AtomicInteger();
+
+    public FakeHarbor() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(32));
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public void addRepositories(String project, String prefix, int count) {
+        List<String> names = repositories.computeIfAbsent(project, key -> new ArrayList<>());
+        for (int i = 0; i < count; i++) {
+            names.add(String.format("%s-%04d", prefix, i));
+        }
+        version.incrementAndGet();
+    }
+
+    public void addTags(String project, String repository, int count) {
+        List<String> tags = artifacts.computeIfAbsent(project + "/" + repository, key -> new ArrayList<>());
+        for (int i = 0; i < count; i++) {
+            tags.add("v" + i);
+        }
+        version.incrementAndGet();
+    }
+
+    /**
+     * 收到的请求，形如 "GET /api/v2.0/projects/flow/repositories?page=1&page_size=100"
+     */
+    public List<String> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+
+    /**
+     * 同时处于等待（setDelayMillis）中的请求数的峰值
+     */
+    public int getMaxConcurrentRequests() {
+        return maxActive.get();
+    }
+
+    /**
+     * 每个请求在返回前等待的时间，模拟网络往返
+     */
+    public void setDelayMillis(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * 为false时不返回Link头，模拟旧版本Harbor
+     */
+    public void setLinkHeaders(boolean linkHeaders) {
+        this.linkHeaders = linkHeaders;
+    }
+
+    /**
+     * 请求该页时返回500
+     */
+    public void failPage(int page) {
+        this.failPage = page;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        ((java.util.concurrent.ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI());
+            if (delayMillis > 0) {
+                maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(delayMillis);
+                } finally {
+                    active.decrementAndGet();
+                }
+            }
+            String path = exchange.getRequestURI().getPath();
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            Matcher repositoryMatcher = REPOSITORIES.matcher(path);
+            Matcher artifactMatcher = ARTIFACTS.matcher(path);
+            Matcher singleRepository = REPOSITORY.matcher(path);
+            Matcher singleArtifact = ARTIFACT.matcher(path);
+            if (singleRepository.matches()) {
+                handleResource(exchange, singleRepository.group(1), singleRepository.group(2), null);
+            } else if (singleArtifact.matches()) {
+                handleResource(exchange, singleArtifact.group(1), singleArtifact.group(2), singleArtifact.group(3));
+            } else if (repositoryMatcher.matches()) {
+                String project = repositoryMatcher.group(1);
+                List<String> names = repositories.getOrDefault(project, Collections.<String>emptyList());
+                sendPage(exchange, path, query, names, name -> "{\"name\":\"" + project + "/" + name
+                        + "\",\"project_id\":1,\"tags_count\":1,\"pull_count\":2,\"size\":10}");
+            } else if (artifactMatcher.matches()) {
+                List<String> tags = artifacts.get(artifactMatcher.group(1) + "/" + artifactMatcher.group(2));
+                if (tags == null) {
+                    send(exchange, 404, "{\"errors\":[{\"code\":\"NOT_FOUND\"}]}", null);
+                    return;
+                }
+                sendPage(exchange, path, query, tags, tag -> "{\"name\":\"" + tag + "\",\"size\":1}");
+            } else {
+                send(exchange, 404, "", null);
+            }
+        } catch (Exception e) {
+            send(exchange, 500, String.valueOf(e), null);
+        }
+    }
+
+    /**
+     * 查询或删除单个仓库/制品，GET时返回ETag并支持If-None-Match
+     */
+    private void handleResource(HttpExchange exchange, String project, String repository, String tag)
+            throws IOException {
+        List<String> names = repositories.getOrDefault(project, Collections.<String>emptyList());
+        List<String> tags = artifacts.get(project + "/" + repository);
+        boolean exists;
+        synchronized (names) {
+            exists = names.contains(repository) || tags != null;
+        }
+        if (exists && tag != null) {
+            exists = tags != null && tags.contains(tag);
+        }
+        if (!exists) {
+            send(exchange, 404, "{\"errors\":[{\"code\":\"NOT_FOUND\"}]}", null);
+            return;
+        }
+        if ("DELETE".equals(exchange.getRequestMethod())) {
+            if (tag != null) {
+                tags.remove(tag);
+            } else {
+                synchronized (names) {
+                    names.remove(repository);
+                }
+                artifacts.remove(project + "/" + repository);
+            }
+            version.incrementAndGet();
+            send(exchange, 200, "", null);
+            return;
+        }
+        String etag = "\"" + version.get() + "\"";
+        Map<String, String> headers = new HashMap<>();
+        headers.put("ETag", etag);
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        String body = tag != null ? "{\"name\":\"" + tag + "\",\"size\":1}"
+                : "{\"name\":\"" + project + "/" + repository + "\",\"project_id\":1,\"tags_count\":"
+                + (tags != null ? tags.size() : 0) + "}";
+        send(exchange, 200, body, headers);
+    }
+
+    private void sendPage(HttpExchange exchange, String path, Map<String, String> query, List<String> all,
+                          Function<String, String> json) throws IOException {
+        int page = Integer.parseInt(query.getOrDefault("page", "1"));
+        int pageSize = Integer.parseInt(query.getOrDefault("page_size", "10"));
+        if (page == failPage) {
+            send(exchange, 500, "{\"errors\":[{\"code\":\"UNKNOWN\"}]}", null);
+            return;
+        }
+        List<String> items;
+        synchronized (all) {
+            int from = Math.min(all.size(), (page - 1) * pageSize);
+            items = new ArrayList<>(all.subList(from, Math.min(all.size(), from + pageSize)));
+        }
+        StringBuilder body = new StringBuilder("[");
+        for (String item : items) {
+            body.append(body.length() > 1 ? "," : "").append(json.apply(item));
+        }
+        body.append(']');
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("X-Total-Count", String.valueOf(all.size()));
+        if (linkHeaders) {
+            List<String> links = new ArrayList<>();
+            String base = path + "?page=%d&page_size=" + pageSize;
+            if (page > 1) {
+                links.add("<" + String.format(base, page - 1) + ">; rel=\"prev\"");
+            }
+            if ((long) page * pageSize < all.size()) {
+                links.add("<" + String.format(base, page + 1) + ">; rel=\"next\"");
+            }
+            if (!links.isEmpty()) {
+                headers.put("Link", String.join(" , ", links));
+            }
+        }
+        send(exchange, 200, body.toString(), headers);
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+    private static void send(HttpExchange exchange, int status, String body, Map<String, String> headers)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                exchange.getResponseHeaders().set(header.getKey(), header.getValue());
+            }
+        }
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+        exchange.close();
+    }
+}
@@ -0,0 +1,433 @@
+package com.techzhi.harbor.support;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 进程内的Registry V2假服务，用于在无Harbor环境下测试原生推送/拉取逻辑
+ *
+ * @author techzhi
+ */
+public class FakeRegistry implements AutoCloseable {
+
+    private static final Pattern UPLOADS = Pattern.compile("^/v2/(.+)/blobs/uploads/(.*)$");
+    private static final Pattern BLOBS = Pattern.compile("^/v2/(.+)/blobs/(sha256:[a-f0-9]{64})$");
+    private static final Pattern MANIFESTS = Pattern.compile("^/v2/(.+)/manifests/([^/]+)$");
+    private static final Pattern TAGS = Pattern.compile("^/v2/(.+)/tags/list$");
+
+    private final HttpServer server;
+
+    /**
+     * 仓库 -> (摘要 -> 内容)
+     */
+    private final Map<String, Map<String, byte[]>> blobs = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, byte[]>> manifests = new ConcurrentHashMap<>();
+    private final Map<String, String> manifestTypes = new ConcurrentHashMap<>();
+    private final Map<String, ByteArrayOutputStream> uploads = new ConcurrentHashMap<>();
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    /**
+     * 故障注入：放行若干个PATCH后，让随后的若干个PATCH失败（数据被读取但不写入）
+     */
+    private final AtomicInteger patchesBeforeFailure = new AtomicInteger(-1);
+    private final AtomicInteger patchFailures = new AtomicInteger();
+
+    /**
+     * 正在处理中的上传请求数及其峰值，用于验证并行上传
+     */
+    private final AtomicInteger activeUploads = new AtomicInteger();
+    private final AtomicInteger maxActiveUploads = new AtomicInteger();
+    private volatile long uploadDelayMillis;
+
+    /**
+     * 故障注入：接下来若干个blob下载只发送一半内容后断开连接
+     */
+    private final AtomicInteger truncatedDownloads = new AtomicInteger();
+
+    /**
+     * 标签列表每页的数量，0表示不分页
+     */
+    private volatile int tagPageSize;
+
+    public FakeRegistry() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(16));
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public Map<String, byte[]> getBlobs(String repository) {
+        return blobs.containsKey(repository) ? blobs.get(repository) : Collections.<String, byte[]>emptyMap();
+    }
+
+    public byte[] getManifest(String repository, String reference) {
+        Map<String, byte[]> repoManifests = manifests.get(repository);
+        return repoManifests != null ? repoManifests.get(reference) : null;
+    }
+
+    public void putBlob(String repository, byte[] content) {
+        repoBlobs(repository).put(sha256(content), content);
+    }
+
+    public void putManifest(String repository, String reference, String mediaType, byte[] content) {
+        String digest = sha256(content);
+        repoManifests(repository).put(reference, content);
+        repoManifests(repository).put(digest, content);
+        manifestTypes.put(digest, mediaType);
+    }
+
+    public List<String> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * 每个上传请求（PATCH/PUT）人为增加的处理延迟
+     */
+    public void setUploadDelayMillis(long uploadDelayMillis) {
+        this.uploadDelayMillis = uploadDelayMillis;
+    }
+
+    public int getMaxActiveUploads() {
+        return maxActiveUploads.get();
+    }
+
+    /**
+     * 放行afterPatches个PATCH请求后，使接下来的failures个PATCH返回500
+     */
+    public void failPatches(int afterPatches, int failures) {
+        patchFailures.set(failures);
+        patchesBeforeFailure.set(afterPatches);
+    }
+
+    /**
+     * 使接下来的count个blob下载在发送一半内容后断开
+     */
+    public void truncateDownloads(int count) {
+        truncatedDownloads.set(count);
+    }
+
+    public void setTagPageSize(int tagPageSize) {
+        this.tagPageSize = tagPageSize;
+    }
+
+    private boolean shouldFailPatch() {
+        if (patchesBeforeFailure.get() < 0) {
+            return false;
+        }
+        if (patchesBeforeFailure.getAndDecrement() > 0) {
+            return false;
+        }
+        patchesBeforeFailure.set(0);
+        if (patchFailures.getAndDecrement() > 0) {
+            return true;
+        }
+        patchesBeforeFailure.set(-1);
+        return false;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        ((java.util.concurrent.ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            requests.add(method + " " + exchange.getRequestURI());
+
+            Matcher uploadMatcher = UPLOADS.matcher(path);
+            Matcher blobMatcher = BLOBS.matcher(path);
+            Matcher manifestMatcher = MANIFESTS.matcher(path);
+            Matcher tagsMatcher = TAGS.matcher(path);
+            if (uploadMatcher.matches()) {
+                handleUpload(exchange, method, uploadMatcher.group(1), uploadMatcher.group(2), query);
+            } else if (blobMatcher.matches()) {
+                handleBlob(exchange, method, blobMatcher.group(1), blobMatcher.group(2));
+            } else if (manifestMatcher.matches()) {
+                handleManifest(exchange, method, manifestMatcher.group(1), manifestMatcher.group(2));
+            } else if (tagsMatcher.matches()) {
+                handleTags(exchange, tagsMatcher.group(1), query);
+            } else if ("/v2/".equals(path)) {
+                send(exchange, 200, new byte[0]);
+            } else {
+                send(exchange, 404, new byte[0]);
+            }
+        } catch (Exception e) {
+            send(exchange, 500, String.valueOf(e).getBytes("UTF-8"));
+        }
+    }
+
+    private void handleUpload(HttpExchange exchange, String method, String repository, String id,
+                              Map<String, String> query) throws IOException {
+        if ("POST".equals(method) && id.isEmpty()) {
+            String mount = query.get("mount");
+            String from = query.get("from");
+            if (mount != null && from != null && getBlobs(from).containsKey(mount)) {
+                repoBlobs(repository).put(mount, getBlobs(from).get(mount));
+                exchange.getResponseHeaders().set("Location", "/v2/" + repository + "/blobs/" + mount);
+                exchange.getResponseHeaders().set("Docker-Content-Digest", mount);
+                send(exchange, 201, new byte[0]);
+                return;
+            }
+            String uuid = UUID.randomUUID().toString();
+            uploads.put(uuid, new ByteArrayOutputStream());
+            exchange.getResponseHeaders().set("Location", "/v2/" + repository + "/blobs/uploads/" + uuid);
+            exchange.getResponseHeaders().set("Range", "0-0");
+            send(exchange, 202, new byte[0]);
+            return;
+        }
+
+        ByteArrayOutputStream upload = uploads.get(id);
+        if (upload == null) {
+            send(exchange, 404, new byte[0]);
+            return;
+        }
+
+        if ("PATCH".equals(method) || "PUT".equals(method)) {
+            int active = activeUploads.incrementAndGet();
+            maxActiveUploads.accumulateAndGet(active, Math::max);
+            try {
+                if (uploadDelayMillis > 0) {
+                    Thread.sleep(uploadDelayMillis);
+                }
+                handleUploadData(exchange, method, repository, id, query, upload);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                send(exchange, 500, new byte[0]);
+            } finally {
+                activeUploads.decrementAndGet();
+            }
+            return;
+        }
+
+        if ("GET".equals(method)) {
+            setRange(exchange, upload.size());
+            exchange.getResponseHeaders().set("Location", "/v2/" + repository + "/blobs/uploads/" + id);
+            send(exchange, 204, new byte[0]);
+        } else if ("DELETE".equals(method)) {
+            uploads.remove(id);
+            send(exchange, 204, new byte[0]);
+        } else {
+            send(exchange, 405, new byte[0]);
+        }
+    }
+
+    private void handleUploadData(HttpExchange exchange, String method, String repository, String id,
+                                  Map<String, String> query, ByteArrayOutputStream upload) throws IOException {
+        if ("PATCH".equals(method)) {
+            String contentRange = exchange.getRequestHeaders().getFirst("Content-Range");
+            if (contentRange != null && Long.parseLong(contentRange.split("-")[0]) != upload.size()) {
+                send(exchange, 416, new byte[0]);
+                return;
+            }
+            if (shouldFailPatch()) {
+                append(exchange, new ByteArrayOutputStream());
+                send(exchange, 500, "injected failure".getBytes("UTF-8"));
+                return;
+            }
+            append(exchange, upload);
+            setRange(exchange, upload.size());
+            exchange.getResponseHeaders().set("Location", "/v2/" + repository + "/blobs/uploads/" + id);
+            send(exchange, 202, new byte[0]);
+        } else {
+            append(exchange, upload);
+            byte[] content = upload.toByteArray();
+            String digest = query.get("digest");
+            if (digest == null || !digest.equals(sha256(content))) {
+                send(exchange, 400, "DIGEST_INVALID".getBytes("UTF-8"));
+                return;
+            }
+            uploads.remove(id);
+            repoBlobs(repository).put(digest, content);
+            exchange.getResponseHeaders().set("Location", "/v2/" + repository + "/blobs/" + digest);
+            exchange.getResponseHeaders().set("Docker-Content-Digest", digest);
+            send(exchange, 201, new byte[0]);
+        }
+    }
+
+    private void handleBlob(HttpExchange exchange, String method, String repository, String digest) throws IOException {
+        byte[] content = getBlobs(repository).get(digest);
+        if (content == null) {
+            send(exchange, 404, new byte[0]);
+            return;
+        }
+        exchange.getResponseHeaders().set("Docker-Content-Digest", digest);
+        if ("HEAD".equals(method)) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(content.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+
+        int code = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=")) {
+            int start = Integer.parseInt(range.substring(6, range.indexOf('-')));
+            content = Arrays.copyOfRange(content, start, content.length);
+            code = 206;
+        }
+        if (truncatedDownloads.getAndDecrement() > 0 && content.length > 1) {
+            exchange.sendResponseHeaders(code, content.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(content, 0, content.length / 2);
+            out.flush();
+            exchange.close();
+            return;
+        }
+        send(exchange, code, content);
+    }
+
+    private void handleManifest(HttpExchange exchange, String method, String repository, String reference)
+            throws IOException {
+        if ("PUT".equals(method)) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            append(exchange, body);
+            byte[] content = body.toByteArray();
+            putManifest(repository, reference, exchange.getRequestHeaders().getFirst("Content-Type"), content);
+            exchange.getResponseHeaders().set("Docker-Content-Digest", sha256(content));
+            send(exchange, 201, new byte[0]);
+            return;
+        }
+
+        byte[] content = getManifest(repository, reference);
+        if (content == null) {
+            send(exchange, 404, new byte[0]);
+            return;
+        }
+        String digest = sha256(content);
+        exchange.getResponseHeaders().set("Docker-Content-Digest", digest);
+        exchange.getResponseHeaders().set("Content-Type", manifestTypes.get(digest));
+        if ("HEAD".equals(method)) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(content.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        } else {
+            send(exchange, 200, content);
+        }
+    }
+
+    private void handleTags(HttpExchange exchange, String repository, Map<String, String> query) throws IOException {
+        if (!manifests.containsKey(repository)) {
+            send(exchange, 404, new byte[0]);
+            return;
+        }
+        List<String> tags = new ArrayList<>();
+        for (String reference : manifests.get(repository).keySet()) {
+            if (!reference.startsWith("sha256:")) {
+                tags.add(reference);
+            }
+        }
+        Collections.sort(tags);
+        if (query.containsKey("last")) {
+            tags = tags.subList(Collections.binarySearch(tags, query.get("last")) + 1, tags.size());
+        }
+        if (tagPageSize > 0 && tags.size() > tagPageSize) {
+            tags = tags.subList(0, tagPageSize);
+            exchange.getResponseHeaders().set("Link", "</v2/" + repository + "/tags/list?n=" + tagPageSize
+                    + "&last=" + tags.get(tags.size() - 1) + ">; rel=\"next\"");
+        }
+        StringBuilder body = new StringBuilder("{\"name\":\"").append(repository).append("\",\"tags\":[");
+        for (int i = 0; i < tags.size(); i++) {
+            body.append(i > 0 ? "," : "").append('"').append(tags.get(i)).append('"');
+        }
+        body.append("]}");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        send(exchange, 200, body.toString().getBytes("UTF-8"));
+    }
+
+    private void append(HttpExchange exchange, ByteArrayOutputStream target) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = exchange.getRequestBody()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                target.write(buffer, 0, read);
+                bytesReceived.addAndGet(read);
+            }
+        }
+    }
+
+    private static void setRange(HttpExchange exchange, long size) {
+        exchange.getResponseHeaders().set("Range", "0-" + Math.max(size - 1, 0));
+    }
+
+    private static void send(HttpExchange exchange, int code, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(code, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        exchange.close();
+    }
+
+    private Map<String, byte[]> repoBlobs(String repository) {
+        return blobs.computeIfAbsent(repository, key -> new ConcurrentHashMap<>());
+    }
+
+    private Map<String, byte[]> repoManifests(String repository) {
+        return manifests.computeIfAbsent(repository, key -> new ConcurrentHashMap<>());
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int index = pair.indexOf('=');
+            if (index > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, index), "UTF-8"),
+                        URLDecoder.decode(pair.substring(index + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+    public static String sha256(byte[] content) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder hex = new StringBuilder("sha256:");
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
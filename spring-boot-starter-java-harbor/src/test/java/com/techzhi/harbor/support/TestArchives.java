@@ -0,0 +1,211 @@
+package com.techzhi.harbor.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 测试用docker-archive tar包构造工具，生成与 docker save 相同布局的文件
+ *
+ * @author techzhi
+ */
+public final class TestArchives {
+
+    private TestArchives() {
+    }
+
+    /**
+     * 生成指定大小的随机层内容
+     */
+    public static byte[] randomLayer(int size, long seed) {
+        byte[] layer = new byte[size];
+        new Random(seed).nextBytes(layer);
+        return layer;
+    }
+
+    /**
+     * 生成docker-archive镜像tar包
+     *
+     * @param target 目标文件
+     * @param repoTag 镜像引用，如 nginx:1.21
+     * @param layers 各层内容（未压缩）
+     * @return 镜像配置内容
+     */
+    public static byte[] writeDockerArchive(Path target, String repoTag, byte[]... layers) throws IOException {
+        return writeDockerArchive(target, repoTag, -1, layers);
+    }
+
+    /**
+     * 生成各层以gzip压缩存放的docker-archive镜像tar包
+     *
+     * @param gzipLevel 压缩级别，小于0时不压缩
+     * @param layers 各层内容（未压缩），diff_id按未压缩内容计算
+     * @return 镜像配置内容
+     */
+    public static byte[] writeDockerArchive(Path target, String repoTag, int gzipLevel, byte[]... layers)
+            throws IOException {
+        StringBuilder diffIds = new StringBuilder();
+        StringBuilder layerPaths = new StringBuilder();
+        for (int i = 0; i < layers.length; i++) {
+            String digest = FakeRegistry.sha256(layers[i]);
+            diffIds.append(i > 0 ? "," : "").append('"').append(digest).append('"');
+            layerPaths.append(i > 0 ? "," : "").append('"').append(digest.substring(7)).append("/layer.tar\"");
+        }
+        byte[] config = ("{\"architecture\":\"amd64\",\"os\":\"linux\",\"config\":{},"
+                + "\"rootfs\":{\"type\":\"layers\",\"diff_ids\":[" + diffIds + "]}}").getBytes(StandardCharsets.UTF_8);
+        String configName = FakeRegistry.sha256(config).substring(7) + ".json";
+        byte[] manifest = ("[{\"Config\":\"" + configName + "\",\"RepoTags\":[\"" + repoTag + "\"],"
+                + "\"Layers\":[" + layerPaths + "]}]").getBytes(StandardCharsets.UTF_8);
+
+        try (OutputStream out = Files.newOutputStream(target)) {
+            for (int i = 0; i < layers.length; i++) {
+                writeEntry(out, FakeRegistry.sha256(layers[i]).substring(7) + "/layer.tar",
+                        gzipLevel < 0 ? layers[i] : gzip(layers[i], gzipLevel));
+            }
+            writeEntry(out, configName, config);
+            writeEntry(out, "manifest.json", manifest);
+            out.write(new byte[1024]);
+        }
+        return config;
+    }
+
+    /**
+     * 生成可压缩的层内容
+     */
+    public static byte[] textLayer(int size, long seed) {
+        Random random = new Random(seed);
+        byte[] layer = new byte[size];
+        for (int i = 0; i < size; i++) {
+            layer[i] = (byte) ('a' + (i % 64 == 0 ? random.nextInt(26) : (i / 64) % 26));
+        }
+        return layer;
+    }
+
+    /**
+     * 按指定压缩级别gzip压缩
+     */
+    public static byte[] gzip(byte[] content, final int level) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(buffer) {
+            {
+                def.setLevel(level);
+            }
+        }) {
+            out.write(content);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * 生成旧版docker save格式的tar包：重复的层以符号链接 {@code <id>/layer.tar -> ../<other>/layer.tar} 存放，
+     * 且链接写在目标之前
+     *
+     * @param layer 出现两次的层（第1层和第3层）
+     * @param other 第2层
+     * @return 镜像配置内容
+     */
+    public static byte[] writeLinkedLayerArchive(Path target, String repoTag, byte[] layer, byte[] other)
+            throws IOException {
+        String layerId = FakeRegistry.sha256(layer).substring(7);
+        String otherId = FakeRegistry.sha256(other).substring(7);
+        String linkId = repeat('0', 64);
+        byte[] config = ("{\"architecture\":\"amd64\",\"os\":\"linux\",\"config\":{},"
+                + "\"rootfs\":{\"type\":\"layers\",\"diff_ids\":[\"" + FakeRegistry.sha256(layer) + "\",\""
+                + FakeRegistry.sha256(other) + "\",\"" + FakeRegistry.sha256(layer) + "\"]}}")
+                .getBytes(StandardCharsets.UTF_8);
+        String configName = FakeRegistry.sha256(config).substring(7) + ".json";
+        byte[] manifest = ("[{\"Config\":\"" + configName + "\",\"RepoTags\":[\"" + repoTag + "\"],"
+                + "\"Layers\":[\"" + layerId + "/layer.tar\",\"" + otherId + "/layer.tar\",\""
+                + linkId + "/layer.tar\"]}]").getBytes(StandardCharsets.UTF_8);
+
+        try (OutputStream out = Files.newOutputStream(target)) {
+            writeLink(out, linkId + "/layer.tar", '2', "../" + layerId + "/layer.tar");
+            writeEntry(out, layerId + "/layer.tar", layer);
+            writeEntry(out, otherId + "/layer.tar", other);
+            writeEntry(out, configName, config);
+            writeEntry(out, "manifest.json", manifest);
+            out.write(new byte[1024]);
+        }
+        return config;
+    }
+
+    /**
+     * 写入一个ustar格式的普通文件条目
+     */
+    public static void writeEntry(OutputStream out, String name, byte[] content) throws IOException {
+        out.write(header(name, content.length, '0', ""));
+        out.write(content);
+        int padding = (512 - content.length % 512) % 512;
+        out.write(new byte[padding]);
+    }
+
+    /**
+     * 写入一个ustar格式的链接条目
+     *
+     * @param type '1' 硬链接，'2' 符号链接
+     */
+    public static void writeLink(OutputStream out, String name, char type, String linkName) throws IOException {
+        out.write(header(name, 0, type, linkName));
+    }
+
+    public static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    private static byte[] header(String name, long size, char type, String linkName) {
+        byte[] header = new byte[512];
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(nameBytes, 0, header, 0, Math.min(nameBytes.length, 100));
+        byte[] linkBytes = linkName.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(linkBytes, 0, header, 157, Math.min(linkBytes.length, 100));
+        putOctal(header, 100, 8, 0644);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putOctal(header, 124, 12, size);
+        putOctal(header, 136, 12, 0);
+        header[156] = (byte) type;
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        putOctal(header, 148, 7, checksum);
+        return header;
+    }
+
+    private static void putOctal(byte[] header, int offset, int length, long value) {
+        String octal = Long.toOctalString(value);
+        StringBuilder padded = new StringBuilder();
+        for (int i = octal.length(); i < length - 1; i++) {
+            padded.append('0');
+        }
+        padded.append(octal);
+        byte[] bytes = padded.toString().getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+
+    /**
+     * 读取整个流
+     */
+    public static byte[] toBytes(java.io.InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,79 @@
+package com.techzhi.harbor.transfer;
+
+import com.techzhi.harbor.support.FakeRegistry;
+import com.techzhi.harbor.support.TestArchives;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * DigestEngine测试
+ *
+ * @author techzhi
+ */
+class DigestEngineTest {
+
+    private final DigestEngine engine = new DigestEngine(4, new DirectBufferPool(64 * 1024, 4));
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void tearDown() {
+        engine.shutdown();
+    }
+
+    @Test
+    @DisplayName("并行计算同一文件多个区间的摘要")
+    void testParallelRegions() throws Exception {
+        byte[] content = TestArchives.randomLayer(1024 * 1024 + 123, 1);
+        Path file = Files.write(tempDir.resolve("data.bin"), content);
+        int[][] regions = {{0, 100}, {100, 300 * 1024}, {5, content.length - 5}, {content.length, 0}};
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int[] region : regions) {
+                futures.add(engine.sha256Async(channel, region[0], region[1]));
+            }
+            for (int i = 0; i < regions.length; i++) {
+                byte[] expected = Arrays.copyOfRange(content, regions[i][0], regions[i][0] + regions[i][1]);
+                assertEquals(FakeRegistry.sha256(expected), futures.get(i).get());
+            }
+            assertEquals(FakeRegistry.sha256(content), engine.sha256(channel, 0, content.length));
+        }
+    }
+
+    @Test
+    @DisplayName("增量摘要在前进、回退和补算后结果一致")
+    void testRunningDigest() throws Exception {
+        byte[] content = TestArchives.randomLayer(200 * 1024, 2);
+        Path file = Files.write(tempDir.resolve("data.bin"), content);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            DigestEngine.RunningDigest running = engine.newRunningDigest(channel, 0);
+
+            // 模拟分块写出时顺带计算后提交
+            MessageDigest chunk = running.stateAt(0);
+            chunk.update(content, 0, 50 * 1024);
+            running.commit(50 * 1024, chunk);
+
+            // 续传位置超前时从文件补算，回退时重新计算
+            assertEquals(FakeRegistry.sha256(Arrays.copyOf(content, 120 * 1024)), running.digestAt(120 * 1024));
+            assertEquals(FakeRegistry.sha256(Arrays.copyOf(content, 10 * 1024)), running.digestAt(10 * 1024));
+            assertEquals(FakeRegistry.sha256(content), running.digestAt(content.length));
+        }
+    }
+}
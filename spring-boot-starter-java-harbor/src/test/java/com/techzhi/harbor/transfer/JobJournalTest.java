@@ -0,0 +1,177 @@
+package com.techzhi.harbor.transfer;
+
+import com.techzhi.harbor.client.RegistryClient;
+import com.techzhi.harbor.config.HarborProperties;
+import com.techzhi.harbor.service.DockerImageService;
+import com.techzhi.harbor.service.RegistryImageService;
+import com.techzhi.harbor.support.FakeRegistry;
+import com.techzhi.harbor.support.TestArchives;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JobJournal测试：重放、末尾损坏截断、成组刷盘以及批量加载推送的断点续做
+ *
+ * @author techzhi
+ */
+class JobJournalTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("重新打开日志后已完成条目被跳过，结束的任务在压缩时移除")
+    void testReplayAndCompaction() {
+        JobJournal journal = new JobJournal(tempDir, 10);
+        JobJournal.Job job = journal.openJob("export-1");
+        job.started("app:1");
+        job.completed("app:1", "/exports/app_1.tar");
+        job.started("app:2");
+        job.failed("app:2", "connection\treset\nby peer");
+        job.started("app:3");
+        assertFalse(job.finish(Arrays.asList("app:1", "app:2", "app:3")));
+        JobJournal.Job other = journal.openJob("load-1");
+        other.completed("web:1", "harbor/flow/web:1");
+        assertTrue(other.finish(Arrays.asList("web:1")));
+        journal.destroy();
+
+        JobJournal reopened = new JobJournal(tempDir, 10);
+        JobJournal.Job resumed = reopened.openJob("export-1");
+        assertTrue(resumed.isCompleted("app:1"));
+        assertEquals("/exports/app_1.tar", resumed.getResult("app:1"));
+        assertFalse(resumed.isCompleted("app:2"));
+        assertEquals(Arrays.asList("app:2", "app:3"), sorted(resumed.getUnfinishedItems()));
+        assertEquals(0, reopened.openJob("load-1").getCompletedCount(), "已结束的任务重新开始");
+        reopened.destroy();
+    }
+
+    @Test
+    @DisplayName("末尾写了一半的记录被截断，之前的记录保留")
+    void testTornTailIsTruncated() throws Exception {
+        JobJournal journal = new JobJournal(tempDir, 10);
+        JobJournal.Job job = journal.openJob("load-2");
+        job.completed("a", "image-a");
+        job.completed("b", "image-b");
+        journal.destroy();
+
+        Path file = tempDir.resolve(JobJournal.JOURNAL_FILE);
+        long intact = Files.size(file);
+        Files.write(file, "D\tload-2\tc\timag".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        JobJournal reopened = new JobJournal(tempDir, 10);
+        JobJournal.Job resumed = reopened.openJob("load-2");
+        assertEquals(2, resumed.getCompletedCount());
+        assertFalse(resumed.isCompleted("c"));
+        assertEquals(intact, Files.size(file));
+        reopened.destroy();
+    }
+
+    @Test
+    @DisplayName("数千条并发记录成组刷盘，全部可重放")
+    void testThousandsOfConcurrentRecords() throws Exception {
+        JobJournal journal = new JobJournal(tempDir, 50);
+        JobJournal.Job job = journal.openJob("bulk");
+        int threads = 8;
+        int perThread = 1000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    String item = "item-" + thread + "-" + i;
+                    job.started(item);
+                    job.completed(item, "result-" + i);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        journal.flush();
+        journal.destroy();
+
+        JobJournal reopened = new JobJournal(tempDir, 50);
+        assertEquals(threads * perThread, reopened.openJob("bulk").getCompletedCount());
+        reopened.destroy();
+    }
+
+    @Test
+    @DisplayName("批量加载推送中断后重新调用，只执行未完成的条目")
+    void testBatchLoadResumesAfterFailure() throws Exception {
+        try (FakeRegistry registry = new FakeRegistry()) {
+            HarborProperties properties = new HarborProperties();
+            properties.setHost(registry.getUrl());
+            properties.setUsername("admin");
+            properties.setPassword("Harbor12345");
+            properties.setProject("flow");
+            properties.setPushMode(HarborProperties.PushMode.REGISTRY);
+            properties.getRegistry().setSessionDir(tempDir.resolve("sessions").toString());
+            Path journalDir = tempDir.resolve("journal");
+
+            List<DockerImageService.BatchImageInfo> batch = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Path tar = tempDir.resolve("svc_" + i + ".tar");
+                TestArchives.writeDockerArchive(tar, "svc:" + i, TestArchives.randomLayer(16 * 1024, i));
+                batch.add(new DockerImageService.BatchImageInfo(tar.toString(), "flow", "svc", String.valueOf(i)));
+            }
+            Path broken = tempDir.resolve("broken_1.tar");
+            Files.write(broken, "truncated".getBytes(StandardCharsets.UTF_8));
+            batch.add(new DockerImageService.BatchImageInfo(broken.toString(), "flow", "broken", "1"));
+
+            JobJournal journal = new JobJournal(journalDir, 10);
+            DockerImageService service = newService(properties, journal);
+            assertThrows(CompletionException.class, () -> service.batchLoadAndPushImages(batch));
+            service.destroy();
+            journal.destroy();
+            assertEquals(3, manifestPuts(registry));
+
+            // 模拟重启：新的日志实例和服务，修复损坏的文件后以相同批次重新调用
+            TestArchives.writeDockerArchive(broken, "broken:1", TestArchives.randomLayer(16 * 1024, 9));
+            JobJournal restarted = new JobJournal(journalDir, 10);
+            DockerImageService resumedService = newService(properties, restarted);
+            List<String> results = resumedService.batchLoadAndPushImages(batch);
+            resumedService.destroy();
+            restarted.destroy();
+
+            assertEquals(4, results.size());
+            assertTrue(results.get(0).endsWith("/flow/svc:0"), results.get(0));
+            assertTrue(results.get(3).endsWith("/flow/broken:1"), results.get(3));
+            assertEquals(4, manifestPuts(registry), "已完成的三个镜像不应重新推送");
+        }
+    }
+
+    private static DockerImageService newService(HarborProperties properties, JobJournal journal) {
+        RegistryImageService registryImageService = new RegistryImageService(new RegistryClient(properties),
+                properties);
+        return new DockerImageService(properties, registryImageService, new TransferScheduler(properties), journal);
+    }
+
+    private static long manifestPuts(FakeRegistry registry) {
+        return registry.getRequests().stream()
+                .filter(request -> request.startsWith("PUT") && request.contains("/manifests/"))
+                .count();
+    }
+
+    private static List<String> sorted(List<String> items) {
+        List<String> copy = new ArrayList<>(items);
+        copy.sort(null);
+        return copy;
+    }
+}
@@ -0,0 +1,122 @@
+package com.techzhi.harbor.transfer;
+
+import com.techzhi.harbor.support.FakeRegistry;
+import com.techzhi.harbor.support.TestArchives;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * LayerStore测试
+ *
+ * @author techzhi
+ */
+class LayerStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("按摘要和diff_id读取缓存层，记录所在仓库并在重启后恢复")
+    void testPutAndReload() throws Exception {
+        byte[] layer = TestArchives.randomLayer(4096, 1);
+        String digest = FakeRegistry.sha256(layer);
+        Path source = write("source.bin", layer);
+
+        LayerStore store = new LayerStore(tempDir.resolve("cache"), 1 << 20);
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            store.put(digest, "sha256:diff", channel, 0, layer.length);
+        }
+        store.addRepository(digest, "flow/demo");
+
+        try (LayerStore.CachedLayer cached = store.findByDiffId("sha256:diff")) {
+            assertEquals(digest, cached.getDigest());
+            assertArrayEquals(layer, Files.readAllBytes(cached.getPath()));
+        }
+
+        LayerStore reopened = new LayerStore(tempDir.resolve("cache"), 1 << 20);
+        assertTrue(reopened.contains(digest));
+        assertEquals(layer.length, reopened.getTotalBytes());
+        assertTrue(reopened.getRepositories(digest).contains("flow/demo"));
+        assertNotNull(reopened.findByDiffId("sha256:diff"));
+        assertNull(reopened.get("sha256:missing"));
+    }
+
+    @Test
+    @DisplayName("超出上限时淘汰最久未使用且未被占用的层")
+    void testLruEviction() throws Exception {
+        LayerStore store = new LayerStore(tempDir.resolve("cache"), 250);
+        String first = put(store, 100, 1);
+        String second = put(store, 100, 2);
+        store.get(first).close();
+
+        LayerStore.CachedLayer pinned = store.get(second);
+        String third = put(store, 100, 3);
+        assertTrue(store.contains(second), "被占用的层不应被淘汰");
+        assertFalse(store.contains(first));
+        assertTrue(store.contains(third));
+
+        pinned.close();
+        put(store, 100, 4);
+        assertFalse(store.contains(second));
+        assertTrue(store.getTotalBytes() <= 250);
+    }
+
+    @Test
+    @DisplayName("并发写入同一层只保留一份")
+    void testConcurrentPut() throws Exception {
+        byte[] layer = TestArchives.randomLayer(256 * 1024, 5);
+        String digest = FakeRegistry.sha256(layer);
+        Path source = write("source.bin", layer);
+        LayerStore store = new LayerStore(tempDir.resolve("cache"), 1 << 24);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(executor.submit(() -> {
+                    try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+                        store.put(digest, null, channel, 0, layer.length);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, store.size());
+        assertEquals(layer.length, store.getTotalBytes());
+        try (LayerStore.CachedLayer cached = store.get(digest)) {
+            assertArrayEquals(layer, Files.readAllBytes(cached.getPath()));
+        }
+    }
+
+    private String put(LayerStore store, int size, long seed) throws Exception {
+        byte[] layer = TestArchives.randomLayer(size, seed);
+        String digest = FakeRegistry.sha256(layer);
+        try (FileChannel channel = FileChannel.open(write("layer-" + seed, layer), StandardOpenOption.READ)) {
+            store.put(digest, null, channel, 0, size);
+        }
+        return digest;
+    }
+
+    private Path write(String name, byte[] content) throws Exception {
+        return Files.write(tempDir.resolve(name), content);
+    }
+}
@@ -0,0 +1,90 @@
+package com.techzhi.harbor.transfer;
+
+import com.techzhi.harbor.support.TestArchives;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * StreamCopier测试
+ *
+ * @author techzhi
+ */
+class StreamCopierTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("流、文件和文件流之间的拷贝结果一致")
+    void testCopy() throws Exception {
+        byte[] content = TestArchives.randomLayer(3 * DirectBufferPool.DEFAULT_BUFFER_SIZE + 4321, 1);
+
+        Path fromStream = tempDir.resolve("from-stream.tar");
+        assertEquals(content.length, StreamCopier.copy(new ByteArrayInputStream(content), fromStream));
+        assertArrayEquals(content, Files.readAllBytes(fromStream));
+
+        ByteArrayOutputStream fromFile = new ByteArrayOutputStream();
+        assertEquals(content.length, StreamCopier.copy(fromStream, fromFile));
+        assertArrayEquals(content, fromFile.toByteArray());
+
+        // 文件到文件走transferTo/transferFrom
+        Path transferred = tempDir.resolve("transferred.tar");
+        try (FileInputStream in = new FileInputStream(fromStream.toFile())) {
+            assertEquals(content.length, StreamCopier.copy(in, transferred));
+        }
+        assertArrayEquals(content, Files.readAllBytes(transferred));
+
+        Path appended = tempDir.resolve("appended.tar");
+        try (FileOutputStream out = new FileOutputStream(appended.toFile())) {
+            out.write(content, 0, 10);
+            try (FileInputStream in = new FileInputStream(fromStream.toFile())) {
+                assertEquals(content.length, StreamCopier.copy(in, out));
+            }
+            assertEquals(content.length, StreamCopier.copy(fromStream, out));
+        }
+        byte[] appendedBytes = Files.readAllBytes(appended);
+        assertEquals(10 + 2L * content.length, appendedBytes.length);
+        assertEquals(content[0], appendedBytes[10]);
+        assertEquals(content[content.length - 1], appendedBytes[appendedBytes.length - 1]);
+    }
+
+    @Test
+    @DisplayName("池化文件输入流支持跨缓冲区的mark/reset和skip")
+    void testPooledInputStream() throws Exception {
+        byte[] content = TestArchives.randomLayer(DirectBufferPool.DEFAULT_BUFFER_SIZE * 2 + 100, 2);
+        Path file = tempDir.resolve("input.bin");
+        Files.write(file, content);
+
+        try (InputStream in = StreamCopier.openInputStream(file)) {
+            assertTrue(in.markSupported());
+            in.mark(4);
+            byte[] head = new byte[4];
+            assertEquals(4, in.read(head));
+            in.reset();
+            assertEquals(content[0] & 0xff, in.read());
+
+            in.mark(0);
+            assertEquals(DirectBufferPool.DEFAULT_BUFFER_SIZE + 10, in.skip(DirectBufferPool.DEFAULT_BUFFER_SIZE + 10));
+            assertEquals(content[DirectBufferPool.DEFAULT_BUFFER_SIZE + 11] & 0xff, in.read());
+            in.reset();
+            assertEquals(content[1] & 0xff, in.read());
+            assertEquals(content.length - 2, in.available());
+
+            byte[] rest = TestArchives.toBytes(in);
+            assertEquals(content.length - 2, rest.length);
+            assertEquals(content[content.length - 1], rest[rest.length - 1]);
+            assertEquals(-1, in.read());
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.techzhi.harbor.transfer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * DockerImageService tar流拷贝的JMH对比：原先每次调用分配1MB数组和1MB缓冲流的拷贝循环 vs StreamCopier
+ * 4个线程并发模拟批量保存/加载，配合GC profiler观察分配速率。
+ * 运行：mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.techzhi.harbor.transfer.StreamCopyBenchmark
+ *
+ * @author techzhi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class StreamCopyBenchmark {
+
+    private static final int LEGACY_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * 单个镜像tar的大小（MB）
+     */
+    @Param({"32"})
+    public int sizeMb;
+
+    private byte[] content;
+    private Path directory;
+    private Path source;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        content = new byte[sizeMb * 1024 * 1024];
+        new Random(42).nextBytes(content);
+        directory = Files.createTempDirectory("stream-copy-bench");
+        source = directory.resolve("source.tar");
+        Files.write(source, content);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Target {
+        Path file;
+
+        @Setup(Level.Trial)
+        public void setUp(StreamCopyBenchmark benchmark) throws IOException {
+            file = Files.createTempFile(benchmark.directory, "target", ".tar");
+        }
+    }
+
+    /**
+     * 原保存路径：docker save流 -> new byte[1MB] -> BufferedOutputStream(1MB) -> 文件
+     */
+    @Benchmark
+    public long saveLegacy(Target target) throws IOException {
+        try (InputStream in = new SocketLikeInputStream(content);
+             OutputStream out = new BufferedOutputStream(Files.newOutputStream(target.file), LEGACY_BUFFER_SIZE)) {
+            byte[] buffer = new byte[LEGACY_BUFFER_SIZE];
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                total += read;
+            }
+            return total;
+        }
+    }
+
+    @Benchmark
+    public long savePooled(Target target) throws IOException {
+        try (InputStream in = new SocketLikeInputStream(content)) {
+            return StreamCopier.copy(in, target.file);
+        }
+    }
+
+    /**
+     * 原加载路径：BufferedInputStream(1MB) 包装文件交给docker-java按64KB读取
+     */
+    @Benchmark
+    public long loadLegacy(Blackhole blackhole) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(source), LEGACY_BUFFER_SIZE)) {
+            return drain(in, blackhole);
+        }
+    }
+
+    @Benchmark
+    public long loadPooled(Blackhole blackhole) throws IOException {
+        try (InputStream in = StreamCopier.openInputStream(source)) {
+            return drain(in, blackhole);
+        }
+    }
+
+    /**
+     * 文件到文件：拷贝循环 vs transferFrom
+     */
+    @Benchmark
+    public long fileCopyLegacy(Target target) throws IOException {
+        try (InputStream in = Files.newInputStream(source);
+             OutputStream out = new BufferedOutputStream(Files.newOutputStream(target.file), LEGACY_BUFFER_SIZE)) {
+            byte[] buffer = new byte[LEGACY_BUFFER_SIZE];
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                total += read;
+            }
+            return total;
+        }
+    }
+
+    @Benchmark
+    public long fileCopyTransfer(Target target) throws IOException {
+        try (FileInputStream in = new FileInputStream(source.toFile())) {
+            return StreamCopier.copy(in, target.file);
+        }
+    }
+
+    private static long drain(InputStream in, Blackhole blackhole) throws IOException {
+        byte[] chunk = new byte[64 * 1024];
+        long total = 0;
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            blackhole.consume(chunk[read - 1]);
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * 模拟docker-java返回的响应流：每次最多返回64KB
+     */
+    private static final class SocketLikeInputStream extends InputStream {
+
+        private final byte[] content;
+        private int position;
+
+        SocketLikeInputStream(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public int read() {
+            return position < content.length ? content[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (position >= content.length) {
+                return -1;
+            }
+            int count = Math.min(Math.min(length, 64 * 1024), content.length - position);
+            System.arraycopy(content, position, bytes, offset, count);
+            position += count;
+            return count;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(StreamCopyBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,216 @@
+package com.techzhi.harbor.transfer;
+
+import com.techzhi.harbor.archive.ArchiveCompression;
+import com.techzhi.harbor.config.HarborProperties;
+import com.techzhi.harbor.exception.HarborException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TransferEngineSelector测试：用按大小档设定耗时的假引擎验证选择顺序、探测、可用性和失败回退
+ *
+ * @author techzhi
+ */
+class TransferEngineSelectorTest {
+
+    private static final long BUCKET = 1024 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("先各试一次未测量的引擎，之后每个大小档选吞吐量最高的引擎")
+    void testPicksFastestPerBucket() throws Exception {
+        FakeEngine registry = new FakeEngine("registry", 5, 150);
+        FakeEngine docker = new FakeEngine("docker", 150, 5);
+        TransferEngineSelector selector = create(1000, registry, docker);
+        Path small = archive("small.tar", 64 * 1024, false);
+        Path large = archive("large.tar", 2 * BUCKET, false);
+
+        assertEquals("registry", selector.push(small, "flow", "app", "1").getEngine());
+        assertEquals("docker", selector.push(small, "flow", "app", "2").getEngine());
+        assertEquals("registry", selector.push(large, "flow", "app", "3").getEngine());
+        assertEquals("docker", selector.push(large, "flow", "app", "4").getEngine());
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("registry", selector.push(small, "flow", "app", "s" + i).getEngine());
+            assertEquals("docker", selector.push(large, "flow", "app", "l" + i).getEngine());
+        }
+
+        TransferEngineSelector.EngineStatistics statistics = selector.getStatistics().get(0);
+        assertEquals("registry", statistics.getName());
+        assertEquals(Arrays.asList(4, 1), statistics.getSamples());
+        assertTrue(statistics.getThroughput().get(0) > selector.getStatistics().get(1).getThroughput().get(0));
+    }
+
+    @Test
+    @DisplayName("每隔若干个任务让测量最旧的引擎重新测一次")
+    void testPeriodicExploration() throws Exception {
+        FakeEngine registry = new FakeEngine("registry", 5, 5);
+        FakeEngine docker = new FakeEngine("docker", 50, 50);
+        TransferEngineSelector selector = create(2, registry, docker);
+        Path small = archive("small.tar", 64 * 1024, false);
+
+        List<String> engines = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            engines.add(selector.push(small, "flow", "app", String.valueOf(i)).getEngine());
+        }
+        assertEquals(Arrays.asList("registry", "docker", "registry", "docker", "registry", "docker"), engines);
+    }
+
+    @Test
+    @DisplayName("跳过不可用和不支持该压缩格式的引擎")
+    void testSkipsUnavailableAndUnsupported() throws Exception {
+        FakeEngine registry = new FakeEngine("registry", 5, 5);
+        FakeEngine docker = new FakeEngine("docker", 5, 5);
+        FakeEngine skopeo = new FakeEngine("skopeo", 5, 5);
+        docker.available = false;
+        skopeo.zstd = false;
+        TransferEngineSelector selector = create(1000, registry, docker, skopeo);
+
+        Path plain = archive("app.tar", 64 * 1024, false);
+        Path zstd = archive("app.tar.zst", 64 * 1024, true);
+        assertEquals(Arrays.asList(registry, skopeo), selector.select(64 * 1024, ArchiveCompression.NONE));
+        assertEquals(Collections.singletonList(registry), selector.select(64 * 1024, ArchiveCompression.ZSTD));
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals("registry", selector.push(zstd, "flow", "app", String.valueOf(i)).getEngine());
+        }
+        selector.push(plain, "flow", "app", "plain");
+        assertEquals(0, docker.pushes);
+        assertEquals(1, docker.checks, "可用性结果应被缓存");
+    }
+
+    @Test
+    @DisplayName("推送失败时改用下一个引擎，失败的引擎重新探测可用性")
+    void testFallbackOnFailure() throws Exception {
+        FakeEngine registry = new FakeEngine("registry", 5, 5);
+        FakeEngine docker = new FakeEngine("docker", 5, 5);
+        registry.failure = new HarborException("connection reset");
+        TransferEngineSelector selector = create(1000, registry, docker);
+        Path small = archive("small.tar", 64 * 1024, false);
+
+        TransferEngineSelector.TransferResult result = selector.push(small, "flow", "app", "1");
+        assertEquals("docker", result.getEngine());
+        assertEquals(2, result.getAttempts());
+        assertEquals("harbor.local/flow/app:1", result.getImage());
+
+        TransferEngineSelector.EngineStatistics failed = selector.getStatistics().get(0);
+        assertEquals(1, failed.getFailed());
+        registry.available = false;
+        assertEquals(Collections.singletonList(docker), selector.select(64 * 1024, ArchiveCompression.NONE));
+        assertEquals(2, registry.checks, "失败后应重新探测可用性");
+
+        docker.failure = new HarborException("daemon gone");
+        HarborException error = assertThrows(HarborException.class,
+                () -> selector.push(small, "flow", "app", "2"));
+        assertTrue(error.getMessage().contains("daemon gone"), error.getMessage());
+    }
+
+    @Test
+    @DisplayName("输入本身有问题时所有引擎都失败，之后正常的任务仍能推送")
+    void testBadInputDoesNotDisableEngines() throws Exception {
+        FakeEngine registry = new FakeEngine("registry", 5, 5);
+        FakeEngine docker = new FakeEngine("docker", 5, 5);
+        TransferEngineSelector selector = create(1000, registry, docker);
+        Path small = archive("small.tar", 64 * 1024, false);
+
+        registry.failure = new HarborException("project not found");
+        docker.failure = new HarborException("project not found");
+        assertThrows(HarborException.class, () -> selector.push(small, "missing", "app", "1"));
+
+        registry.failure = null;
+        docker.failure = null;
+        TransferEngineSelector.TransferResult result = selector.push(small, "flow", "app", "1");
+        assertEquals("harbor.local/flow/app:1", result.getImage());
+        assertEquals(1, result.getAttempts());
+        for (TransferEngineSelector.EngineStatistics statistics : selector.getStatistics()) {
+            assertEquals(Boolean.TRUE, statistics.getAvailable());
+            assertEquals(1, statistics.getFailed());
+        }
+    }
+
+    private TransferEngineSelector create(int explorationInterval, FakeEngine... engines) {
+        HarborProperties properties = new HarborProperties();
+        properties.getEngine().setSizeBuckets(Collections.singletonList(BUCKET));
+        properties.getEngine().setExplorationInterval(explorationInterval);
+        properties.getEngine().setSmoothing(0.5);
+        return new TransferEngineSelector(Arrays.asList(engines), properties);
+    }
+
+    /**
+     * 稀疏文件，zstd为true时写入zstd魔数
+     */
+    private Path archive(String name, long size, boolean zstd) throws Exception {
+        Path file = tempDir.resolve(name);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(size);
+            if (zstd) {
+                raf.write(new byte[]{0x28, (byte) 0xb5, 0x2f, (byte) 0xfd});
+            }
+        }
+        return file;
+    }
+
+    private static class FakeEngine implements ImageTransferEngine {
+        private final String name;
+        private final long smallMillis;
+        private final long largeMillis;
+        private volatile boolean available = true;
+        private volatile boolean zstd = true;
+        private volatile RuntimeException failure;
+        private int checks;
+        private int pushes;
+
+        FakeEngine(String name, long smallMillis, long largeMillis) {
+            this.name = name;
+            this.smallMillis = smallMillis;
+            this.largeMillis = largeMillis;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            checks++;
+            return available;
+        }
+
+        @Override
+        public boolean supports(ArchiveCompression compression) {
+            return zstd || compression != ArchiveCompression.ZSTD;
+        }
+
+        @Override
+        public String push(Path tarFile, String projectName, String imageName, String tag) {
+            pushes++;
+            if (failure != null) {
+                throw failure;
+            }
+            try {
+                Thread.sleep(tarFile.toFile().length() >= BUCKET ? largeMillis : smallMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "harbor.local/" + projectName + "/" + imageName + ":" + tag;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.techzhi.harbor.transfer;
+
+import com.techzhi.harbor.config.HarborProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TransferScheduler测试
+ *
+ * @author techzhi
+ */
+class TransferSchedulerTest {
+
+    private TransferScheduler scheduler;
+
+    @AfterEach
+    void tearDown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("在途字节不超过全局预算，小任务可越过放不下的大任务")
+    void testByteBudget() throws Exception {
+        scheduler = create(5, 100, 60000);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicLong maxInFlight = new AtomicLong();
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        CompletableFuture<?> first = scheduler.submit("a", 60, blocking("big-1", release, order, maxInFlight));
+        CompletableFuture<?> second = scheduler.submit("a", 60, blocking("big-2", release, order, maxInFlight));
+        CompletableFuture<?> small = scheduler.submit("a", 30, blocking("small", release, order, maxInFlight));
+        waitFor(() -> order.size() == 2);
+
+        assertEquals(90, scheduler.getStatistics().getInFlightBytes());
+        assertEquals(1, scheduler.getQueueDepth());
+        assertEquals(new HashSet<>(Arrays.asList("big-1", "small")), new HashSet<>(order));
+
+        release.countDown();
+        CompletableFuture.allOf(first, second, small).get(5, TimeUnit.SECONDS);
+        assertTrue(maxInFlight.get() <= 100, "在途字节超出预算: " + maxInFlight.get());
+        assertEquals(3, scheduler.getStatistics().getCompletedJobs());
+        assertEquals(0, scheduler.getStatistics().getInFlightBytes());
+    }
+
+    @Test
+    @DisplayName("超出预算的单个任务在空闲时单独执行，饥饿后阻止小任务插队")
+    void testOversizedAndStarvingJobs() throws Exception {
+        scheduler = create(5, 100, 50);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        CompletableFuture<?> running = scheduler.submit("a", 80, blocking("running", release, order, null));
+        CompletableFuture<?> huge = scheduler.submit("a", 500, blocking("huge", null, order, null));
+        Thread.sleep(100);
+        CompletableFuture<?> small = scheduler.submit("b", 10, blocking("small", null, order, null));
+        Thread.sleep(50);
+        assertEquals(2, scheduler.getQueueDepth(), "饥饿的大任务应阻止小任务插队");
+        assertTrue(scheduler.getStatistics().getOldestWaitMillis() >= 100);
+
+        release.countDown();
+        CompletableFuture.allOf(running, huge, small).get(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("running", "huge", "small"), new ArrayList<>(order));
+    }
+
+    @Test
+    @DisplayName("高优先级先执行，同一优先级内按项目轮转")
+    void testPriorityAndProjectFairness() throws Exception {
+        scheduler = create(1, Long.MAX_VALUE, 60000);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        futures.add(scheduler.submit("x", 1, blocking("blocker", release, order, null)));
+        for (int i = 1; i <= 3; i++) {
+            futures.add(scheduler.submit("a", 1, blocking("a" + i, null, order, null)));
+        }
+        for (int i = 1; i <= 2; i++) {
+            futures.add(scheduler.submit("b", 1, blocking("b" + i, null, order, null)));
+        }
+        futures.add(scheduler.submit("c", 1, TransferScheduler.Priority.LOW, blocking("low", null, order, null)));
+        futures.add(scheduler.submit("c", 1, TransferScheduler.Priority.HIGH, blocking("high", null, order, null)));
+        assertEquals(7, scheduler.getQueueDepth());
+        assertEquals(3, scheduler.getQueueDepth("a"));
+
+        release.countDown();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("blocker", "high", "a1", "b1", "a2", "b2", "a3", "low"), new ArrayList<>(order));
+        assertTrue(scheduler.getStatistics().getMaxWaitMillis() >= 0);
+    }
+
+    @Test
+    @DisplayName("任务异常传递给调用方且释放预算")
+    void testFailureReleasesBudget() throws Exception {
+        scheduler = create(1, 100, 60000);
+        CompletableFuture<String> failed = scheduler.submit("a", 100, () -> {
+            throw new IllegalStateException("boom");
+        });
+        CompletableFuture<String> next = scheduler.submit("a", 100, () -> "ok");
+
+        assertEquals("ok", next.get(5, TimeUnit.SECONDS));
+        assertTrue(failed.isCompletedExceptionally());
+        assertEquals(1, scheduler.getStatistics().getFailedJobs());
+    }
+
+    private static TransferScheduler create(int maxJobs, long maxBytes, long starvationTimeout) {
+        HarborProperties properties = new HarborProperties();
+        properties.getTransfer().setMaxConcurrentJobs(maxJobs);
+        properties.getTransfer().setMaxInFlightBytes(maxBytes);
+        properties.getTransfer().setStarvationTimeout(starvationTimeout);
+        return new TransferScheduler(properties);
+    }
+
+    private Callable<String> blocking(String name, CountDownLatch release, List<String> order,
+                                      AtomicLong maxInFlight) {
+        return () -> {
+            order.add(name);
+            if (maxInFlight != null) {
+                maxInFlight.accumulateAndGet(scheduler.getStatistics().getInFlightBytes(), Math::max);
+            }
+            if (release != null) {
+                release.await(5, TimeUnit.SECONDS);
+            }
+            return name;
+        };
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
@@ -0,0 +1,134 @@
+package com.techzhi.harbor.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SkopeoExecutor测试：用脚本模拟skopeo，验证进程数上限、进度解析、超时结束进程树和结构化结果
+ *
+ * @author techzhi
+ */
+@DisabledOnOs(OS.WINDOWS)
+class SkopeoExecutorTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("并行复制不超过进程数上限，进度行汇总为层计数")
+    void testConcurrencyCapAndProgress() throws Exception {
+        Path skopeo = script("touch \"$DIR/running.$$\"\n"
+                + "ls \"$DIR\" | grep -c '^running\\.' >> \"$DIR/counts\"\n"
+                + "echo 'Getting image source signatures'\n"
+                + "echo 'Copying blob sha256:aaaa'\n"
+                + "echo 'Copying blob bbbb skipped: already exists'\n"
+                + "echo 'Copying config sha256:cccc'\n"
+                + "echo 'Writing manifest to image destination'\n"
+                + "sleep 0.3\n"
+                + "rm \"$DIR/running.$$\"\n");
+        SkopeoExecutor executor = new SkopeoExecutor(skopeo.toString(), 2, 10000, 10000, null);
+        List<CompletableFuture<SkopeoExecutor.SkopeoResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            futures.add(executor.copyAsync("docker-archive:/data/app_" + i + ".tar",
+                    "docker://harbor.local/flow/app:" + i, "admin:secret"));
+        }
+        for (CompletableFuture<SkopeoExecutor.SkopeoResult> future : futures) {
+            SkopeoExecutor.SkopeoResult result = future.get(30, TimeUnit.SECONDS);
+            assertTrue(result.isSuccess(), result.toString());
+            assertEquals(1, result.getProgress().getBlobsCopied());
+            assertEquals(1, result.getProgress().getBlobsSkipped());
+            assertTrue(result.getProgress().isManifestWritten());
+            assertFalse(result.getCommand().contains("secret"), result.getCommand());
+        }
+        executor.destroy();
+
+        for (String count : Files.readAllLines(tempDir.resolve("work/counts"))) {
+            assertTrue(Integer.parseInt(count.trim()) <= 2, "同时运行的进程数超过上限: " + count);
+        }
+        SkopeoExecutor.ExecutorStatistics statistics = executor.getStatistics();
+        assertEquals(6, statistics.getCompleted());
+        assertEquals(6, statistics.getBlobsCopied());
+        assertEquals(6, statistics.getBlobsSkipped());
+        assertEquals(0, statistics.getRunning());
+    }
+
+    @Test
+    @DisplayName("超时后结束skopeo及其子进程")
+    void testTimeoutKillsProcessTree() throws Exception {
+        Path skopeo = script("sleep 30 &\n"
+                + "echo $! > \"$DIR/child.pid\"\n"
+                + "wait\n");
+        SkopeoExecutor executor = new SkopeoExecutor(skopeo.toString(), 1, 500, 500, null);
+        long startTime = System.currentTimeMillis();
+        SkopeoExecutor.SkopeoResult result = executor.inspect("docker://harbor.local/flow/app:1", null);
+        assertTrue(result.isTimedOut());
+        assertFalse(result.isSuccess());
+        assertTrue(System.currentTimeMillis() - startTime < 15000);
+
+        String childPid = new String(Files.readAllBytes(tempDir.resolve("work/child.pid")),
+                StandardCharsets.UTF_8).trim();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (isAlive(childPid) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertFalse(isAlive(childPid), "子进程应被结束");
+        assertEquals(1, executor.getStatistics().getTimedOut());
+        executor.destroy();
+    }
+
+    @Test
+    @DisplayName("失败时返回退出码和标准错误，标准输出完整保留")
+    void testStructuredFailure() throws Exception {
+        Path skopeo = script("echo '{\"Name\": \"harbor.local/flow/app\"}'\n"
+                + "echo 'manifest unknown' >&2\n"
+                + "exit 3\n");
+        SkopeoExecutor executor = new SkopeoExecutor(skopeo.toString(), 1, 5000, 5000, null);
+        SkopeoExecutor.SkopeoResult result = executor.execute(Arrays.asList("inspect", "docker://x/y/z:1"), 5000);
+        assertEquals(3, result.getExitCode());
+        assertFalse(result.isTimedOut());
+        assertEquals("manifest unknown", result.getError());
+        assertTrue(result.getOutput().contains("\"Name\""));
+        assertEquals(1, executor.getStatistics().getFailed());
+        executor.destroy();
+    }
+
+    /**
+     * 被结束但尚未回收的进程（僵尸）视为已结束
+     */
+    private static boolean isAlive(String pid) throws Exception {
+        Path stat = Paths.get("/proc", pid, "stat");
+        if (Files.isDirectory(Paths.get("/proc", "self"))) {
+            if (!Files.exists(stat)) {
+                return false;
+            }
+            String content = new String(Files.readAllBytes(stat), StandardCharsets.UTF_8);
+            return content.charAt(content.lastIndexOf(')') + 2) != 'Z';
+        }
+        Process check = new ProcessBuilder("kill", "-0", pid).start();
+        check.waitFor(5, TimeUnit.SECONDS);
+        return check.exitValue() == 0;
+    }
+
+    private Path script(String body) throws Exception {
+        Path work = Files.createDirectories(tempDir.resolve("work"));
+        Path script = tempDir.resolve("skopeo");
+        Files.write(script, ("#!/bin/sh\nDIR='" + work + "'\n" + body).getBytes(StandardCharsets.UTF_8));
+        assertTrue(script.toFile().setExecutable(true));
+        return script;
+    }
+}
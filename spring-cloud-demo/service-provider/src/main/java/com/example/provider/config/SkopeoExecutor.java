@@ -0,0 +1,268 @@
+package com.example.provider.config;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * skopeo进程执行器
+ * 同时运行的进程数受信号量限制，每次调用有超时，超时后连同子进程一起强制结束；
+ * 标准输出和标准错误分开读取，copy的进度行解析为层和配置的复制计数
+ */
+@Slf4j
+public class SkopeoExecutor {
+
+    private static final int MAX_OUTPUT_CHARS = 4 * 1024 * 1024;
+    private static final int MAX_ERROR_LINES = 200;
+
+    private final int maxConcurrency;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong blobsCopied = new AtomicLong();
+    private final AtomicLong blobsSkipped = new AtomicLong();
+
+    public SkopeoExecutor(int maxConcurrency) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.permits = new Semaphore(this.maxConcurrency, true);
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "skopeo-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 异步执行，实际并发受进程数上限约束
+     */
+    public CompletableFuture<SkopeoResult> executeAsync(List<String> command, Duration timeout) {
+        return CompletableFuture.supplyAsync(() -> execute(command, timeout), executor);
+    }
+
+    /**
+     * 执行skopeo命令，等待进程名额和进程运行的总时间不超过timeout
+     */
+    public SkopeoResult execute(List<String> command, Duration timeout) {
+        String display = mask(command);
+        long startTime = System.currentTimeMillis();
+        long deadline = startTime + timeout.toMillis();
+        try {
+            if (!permits.tryAcquire(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                return record(new SkopeoResult(display, -1, true, System.currentTimeMillis() - startTime,
+                        "", "等待skopeo进程名额超时", new SkopeoProgress()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待skopeo进程名额时被中断：" + display, e);
+        }
+
+        running.incrementAndGet();
+        Process process = null;
+        try {
+            log.debug("执行命令：{}", display);
+            process = new ProcessBuilder(command).start();
+            process.getOutputStream().close();
+            SkopeoProgress progress = new SkopeoProgress();
+            StringBuilder output = new StringBuilder();
+            Deque<String> errors = new ArrayDeque<>();
+            Future<?> stdout = executor.submit(drain(process.getInputStream(), line -> {
+                progress.accept(line);
+                if (output.length() < MAX_OUTPUT_CHARS) {
+                    output.append(line).append('\n');
+                }
+            }));
+            Future<?> stderr = executor.submit(drain(process.getErrorStream(), line -> {
+                if (errors.size() >= MAX_ERROR_LINES) {
+                    errors.removeFirst();
+                }
+                errors.addLast(line);
+            }));
+
+            boolean exited = process.waitFor(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            if (!exited) {
+                log.warn("skopeo执行超过{}ms，结束进程树：{}", timeout.toMillis(), display);
+                destroyTree(process);
+                process.waitFor(10, TimeUnit.SECONDS);
+            }
+            awaitQuietly(stdout);
+            awaitQuietly(stderr);
+            return record(new SkopeoResult(display, exited ? process.exitValue() : -1, !exited,
+                    System.currentTimeMillis() - startTime, output.toString(), String.join("\n", errors), progress));
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            throw new IllegalStateException("启动skopeo进程失败：" + display, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            destroyTree(process);
+            throw new IllegalStateException("skopeo进程被中断：" + display, e);
+        } finally {
+            running.decrementAndGet();
+            permits.release();
+        }
+    }
+
+    private SkopeoResult record(SkopeoResult result) {
+        blobsCopied.addAndGet(result.progress().getBlobsCopied());
+        blobsSkipped.addAndGet(result.progress().getBlobsSkipped());
+        if (result.timedOut()) {
+            timedOut.incrementAndGet();
+        } else if (result.isSuccess()) {
+            completed.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+        }
+        log.info("skopeo执行结束：{}", result);
+        return result;
+    }
+
+    public ExecutorStatistics getStatistics() {
+        return new ExecutorStatistics(maxConcurrency, running.get(), completed.get(), failed.get(), timedOut.get(),
+                blobsCopied.get(), blobsSkipped.get());
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static Runnable drain(InputStream in, Consumer<String> consumer) {
+        return () -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    consumer.accept(line);
+                }
+            } catch (IOException e) {
+                log.debug("skopeo输出流已关闭：{}", e.getMessage());
+            }
+        };
+    }
+
+    private static void awaitQuietly(Future<?> future) throws InterruptedException {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * 先收集子进程再结束父进程，父进程结束后子进程会被init收养而无法再找到
+     */
+    private static void destroyTree(Process process) {
+        if (process == null) {
+            return;
+        }
+        List<ProcessHandle> descendants = process.descendants().toList();
+        process.destroyForcibly();
+        descendants.forEach(ProcessHandle::destroyForcibly);
+    }
+
+    /**
+     * 日志和结果中隐藏凭据
+     */
+    private static String mask(List<String> command) {
+        List<String> display = new ArrayList<>();
+        for (String arg : command) {
+            int colon = arg.indexOf(':');
+            display.add(arg.startsWith("--") && arg.contains("creds=") && colon > 0
+                    ? arg.substring(0, colon + 1) + "******" : arg);
+        }
+        return String.join(" ", display);
+    }
+
+    /**
+     * skopeo copy 的进度
+     */
+    public static class SkopeoProgress {
+        private volatile int blobsCopied;
+        private volatile int blobsSkipped;
+        private volatile int configsCopied;
+        private volatile boolean manifestWritten;
+
+        void accept(String line) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("Copying blob")) {
+                if (trimmed.contains("skipped") || trimmed.contains("already exists")) {
+                    blobsSkipped++;
+                } else {
+                    blobsCopied++;
+                }
+            } else if (trimmed.startsWith("Copying config")) {
+                configsCopied++;
+            } else if (trimmed.startsWith("Writing manifest")) {
+                manifestWritten = true;
+            }
+        }
+
+        public int getBlobsCopied() {
+            return blobsCopied;
+        }
+
+        public int getBlobsSkipped() {
+            return blobsSkipped;
+        }
+
+        public int getConfigsCopied() {
+            return configsCopied;
+        }
+
+        public boolean isManifestWritten() {
+            return manifestWritten;
+        }
+
+        @Override
+        public String toString() {
+            return "SkopeoProgress{blobsCopied=" + blobsCopied + ", blobsSkipped=" + blobsSkipped
+                    + ", configsCopied=" + configsCopied + ", manifestWritten=" + manifestWritten + "}";
+        }
+    }
+
+    /**
+     * 一次skopeo调用的结果，command中的凭据已隐藏，exitCode在超时时为-1，error为标准错误的末尾部分
+     */
+    public record SkopeoResult(String command, int exitCode, boolean timedOut, long durationMillis,
+                               String output, String error, SkopeoProgress progress) {
+
+        public boolean isSuccess() {
+            return !timedOut && exitCode == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "SkopeoResult{command='" + command + "', exitCode=" + exitCode + ", timedOut=" + timedOut
+                    + ", durationMillis=" + durationMillis + ", progress=" + progress + "}";
+        }
+    }
+
+    /**
+     * 执行器统计
+     */
+    public record ExecutorStatistics(int maxConcurrency, int running, long completed, long failed, long timedOut,
+                                     long blobsCopied, long blobsSkipped) {
+    }
+}
@@ -2,9 +2,8 @@ package com.example.provider.config;
 
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.regex.Pattern;
 
 
@@ -35,6 +34,15 @@ public class SkopeoUtil {
 
     private static final Pattern DOCKER_REGISTRY_REGEX = Pattern.compile(DOCKER_REGISTRY_PATTERN);
 
+    /**
+     * 全部skopeo调用共用的执行器，同时运行的进程数可通过 -Dskopeo.max-concurrency 调整
+     */
+    private static final SkopeoExecutor EXECUTOR = new SkopeoExecutor(Integer.getInteger("skopeo.max-concurrency", 4));
+
+    private static final Duration COPY_TIMEOUT = Duration.ofMinutes(30);
+
+    private static final Duration INSPECT_TIMEOUT = Duration.ofSeconds(60);
+
     /**
      * 校验Docker仓库地址格式是否标准
      * 仅支持私有仓库和IP地址仓库格式：
@@ -102,36 +110,44 @@ public class SkopeoUtil {
        /**
      * 通用的skopeo命令执行方法
      * @param skopeoCommand skopeo命令数组
+     * @param timeout 超时时间，超时后连同子进程一起结束
      * @return 返回命令的执行结果
      */
-    private static String executeSkopeoCommand(String[] skopeoCommand) {
-      ProcessBuilder processBuilder = new ProcessBuilder(skopeoCommand);
-      processBuilder.redirectErrorStream(true); // 将错误输出流重定向到标准输出流
-
-      StringBuilder output = new StringBuilder();
-      try {
-          Process process = processBuilder.start(); // 启动进程
-          BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream())); // 获取输出流
-          String line;
-          while ((line = reader.readLine()) != null) { // 读取输出
-              output.append(line).append("\n");
-          }
-          int exitCode = process.waitFor(); // 等待进程结束
-          if (exitCode == 0) {
-              System.out.println("命令执行成功 exitCode = " + exitCode);
-          } else {
-              output.append("镜像操作失败，退出码：").append(exitCode).append("\n");
-          }
-      } catch (IOException e) {
-          output.append("启动skopeo进程失败！\n");
-          e.printStackTrace();
-      } catch (InterruptedException e) {
-          output.append("skopeo进程被中断！\n");
-          e.printStackTrace();
+    private static String executeSkopeoCommand(String[] skopeoCommand, Duration timeout) {
+      SkopeoExecutor.SkopeoResult result = EXECUTOR.execute(Arrays.asList(skopeoCommand), timeout);
+      StringBuilder output = new StringBuilder(result.output());
+      if (!result.error().isEmpty()) {
+          output.append(result.error()).append("\n");
+      }
+      if (result.isSuccess()) {
+          log.info("命令执行成功，耗时{}ms，{}", result.durationMillis(), result.progress());
+      } else if (result.timedOut()) {
+          output.append("skopeo执行超时，已结束进程！\n");
+      } else {
+          output.append("镜像操作失败，退出码：").append(result.exitCode()).append("\n");
       }
       return output.toString();
   }
 
+  /**
+   * 推送镜像并返回结构化结果
+   * @return 退出码、耗时、标准输出/错误和复制进度
+   */
+  public static SkopeoExecutor.SkopeoResult copyTarToHarbor(String harborUrl, String harborUsername,
+                                                            String harborPassword, String tarFilePath,
+                                                            String harborProject, String imageName,
+                                                            String imageTag) {
+      return EXECUTOR.execute(Arrays.asList(copyCommand(harborUrl, harborUsername, harborPassword, tarFilePath,
+              harborProject, imageName, imageTag)), COPY_TIMEOUT);
+  }
+
+  /**
+   * 执行器统计
+   */
+  public static SkopeoExecutor.ExecutorStatistics getStatistics() {
+      return EXECUTOR.getStatistics();
+  }
+
 
     /**
      * 判断镜像是否存在
@@ -155,7 +171,7 @@ public class SkopeoUtil {
               "docker://" + harborUrl
       };
 
-      String rst = executeSkopeoCommand(command);
+      String rst = executeSkopeoCommand(command, INSPECT_TIMEOUT);
 
       log.info("命令执行判断镜像是否存在结果：" + rst);
 
@@ -165,6 +181,19 @@ public class SkopeoUtil {
 
 
 
+  private static String[] copyCommand(String harborUrl, String harborUsername, String harborPassword,
+                                      String tarFilePath, String harborProject,
+                                      String imageName, String imageTag) {
+      String harborImage = harborUrl + "/" + harborProject + "/" + imageName + ":" + imageTag;
+      return new String[] {
+          "skopeo", "copy", "--policy", "/home/app/skopeo/default-policy.json",
+          "--src-tls-verify=false", "--dest-tls-verify=false",
+          "--dest-creds=" + harborUsername + ":" + harborPassword,
+          "docker-archive:" + tarFilePath,
+          "docker://" + harborImage
+      };
+  }
+
   /**
    * 将本地tar包中的镜像推送到Harbor仓库
    * @param harborUrl Harbor仓库地址
@@ -179,18 +208,10 @@ public class SkopeoUtil {
   public static String pushTarToHarbor(String harborUrl, String harborUsername, String harborPassword,
                                        String tarFilePath, String harborProject,
                                        String imageName, String imageTag) {
-      String harborImage = harborUrl + "/" + harborProject + "/" + imageName + ":" + imageTag;
-      log.info("正在将镜像推送到Harbor仓库：" + harborImage);
-      String[] command = {
-          "skopeo", "copy", "--policy", "/home/app/skopeo/default-policy.json",
-          "--src-tls-verify=false", "--dest-tls-verify=false",
-          "--dest-creds=" + harborUsername + ":" + harborPassword,
-          "docker-archive:" + tarFilePath,
-          "docker://" + harborImage
-      };
-
-      log.info("执行命令：" + String.join(" ", command));
-      String result = executeSkopeoCommand(command);
+      log.info("正在将镜像推送到Harbor仓库：" + harborUrl + "/" + harborProject + "/" + imageName + ":" + imageTag);
+      String[] command = copyCommand(harborUrl, harborUsername, harborPassword, tarFilePath,
+              harborProject, imageName, imageTag);
+      String result = executeSkopeoCommand(command, COPY_TIMEOUT);
       log.info("命令执行结果：" + result);
       return result;
   }